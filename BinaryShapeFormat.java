@@ -0,0 +1,798 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Reads and writes drawings in the binary file format.
+ *
+ * A file starts with a 12-byte header: the magic number "SHPD", the format version as a short,
+ * a flags short and the number of top-level shapes as an int. The shapes follow one record each,
+ * in drawing order, little-endian throughout.
+ *
+ * Every record starts with a type tag and a flags byte, followed by the two end points as doubles
+ * and the color as four floats (red, green, blue, opacity), which is exactly how Color holds it.
+ * Lines, rectangles and ovals are 50 bytes. A group record then adds its center and the area
+ * it covers, the number of members and the length in bytes of the member records that follow it,
+ * so that a reader can learn where a group is and skip it without decoding its members.
+ *
+ * If the CHUNK_INDEX flag is set, the records are followed by an index of the chunks of
+ * ParallelChunks.CHUNK_SHAPES top-level shapes they were written in, one entry each with its
+ * file offset as a long and its number of shapes as an int, and a 16-byte footer: the offset of
+ * the index as a long, the number of chunks as an int and the magic number "SHPI". The chunks are
+ * written and read at the same time on several cores; readers that do not know the flag stop
+ * after the last record and never see the index.
+ *
+ * Files written with Java serialization by earlier versions are recognised by isSerialized
+ * and must be read with an ObjectInputStream instead.
+ */
+public class BinaryShapeFormat {
+
+	public static final int MAGIC = 0x44504853; // "SHPD" read as a little-endian int
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 12;
+
+	public static final int CHUNK_INDEX = 1;
+	public static final int INDEX_MAGIC = 0x49504853; // "SHPI" read as a little-endian int
+	public static final int INDEX_ENTRY_SIZE = 12;
+	public static final int FOOTER_SIZE = 16;
+
+	public static final byte LINE = 1;
+	public static final byte RECT = 2;
+	public static final byte OVAL = 3;
+	public static final byte GROUP = 4;
+
+	public static final int FILLED = 1;
+	public static final int HAS_COLOR = 2;
+
+	public static final int SHAPE_SIZE = 50;
+	public static final int GROUP_SIZE = SHAPE_SIZE + 48 + 12;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// the first two bytes of every ObjectOutputStream
+	private static final int SERIALIZATION_MAGIC = 0xaced;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+
+	// file offset of the first byte in the buffer
+	private long bufferStart;
+
+	// the header flags of the file being read
+	private int flags;
+
+	private BinaryShapeFormat(FileChannel channel, ByteBuffer buffer) {
+		this.channel = channel;
+		this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes shapes to a file, replacing its contents.
+	 *
+	 * @param file The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static void write(File file, int count, Iterable<MyShape> shapes) throws IOException {
+		write(file, count, shapes, FileProgress.NONE);
+	}
+
+	/**
+	 * Writes shapes to a file, replacing its contents, and reports the number of shapes written.
+	 *
+	 * @param file The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param progress Receives the progress and can cancel the write.
+	 * @throws IOException If the file cannot be written or the write is cancelled.
+	 */
+	public static void write(File file, int count, Iterable<MyShape> shapes, FileProgress progress) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			if(shapes instanceof List && shapes instanceof RandomAccess) {
+				writeChunks(channel, count, (List<MyShape>) shapes, progress);
+				return;
+			}
+
+			// shapes that can only be iterated are written in order, but still with an index for the reader
+			BinaryShapeFormat out = new BinaryShapeFormat(channel, ByteBuffer.allocate(BUFFER_SIZE));
+			out.putHeader(count);
+
+			int chunks = (count + ParallelChunks.CHUNK_SHAPES - 1) / ParallelChunks.CHUNK_SHAPES;
+			long[] offsets = new long[chunks + 1];
+			int[] counts = new int[chunks];
+			int written = 0;
+
+			for(MyShape s : shapes) {
+
+				if(written >= count) {
+					throw new IllegalArgumentException("expected " + count + " shapes but got more");
+				}
+				if(written % ParallelChunks.CHUNK_SHAPES == 0) {
+					offsets[written / ParallelChunks.CHUNK_SHAPES] = out.position();
+				}
+
+				out.writeShape(s);
+				counts[written / ParallelChunks.CHUNK_SHAPES]++;
+				written++;
+
+				if(written % FileProgress.STEP == 0) {
+					progress.checkpoint(written, count);
+				}
+			}
+
+			if(written != count) {
+				throw new IllegalArgumentException("expected " + count + " shapes but got " + written);
+			}
+
+			offsets[chunks] = out.position();
+			out.putIndex(offsets, counts);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Writes the shapes of a list a chunk at a time on several cores. Each chunk is measured first,
+	 * so that every task knows where its records start and they can all write at the same time.
+	 */
+	private static void writeChunks(FileChannel channel, int count, List<MyShape> shapes, FileProgress progress) throws IOException {
+
+		if(shapes.size() != count) {
+			throw new IllegalArgumentException("expected " + count + " shapes but got " + shapes.size());
+		}
+
+		int chunks = (count + ParallelChunks.CHUNK_SHAPES - 1) / ParallelChunks.CHUNK_SHAPES;
+		int[] counts = new int[chunks];
+
+		ArrayList<Callable<Long>> measure = new ArrayList<>(chunks);
+
+		for(int c = 0; c < chunks; c++) {
+
+			int from = c * ParallelChunks.CHUNK_SHAPES;
+			int to = Math.min(count, from + ParallelChunks.CHUNK_SHAPES);
+			counts[c] = to - from;
+
+			measure.add(() -> {
+				long length = 0;
+
+				for(int i = from; i < to; i++) {
+					length += recordSize(shapes.get(i));
+				}
+				return length;
+			});
+		}
+
+		ArrayList<Long> lengths = ParallelChunks.run(measure);
+		long[] offsets = new long[chunks + 1];
+		offsets[0] = HEADER_SIZE;
+
+		for(int c = 0; c < chunks; c++) {
+			offsets[c + 1] = offsets[c] + lengths.get(c);
+		}
+
+		AtomicLong written = new AtomicLong();
+		ArrayList<Callable<Void>> tasks = new ArrayList<>(chunks);
+
+		for(int c = 0; c < chunks; c++) {
+
+			int chunk = c;
+
+			tasks.add(() -> {
+				BinaryShapeFormat out = new BinaryShapeFormat(channel, ByteBuffer.allocate(BUFFER_SIZE));
+				out.bufferStart = offsets[chunk];
+
+				int from = chunk * ParallelChunks.CHUNK_SHAPES;
+
+				for(int i = from; i < from + counts[chunk]; i++) {
+					out.writeShape(shapes.get(i));
+				}
+				out.flush();
+
+				if(out.position() != offsets[chunk + 1]) {
+					throw new ConcurrentModificationException("the shapes changed while they were written");
+				}
+
+				progress.checkpoint(written.addAndGet(counts[chunk]), count);
+				return null;
+			});
+		}
+
+		ParallelChunks.run(tasks);
+
+		BinaryShapeFormat out = new BinaryShapeFormat(channel, ByteBuffer.allocate(BUFFER_SIZE));
+		out.putHeader(count);
+		out.flush();
+
+		out.bufferStart = offsets[chunks];
+		out.putIndex(offsets, counts);
+		out.flush();
+	}
+
+	/**
+	 * Reads all the shapes in a file.
+	 *
+	 * @param file The file to read.
+	 * @return The top-level shapes, in drawing order.
+	 * @throws IOException If the file cannot be read or is not in this format.
+	 */
+	public static ArrayList<MyShape> read(File file) throws IOException {
+		return read(file, FileProgress.NONE);
+	}
+
+	/**
+	 * Reads all the shapes in a file and reports the number of bytes read.
+	 *
+	 * @param file The file to read.
+	 * @param progress Receives the progress and can cancel the read.
+	 * @return The top-level shapes, in drawing order.
+	 * @throws IOException If the file cannot be read, is not in this format or the read is cancelled.
+	 */
+	public static ArrayList<MyShape> read(File file, FileProgress progress) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.flip();
+
+			BinaryShapeFormat in = new BinaryShapeFormat(channel, buffer);
+			int count = in.readHeader();
+
+			if((in.flags & CHUNK_INDEX) != 0) {
+
+				ChunkIndex index = readIndex(channel, count);
+
+				if(index != null) {
+					return readChunks(channel, count, index, progress);
+				}
+			}
+
+			ArrayList<MyShape> shapes = new ArrayList<>(Math.min(count, BUFFER_SIZE));
+
+			for(int i = 0; i < count; i++) {
+				shapes.add(in.readShape());
+
+				if((i + 1) % FileProgress.STEP == 0) {
+					progress.checkpoint(in.position(), channel.size());
+				}
+			}
+			return shapes;
+		}
+	}
+
+	/**
+	 * Reads the shapes a chunk at a time on several cores and puts the chunks together in order.
+	 */
+	private static ArrayList<MyShape> readChunks(FileChannel channel, int count, ChunkIndex index, FileProgress progress) throws IOException {
+
+		long size = channel.size();
+		AtomicLong read = new AtomicLong();
+
+		ArrayList<Callable<ArrayList<MyShape>>> tasks = new ArrayList<>(index.counts.length);
+
+		for(int c = 0; c < index.counts.length; c++) {
+
+			int chunk = c;
+
+			tasks.add(() -> {
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				buffer.flip();
+
+				BinaryShapeFormat in = new BinaryShapeFormat(channel, buffer);
+				in.bufferStart = index.offsets[chunk];
+
+				ArrayList<MyShape> shapes = new ArrayList<>(index.counts[chunk]);
+
+				for(int i = 0; i < index.counts[chunk]; i++) {
+					shapes.add(in.readShape());
+				}
+
+				if(in.position() != index.offsets[chunk + 1]) {
+					throw new DrawingFormatException("the records at offset " + index.offsets[chunk] + " do not match the chunk index");
+				}
+
+				progress.checkpoint(read.addAndGet(index.offsets[chunk + 1] - index.offsets[chunk]), size);
+				return shapes;
+			});
+		}
+
+		ArrayList<MyShape> shapes = new ArrayList<>(count);
+
+		for(ArrayList<MyShape> chunk : ParallelChunks.run(tasks)) {
+			shapes.addAll(chunk);
+		}
+		return shapes;
+	}
+
+	/**
+	 * Reads the chunk index at the end of a file.
+	 *
+	 * @return The index, or null if the file was cut short or the index does not fit the records,
+	 *         in which case they are read in order instead.
+	 */
+	private static ChunkIndex readIndex(FileChannel channel, int count) throws IOException {
+
+		long size = channel.size();
+
+		if(size < HEADER_SIZE + FOOTER_SIZE) {
+			return null;
+		}
+
+		ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, footer, size - FOOTER_SIZE);
+
+		long indexOffset = footer.getLong(0);
+		int chunks = footer.getInt(8);
+
+		if(footer.getInt(12) != INDEX_MAGIC || chunks < 0 || indexOffset < HEADER_SIZE
+				|| indexOffset + (long) chunks * INDEX_ENTRY_SIZE != size - FOOTER_SIZE) {
+			return null;
+		}
+
+		ByteBuffer entries = ByteBuffer.allocate(chunks * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, entries, indexOffset);
+
+		ChunkIndex index = new ChunkIndex();
+		index.offsets = new long[chunks + 1];
+		index.counts = new int[chunks];
+		index.offsets[chunks] = indexOffset;
+
+		long total = 0;
+
+		for(int c = 0; c < chunks; c++) {
+
+			index.offsets[c] = entries.getLong();
+			index.counts[c] = entries.getInt();
+			total += index.counts[c];
+
+			// every record takes at least SHAPE_SIZE bytes, so a chunk cannot claim more shapes than fit before the next one
+			long previous = c == 0 ? HEADER_SIZE : index.offsets[c - 1] + (long) index.counts[c - 1] * SHAPE_SIZE;
+
+			if(index.counts[c] < 0 || index.offsets[c] < previous || (c == 0 && index.offsets[c] != HEADER_SIZE)) {
+				return null;
+			}
+		}
+
+		if(total != count || chunks > 0 && index.offsets[chunks - 1] + (long) index.counts[chunks - 1] * SHAPE_SIZE > indexOffset) {
+			return null;
+		}
+		return index;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer target, long offset) throws IOException {
+
+		while(target.hasRemaining()) {
+
+			if(channel.read(target, offset + target.position()) < 0) {
+				throw new DrawingFormatException("the file ended in the middle of the chunk index");
+			}
+		}
+		target.flip();
+	}
+
+	/**
+	 * Where the chunks of a file start and how many top-level shapes each holds.
+	 * offsets has one more element than counts: the offset of the index, where the last chunk ends.
+	 */
+	private static class ChunkIndex {
+
+		private long[] offsets;
+		private int[] counts;
+	}
+
+	/**
+	 * Checks the header at the start of a buffer holding the beginning of a file.
+	 *
+	 * @param source The buffer, positioned at the start of the file. Its position is not changed.
+	 * @return The number of top-level shapes.
+	 * @throws IOException If the header is not that of this format.
+	 */
+	public static int readHeader(ByteBuffer source) throws IOException {
+		return new BinaryShapeFormat(null, source.duplicate()).readHeader();
+	}
+
+	/**
+	 * Decodes one record, and the records of its members if it is a group, from a buffer.
+	 *
+	 * @param source The buffer, positioned at the start of the record. Its position is not changed.
+	 * @param offset The file offset of the record, for error messages.
+	 * @return The shape.
+	 * @throws IOException If the record is malformed or does not fit in the buffer.
+	 */
+	public static MyShape readShape(ByteBuffer source, long offset) throws IOException {
+
+		BinaryShapeFormat in = new BinaryShapeFormat(null, source.slice());
+		in.bufferStart = offset;
+		return in.readShape();
+	}
+
+	/**
+	 * Decodes one record, and the records of its members if it is a group, from a file.
+	 *
+	 * @param channel The file. Its position is not changed.
+	 * @param offset The file offset of the record.
+	 * @return The shape.
+	 * @throws IOException If the file cannot be read or the record is malformed.
+	 */
+	public static MyShape readShape(FileChannel channel, long offset) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.flip();
+
+		BinaryShapeFormat in = new BinaryShapeFormat(channel, buffer);
+		in.bufferStart = offset;
+		return in.readShape();
+	}
+
+	/**
+	 * Returns the number of bytes writeShape uses for a shape.
+	 *
+	 * @param s The shape.
+	 * @return The length of its record, including those of its members if it is a group.
+	 */
+	public static int recordSize(MyShape s) {
+
+		if(!(s instanceof ShapeGroup)) {
+			return SHAPE_SIZE;
+		}
+
+		int size = GROUP_SIZE;
+
+		for(MyShape member : ((ShapeGroup) s).getMembers()) {
+			size += recordSize(member);
+		}
+		return size;
+	}
+
+	/**
+	 * Encodes the record of a shape, and those of its members if it is a group, into a buffer.
+	 *
+	 * @param target The buffer, with at least recordSize(s) bytes remaining. It is switched to little-endian order.
+	 * @param s The shape.
+	 * @throws IOException If the shape cannot be written in this format.
+	 */
+	public static void writeShape(ByteBuffer target, MyShape s) throws IOException {
+
+		if(target.remaining() < recordSize(s)) {
+			throw new IllegalArgumentException("the buffer is too small for the record");
+		}
+		new BinaryShapeFormat(null, target).writeShape(s);
+	}
+
+	/**
+	 * Checks whether a file was written with Java serialization by an earlier version.
+	 *
+	 * @param file The file to check.
+	 * @return true if the file starts like an ObjectOutputStream.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static boolean isSerialized(File file) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			ByteBuffer start = ByteBuffer.allocate(2);
+			int n = 0;
+
+			while(start.hasRemaining() && n >= 0) {
+				n = channel.read(start);
+			}
+			return start.position() == 2 && (start.getShort(0) & 0xffff) == SERIALIZATION_MAGIC;
+		}
+	}
+
+	/**
+	 * Checks whether a file is in this format.
+	 *
+	 * @param file The file to check.
+	 * @return true if the file starts with the magic number of this format.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static boolean isBinary(File file) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			ByteBuffer start = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			int n = 0;
+
+			while(start.hasRemaining() && n >= 0) {
+				n = channel.read(start);
+			}
+			return start.position() == 4 && start.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Checks the header and returns the number of top-level shapes.
+	 */
+	private int readHeader() throws IOException {
+
+		try {
+			need(HEADER_SIZE);
+		}
+		catch(DrawingFormatException e) {
+			throw new DrawingFormatException("not a drawing file");
+		}
+
+		if(buffer.getInt() != MAGIC) {
+			throw new DrawingFormatException("not a drawing file");
+		}
+
+		short version = buffer.getShort();
+		flags = buffer.getShort();
+
+		if(version > VERSION) {
+			throw new DrawingFormatException("the file is version " + version + " but only versions up to " + VERSION + " can be read");
+		}
+
+		int count = buffer.getInt();
+
+		if(count < 0) {
+			throw new DrawingFormatException("the number of shapes cannot be negative");
+		}
+		return count;
+	}
+
+	private void putHeader(int count) throws IOException {
+
+		reserve(HEADER_SIZE);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) CHUNK_INDEX);
+		buffer.putInt(count);
+	}
+
+	/**
+	 * Appends the chunk index and the footer, which must directly follow the last record.
+	 */
+	private void putIndex(long[] offsets, int[] counts) throws IOException {
+
+		long indexOffset = position();
+
+		for(int c = 0; c < counts.length; c++) {
+			reserve(INDEX_ENTRY_SIZE);
+			buffer.putLong(offsets[c]);
+			buffer.putInt(counts[c]);
+		}
+
+		reserve(FOOTER_SIZE);
+		buffer.putLong(indexOffset);
+		buffer.putInt(counts.length);
+		buffer.putInt(INDEX_MAGIC);
+	}
+
+	/**
+	 * Appends the record of a shape, and those of its members if it is a group.
+	 */
+	private void writeShape(MyShape s) throws IOException {
+
+		if(!(s instanceof ShapeGroup)) {
+
+			byte tag;
+
+			if(s instanceof Line) {
+				tag = LINE;
+			}
+			else if(s instanceof Rect) {
+				tag = RECT;
+			}
+			else if(s instanceof Oval) {
+				tag = OVAL;
+			}
+			else {
+				throw new IllegalArgumentException("cannot write " + s.getClass().getName());
+			}
+
+			reserve(SHAPE_SIZE);
+			putCommon(tag, s);
+			return;
+		}
+
+		ShapeGroup group = (ShapeGroup) s;
+
+		reserve(GROUP_SIZE);
+		putCommon(GROUP, group);
+
+		buffer.putDouble(group.getCenterX());
+		buffer.putDouble(group.getCenterY());
+		buffer.putDouble(group.getMinX());
+		buffer.putDouble(group.getMinY());
+		buffer.putDouble(group.getMaxX());
+		buffer.putDouble(group.getMaxY());
+		buffer.putInt(group.size());
+
+		long lengthAt = position();
+		buffer.putLong(0);
+
+		for(MyShape member : group.getMembers()) {
+			writeShape(member);
+		}
+
+		long length = position() - lengthAt - 8;
+
+		// the length slot is patched in the buffer if it is still there, or in the file otherwise
+		if(lengthAt >= bufferStart) {
+			buffer.putLong((int) (lengthAt - bufferStart), length);
+		}
+		else {
+			ByteBuffer slot = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, length);
+
+			while(slot.hasRemaining()) {
+				channel.write(slot, lengthAt + slot.position());
+			}
+		}
+	}
+
+	private void putCommon(byte tag, MyShape s) {
+
+		Color color = s.getColor();
+
+		buffer.put(tag);
+		buffer.put((byte) ((s.isFilled() ? FILLED : 0) | (color != null ? HAS_COLOR : 0)));
+
+		buffer.putDouble(s.getX1());
+		buffer.putDouble(s.getY1());
+		buffer.putDouble(s.getX2());
+		buffer.putDouble(s.getY2());
+
+		if(color != null) {
+			buffer.putFloat((float) color.getRed());
+			buffer.putFloat((float) color.getGreen());
+			buffer.putFloat((float) color.getBlue());
+			buffer.putFloat((float) color.getOpacity());
+		}
+		else {
+			buffer.putLong(0);
+			buffer.putLong(0);
+		}
+	}
+
+	/**
+	 * Decodes the next record, and those of its members if it is a group.
+	 */
+	private MyShape readShape() throws IOException {
+
+		long start = position();
+
+		need(SHAPE_SIZE);
+
+		byte tag = buffer.get();
+		int flags = buffer.get();
+
+		MyShape s;
+
+		switch(tag) {
+		case LINE:
+			s = new Line();
+			break;
+		case RECT:
+			s = new Rect();
+			break;
+		case OVAL:
+			s = new Oval();
+			break;
+		case GROUP:
+			s = new ShapeGroup();
+			break;
+		default:
+			throw new DrawingFormatException("unknown record type " + tag + " at offset " + start);
+		}
+
+		double x1 = buffer.getDouble();
+		double y1 = buffer.getDouble();
+		double x2 = buffer.getDouble();
+		double y2 = buffer.getDouble();
+
+		float r = buffer.getFloat();
+		float g = buffer.getFloat();
+		float b = buffer.getFloat();
+		float a = buffer.getFloat();
+
+		if((flags & HAS_COLOR) != 0) {
+
+			if(!(r >= 0 && r <= 1 && g >= 0 && g <= 1 && b >= 0 && b <= 1 && a >= 0 && a <= 1)) {
+				throw new DrawingFormatException("color components out of range at offset " + start);
+			}
+			s.setColor(Color.color(r, g, b, a));
+		}
+		s.setFilled((flags & FILLED) != 0);
+
+		if(tag == GROUP) {
+
+			// the center and area are recomputed from the members
+			need(GROUP_SIZE - SHAPE_SIZE);
+			buffer.position(buffer.position() + 48);
+
+			int members = buffer.getInt();
+			long length = buffer.getLong();
+			long end = position() + length;
+
+			if(members < 0 || length < 0) {
+				throw new DrawingFormatException("bad group record at offset " + start);
+			}
+
+			ArrayList<MyShape> list = new ArrayList<>(Math.min(members, BUFFER_SIZE));
+
+			for(int i = 0; i < members; i++) {
+				list.add(readShape());
+			}
+
+			if(position() != end) {
+				throw new DrawingFormatException("the members of the group at offset " + start + " do not match its length");
+			}
+			((ShapeGroup) s).addMembers(list);
+		}
+
+		s.setP1(x1, y1);
+		s.setP2(x2, y2);
+		return s;
+	}
+
+	/**
+	 * Returns the file offset of the buffer's position.
+	 */
+	private long position() {
+		return bufferStart + buffer.position();
+	}
+
+	/**
+	 * Makes room for n more bytes in the write buffer, flushing it if needed.
+	 */
+	private void reserve(int n) throws IOException {
+
+		if(buffer.remaining() < n) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+
+		buffer.flip();
+
+		// positional, so that several chunks of a file can be written at once
+		while(buffer.hasRemaining()) {
+			channel.write(buffer, bufferStart + buffer.position());
+		}
+
+		bufferStart += buffer.limit();
+		buffer.clear();
+	}
+
+	/**
+	 * Makes sure at least n bytes can be read from the buffer, reading more of the file if needed.
+	 */
+	private void need(int n) throws IOException {
+
+		if(buffer.remaining() >= n) {
+			return;
+		}
+
+		if(channel == null) {
+			throw new DrawingFormatException("the file ended in the middle of a record");
+		}
+
+		bufferStart += buffer.position();
+		buffer.compact();
+
+		// positional, so that several chunks of a file can be read at once
+		while(buffer.position() < n) {
+
+			if(channel.read(buffer, bufferStart + buffer.position()) < 0) {
+				throw new DrawingFormatException("the file ended in the middle of a record");
+			}
+		}
+		buffer.flip();
+	}
+}
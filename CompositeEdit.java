@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+
+/**
+ * Represents an edit made of several others, undone and redone as a single step.
+ * It is built by ShapeCanvas.beginEdit and commitEdit.
+ *
+ * Undoing and redoing it also run between beginEdit and commitEdit, so the canvas is painted once
+ * at the end. Consecutive child edits that add or remove shapes are passed to the canvas together,
+ * which removes any number of shapes in a single pass over the drawing.
+ */
+public class CompositeEdit extends Edit {
+
+	private ArrayList<Edit> edits;
+
+    /**
+     * Constructs an empty CompositeEdit.
+     *
+     * @param c The canvas associated with this edit
+     */
+	public CompositeEdit(ShapeCanvas c) {
+
+		super(c, null);
+		edits = new ArrayList<>();
+	}
+
+    /**
+     * Adds an edit that has been made after those already in this one.
+     * A move of the shape moved by the last edit is merged into that edit.
+     *
+     * @param edit The edit.
+     */
+	public void add(Edit edit) {
+
+		if(edit instanceof MoveEdit && !edits.isEmpty() && edits.get(edits.size() - 1) instanceof MoveEdit
+				&& ((MoveEdit) edits.get(edits.size() - 1)).merge((MoveEdit) edit)) {
+			return;
+		}
+		edits.add(edit);
+	}
+
+    /**
+     *
+     * @return The edits, in the order they were made.
+     */
+	public ArrayList<Edit> getEdits() {
+		return edits;
+	}
+
+    /**
+     *
+     * @return The number of edits in this one.
+     */
+	public int size() {
+		return edits.size();
+	}
+
+    /**
+     *
+     * @return true if this edit holds no others.
+     */
+	public boolean isEmpty() {
+		return edits.isEmpty();
+	}
+
+    /**
+     * Estimates the memory this edit holds on to, including every edit in it.
+     *
+     * @return The size in bytes.
+     */
+	@Override
+	public long retainedSize() {
+
+		// the list and its array
+		long size = EDIT_SIZE + 40 + 4L * edits.size();
+
+		for(int i = 0; i < edits.size(); i++) {
+			size += edits.get(i).retainedSize();
+		}
+		return size;
+	}
+
+    /**
+     * Undoes the edits in the reverse of the order they were made.
+     */
+	@Override
+	public void undo() {
+		replay(true);
+	}
+
+    /**
+     * Redoes the edits in the order they were made.
+     */
+	@Override
+	public void redo() {
+		replay(false);
+	}
+
+	private void replay(boolean undoing) {
+
+		ArrayList<MyShape> batch = new ArrayList<>();
+		boolean batchAdds = false;
+
+		canvas.beginEdit();
+
+		try {
+			for(int k = 0; k < edits.size(); k++) {
+
+				Edit edit = edits.get(undoing ? edits.size() - 1 - k : k);
+
+				if(edit instanceof DrawEdit || edit instanceof CopyEdit || edit instanceof DeleteEdit) {
+
+					// drawing and copying add their shape when redone, deleting adds it back when undone
+					boolean adds = (edit instanceof DeleteEdit) == undoing;
+
+					if(adds != batchAdds) {
+						batch = flush(batch, batchAdds);
+						batchAdds = adds;
+					}
+					batch.add(edit.getShape());
+				}
+				else {
+					batch = flush(batch, batchAdds);
+
+					if(undoing) {
+						edit.undo();
+					}
+					else {
+						edit.redo();
+					}
+				}
+			}
+			flush(batch, batchAdds);
+		}
+		finally {
+			canvas.commitEdit();
+		}
+	}
+
+	/**
+	 * Adds or removes the shapes collected so far, if any.
+	 *
+	 * @return An empty list for the next shapes.
+	 */
+	private ArrayList<MyShape> flush(ArrayList<MyShape> batch, boolean adds) {
+
+		if(batch.isEmpty()) {
+			return batch;
+		}
+		if(adds) {
+			canvas.addShapes(batch);
+		}
+		else {
+			canvas.deleteShapes(batch);
+		}
+		return new ArrayList<>();
+	}
+}
@@ -0,0 +1,689 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Reads and writes drawings in the compressed file format, meant for archiving many drawings.
+ *
+ * Coordinates are rounded to a fixed number of decimal places and stored as whole numbers of that unit.
+ * Each shape's first point is stored as the difference from the previous shape's, and its second point
+ * as the difference from its first, as variable-length integers, so that shapes drawn near each other
+ * take a byte or two per coordinate. Colors are stored once per block in a palette and referred to by
+ * their index. Shapes keep their drawing order, since it decides which shape is drawn on top.
+ *
+ * A file starts with a 12-byte header: the magic number "SHPZ", the format version as a short, the
+ * number of decimal places as a byte, a reserved byte and the number of top-level shapes as an int.
+ * The shapes follow in blocks of up to BLOCK_SHAPES top-level shapes. Each block is the number of shapes,
+ * the length of its records before and after compression, and the records compressed with Deflate.
+ * Blocks do not depend on each other, so one can be decoded without the others, and several
+ * are compressed and decompressed at the same time on different cores.
+ *
+ * A record is a byte holding the type tag in its low four bits and the flags of BinaryShapeFormat above
+ * them, the palette index of the color if it has one, followed by the color itself as four floats if
+ * the index is new, and then the four coordinate differences as zig-zag encoded varints. A group then
+ * adds the number of its members and their records.
+ */
+public class CompressedShapeFormat {
+
+	public static final int MAGIC = 0x5a504853; // "SHPZ" read as a little-endian int
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 12;
+
+	public static final int BLOCK_SHAPES = 1 << 14;
+	public static final int BLOCK_HEADER_SIZE = 12;
+
+	// the precision of the text format
+	public static final int DEFAULT_DECIMALS = 3;
+	public static final int MAX_DECIMALS = 9;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+
+	// the largest coordinate in units that a double still holds exactly
+	private static final double MAX_UNITS = 1L << 53;
+
+	private double scale;
+
+	// records of the current block before compression
+	private byte[] raw;
+	private int length, pos;
+
+	// the block header and the records after compression
+	private byte[] compressed;
+
+	private long prevX, prevY;
+
+	private HashMap<Color, Integer> paletteIndex;
+	private ArrayList<Color> palette;
+
+	private CompressedShapeFormat(int decimals) {
+
+		scale = POWERS_OF_TEN[decimals];
+		raw = new byte[1 << 16];
+		compressed = new byte[1 << 16];
+
+		paletteIndex = new HashMap<>();
+		palette = new ArrayList<>();
+	}
+
+	/**
+	 * Writes shapes to a file, replacing its contents.
+	 *
+	 * @param file The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param decimals The number of decimal places kept of each coordinate, from 0 to MAX_DECIMALS.
+	 * @param progress Receives the number of shapes written and can cancel the write.
+	 * @throws IOException If the file cannot be written, a coordinate is too large for the precision or the write is cancelled.
+	 */
+	public static void write(File file, int count, Iterable<MyShape> shapes, int decimals, FileProgress progress) throws IOException {
+
+		if(decimals < 0 || decimals > MAX_DECIMALS) {
+			throw new IllegalArgumentException("decimals must be between 0 and " + MAX_DECIMALS);
+		}
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putShort(VERSION);
+			header.put((byte) decimals);
+			header.put((byte) 0);
+			header.putInt(count);
+			writeFully(channel, header.flip());
+
+			if(shapes instanceof List && shapes instanceof RandomAccess) {
+				writeBlocks(channel, count, (List<MyShape>) shapes, decimals, progress);
+				return;
+			}
+
+			CompressedShapeFormat out = new CompressedShapeFormat(decimals);
+			Deflater deflater = new Deflater();
+
+			int written = 0;
+			int inBlock = 0;
+
+			try {
+				for(MyShape s : shapes) {
+
+					out.putShape(s);
+					written++;
+					inBlock++;
+
+					if(inBlock == BLOCK_SHAPES) {
+						writeFully(channel, out.compressBlock(inBlock, deflater));
+						inBlock = 0;
+					}
+
+					if(written % FileProgress.STEP == 0) {
+						progress.checkpoint(written, count);
+					}
+				}
+
+				if(inBlock > 0) {
+					writeFully(channel, out.compressBlock(inBlock, deflater));
+				}
+			}
+			finally {
+				deflater.end();
+			}
+
+			if(written != count) {
+				throw new IllegalArgumentException("expected " + count + " shapes but got " + written);
+			}
+		}
+	}
+
+	/**
+	 * Compresses the blocks of a list on several cores, a few more at a time than there are cores,
+	 * and writes each batch in order once all of it is done.
+	 */
+	private static void writeBlocks(FileChannel channel, int count, List<MyShape> shapes, int decimals, FileProgress progress) throws IOException {
+
+		if(shapes.size() != count) {
+			throw new IllegalArgumentException("expected " + count + " shapes but got " + shapes.size());
+		}
+
+		int blocks = (count + BLOCK_SHAPES - 1) / BLOCK_SHAPES;
+		int window = ParallelChunks.window();
+		AtomicLong written = new AtomicLong();
+
+		for(int first = 0; first < blocks; first += window) {
+
+			ArrayList<Callable<ByteBuffer>> tasks = new ArrayList<>(window);
+
+			for(int b = first; b < Math.min(blocks, first + window); b++) {
+
+				int from = b * BLOCK_SHAPES;
+				int to = Math.min(count, from + BLOCK_SHAPES);
+
+				tasks.add(() -> {
+					CompressedShapeFormat out = new CompressedShapeFormat(decimals);
+					Deflater deflater = new Deflater();
+
+					try {
+						for(int i = from; i < to; i++) {
+							out.putShape(shapes.get(i));
+						}
+						ByteBuffer block = out.compressBlock(to - from, deflater);
+
+						progress.checkpoint(written.addAndGet(to - from), count);
+						return block;
+					}
+					finally {
+						deflater.end();
+					}
+				});
+			}
+
+			for(ByteBuffer block : ParallelChunks.run(tasks)) {
+				writeFully(channel, block);
+			}
+		}
+	}
+
+	/**
+	 * Reads all the shapes in a file.
+	 *
+	 * @param file The file to read.
+	 * @param progress Receives the amount of the file read and can cancel the read.
+	 * @return The top-level shapes, in drawing order.
+	 * @throws IOException If the file cannot be read, is not in this format or the read is cancelled.
+	 */
+	public static ArrayList<MyShape> read(File file, FileProgress progress) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			if(!readFully(channel, header, 0) || header.getInt(0) != MAGIC) {
+				throw new DrawingFormatException("not a compressed drawing file");
+			}
+
+			short version = header.getShort(4);
+			int decimals = header.get(6);
+			int count = header.getInt(8);
+
+			if(version > VERSION) {
+				throw new DrawingFormatException("the file is version " + version + " but only versions up to " + VERSION + " can be read");
+			}
+			if(decimals < 0 || decimals > MAX_DECIMALS) {
+				throw new DrawingFormatException("the file has an unknown precision of " + decimals + " decimal places");
+			}
+			if(count < 0) {
+				throw new DrawingFormatException("the number of shapes cannot be negative");
+			}
+
+			// the block headers are read first, so that the blocks can then be decoded at the same time
+			long size = channel.size();
+			ArrayList<Block> blocks = new ArrayList<>();
+			ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			long offset = HEADER_SIZE;
+			int found = 0;
+
+			while(found < count) {
+
+				blockHeader.clear();
+
+				if(!readFully(channel, blockHeader, offset)) {
+					throw new DrawingFormatException("the file ended after " + found + " of " + count + " shapes");
+				}
+
+				Block block = new Block();
+				block.offset = offset;
+				block.shapes = blockHeader.getInt(0);
+				block.rawLength = blockHeader.getInt(4);
+				block.compressedLength = blockHeader.getInt(8);
+
+				if(block.shapes <= 0 || block.shapes > count - found || block.rawLength < 0 || block.compressedLength < 0) {
+					throw new DrawingFormatException("bad block at offset " + offset);
+				}
+				if(block.compressedLength > size - offset - BLOCK_HEADER_SIZE) {
+					throw new DrawingFormatException("the file ended in the middle of the block at offset " + offset);
+				}
+
+				blocks.add(block);
+				found += block.shapes;
+				offset += BLOCK_HEADER_SIZE + block.compressedLength;
+			}
+
+			AtomicLong read = new AtomicLong(HEADER_SIZE);
+			ArrayList<Callable<ArrayList<MyShape>>> tasks = new ArrayList<>(blocks.size());
+
+			for(Block block : blocks) {
+				tasks.add(() -> readBlock(channel, block, decimals, read, size, progress));
+			}
+
+			ArrayList<MyShape> shapes = new ArrayList<>(count);
+
+			for(ArrayList<MyShape> block : ParallelChunks.run(tasks)) {
+				shapes.addAll(block);
+			}
+			return shapes;
+		}
+	}
+
+	/**
+	 * Reads, decompresses and decodes one block.
+	 *
+	 * @param read The number of bytes of the file read so far, shared by the blocks read at the same time.
+	 */
+	private static ArrayList<MyShape> readBlock(FileChannel channel, Block block, int decimals, AtomicLong read, long size, FileProgress progress) throws IOException {
+
+		byte[] compressed = new byte[block.compressedLength];
+
+		if(!readFully(channel, ByteBuffer.wrap(compressed), block.offset + BLOCK_HEADER_SIZE)) {
+			throw new DrawingFormatException("the file ended in the middle of the block at offset " + block.offset);
+		}
+
+		CompressedShapeFormat in = new CompressedShapeFormat(decimals);
+		Inflater inflater = new Inflater();
+
+		try {
+			in.inflateBlock(inflater, compressed, block.compressedLength, block.rawLength, block.offset);
+		}
+		finally {
+			inflater.end();
+		}
+
+		ArrayList<MyShape> shapes = new ArrayList<>(block.shapes);
+
+		for(int i = 0; i < block.shapes; i++) {
+			shapes.add(in.getShape(block.offset));
+		}
+
+		if(in.pos != in.length) {
+			throw new DrawingFormatException("the block at offset " + block.offset + " does not match its length");
+		}
+
+		progress.checkpoint(read.addAndGet(BLOCK_HEADER_SIZE + block.compressedLength), size);
+		return shapes;
+	}
+
+	/**
+	 * Checks whether a file is in this format.
+	 *
+	 * @param file The file to check.
+	 * @return true if the file starts with the magic number of this format.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static boolean isCompressed(File file) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			ByteBuffer start = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			return readFully(channel, start, 0) && start.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Compresses the records collected so far into a block, then starts a new block.
+	 *
+	 * @return The block with its header, ready to be written. It is only valid until the next call.
+	 */
+	private ByteBuffer compressBlock(int shapes, Deflater deflater) {
+
+		deflater.reset();
+		deflater.setInput(raw, 0, length);
+		deflater.finish();
+
+		int end = BLOCK_HEADER_SIZE;
+
+		while(!deflater.finished()) {
+
+			if(end == compressed.length) {
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			end += deflater.deflate(compressed, end, compressed.length - end);
+		}
+
+		ByteBuffer block = ByteBuffer.wrap(compressed, 0, end).order(ByteOrder.LITTLE_ENDIAN);
+		block.putInt(0, shapes);
+		block.putInt(4, length);
+		block.putInt(8, end - BLOCK_HEADER_SIZE);
+
+		startBlock();
+		return block;
+	}
+
+	/**
+	 * Decompresses a block into the record buffer and starts decoding it.
+	 */
+	private void inflateBlock(Inflater inflater, byte[] compressed, int compressedLength, int rawLength, long offset) throws IOException {
+
+		if(raw.length < rawLength) {
+			raw = new byte[rawLength];
+		}
+
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLength);
+
+		try {
+			int n = 0;
+
+			while(n < rawLength && !inflater.finished()) {
+
+				int got = inflater.inflate(raw, n, rawLength - n);
+
+				if(got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += got;
+			}
+
+			if(n != rawLength || !inflater.finished()) {
+				throw new DrawingFormatException("the block at offset " + offset + " does not match its length");
+			}
+		}
+		catch(DataFormatException e) {
+			throw new DrawingFormatException("the block at offset " + offset + " is damaged: " + e.getMessage());
+		}
+
+		startBlock();
+		length = rawLength;
+	}
+
+	/**
+	 * Resets the state carried from shape to shape, which does not cross blocks.
+	 */
+	private void startBlock() {
+
+		length = 0;
+		pos = 0;
+		prevX = 0;
+		prevY = 0;
+
+		paletteIndex.clear();
+		palette.clear();
+	}
+
+	/**
+	 * Appends the record of a shape, and those of its members if it is a group.
+	 */
+	private void putShape(MyShape s) throws IOException {
+
+		byte tag;
+
+		if(s instanceof Line) {
+			tag = BinaryShapeFormat.LINE;
+		}
+		else if(s instanceof Rect) {
+			tag = BinaryShapeFormat.RECT;
+		}
+		else if(s instanceof Oval) {
+			tag = BinaryShapeFormat.OVAL;
+		}
+		else if(s instanceof ShapeGroup) {
+			tag = BinaryShapeFormat.GROUP;
+		}
+		else {
+			throw new IllegalArgumentException("cannot write " + s.getClass().getName());
+		}
+
+		Color color = s.getColor();
+		int flags = (s.isFilled() ? BinaryShapeFormat.FILLED : 0) | (color != null ? BinaryShapeFormat.HAS_COLOR : 0);
+
+		putByte(tag | flags << 4);
+
+		if(color != null) {
+
+			Integer index = paletteIndex.get(color);
+
+			if(index != null) {
+				putVarLong(index);
+			}
+			else {
+				paletteIndex.put(color, palette.size());
+				putVarLong(palette.size());
+				palette.add(color);
+
+				putFloat((float) color.getRed());
+				putFloat((float) color.getGreen());
+				putFloat((float) color.getBlue());
+				putFloat((float) color.getOpacity());
+			}
+		}
+
+		long x1 = toUnits(s.getX1());
+		long y1 = toUnits(s.getY1());
+
+		putVarLong(zigZag(x1 - prevX));
+		putVarLong(zigZag(y1 - prevY));
+		putVarLong(zigZag(toUnits(s.getX2()) - x1));
+		putVarLong(zigZag(toUnits(s.getY2()) - y1));
+
+		prevX = x1;
+		prevY = y1;
+
+		if(s instanceof ShapeGroup) {
+
+			ArrayList<MyShape> members = ((ShapeGroup) s).getMembers();
+			putVarLong(members.size());
+
+			for(MyShape member : members) {
+				putShape(member);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the next record, and those of its members if it is a group.
+	 *
+	 * @param offset The file offset of the block, for error messages.
+	 */
+	private MyShape getShape(long offset) throws IOException {
+
+		int head = getByte(offset);
+		int tag = head & 0xf;
+		int flags = head >>> 4;
+
+		MyShape s;
+
+		switch(tag) {
+		case BinaryShapeFormat.LINE:
+			s = new Line();
+			break;
+		case BinaryShapeFormat.RECT:
+			s = new Rect();
+			break;
+		case BinaryShapeFormat.OVAL:
+			s = new Oval();
+			break;
+		case BinaryShapeFormat.GROUP:
+			s = new ShapeGroup();
+			break;
+		default:
+			throw new DrawingFormatException("unknown record type " + tag + " in the block at offset " + offset);
+		}
+
+		if((flags & BinaryShapeFormat.HAS_COLOR) != 0) {
+
+			long index = getVarLong(offset);
+
+			if(index == palette.size()) {
+
+				float r = getFloat(offset);
+				float g = getFloat(offset);
+				float b = getFloat(offset);
+				float a = getFloat(offset);
+
+				if(!(r >= 0 && r <= 1 && g >= 0 && g <= 1 && b >= 0 && b <= 1 && a >= 0 && a <= 1)) {
+					throw new DrawingFormatException("color components out of range in the block at offset " + offset);
+				}
+				palette.add(Color.color(r, g, b, a));
+			}
+			else if(index > palette.size()) {
+				throw new DrawingFormatException("unknown color " + index + " in the block at offset " + offset);
+			}
+			s.setColor(palette.get((int) index));
+		}
+		s.setFilled((flags & BinaryShapeFormat.FILLED) != 0);
+
+		long x1 = prevX + unZigZag(getVarLong(offset));
+		long y1 = prevY + unZigZag(getVarLong(offset));
+		long x2 = x1 + unZigZag(getVarLong(offset));
+		long y2 = y1 + unZigZag(getVarLong(offset));
+
+		prevX = x1;
+		prevY = y1;
+
+		if(tag == BinaryShapeFormat.GROUP) {
+
+			long members = getVarLong(offset);
+
+			// every member takes at least five bytes
+			if(members > (length - pos) / 5) {
+				throw new DrawingFormatException("bad group record in the block at offset " + offset);
+			}
+
+			ArrayList<MyShape> list = new ArrayList<>((int) members);
+
+			for(int i = 0; i < members; i++) {
+				list.add(getShape(offset));
+			}
+			((ShapeGroup) s).addMembers(list);
+		}
+
+		s.setP1(fromUnits(x1), fromUnits(y1));
+		s.setP2(fromUnits(x2), fromUnits(y2));
+		return s;
+	}
+
+	private long toUnits(double v) throws IOException {
+
+		double units = Math.rint(v * scale);
+
+		if(!(Math.abs(units) <= MAX_UNITS)) {
+			throw new IOException("the coordinate " + v + " cannot be stored with this precision");
+		}
+		return (long) units;
+	}
+
+	/**
+	 * Converts back from units with a single division, which gives the same double as parsing the decimal number.
+	 */
+	private double fromUnits(long units) {
+		return units / scale;
+	}
+
+	private static long zigZag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unZigZag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private void ensure(int n) {
+
+		if(length + n > raw.length) {
+			raw = Arrays.copyOf(raw, Math.max(length + n, raw.length * 2));
+		}
+	}
+
+	private void putByte(int b) {
+		ensure(1);
+		raw[length++] = (byte) b;
+	}
+
+	private void putVarLong(long v) {
+
+		ensure(10);
+
+		while((v & ~0x7fL) != 0) {
+			raw[length++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		raw[length++] = (byte) v;
+	}
+
+	private void putFloat(float f) {
+
+		int bits = Float.floatToRawIntBits(f);
+
+		ensure(4);
+		raw[length++] = (byte) bits;
+		raw[length++] = (byte) (bits >>> 8);
+		raw[length++] = (byte) (bits >>> 16);
+		raw[length++] = (byte) (bits >>> 24);
+	}
+
+	private int getByte(long offset) throws DrawingFormatException {
+
+		if(pos >= length) {
+			throw new DrawingFormatException("the block at offset " + offset + " ended in the middle of a record");
+		}
+		return raw[pos++] & 0xff;
+	}
+
+	private long getVarLong(long offset) throws DrawingFormatException {
+
+		long v = 0;
+
+		for(int shift = 0; shift < 64; shift += 7) {
+
+			int b = getByte(offset);
+			v |= (long) (b & 0x7f) << shift;
+
+			if((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new DrawingFormatException("bad number in the block at offset " + offset);
+	}
+
+	private float getFloat(long offset) throws DrawingFormatException {
+
+		int bits = getByte(offset) | getByte(offset) << 8 | getByte(offset) << 16 | getByte(offset) << 24;
+		return Float.intBitsToFloat(bits);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Fills a buffer from the channel, starting at a file offset, without moving the channel's position.
+	 *
+	 * @return false if the file ended first.
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+
+		int start = buffer.position();
+
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, offset + buffer.position() - start) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Where a block is in the file, read from its header.
+	 */
+	private static class Block {
+
+		private long offset;
+		private int shapes, rawLength, compressedLength;
+	}
+}
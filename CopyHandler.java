@@ -31,37 +31,43 @@ public class CopyHandler implements EventHandler<MouseEvent>{
 
 		if(e.getEventType() == MouseEvent.MOUSE_PRESSED) {
 
-			closestShape = canvas.closestShape(e.getX(), e.getY());
+			// a press on an empty canvas copies nothing, rather than the copy made by the last press
+			shapeCopy = null;
+			closestShape = canvas.closestShape(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
 
 			if(closestShape != null) {
 				shapeCopy = (MyShape) closestShape.clone();
 
-				x0 = e.getX();
-				y0 = e.getY();
+				x0 = canvas.toWorldX(e.getX());
+				y0 = canvas.toWorldY(e.getY());
 
 				canvas.addShape(shapeCopy);
+				canvas.beginInteraction(shapeCopy);
 			}
 		}
 
 		if(e.getEventType() == MouseEvent.MOUSE_DRAGGED) {
 
-			x1 = e.getX();
-			y1 = e.getY();
+			x1 = canvas.toWorldX(e.getX());
+			y1 = canvas.toWorldY(e.getY());
 
 			if(shapeCopy != null) {
 
-				shapeCopy.move(x1 - x0, y1 - y0);
+				canvas.moveShape(shapeCopy, x1 - x0, y1 - y0);
 
 				x0 = x1;
 				y0 = y1;
-
-				canvas.paint();
 			}
 		}
 
 		if(e.getEventType() == MouseEvent.MOUSE_RELEASED) {
 
-			canvas.addEdit(new CopyEdit(canvas, shapeCopy));
+			canvas.endInteraction();
+
+			if(shapeCopy != null) {
+				canvas.addEdit(new CopyEdit(canvas, shapeCopy));
+				shapeCopy = null;
+			}
 		}
 	}
 
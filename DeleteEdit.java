@@ -8,7 +8,6 @@ public class DeleteEdit extends Edit {
 	@Override
 	public void redo() {
 		canvas.deleteShape(shape);
-		canvas.paint();
 	}
 	
 	@Override
@@ -26,10 +26,13 @@ public class DeleteHandler implements EventHandler<MouseEvent>{
 	public void handle(MouseEvent e) {
 
 		if(e.getEventType() == MouseEvent.MOUSE_CLICKED) {
-			MyShape shape = canvas.closestShape(e.getX(), e.getY());
-			canvas.deleteShape(shape);
-			canvas.paint();
-			canvas.addEdit(new DeleteEdit(canvas, shape));
+			MyShape shape = canvas.closestShape(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+
+			// a click on an empty canvas deletes nothing
+			if(shape != null) {
+				canvas.deleteShape(shape);
+				canvas.addEdit(new DeleteEdit(canvas, shape));
+			}
 		}
 	}
 }
@@ -20,7 +20,6 @@ public class DrawEdit extends Edit {
 	@Override
 	public void redo() {
 		canvas.addShape(shape);
-		canvas.paint();
 	}
 	
     /**
@@ -29,6 +28,5 @@ public class DrawEdit extends Edit {
 	@Override
 	public void undo() {
 		canvas.deleteShape(shape);
-		canvas.paint();
 	}
 }
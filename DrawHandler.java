@@ -28,7 +28,9 @@ public class DrawHandler implements EventHandler<MouseEvent> {
 
 		if(shape != null) {
 			canvas.setCurrentShape(shape);
-			shape.setP1(e.getX(), e.getY());
+			shape.setP1(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+			shape.setP2(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+			canvas.beginInteraction(shape);
 		}
 	}
 	
@@ -40,8 +42,10 @@ public class DrawHandler implements EventHandler<MouseEvent> {
 	protected void mouseDragged(MouseEvent e) {
 
 		if(shape != null) {
-			shape.setP2(e.getX(), e.getY());
-			canvas.paint();
+			canvas.damage(shape);
+			shape.setP2(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+			canvas.damage(shape);
+			canvas.requestRepaint();
 		}
 	}
 	
@@ -53,10 +57,11 @@ public class DrawHandler implements EventHandler<MouseEvent> {
 	protected void mouseReleased(MouseEvent e) {
 
 		if(shape != null) {
-			shape.setP2(e.getX(), e.getY());
+			canvas.damage(shape);
+			shape.setP2(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+			canvas.endInteraction();
 			canvas.addShape(shape);
 			canvas.setCurrentShape(null);
-			canvas.paint();
 			canvas.addEdit(new DrawEdit(canvas, shape));
 			shape = null;
 		}
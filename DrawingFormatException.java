@@ -0,0 +1,50 @@
+import java.io.IOException;
+
+/**
+ * Thrown when a drawing file does not follow the expected format.
+ */
+public class DrawingFormatException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private int line, column;
+
+	/**
+	 * Constructs an exception for a problem at a position in a text file.
+	 *
+	 * @param message What was wrong.
+	 * @param line The line of the problem, counting from 1.
+	 * @param column The column of the problem, counting from 1.
+	 */
+	public DrawingFormatException(String message, int line, int column) {
+		super("line " + line + ", column " + column + ": " + message);
+
+		this.line = line;
+		this.column = column;
+	}
+
+	/**
+	 * Constructs an exception for a problem without a line and column, such as one in a binary file.
+	 *
+	 * @param message What was wrong.
+	 */
+	public DrawingFormatException(String message) {
+		super(message);
+	}
+
+	/**
+	 *
+	 * @return The line of the problem, or 0 if it has none.
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 *
+	 * @return The column of the problem, or 0 if it has none.
+	 */
+	public int getColumn() {
+		return column;
+	}
+}
@@ -3,6 +3,9 @@
  * Abstract class representing an edit operation on a ShapeCanvas.
  */
 public abstract class Edit {
+
+	// the header and fields of an edit
+	protected static final long EDIT_SIZE = 24;
 	
 	protected MyShape shape;
 	protected ShapeCanvas canvas;
@@ -19,6 +22,29 @@ public abstract class Edit {
 		shape = s;
 	}
 	
+    /**
+     * 
+     * @return The shape involved in this edit.
+     */
+	public MyShape getShape() {
+		return shape;
+	}
+
+    /**
+     * Estimates the memory this edit holds on to. The shape is counted in full, even though
+     * a shape on the canvas is held by the canvas as well, so the estimate errs on the high side.
+     * 
+     * @return The size in bytes.
+     * @throws IllegalStateException If the edit has no shape, which only an edit made of others may lack.
+     */
+	public long retainedSize() {
+
+		if(shape == null) {
+			throw new IllegalStateException(getClass().getSimpleName() + " has no shape");
+		}
+		return EDIT_SIZE + shape.retainedSize();
+	}
+	
     /**
      * Undoes the edit operation.
      */
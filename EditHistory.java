@@ -0,0 +1,761 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * The undo and redo history of a ShapeCanvas, kept within a number of edits and a memory budget.
+ *
+ * Undo and redo are each a stack of edits. The newest edits of each are held in memory. When the edits
+ * in memory are estimated to take more than the budget, the oldest are written to a spill file, one per
+ * stack, and dropped from the heap. Undo and redo read spilled edits back a page at a time when they
+ * reach them. Edits beyond the depth are forgotten, oldest first, and a new edit clears the redo stack.
+ *
+ * Edits refer to shapes by object, so every shape written to a spill file gets an id. When an edit is
+ * read back, a shape that is still held elsewhere, by the canvas or by an edit in memory, is found by
+ * its id, so edits keep acting on the same objects. Only a shape that nothing holds any more is rebuilt
+ * from its record, and nothing can have changed such a shape since its edit was written.
+ */
+public class EditHistory {
+
+	public static final int DEFAULT_DEPTH = 100000;
+	public static final long DEFAULT_BUDGET = 32L << 20;
+
+	// spilling frees this share of the budget, so that the edits after it do not spill one at a time
+	private static final int SPILL_SHARE = 4;
+
+	// spilled edits are read back in pages of this share of the budget, counted in file bytes
+	private static final int PAGE_SHARE = 16;
+
+	private static final int COPY_BUFFER_SIZE = 1 << 20;
+
+	private static final byte DRAW = 1;
+	private static final byte DELETE = 2;
+	private static final byte MOVE = 3;
+	private static final byte GROUP = 4;
+	private static final byte COPY = 5;
+	private static final byte COMPOSITE = 6;
+
+	private ShapeCanvas canvas;
+	private int maxDepth;
+	private long budget;
+
+	private Side undo, redo;
+
+	// the estimated size of the edits in memory on both sides
+	private long bytes;
+
+	// the ids of shapes written to a spill file, without keeping the shapes alive
+	private WeakHashMap<MyShape, Long> idOf;
+	private HashMap<Long, ShapeRef> shapeOf;
+	private ReferenceQueue<MyShape> cleared;
+	private long nextId;
+
+	/**
+	 * Constructs an empty history with the default depth and budget.
+	 *
+	 * @param c The canvas the edits act on.
+	 */
+	public EditHistory(ShapeCanvas c) {
+
+		canvas = c;
+		maxDepth = DEFAULT_DEPTH;
+		budget = DEFAULT_BUDGET;
+
+		undo = new Side("undo");
+		redo = new Side("redo");
+
+		idOf = new WeakHashMap<>();
+		shapeOf = new HashMap<>();
+		cleared = new ReferenceQueue<>();
+	}
+
+	/**
+	 * Changes how much history is kept. Edits already beyond the new limits are forgotten or spilled.
+	 *
+	 * @param depth The most edits kept on each of the undo and redo stacks.
+	 * @param memory The most memory, in bytes, the edits on both stacks may take up before the oldest are spilled.
+	 */
+	public void setLimits(int depth, long memory) {
+
+		if(depth < 1 || memory < 1) {
+			throw new IllegalArgumentException("the depth and budget must be positive: " + depth + ", " + memory);
+		}
+		maxDepth = depth;
+		budget = memory;
+		limit();
+	}
+
+	/**
+	 * Adds an edit that has just been made, which clears the redo stack.
+	 *
+	 * @param edit The edit.
+	 */
+	public void add(Edit edit) {
+
+		clear(redo);
+		push(undo, edit);
+		limit();
+	}
+
+	/**
+	 * Drops every edit, including spilled ones.
+	 */
+	public void clear() {
+		clear(undo);
+		clear(redo);
+	}
+
+	/**
+	 * Undoes the newest edit on the undo stack, if any, and moves it to the redo stack.
+	 */
+	public void undo() {
+		move(undo, redo, true);
+	}
+
+	/**
+	 * Redoes the newest edit on the redo stack, if any, and moves it to the undo stack.
+	 */
+	public void redo() {
+		move(redo, undo, false);
+	}
+
+	/**
+	 * Returns the edit that undo would undo next, so that a following edit can be merged into it.
+	 * Only an edit held in memory is returned, since a spilled one is no longer the object that was added,
+	 * and none while edits can be redone, since adding an edit would drop them.
+	 *
+	 * @return The newest edit, or null.
+	 */
+	public Edit newest() {
+		return redo.depth() == 0 ? undo.edits.peekFirst() : null;
+	}
+
+	/**
+	 *
+	 * @return The number of edits that can be undone, including spilled ones.
+	 */
+	public int undoDepth() {
+		return undo.depth();
+	}
+
+	/**
+	 *
+	 * @return The number of edits that can be redone, including spilled ones.
+	 */
+	public int redoDepth() {
+		return redo.depth();
+	}
+
+	/**
+	 *
+	 * @return The estimated size in bytes of the edits held in memory.
+	 */
+	public long memoryUsed() {
+		return bytes;
+	}
+
+	private void move(Side from, Side to, boolean undoing) {
+
+		Edit edit = pop(from);
+
+		if(edit == null) {
+			return;
+		}
+		if(undoing) {
+			edit.undo();
+		}
+		else {
+			edit.redo();
+		}
+		push(to, edit);
+		limit();
+	}
+
+	private void push(Side side, Edit edit) {
+
+		long size = edit.retainedSize();
+
+		side.edits.addFirst(edit);
+		side.sizes.addFirst(size);
+		side.bytes += size;
+		bytes += size;
+	}
+
+	/**
+	 * Takes the newest edit off a stack, reading a page of spilled edits back first if none are in memory.
+	 */
+	private Edit pop(Side side) {
+
+		if(side.edits.isEmpty() && side.spilled() > 0) {
+			pageIn(side);
+		}
+		if(side.edits.isEmpty()) {
+			return null;
+		}
+
+		long size = side.sizes.removeFirst();
+		side.bytes -= size;
+		bytes -= size;
+		return side.edits.removeFirst();
+	}
+
+	/**
+	 * Forgets the edits beyond the depth, then spills the oldest edits in memory while they are over the budget.
+	 */
+	private void limit() {
+
+		while(undo.depth() > maxDepth) {
+			dropOldest(undo);
+		}
+		while(redo.depth() > maxDepth) {
+			dropOldest(redo);
+		}
+
+		if(bytes <= budget) {
+			return;
+		}
+
+		long target = budget - budget / SPILL_SHARE;
+
+		while(bytes > target) {
+			spill(undo.bytes >= redo.bytes ? undo : redo, bytes - target);
+		}
+	}
+
+	private void dropOldest(Side side) {
+
+		if(side.spilled() > 0) {
+			side.first++;
+			compact(side);
+		}
+		else {
+			long size = side.sizes.removeLast();
+			side.bytes -= size;
+			bytes -= size;
+			side.edits.removeLast();
+		}
+	}
+
+	private void clear(Side side) {
+
+		bytes -= side.bytes;
+		side.bytes = 0;
+		side.edits.clear();
+		side.sizes.clear();
+		forgetSpilled(side);
+	}
+
+	/**
+	 * Writes the oldest edits in memory on one side to its spill file, oldest first, until about the given
+	 * amount has been freed. If they cannot be written, they are forgotten along with everything already
+	 * spilled on that side, since the edits that remain must follow on from each other.
+	 */
+	private void spill(Side side, long amount) {
+
+		ArrayList<Edit> spilling = new ArrayList<>();
+		long freed = 0;
+
+		while(freed < amount && !side.edits.isEmpty()) {
+
+			long size = side.sizes.removeLast();
+			side.bytes -= size;
+			bytes -= size;
+			freed += size;
+
+			spilling.add(side.edits.removeLast());
+		}
+
+		try {
+			ByteBuffer records = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+			long[] starts = new long[spilling.size()];
+
+			for(int i = 0; i < spilling.size(); i++) {
+				starts[i] = side.end + records.position();
+				records = putEdit(records, spilling.get(i));
+			}
+			records.flip();
+
+			FileChannel channel = side.channel();
+
+			while(records.hasRemaining()) {
+				channel.write(records, side.end + records.position());
+			}
+
+			for(long start : starts) {
+				side.addOffset(start);
+			}
+			side.end += records.limit();
+		}
+		catch(IOException e) {
+			System.err.println("the oldest " + side.name + " history could not be written to disk and is dropped");
+			e.printStackTrace();
+			forgetSpilled(side);
+		}
+	}
+
+	/**
+	 * Reads the newest spilled edits of one side back into memory, at least one and otherwise up to a page.
+	 * If they cannot be read, the spilled edits of that side are forgotten.
+	 */
+	private void pageIn(Side side) {
+
+		long page = Math.max(1, budget / PAGE_SHARE);
+		int from = side.count - 1;
+
+		while(from > side.first && side.end - side.offsets[from - 1] <= page) {
+			from--;
+		}
+
+		long start = side.offsets[from];
+
+		try {
+			ByteBuffer records = ByteBuffer.allocate(Math.toIntExact(side.end - start)).order(ByteOrder.LITTLE_ENDIAN);
+
+			while(records.hasRemaining()) {
+
+				if(side.channel().read(records, start + records.position()) < 0) {
+					throw new DrawingFormatException("the " + side.name + " history file ended early");
+				}
+			}
+			records.flip();
+
+			ArrayList<Edit> edits = new ArrayList<>();
+
+			while(records.hasRemaining()) {
+				edits.add(getEdit(records, start));
+			}
+
+			side.count = from;
+			side.end = start;
+			side.channel().truncate(start);
+
+			// oldest first, so that the newest ends up on top
+			for(Edit edit : edits) {
+				push(side, edit);
+			}
+		}
+		catch(IOException | ArithmeticException e) {
+			System.err.println("the older " + side.name + " history could not be read back from disk and is dropped");
+			e.printStackTrace();
+			forgetSpilled(side);
+		}
+	}
+
+	private void forgetSpilled(Side side) {
+
+		side.first = 0;
+		side.count = 0;
+		side.end = 0;
+
+		if(side.channel != null) {
+
+			try {
+				side.channel.truncate(0);
+			}
+			catch(IOException e) {
+				System.err.println("the " + side.name + " history file could not be emptied");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Moves the spilled edits of a side to the start of its file once most of the file holds forgotten edits.
+	 */
+	private void compact(Side side) {
+
+		if(side.first < 1024 || side.first * 2 < side.count) {
+			return;
+		}
+
+		long base = side.first < side.count ? side.offsets[side.first] : side.end;
+
+		try {
+			FileChannel channel = side.channel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, Math.max(1, side.end - base)));
+
+			// copying towards the start of the file never overwrites bytes not yet copied
+			for(long pos = base; pos < side.end; ) {
+
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), side.end - pos));
+				int n = channel.read(buffer, pos);
+
+				if(n <= 0) {
+					throw new DrawingFormatException("the " + side.name + " history file ended early");
+				}
+				buffer.flip();
+
+				while(buffer.hasRemaining()) {
+					channel.write(buffer, pos - base + buffer.position());
+				}
+				pos += n;
+			}
+
+			int live = side.count - side.first;
+
+			for(int i = 0; i < live; i++) {
+				side.offsets[i] = side.offsets[side.first + i] - base;
+			}
+			side.first = 0;
+			side.count = live;
+			side.end -= base;
+			channel.truncate(side.end);
+		}
+		catch(IOException e) {
+			System.err.println("the " + side.name + " history file could not be compacted and is dropped");
+			e.printStackTrace();
+			forgetSpilled(side);
+		}
+	}
+
+	/**
+	 * Appends the record of an edit: its length and its type, then for a CompositeEdit the number of
+	 * edits in it and their records, and for other edits the move of a MoveEdit, the ids of the shape
+	 * and its members in pre-order, and the shape in the format of BinaryShapeFormat.
+	 *
+	 * @return The buffer, or a larger one holding what it held if it was too small.
+	 */
+	private ByteBuffer putEdit(ByteBuffer target, Edit edit) throws IOException {
+
+		if(edit instanceof CompositeEdit) {
+
+			ArrayList<Edit> edits = ((CompositeEdit) edit).getEdits();
+
+			target = ensure(target, 9);
+			int start = target.position();
+
+			// the length is filled in once the records in it are written
+			target.putInt(0);
+			target.put(COMPOSITE);
+			target.putInt(edits.size());
+
+			for(Edit child : edits) {
+				target = putEdit(target, child);
+			}
+			target.putInt(start, target.position() - start - 4);
+			return target;
+		}
+
+		byte type;
+
+		if(edit instanceof MoveEdit) {
+			type = MOVE;
+		}
+		else if(edit instanceof GroupEdit) {
+			type = GROUP;
+		}
+		else if(edit instanceof DrawEdit) {
+			type = DRAW;
+		}
+		else if(edit instanceof DeleteEdit) {
+			type = DELETE;
+		}
+		else if(edit instanceof CopyEdit) {
+			type = COPY;
+		}
+		else {
+			throw new IOException(edit.getClass().getName() + " cannot be written to the history file");
+		}
+
+		MyShape s = edit.getShape();
+		ArrayList<MyShape> nodes = new ArrayList<>();
+		preOrder(s, nodes);
+
+		int length = 1 + (type == MOVE ? 16 : 0) + 4 + 8 * nodes.size() + BinaryShapeFormat.recordSize(s);
+
+		target = ensure(target, 4 + length);
+		target.putInt(length);
+		target.put(type);
+
+		if(type == MOVE) {
+			target.putDouble(((MoveEdit) edit).getDx());
+			target.putDouble(((MoveEdit) edit).getDy());
+		}
+
+		target.putInt(nodes.size());
+
+		for(MyShape node : nodes) {
+			target.putLong(idFor(node));
+		}
+
+		BinaryShapeFormat.writeShape(target, s);
+		return target;
+	}
+
+	/**
+	 * Returns the buffer if it has room for the given number of bytes, or else a larger one holding what it held.
+	 */
+	private static ByteBuffer ensure(ByteBuffer target, int bytes) {
+
+		if(target.remaining() >= bytes) {
+			return target;
+		}
+
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(target.capacity() * 2, target.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+		target.flip();
+		larger.put(target);
+		return larger;
+	}
+
+	/**
+	 * Reads the record of an edit written by putEdit and rebuilds the edit.
+	 *
+	 * @param source The records, positioned at the start of one. It is left at the start of the next.
+	 * @param start The file offset of the buffer, for error messages.
+	 */
+	private Edit getEdit(ByteBuffer source, long start) throws IOException {
+
+		long offset = start + source.position();
+
+		if(source.remaining() < 4 || source.getInt(source.position()) < 5 || source.remaining() - 4 < source.getInt(source.position())) {
+			throw new DrawingFormatException("the history record at offset " + offset + " is cut off");
+		}
+
+		int end = source.position() + 4 + source.getInt();
+		byte type = source.get();
+		double dx = 0, dy = 0;
+
+		if(type == COMPOSITE) {
+
+			int n = source.getInt();
+
+			if(n < 0 || n > (end - source.position()) / 9) {
+				throw new DrawingFormatException("the history record at offset " + offset + " holds " + n + " edits");
+			}
+
+			CompositeEdit edit = new CompositeEdit(canvas);
+
+			for(int i = 0; i < n; i++) {
+				edit.add(getEdit(source, start));
+			}
+			if(source.position() != end) {
+				throw new DrawingFormatException("the history record at offset " + offset + " does not match its edits");
+			}
+			return edit;
+		}
+
+		if(type == MOVE) {
+			dx = source.getDouble();
+			dy = source.getDouble();
+		}
+
+		int n = source.getInt();
+
+		if(n < 1 || n > (end - source.position()) / 8) {
+			throw new DrawingFormatException("the history record at offset " + offset + " has " + n + " shapes");
+		}
+
+		long[] ids = new long[n];
+
+		for(int i = 0; i < n; i++) {
+			ids[i] = source.getLong();
+		}
+
+		MyShape read = BinaryShapeFormat.readShape(source.slice(source.position(), end - source.position()).order(ByteOrder.LITTLE_ENDIAN),
+				start + source.position());
+
+		if(countNodes(read) != n || source.position() + BinaryShapeFormat.recordSize(read) != end) {
+			throw new DrawingFormatException("the history record at offset " + offset + " does not match its shape");
+		}
+		source.position(end);
+
+		MyShape s = resolve(read, ids, new int[1]);
+
+		switch(type) {
+		case DRAW:
+			return new DrawEdit(canvas, s);
+		case DELETE:
+			return new DeleteEdit(canvas, s);
+		case MOVE:
+			return new MoveEdit(canvas, s, dx, dy);
+		case COPY:
+			return new CopyEdit(canvas, s);
+		case GROUP:
+			if(s instanceof ShapeGroup) {
+				return new GroupEdit(canvas, s);
+			}
+			throw new DrawingFormatException("the history record at offset " + offset + " groups a shape that is not a group");
+		default:
+			throw new DrawingFormatException("the history record at offset " + offset + " has the unknown type " + type);
+		}
+	}
+
+	/**
+	 * Replaces a shape read back from a spill file, or any of its members, with the object that
+	 * has its id if that object is still alive, and gives the shapes that are not alive their ids.
+	 *
+	 * @param read The shape as read.
+	 * @param ids The ids of the shape and its members, in pre-order.
+	 * @param next The index in ids of the id of this shape, advanced past its members.
+	 * @return The shape to use.
+	 */
+	private MyShape resolve(MyShape read, long[] ids, int[] next) {
+
+		long id = ids[next[0]];
+		MyShape live = lookup(id);
+
+		if(live != null) {
+			next[0] += countNodes(read);
+			return live;
+		}
+
+		next[0]++;
+		register(read, id);
+
+		if(read instanceof ShapeGroup) {
+
+			ArrayList<MyShape> members = ((ShapeGroup) read).getMembers();
+
+			for(int i = 0; i < members.size(); i++) {
+
+				MyShape member = members.get(i);
+				MyShape used = resolve(member, ids, next);
+
+				if(used != member) {
+					members.set(i, used);
+				}
+			}
+			((ShapeGroup) read).invalidate();
+		}
+		return read;
+	}
+
+	private static void preOrder(MyShape s, ArrayList<MyShape> nodes) {
+
+		nodes.add(s);
+
+		if(s instanceof ShapeGroup) {
+
+			for(MyShape member : ((ShapeGroup) s).getMembers()) {
+				preOrder(member, nodes);
+			}
+		}
+	}
+
+	private static int countNodes(MyShape s) {
+
+		int n = 1;
+
+		if(s instanceof ShapeGroup) {
+
+			for(MyShape member : ((ShapeGroup) s).getMembers()) {
+				n += countNodes(member);
+			}
+		}
+		return n;
+	}
+
+	private long idFor(MyShape s) {
+
+		expunge();
+
+		Long id = idOf.get(s);
+
+		if(id == null) {
+			id = nextId++;
+			register(s, id);
+		}
+		return id;
+	}
+
+	private MyShape lookup(long id) {
+
+		expunge();
+
+		ShapeRef ref = shapeOf.get(id);
+		return ref != null ? ref.get() : null;
+	}
+
+	private void register(MyShape s, long id) {
+		idOf.put(s, id);
+		shapeOf.put(id, new ShapeRef(s, id, cleared));
+	}
+
+	/**
+	 * Drops the ids of shapes that have been collected.
+	 */
+	private void expunge() {
+
+		for(Object r; (r = cleared.poll()) != null; ) {
+
+			ShapeRef ref = (ShapeRef) r;
+			shapeOf.remove(ref.id, ref);
+		}
+	}
+
+	/**
+	 * A shape written to a spill file, held weakly, with its id.
+	 */
+	private static class ShapeRef extends WeakReference<MyShape> {
+
+		private final long id;
+
+		ShapeRef(MyShape s, long id, ReferenceQueue<MyShape> queue) {
+			super(s, queue);
+			this.id = id;
+		}
+	}
+
+	/**
+	 * One of the two stacks: the newest edits in memory, first in the deques, and the older ones in a spill file.
+	 * The spilled edits still kept are the records first to count - 1, with the newest at the end of the file.
+	 */
+	private static class Side {
+
+		private final String name;
+
+		private ArrayDeque<Edit> edits = new ArrayDeque<>();
+		private ArrayDeque<Long> sizes = new ArrayDeque<>();
+		private long bytes;
+
+		private FileChannel channel;
+		private long[] offsets = new long[16];
+		private int first, count;
+		private long end;
+
+		Side(String name) {
+			this.name = name;
+		}
+
+		int spilled() {
+			return count - first;
+		}
+
+		int depth() {
+			return edits.size() + spilled();
+		}
+
+		void addOffset(long offset) {
+
+			if(count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			offsets[count++] = offset;
+		}
+
+		/**
+		 * Opens the spill file the first time it is needed. It is deleted when the application exits.
+		 */
+		FileChannel channel() throws IOException {
+
+			if(channel == null) {
+
+				File file = File.createTempFile("shapeapp-" + name + "-", ".history");
+				file.deleteOnExit();
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			return channel;
+		}
+	}
+}
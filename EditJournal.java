@@ -0,0 +1,742 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a drawing safe between saves by writing every change to a journal as it is made.
+ *
+ * The journal is a directory of generations. Generation g has a snapshot, snapshot-g.bin in the binary
+ * format or snapshot-g.sht in the tiled format, holding the drawing as it was when the generation started,
+ * and a log, journal-g.log, with the changes made since. A change costs one record appended to the log and
+ * flushed to the disk. When the log has grown larger than the snapshot, a new generation is started and its
+ * snapshot is written on a background thread, after which the older generations are deleted. A drawing
+ * opened from a binary or tiled file without being read takes the file itself as its snapshot, hard-linked
+ * into the directory or copied, and a tiled drawing keeps being snapshot in the tiled format.
+ *
+ * recover opens the latest snapshot on the canvas, a tiled one through TiledShapeStore so that no tile is
+ * read for it, and replays the logs from there on. A log either follows on from the previous one or, after
+ * the drawing was replaced as a whole, starts from its own snapshot; such a log is only replayed if its
+ * snapshot was finished. A record cut short by a crash ends the replay and is cut off the log, and the
+ * journal then carries on with a log following on from the last one replayed, so recovering rewrites nothing.
+ *
+ * Records refer to top-level shapes by their position in drawing order, so replaying them needs nothing
+ * but the shapes themselves. Each record is its length, the change and a CRC-32 of the change.
+ */
+public class EditJournal implements Closeable {
+
+	public static final int MAGIC = 0x4a504853; // "SHPJ" read as a little-endian int
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 8;
+
+	// set in the header of a log that starts from its own snapshot instead of following the previous log
+	public static final int RESET = 1;
+
+	public static final byte ADD = 1;
+	public static final byte DELETE = 2;
+	public static final byte MOVE = 3;
+	public static final byte CLEAR = 4;
+
+	// logs shorter than this are not worth a snapshot, however small the drawing
+	private static final long MIN_LOG_SIZE = 1 << 20;
+
+	private File dir;
+	private FileChannel lockChannel;
+	private FileLock lock;
+
+	private FileChannel log;
+	private int generation;
+	private long logSize;
+	private boolean failed;
+
+	private ByteBuffer record;
+	private CRC32 crc;
+
+	private ExecutorService snapshots;
+	private volatile long snapshotSize;
+	private volatile boolean snapshotPending;
+
+	/**
+	 * Opens a journal directory, creating it if needed. Nothing is written until recover and snapshot have been called.
+	 *
+	 * @param dir The directory.
+	 * @throws IOException If the directory cannot be used or another editor has it open.
+	 */
+	public EditJournal(File dir) throws IOException {
+
+		this.dir = dir;
+
+		if(!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("could not create " + dir);
+		}
+
+		lockChannel = FileChannel.open(new File(dir, "lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		lock = lockChannel.tryLock();
+
+		if(lock == null) {
+			lockChannel.close();
+			throw new IOException(dir + " is in use by another editor");
+		}
+
+		TreeSet<Integer> generations = new TreeSet<>(snapshotGenerations());
+		generations.addAll(logGenerations());
+		generation = generations.isEmpty() ? 0 : generations.last();
+
+		record = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+		crc = new CRC32();
+
+		snapshots = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "ShapeApp journal snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Puts the drawing held by the journal on a canvas and journals the canvas' changes from then on.
+	 * The canvas should not be journaling to another journal.
+	 *
+	 * @param canvas The canvas, whose drawing is replaced.
+	 * @throws IOException If the snapshot cannot be read or a log was written by a newer version.
+	 */
+	public void recover(ShapeCanvas canvas) throws IOException {
+
+		canvas.setJournal(null);
+
+		TreeSet<Integer> snapshotGenerations = snapshotGenerations();
+		int start = snapshotGenerations.isEmpty() ? 0 : snapshotGenerations.last();
+		File snapshot = snapshotFile(start);
+
+		if(start == 0) {
+			canvas.replaceShapes(new ArrayList<>());
+		}
+		else if(snapshot.getName().endsWith(".sht")) {
+			canvas.openTiled(snapshot);
+		}
+		else {
+			canvas.replaceShapes(ShapeCanvas.readBinaryFile(snapshot, FileProgress.NONE));
+		}
+
+		snapshotSize = start > 0 ? snapshot.length() : 0;
+
+		int previous = start;
+		long replayed = 0;
+
+		for(int g : logGenerations().tailSet(start)) {
+
+			// a missing generation means the logs after it do not follow on from the drawing so far
+			if(g != start && g != previous + 1) {
+				break;
+			}
+
+			File file = logFile(g);
+			ByteBuffer in = readLog(file);
+
+			if(in.remaining() < HEADER_SIZE || in.getInt() != MAGIC) {
+				break;
+			}
+
+			short version = in.getShort();
+			int flags = in.getShort();
+
+			if(version > VERSION) {
+				throw new DrawingFormatException(file + " was written by a newer version");
+			}
+			if(g > start && (flags & RESET) != 0) {
+				break;
+			}
+
+			long good = replay(in, canvas, file);
+			previous = g;
+			replayed += good;
+
+			if(good < in.limit()) {
+
+				// the damaged end would otherwise stay in the middle of the chain
+				try(FileChannel damaged = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+					damaged.truncate(good);
+					damaged.force(true);
+				}
+				break;
+			}
+		}
+
+		// whatever was not replayed does not lead on from the drawing recovered
+		for(int g : logGenerations().tailSet(previous, false)) {
+			logFile(g).delete();
+		}
+		for(int g : snapshotGenerations().tailSet(previous, false)) {
+			deleteSnapshot(g);
+		}
+
+		canvas.restartHistory();
+		canvas.setJournal(this);
+
+		generation = previous;
+		startGeneration(false);
+
+		// the logs replayed count towards the next snapshot as much as the new one
+		logSize += replayed;
+	}
+
+	/**
+	 * Journals shapes added after all the others.
+	 *
+	 * @param shapes The shapes, in the order they were added.
+	 */
+	public void added(Collection<? extends MyShape> shapes) {
+
+		if(log == null || shapes.isEmpty()) {
+			return;
+		}
+
+		try {
+			int length = 1 + 4;
+
+			for(MyShape s : shapes) {
+				length += BinaryShapeFormat.recordSize(s);
+			}
+
+			ByteBuffer body = begin(length);
+			body.put(ADD);
+			body.putInt(shapes.size());
+
+			for(MyShape s : shapes) {
+				BinaryShapeFormat.writeShape(body, s);
+			}
+			append();
+		}
+		catch(IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Journals top-level shapes removed together.
+	 *
+	 * @param positions Their positions in drawing order before the removal, in increasing order.
+	 */
+	public void deleted(int[] positions) {
+
+		if(log == null || positions.length == 0) {
+			return;
+		}
+
+		try {
+			ByteBuffer body = begin(1 + 4 + 4 * positions.length);
+			body.put(DELETE);
+			body.putInt(positions.length);
+
+			for(int p : positions) {
+				body.putInt(p);
+			}
+			append();
+		}
+		catch(IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Journals a top-level shape moved.
+	 *
+	 * @param position Its position in drawing order.
+	 * @param dx The offset along the x-axis.
+	 * @param dy The offset along the y-axis.
+	 */
+	public void moved(int position, double dx, double dy) {
+
+		if(log == null) {
+			return;
+		}
+
+		try {
+			ByteBuffer body = begin(1 + 4 + 16);
+			body.put(MOVE);
+			body.putInt(position);
+			body.putDouble(dx);
+			body.putDouble(dy);
+			append();
+		}
+		catch(IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Journals the removal of every shape.
+	 */
+	public void cleared() {
+
+		if(log == null) {
+			return;
+		}
+
+		try {
+			begin(1).put(CLEAR);
+			append();
+		}
+		catch(IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Checks if the log has grown enough that the drawing should be snapshot.
+	 *
+	 * @return true if snapshot should be called.
+	 */
+	public boolean needsSnapshot() {
+		return log != null && !snapshotPending && logSize > Math.max(MIN_LOG_SIZE, snapshotSize);
+	}
+
+	/**
+	 * Starts a new generation from the drawing as it is now. The snapshot is written on a background thread
+	 * and the older generations are deleted once it is complete.
+	 *
+	 * @param shapes The top-level shapes in drawing order, such as those of ShapeCanvas.snapshotShapes,
+	 *               which do not change with the drawing. The journal takes them over.
+	 * @param reset True if the drawing was replaced as a whole, so that the new log cannot follow on from the
+	 *              previous one and is only replayed once the snapshot is complete.
+	 */
+	public void snapshot(Collection<MyShape> shapes, boolean reset) {
+		snapshot(shapes, reset, false);
+	}
+
+	/**
+	 * Starts a new generation from the drawing as it is now, as snapshot(Collection, boolean) does,
+	 * with the snapshot written in the tiled format if asked, so that it can be opened without being read.
+	 *
+	 * @param shapes The top-level shapes in drawing order, which do not change with the drawing. The journal takes them over.
+	 * @param reset True if the drawing was replaced as a whole.
+	 * @param tiled True to write the snapshot in the tiled format, as for a drawing opened from a tiled file.
+	 */
+	public void snapshot(Collection<MyShape> shapes, boolean reset, boolean tiled) {
+
+		if(failed) {
+			return;
+		}
+
+		try {
+			startGeneration(reset);
+		}
+		catch(IOException e) {
+			fail(e);
+			return;
+		}
+
+		int g = generation;
+		snapshotPending = true;
+
+		snapshots.execute(() -> writeSnapshot(g, shapes, tiled));
+	}
+
+	/**
+	 * Starts a new generation from a drawing just opened from a file in the binary or tiled format, without reading it.
+	 * The file is hard-linked into the directory as the snapshot, which takes no time and keeps the contents
+	 * it has now, since files are saved over by replacing them. Where the file system cannot link it, it is
+	 * copied on the background thread, through a channel opened now.
+	 *
+	 * @param file The file the drawing was opened from.
+	 * @param reset True if the drawing was replaced as a whole, as for snapshot(Collection, boolean).
+	 */
+	public void snapshot(File file, boolean reset) {
+
+		if(failed) {
+			return;
+		}
+
+		boolean tiled;
+
+		try {
+			tiled = TiledShapeFormat.isTiled(file);
+			startGeneration(reset);
+		}
+		catch(IOException e) {
+			fail(e);
+			return;
+		}
+
+		int g = generation;
+		File target = snapshotFile(g, tiled);
+		FileChannel source = null;
+
+		try {
+			Files.createLink(target.toPath(), file.toPath());
+		}
+		catch(IOException | UnsupportedOperationException e) {
+			try {
+				source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			}
+			catch(IOException e2) {
+				System.err.println("the journal snapshot " + target + " could not be copied from " + file);
+				e2.printStackTrace();
+				return;
+			}
+		}
+
+		FileChannel copyFrom = source;
+		snapshotPending = true;
+
+		snapshots.execute(() -> copySnapshot(g, target, copyFrom));
+	}
+
+	/**
+	 * Closes the log and lets other editors use the directory. A snapshot being written is given a few seconds to finish.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		snapshots.shutdown();
+
+		try {
+			snapshots.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(log != null) {
+			log.close();
+			log = null;
+		}
+		lock.release();
+		lockChannel.close();
+	}
+
+	private void writeSnapshot(int g, Collection<MyShape> shapes, boolean tiled) {
+
+		File file = snapshotFile(g, tiled);
+
+		try {
+			if(tiled) {
+				ShapeCanvas.writeTiledFile(file, shapes.size(), shapes, FileProgress.NONE);
+			}
+			else {
+				ShapeCanvas.writeBinaryFile(file, shapes.size(), shapes, FileProgress.NONE);
+			}
+			finishSnapshot(g, file);
+		}
+		catch(IOException e) {
+			System.err.println("the journal snapshot " + file + " could not be written");
+			e.printStackTrace();
+		}
+		finally {
+			snapshotPending = false;
+		}
+	}
+
+	/**
+	 * Finishes a snapshot hard-linked by snapshot(File, boolean), or copies the file through the channel
+	 * opened when the link could not be made, to a hidden file that then takes the snapshot's name.
+	 */
+	private void copySnapshot(int g, File file, FileChannel source) {
+
+		File temp = new File(dir, "." + file.getName());
+
+		try {
+			if(source != null) {
+				try(source; FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+					long size = source.size();
+
+					for(long done = 0; done < size; ) {
+
+						long n = source.transferTo(done, size - done, out);
+
+						if(n <= 0) {
+							throw new IOException("the file ended after " + done + " of " + size + " bytes");
+						}
+						done += n;
+					}
+				}
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finishSnapshot(g, file);
+		}
+		catch(IOException e) {
+			System.err.println("the journal snapshot " + file + " could not be copied");
+			e.printStackTrace();
+		}
+		finally {
+			temp.delete();
+			snapshotPending = false;
+		}
+	}
+
+	/**
+	 * Deletes the generations before a snapshot, once it is on the disk.
+	 */
+	private void finishSnapshot(int g, File file) throws IOException {
+
+		try(FileChannel written = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			written.force(true);
+		}
+		snapshotSize = file.length();
+
+		for(int old : snapshotGenerations().headSet(g)) {
+			deleteSnapshot(old);
+		}
+		for(int old : logGenerations().headSet(g)) {
+			logFile(old).delete();
+		}
+	}
+
+	private void startGeneration(boolean reset) throws IOException {
+
+		if(log != null) {
+			log.close();
+			log = null;
+		}
+
+		generation++;
+
+		log = FileChannel.open(logFile(generation).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) (reset ? RESET : 0));
+		header.flip();
+
+		while(header.hasRemaining()) {
+			log.write(header);
+		}
+		log.force(false);
+		logSize = HEADER_SIZE;
+	}
+
+	/**
+	 * Clears the record buffer for a change of the given length, leaving room for the length and the checksum.
+	 */
+	private ByteBuffer begin(int length) {
+
+		if(record.capacity() < length + 8) {
+			record = ByteBuffer.allocate(Math.max(length + 8, record.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		record.clear();
+		record.putInt(length);
+		return record;
+	}
+
+	/**
+	 * Adds the checksum to the record in the buffer and appends it to the log.
+	 */
+	private void append() throws IOException {
+
+		int length = record.getInt(0);
+
+		crc.reset();
+		crc.update(record.array(), 4, length);
+		record.putInt((int) crc.getValue());
+		record.flip();
+
+		while(record.hasRemaining()) {
+			log.write(record);
+		}
+		log.force(false);
+		logSize += record.limit();
+	}
+
+	/**
+	 * Stops journaling after a write failed, since the log no longer matches the drawing.
+	 */
+	private void fail(IOException e) {
+
+		System.err.println("the edit journal in " + dir + " could not be written, changes are only kept by saving");
+		e.printStackTrace();
+
+		failed = true;
+
+		try {
+			if(log != null) {
+				log.close();
+			}
+		}
+		catch(IOException ignored) {
+		}
+		log = null;
+	}
+
+	/**
+	 * Applies the records of a log to the drawing on the canvas.
+	 *
+	 * @return The length of the log up to the end of the last record applied, which is all of it unless it
+	 *         ended with an incomplete or damaged record.
+	 */
+	private long replay(ByteBuffer in, ShapeCanvas canvas, File file) {
+
+		int good = in.position();
+
+		while(in.remaining() >= 4) {
+
+			int length = in.getInt();
+
+			if(length <= 0 || in.remaining() < length + 4) {
+				break;
+			}
+
+			ByteBuffer body = in.slice(in.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+			in.position(in.position() + length);
+
+			crc.reset();
+			crc.update(body.duplicate());
+
+			if((int) crc.getValue() != in.getInt()) {
+				break;
+			}
+
+			try {
+				apply(body, canvas);
+			}
+			catch(IOException | RuntimeException e) {
+				System.err.println(file + ": a journaled change could not be replayed: " + e.getMessage());
+				break;
+			}
+			good = in.position();
+		}
+		return good;
+	}
+
+	private void apply(ByteBuffer body, ShapeCanvas canvas) throws IOException {
+
+		byte type = body.get();
+
+		if(type == ADD) {
+
+			int n = body.getInt();
+			ArrayList<MyShape> added = new ArrayList<>();
+
+			for(int i = 0; i < n; i++) {
+				MyShape s = BinaryShapeFormat.readShape(body, body.position());
+				body.position(body.position() + BinaryShapeFormat.recordSize(s));
+				added.add(s);
+			}
+			canvas.addShapes(added);
+		}
+		else if(type == DELETE) {
+
+			int n = body.getInt();
+			int count = canvas.shapeCount();
+			int[] positions = new int[n];
+
+			for(int i = 0; i < n; i++) {
+				positions[i] = body.getInt();
+
+				if(positions[i] < 0 || positions[i] >= count || (i > 0 && positions[i] <= positions[i - 1])) {
+					throw new DrawingFormatException("shape " + positions[i] + " cannot be deleted");
+				}
+			}
+
+			// one pass over the shapes, however many are removed
+			canvas.deleteShapes(canvas.shapesAt(positions));
+		}
+		else if(type == MOVE) {
+
+			int p = body.getInt();
+
+			if(p < 0 || p >= canvas.shapeCount()) {
+				throw new DrawingFormatException("shape " + p + " cannot be moved");
+			}
+			canvas.moveShape(canvas.shapesAt(new int[] { p }).get(0), body.getDouble(), body.getDouble());
+		}
+		else if(type == CLEAR) {
+			canvas.clear();
+		}
+		else {
+			throw new DrawingFormatException("unknown change " + type);
+		}
+	}
+
+	private static ByteBuffer readLog(File file) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new DrawingFormatException(file + " is too large to be a journal");
+			}
+
+			ByteBuffer in = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+			while(in.hasRemaining() && channel.read(in) >= 0) {
+			}
+			in.flip();
+			return in;
+		}
+	}
+
+	/**
+	 * Finds the snapshot of a generation, in whichever format it was written.
+	 */
+	private File snapshotFile(int g) {
+
+		File tiled = snapshotFile(g, true);
+		return tiled.exists() ? tiled : snapshotFile(g, false);
+	}
+
+	private File snapshotFile(int g, boolean tiled) {
+		return new File(dir, "snapshot-" + g + (tiled ? ".sht" : ".bin"));
+	}
+
+	private void deleteSnapshot(int g) {
+		snapshotFile(g, false).delete();
+		snapshotFile(g, true).delete();
+	}
+
+	private File logFile(int g) {
+		return new File(dir, "journal-" + g + ".log");
+	}
+
+	private TreeSet<Integer> snapshotGenerations() {
+
+		TreeSet<Integer> found = generations("snapshot-", ".bin");
+		found.addAll(generations("snapshot-", ".sht"));
+		return found;
+	}
+
+	private TreeSet<Integer> logGenerations() {
+		return generations("journal-", ".log");
+	}
+
+	/**
+	 * Lists the generations that have a file named prefix + generation + suffix.
+	 */
+	private TreeSet<Integer> generations(String prefix, String suffix) {
+
+		TreeSet<Integer> found = new TreeSet<>();
+		String[] names = dir.list();
+
+		if(names == null) {
+			return found;
+		}
+
+		for(String name : names) {
+
+			if(name.startsWith(prefix) && name.endsWith(suffix)) {
+				try {
+					found.add(Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())));
+				}
+				catch(NumberFormatException e) {
+					// not one of ours
+				}
+			}
+		}
+		return found;
+	}
+}
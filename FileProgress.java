@@ -0,0 +1,58 @@
+import java.io.InterruptedIOException;
+
+/**
+ * Receives the progress of reading or writing a drawing file, and can ask for the work to stop.
+ */
+public interface FileProgress {
+
+	/**
+	 * How many shapes are handled between two checkpoints.
+	 */
+	int STEP = 4096;
+
+	/**
+	 * Progress that is not reported anywhere and is never cancelled.
+	 */
+	FileProgress NONE = new FileProgress() {
+
+		@Override
+		public void update(long done, long total) {
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+	};
+
+	/**
+	 * Reports how much of the work is done.
+	 *
+	 * @param done The amount of work done, such as bytes read or shapes written.
+	 * @param total The whole amount of work, in the same unit.
+	 */
+	void update(long done, long total);
+
+	/**
+	 * Checks if the work should stop.
+	 *
+	 * @return true if the work has been cancelled.
+	 */
+	boolean isCancelled();
+
+	/**
+	 * Reports progress and stops the work if it has been cancelled.
+	 *
+	 * @param done The amount of work done.
+	 * @param total The whole amount of work.
+	 * @throws InterruptedIOException If the work has been cancelled.
+	 */
+	default void checkpoint(long done, long total) throws InterruptedIOException {
+
+		update(done, total);
+
+		if(isCancelled()) {
+			throw new InterruptedIOException("cancelled");
+		}
+	}
+}
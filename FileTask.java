@@ -0,0 +1,55 @@
+import java.io.IOException;
+
+import javafx.concurrent.Task;
+
+/**
+ * A task that reads or writes a drawing file on a background thread.
+ *
+ * The task is the FileProgress of the work it runs, so the progress reported by the reader or
+ * writer shows up in its progress property and cancelling the task stops the work at the next checkpoint.
+ *
+ * @param <V> The result of the work, such as the shapes read.
+ */
+public class FileTask<V> extends Task<V> implements FileProgress {
+
+	/**
+	 * The work done by a FileTask.
+	 *
+	 * @param <V> The result of the work.
+	 */
+	public interface Work<V> {
+
+		/**
+		 * Does the work.
+		 *
+		 * @param progress Receives the progress and tells when to stop.
+		 * @return The result.
+		 * @throws IOException If the file cannot be read or written, or the work is cancelled.
+		 */
+		V run(FileProgress progress) throws IOException;
+	}
+
+	private Work<V> work;
+
+	/**
+	 * Constructs a task for some work.
+	 *
+	 * @param work The work to run.
+	 */
+	public FileTask(Work<V> work) {
+		this.work = work;
+	}
+
+	@Override
+	protected V call() throws IOException {
+		return work.run(this);
+	}
+
+	/**
+	 * Publishes the progress to the progress property, which can be called from any thread.
+	 */
+	@Override
+	public void update(long done, long total) {
+		updateProgress(done, total);
+	}
+}
@@ -23,11 +23,15 @@ public class GroupEdit extends Edit{
 	@Override
 	public void undo() {
 		
-		for(MyShape s : group.getMembers()) {
-			canvas.addShape(s);
+		canvas.beginEdit();
+
+		try {
+			canvas.addShapes(group.getMembers());
+			canvas.deleteShape(group);
+		}
+		finally {
+			canvas.commitEdit();
 		}
-		canvas.deleteShape(group);
-		canvas.paint();
 	}
 	
 	/**
@@ -36,12 +40,18 @@ public class GroupEdit extends Edit{
 	@Override
 	public void redo() {
 		
-		for(MyShape s : group.getMembers()) {
-			canvas.deleteShape(s);
+		// the members may have been regrouped or changed since the group was undone
+		group.invalidate();
+
+		canvas.beginEdit();
+
+		try {
+			canvas.deleteShapes(group.getMembers());
+			canvas.addShape(group);
+		}
+		finally {
+			canvas.commitEdit();
 		}
-		
-		canvas.addShape(group);
-		canvas.paint();
 	}
 
 }
@@ -10,7 +10,6 @@ public class GroupHandler implements EventHandler<MouseEvent>{
 
 	private ShapeCanvas canvas;
 	private ShapeGroup shapeGroup;
-	private ArrayList<MyShape> allShapes;
 
 	/**
 	 * Constructs a GroupHandler for managing shape grouping on the canvas.
@@ -37,45 +36,40 @@ public class GroupHandler implements EventHandler<MouseEvent>{
 
 			if(shapeGroup != null) {
 				canvas.setCurrentShape(shapeGroup);
-				shapeGroup.setP1(e.getX(), e.getY());
+				shapeGroup.setP1(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+				shapeGroup.setP2(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+				canvas.beginInteraction(shapeGroup);
 			}
 		}
 
 		if(e.getEventType() == MouseEvent.MOUSE_DRAGGED) {
 			if(shapeGroup != null) {
-				shapeGroup.setP2(e.getX(), e.getY());
-				canvas.paint();
+				canvas.damage(shapeGroup);
+				shapeGroup.setP2(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+				canvas.damage(shapeGroup);
+				canvas.requestRepaint();
 			}
 		}
 
 		if(e.getEventType() == MouseEvent.MOUSE_RELEASED) {
 
-			shapeGroup.setP2(e.getX(), e.getY());
-			canvas.paint();
+			canvas.damage(shapeGroup);
+			shapeGroup.setP2(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY()));
+			canvas.endInteraction();
 
-			allShapes = canvas.getShapes();
+			double ulx = shapeGroup.getULX();
+			double uly = shapeGroup.getULY();
 
-			int i = 0;
+			ArrayList<MyShape> members = canvas.shapesWithin(ulx, uly, ulx + shapeGroup.getWidth(), uly + shapeGroup.getHeight());
 
-			while (i < allShapes.size()) {
+			shapeGroup.addMembers(members);
+			canvas.deleteShapes(members);
 
-				MyShape curShape = allShapes.get(i);
-
-				if(shapeGroup.within(curShape)) {
-
-					shapeGroup.addMember(curShape);
-					canvas.deleteShape(curShape);
-				}
-				else {
-					i++;
-				}
-			}
 			if(shapeGroup.size() > 0) {
 
 				canvas.addShape(shapeGroup);
 				canvas.setCurrentShape(null);
 				canvas.addEdit(new GroupEdit(canvas, shapeGroup));
-				canvas.paint();
 				shapeGroup = null;
 			}
 		}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 import javafx.geometry.Point2D;
 import javafx.scene.canvas.GraphicsContext;
 
@@ -5,6 +7,8 @@ import javafx.scene.canvas.GraphicsContext;
  * Class representing a line.
  */
 public class Line extends MyShape {
+
+	private static final long serialVersionUID = -8351731273063479390L;
 	
     /**
      * Calls the default parent constructor
@@ -48,18 +52,19 @@ public class Line extends MyShape {
 		
 		//drawBounds(gc);
 		gc.setStroke(color);
-		gc.strokeLine(p1.getX(), p1.getY(), p2.getX(), p2.getY());
+		gc.strokeLine(x1, y1, x2, y2);
 	}
 	
 	/**
-	 * Returns a string representation of this Line object.
-	 * The string representation includes the type of shape ("Line") followed by the superclass's string representation.
+	 * Writes the text form of this Line object: the type of shape ("Line") followed by the superclass's fields.
 	 *
-	 * @return A string representation of this Line object.
+	 * @param out Where to write.
+	 * @throws IOException If out cannot be written to.
 	 */
 	@Override
-	public String toString() {
-		return "Line " + super.toString();
+	public void writeText(Appendable out) throws IOException {
+		out.append("Line ");
+		super.writeText(out);
 	}
 
 }
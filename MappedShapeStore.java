@@ -0,0 +1,1123 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Storage reading the shapes of a drawing straight from a memory-mapped binary file.
+ *
+ * Opening a file only walks the fixed part of its top-level records, using the member lengths
+ * to skip over groups. It keeps the offset of every record and a grid of record numbers bucketed
+ * by center, about 12 bytes per shape. Nothing else about a shape is held on the heap until a
+ * viewport, hit test or edit touches it. Lines, rectangles and ovals are drawn straight from the
+ * mapped bytes, and groups are decoded when drawn, keeping the most recently drawn ones.
+ *
+ * Shapes handed out by nearest, within or toList become objects that are kept from then on.
+ * A shape that is then changed, or a shape added after opening, is indexed by its object instead of by the file.
+ * Removing a shape only marks its record; the file itself is never written.
+ */
+public class MappedShapeStore implements ShapeStorage {
+
+	// files are mapped in segments of 1 GB, overlapping by enough for the fixed part of any record
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final int SEGMENT_OVERLAP = 128;
+
+	private static final int RECORDS_PER_CELL = 4;
+	private static final int MAX_CELLS = 1 << 22;
+	private static final int LARGE_CELLS = 4;
+	private static final int GROUP_CACHE_SIZE = 32;
+	private static final int COLOR_CACHE_SIZE = 256;
+
+	private File file;
+	private FileChannel channel;
+	private MappedByteBuffer[] segments;
+
+	private int records, live;
+
+	// file offset of each record, or -1 for shapes added after opening; only ever appended to
+	private long[] offsets;
+	private BitSet deleted, moved, hasObject;
+
+	private HashMap<Integer, MyShape> objects;
+	private IdentityHashMap<MyShape, Integer> recordOf;
+	private SpatialIndex movedIndex;
+	private LinkedHashMap<Integer, MyShape> groupCache;
+
+	// grid over the record centers; the records of cell c are cellRecords[cellStart[c] .. cellStart[c + 1])
+	private double gridX, gridY, cellSize;
+	private int cols, rows;
+	private int[] cellStart, cellRecords;
+	private int[] large;
+	private double reachX, reachY;
+
+	// center and extent of the last record read by bounds
+	private double[] box;
+
+	private long[] colorKeys;
+	private Color[] colorValues;
+
+	/**
+	 * Record numbers collected by a query.
+	 */
+	private static class Found {
+
+		private int[] items = new int[16];
+		private int size;
+
+		private void add(int r) {
+
+			if(size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+			}
+			items[size++] = r;
+		}
+	}
+
+	private MappedShapeStore(File file, FileChannel channel) {
+
+		this.file = file;
+		this.channel = channel;
+
+		box = new double[6];
+		colorKeys = new long[COLOR_CACHE_SIZE * 2];
+		colorValues = new Color[COLOR_CACHE_SIZE];
+
+		deleted = new BitSet();
+		moved = new BitSet();
+		hasObject = new BitSet();
+		objects = new HashMap<>();
+		recordOf = new IdentityHashMap<>();
+		movedIndex = new SpatialIndex();
+
+		groupCache = new LinkedHashMap<Integer, MyShape>(GROUP_CACHE_SIZE, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, MyShape> eldest) {
+				return size() > GROUP_CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Maps a file in the binary format and indexes its top-level shapes.
+	 *
+	 * @param file The file to open.
+	 * @return The storage, which keeps the file open until it is cleared.
+	 * @throws IOException If the file cannot be read or is not in the binary format.
+	 */
+	public static MappedShapeStore open(File file) throws IOException {
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			MappedShapeStore store = new MappedShapeStore(file, channel);
+			store.map();
+			store.scan();
+			store.buildGrid();
+			return store;
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Removes every shape and closes the file. Snapshots taken before can still be read, from the mapped segments.
+	 */
+	@Override
+	public void clear() {
+
+		try {
+			if(channel != null) {
+				channel.close();
+			}
+		}
+		catch(IOException e) {
+			System.err.println("could not close " + file);
+			e.printStackTrace();
+		}
+
+		channel = null;
+		segments = null;
+
+		records = 0;
+		live = 0;
+		offsets = new long[16];
+
+		deleted.clear();
+		moved.clear();
+		hasObject.clear();
+		objects.clear();
+		recordOf.clear();
+		movedIndex.clear();
+		groupCache.clear();
+
+		cellStart = null;
+		cellRecords = null;
+		large = new int[0];
+	}
+
+	/**
+	 * Returns the number of shapes in the store.
+	 *
+	 * @return the number of shapes.
+	 */
+	@Override
+	public int size() {
+		return live;
+	}
+
+	/**
+	 * Adds a shape after every shape already in the store. The shape is always kept as an object.
+	 *
+	 * @param s The shape to add.
+	 * @param keep Ignored, as the shape has no record in the file to fall back on.
+	 */
+	@Override
+	public void add(MyShape s, boolean keep) {
+
+		if(s == null || recordOf.containsKey(s)) {
+			return;
+		}
+
+		if(records == offsets.length) {
+			offsets = Arrays.copyOf(offsets, Math.max(16, records * 2));
+		}
+
+		int r = records++;
+		live++;
+
+		offsets[r] = -1;
+		keep(r, s);
+		moved.set(r);
+		movedIndex.insert(s);
+	}
+
+	/**
+	 * Removes a shape previously added or returned by the store.
+	 *
+	 * @param s The shape to remove.
+	 * @return true if the shape was in the store, false otherwise.
+	 */
+	@Override
+	public boolean remove(MyShape s) {
+
+		Integer r = recordOf.remove(s);
+
+		if(r == null) {
+			return false;
+		}
+
+		objects.remove(r);
+		hasObject.clear(r);
+		deleted.set(r);
+		live--;
+
+		if(moved.get(r)) {
+			movedIndex.remove(s);
+		}
+		return true;
+	}
+
+	/**
+	 * Indexes a shape by its object from now on, after it has changed.
+	 *
+	 * @param s The shape that changed.
+	 */
+	@Override
+	public void update(MyShape s) {
+
+		Integer r = recordOf.get(s);
+
+		if(r == null) {
+			return;
+		}
+
+		if(moved.get(r)) {
+			movedIndex.update(s);
+		}
+		else {
+			moved.set(r);
+			movedIndex.insert(s);
+		}
+	}
+
+	/**
+	 * Finds the shape whose center is closest to a point.
+	 * When several shapes are equally close, the one earliest in drawing order is returned.
+	 *
+	 * @param x X-coordinate of the point.
+	 * @param y Y-coordinate of the point.
+	 * @return Closest shape or null if the store is empty.
+	 */
+	@Override
+	public MyShape nearest(double x, double y) {
+
+		MyShape best = movedIndex.nearest(x, y);
+		int bestRecord = best == null ? -1 : recordOf.get(best);
+		double bestDistance = best == null ? Double.POSITIVE_INFINITY : best.distance(x, y);
+
+		int fileBest = -1;
+		double fileDistance = Double.POSITIVE_INFINITY;
+
+		if(cellRecords != null) {
+
+			// the square around the point reaching the farthest corner of the grid covers every record
+			double limit = Math.max(
+					Math.max(Math.abs(x - gridX), Math.abs(x - (gridX + cols * cellSize))),
+					Math.max(Math.abs(y - gridY), Math.abs(y - (gridY + rows * cellSize))));
+
+			// a record no farther than half the square's width is closer than any record outside the square
+			for(double half = cellSize; ; half *= 2) {
+
+				Found found = new Found();
+				collectFromFile(found, x - half, y - half, x + half, y + half, true);
+				Arrays.sort(found.items, 0, found.size);
+
+				for(int i = 0; i < found.size; i++) {
+
+					bounds(found.items[i]);
+
+					double a = box[0] - x;
+					double b = box[1] - y;
+					double distance = Math.sqrt(a * a + b * b);
+
+					if(fileBest < 0 || distance < fileDistance) {
+						fileBest = found.items[i];
+						fileDistance = distance;
+					}
+				}
+
+				if((fileBest >= 0 && fileDistance <= half) || !(half < limit)) {
+					break;
+				}
+			}
+		}
+
+		if(fileBest >= 0 && (best == null || fileDistance < bestDistance || (fileDistance == bestDistance && fileBest < bestRecord))) {
+			return view(fileBest);
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the shapes whose center lies inside a rectangle, edges included.
+	 *
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @return The matching shapes in drawing order.
+	 */
+	@Override
+	public ArrayList<MyShape> within(double minX, double minY, double maxX, double maxY) {
+
+		Found found = collect(minX, minY, maxX, maxY, true);
+		ArrayList<MyShape> result = new ArrayList<>(found.size);
+
+		for(int i = 0; i < found.size; i++) {
+
+			MyShape s = view(found.items[i]);
+
+			if(s != null) {
+				result.add(s);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Draws, in drawing order, the shapes whose drawn area intersects a rectangle.
+	 * Lines, rectangles and ovals without an object are drawn straight from the file.
+	 *
+	 * @param gc The graphics context to use for drawing.
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @param skip A shape not to draw, or null.
+	 */
+	@Override
+	public void draw(GraphicsContext gc, double minX, double minY, double maxX, double maxY, MyShape skip) {
+
+		Found found = collect(minX, minY, maxX, maxY, false);
+
+		for(int i = 0; i < found.size; i++) {
+
+			int r = found.items[i];
+
+			if(hasObject.get(r)) {
+
+				MyShape s = objects.get(r);
+
+				if(s != skip) {
+					s.draw(gc);
+				}
+			}
+			else {
+				drawRecord(gc, r);
+			}
+		}
+	}
+
+	/**
+	 * Returns every shape in drawing order, decoding and keeping those that have no object yet.
+	 *
+	 * @return An ArrayList of the shapes in the store.
+	 */
+	@Override
+	public ArrayList<MyShape> toList() {
+
+		ArrayList<MyShape> result = new ArrayList<>(live);
+
+		for(int r = 0; r < records; r++) {
+
+			if(!deleted.get(r)) {
+
+				MyShape s = view(r);
+
+				if(s != null) {
+					result.add(s);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Clones the shapes added or changed since opening. The other shapes are decoded from the mapped segments
+	 * as the snapshot is iterated, which stay readable after the file is closed.
+	 *
+	 * @return The shapes in drawing order.
+	 */
+	@Override
+	public Collection<MyShape> snapshot() {
+
+		Snapshot copy = new Snapshot();
+
+		copy.file = file;
+		copy.records = records;
+		copy.live = live;
+		copy.offsets = offsets;
+		copy.deleted = (BitSet) deleted.clone();
+		copy.changed = new HashMap<>();
+
+		for(int r = moved.nextSetBit(0); r >= 0; r = moved.nextSetBit(r + 1)) {
+			if(!deleted.get(r)) {
+				copy.changed.put(r, (MyShape) objects.get(r).clone());
+			}
+		}
+
+		copy.segments = segments;
+		return copy;
+	}
+
+	/**
+	 * Finds the shapes at positions in drawing order, counting the records left unless none are removed.
+	 *
+	 * @param positions Positions counting from 0, in increasing order.
+	 * @return The shapes at the positions that hold one, in the same order.
+	 */
+	@Override
+	public ArrayList<MyShape> shapesAt(int[] positions) {
+
+		ArrayList<MyShape> found = new ArrayList<>(positions.length);
+		int r = -1;
+		int position = -1;
+
+		for(int p : positions) {
+
+			if(deleted.isEmpty()) {
+				r = p;
+				position = p;
+			}
+
+			while(position < p) {
+				r = deleted.nextClearBit(r + 1);
+				position++;
+			}
+
+			if(r >= records) {
+				break;
+			}
+
+			MyShape s = view(r);
+
+			if(s != null) {
+				found.add(s);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds where shapes are in drawing order by counting the records left before theirs.
+	 *
+	 * @param shapes Shapes previously added or returned by the store. Others are ignored.
+	 * @return The positions of the stored ones, counting from 0, in increasing order.
+	 */
+	@Override
+	public int[] positions(Collection<? extends MyShape> shapes) {
+
+		int[] found = new int[shapes.size()];
+		int n = 0;
+
+		for(MyShape s : shapes) {
+
+			Integer r = recordOf.get(s);
+
+			if(r != null) {
+				found[n++] = r;
+			}
+		}
+
+		found = Arrays.stream(found, 0, n).sorted().distinct().toArray();
+
+		int removed = 0;
+		int from = 0;
+
+		for(int i = 0; i < found.length; i++) {
+
+			int r = found[i];
+
+			for(int d = deleted.nextSetBit(from); d >= 0 && d < r; d = deleted.nextSetBit(d + 1)) {
+				removed++;
+			}
+			from = r;
+			found[i] = r - removed;
+		}
+		return found;
+	}
+
+	/**
+	 * Iterates over the shapes in drawing order without keeping the shapes it decodes.
+	 *
+	 * @return An iterator over the shapes in the store.
+	 */
+	@Override
+	public Iterator<MyShape> iterator() {
+
+		return new Iterator<MyShape>() {
+
+			private int r = -1;
+			private MyShape next = advance();
+
+			private MyShape advance() {
+
+				for(r++; r < records; r++) {
+
+					if(deleted.get(r)) {
+						continue;
+					}
+
+					MyShape s = hasObject.get(r) ? objects.get(r) : decode(r);
+
+					if(s != null) {
+						return s;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public MyShape next() {
+
+				if(next == null) {
+					throw new NoSuchElementException();
+				}
+
+				MyShape s = next;
+				next = advance();
+				return s;
+			}
+		};
+	}
+
+	/**
+	 * Maps the file in overlapping segments.
+	 */
+	private void map() throws IOException {
+
+		long size = channel.size();
+
+		if(size < BinaryShapeFormat.HEADER_SIZE) {
+			throw new DrawingFormatException("not a drawing file");
+		}
+
+		segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+
+		for(int i = 0; i < segments.length; i++) {
+
+			long start = (long) i << SEGMENT_SHIFT;
+
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_SIZE + SEGMENT_OVERLAP));
+			segments[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * Walks the top-level records and keeps their offsets.
+	 */
+	private void scan() throws IOException {
+
+		long size = channel.size();
+		int count = BinaryShapeFormat.readHeader(segments[0]);
+
+		if(count > (size - BinaryShapeFormat.HEADER_SIZE) / BinaryShapeFormat.SHAPE_SIZE) {
+			throw new DrawingFormatException("the file is too short for " + count + " shapes");
+		}
+
+		offsets = new long[Math.max(16, count)];
+		long p = BinaryShapeFormat.HEADER_SIZE;
+
+		for(int i = 0; i < count; i++) {
+
+			if(p + BinaryShapeFormat.SHAPE_SIZE > size) {
+				throw new DrawingFormatException("the file ended in the middle of a record");
+			}
+
+			byte tag = segment(p).get(at(p));
+			long length;
+
+			if(tag == BinaryShapeFormat.GROUP) {
+
+				if(p + BinaryShapeFormat.GROUP_SIZE > size) {
+					throw new DrawingFormatException("the file ended in the middle of a record");
+				}
+
+				long members = memberLength(p);
+
+				if(members < 0 || members > size - p - BinaryShapeFormat.GROUP_SIZE) {
+					throw new DrawingFormatException("bad group record at offset " + p);
+				}
+				length = BinaryShapeFormat.GROUP_SIZE + members;
+			}
+			else if(tag == BinaryShapeFormat.LINE || tag == BinaryShapeFormat.RECT || tag == BinaryShapeFormat.OVAL) {
+				length = BinaryShapeFormat.SHAPE_SIZE;
+			}
+			else {
+				throw new DrawingFormatException("unknown record type " + tag + " at offset " + p);
+			}
+
+			offsets[i] = p;
+			p += length;
+		}
+
+		records = count;
+		live = count;
+	}
+
+	/**
+	 * Buckets the records by center into a grid of about RECORDS_PER_CELL records per cell.
+	 * Records reaching more than LARGE_CELLS cells from their center are kept in a separate list.
+	 */
+	private void buildGrid() {
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+		for(int r = 0; r < records; r++) {
+
+			bounds(r);
+
+			// comparisons are false for NaN, so such centers are left out
+			if(box[0] < minX) {
+				minX = box[0];
+			}
+			if(box[0] > maxX) {
+				maxX = box[0];
+			}
+			if(box[1] < minY) {
+				minY = box[1];
+			}
+			if(box[1] > maxY) {
+				maxY = box[1];
+			}
+		}
+
+		if(!(minX <= maxX && minY <= maxY)) {
+			minX = minY = maxX = maxY = 0;
+		}
+
+		double w = maxX - minX;
+		double h = maxY - minY;
+		long wanted = Math.max(1, Math.min(MAX_CELLS, records / RECORDS_PER_CELL));
+
+		cellSize = Math.sqrt(w * h / wanted);
+
+		if(!(cellSize > 0) || Double.isInfinite(cellSize)) {
+			cellSize = Math.max(w, h) / wanted;
+		}
+		if(!(cellSize > 0) || Double.isInfinite(cellSize)) {
+			cellSize = 1;
+		}
+
+		while(Double.isFinite(cellSize) && (Math.floor(w / cellSize) + 1) * (Math.floor(h / cellSize) + 1) > MAX_CELLS) {
+			cellSize *= 2;
+		}
+
+		gridX = minX;
+		gridY = minY;
+
+		// a drawing spanning more than the range of doubles gets a single cell
+		if(Double.isFinite(cellSize) && Double.isFinite(w) && Double.isFinite(h)) {
+			cols = (int) Math.floor(w / cellSize) + 1;
+			rows = (int) Math.floor(h / cellSize) + 1;
+		}
+		else {
+			cellSize = Double.POSITIVE_INFINITY;
+			cols = 1;
+			rows = 1;
+		}
+
+		int[] cellOf = new int[records];
+		cellStart = new int[cols * rows + 1];
+		Found big = new Found();
+
+		reachX = 0;
+		reachY = 0;
+
+		for(int r = 0; r < records; r++) {
+
+			bounds(r);
+
+			double halfX = Math.max(box[0] - box[2], box[4] - box[0]);
+			double halfY = Math.max(box[1] - box[3], box[5] - box[1]);
+
+			if(!(Math.max(halfX, halfY) <= LARGE_CELLS * cellSize) || Double.isNaN(box[0]) || Double.isNaN(box[1])) {
+				cellOf[r] = -1;
+				big.add(r);
+				continue;
+			}
+
+			reachX = Math.max(reachX, halfX);
+			reachY = Math.max(reachY, halfY);
+
+			cellOf[r] = row(box[1]) * cols + col(box[0]);
+			cellStart[cellOf[r] + 1]++;
+		}
+
+		for(int c = 0; c < cols * rows; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		// records are added in order, so each cell lists them in drawing order
+		cellRecords = new int[records - big.size];
+		int[] next = Arrays.copyOf(cellStart, cols * rows);
+
+		for(int r = 0; r < records; r++) {
+			if(cellOf[r] >= 0) {
+				cellRecords[next[cellOf[r]]++] = r;
+			}
+		}
+
+		large = Arrays.copyOf(big.items, big.size);
+	}
+
+	/**
+	 * Collects, in drawing order, the records whose center lies inside a rectangle or whose extent intersects it.
+	 */
+	private Found collect(double minX, double minY, double maxX, double maxY, boolean byCenter) {
+
+		Found found = new Found();
+
+		collectFromFile(found, minX, minY, maxX, maxY, byCenter);
+
+		ArrayList<MyShape> changed = byCenter ? movedIndex.within(minX, minY, maxX, maxY) : movedIndex.query(minX, minY, maxX, maxY);
+
+		for(MyShape s : changed) {
+			found.add(recordOf.get(s));
+		}
+
+		Arrays.sort(found.items, 0, found.size);
+		return found;
+	}
+
+	/**
+	 * Adds the matching records that are still described by the file, in no particular order.
+	 */
+	private void collectFromFile(Found found, double minX, double minY, double maxX, double maxY, boolean byCenter) {
+
+		for(int r : large) {
+			if(fromFile(r) && matches(r, minX, minY, maxX, maxY, byCenter)) {
+				found.add(r);
+			}
+		}
+
+		if(cellRecords == null) {
+			return;
+		}
+
+		double rx = byCenter ? 0 : reachX;
+		double ry = byCenter ? 0 : reachY;
+
+		if(maxX + rx < gridX || maxY + ry < gridY || minX - rx > gridX + cols * cellSize || minY - ry > gridY + rows * cellSize) {
+			return;
+		}
+
+		int col0 = col(minX - rx);
+		int col1 = col(maxX + rx);
+		int row0 = row(minY - ry);
+		int row1 = row(maxY + ry);
+
+		for(int row = row0; row <= row1; row++) {
+			for(int col = col0; col <= col1; col++) {
+
+				int cell = row * cols + col;
+
+				for(int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+
+					int r = cellRecords[k];
+
+					if(fromFile(r) && matches(r, minX, minY, maxX, maxY, byCenter)) {
+						found.add(r);
+					}
+				}
+			}
+		}
+	}
+
+	private boolean fromFile(int r) {
+		return !deleted.get(r) && !moved.get(r);
+	}
+
+	private boolean matches(int r, double minX, double minY, double maxX, double maxY, boolean byCenter) {
+
+		bounds(r);
+
+		if(byCenter) {
+			return box[0] >= minX && box[0] <= maxX && box[1] >= minY && box[1] <= maxY;
+		}
+		return box[4] >= minX && box[2] <= maxX && box[5] >= minY && box[3] <= maxY;
+	}
+
+	/**
+	 * Reads the center and extent of a record from the file into box, computed the same way as MyShape does.
+	 */
+	private void bounds(int r) {
+
+		long p = offsets[r];
+		ByteBuffer seg = segment(p);
+		int i = at(p);
+
+		if(seg.get(i) == BinaryShapeFormat.GROUP) {
+
+			for(int k = 0; k < 6; k++) {
+				box[k] = seg.getDouble(i + BinaryShapeFormat.SHAPE_SIZE + 8 * k);
+			}
+			return;
+		}
+
+		double x1 = seg.getDouble(i + 2);
+		double y1 = seg.getDouble(i + 10);
+		double x2 = seg.getDouble(i + 18);
+		double y2 = seg.getDouble(i + 26);
+
+		box[0] = x1 + (x2 - x1) / 2.0;
+		box[1] = y1 + (y2 - y1) / 2.0;
+		box[2] = Math.min(x1, x2);
+		box[3] = Math.min(y1, y2);
+		box[4] = box[2] + Math.abs(x1 - x2);
+		box[5] = box[3] + Math.abs(y1 - y2);
+	}
+
+	/**
+	 * Draws a record that has no object, the same way its shape's draw method would.
+	 */
+	private void drawRecord(GraphicsContext gc, int r) {
+
+		long p = offsets[r];
+		ByteBuffer seg = segment(p);
+		int i = at(p);
+		byte tag = seg.get(i);
+
+		if(tag == BinaryShapeFormat.GROUP) {
+
+			MyShape group = groupCache.get(r);
+
+			if(group == null) {
+				group = decode(r);
+
+				if(group == null) {
+					return;
+				}
+				groupCache.put(r, group);
+			}
+			group.draw(gc);
+			return;
+		}
+
+		int flags = seg.get(i + 1);
+
+		double x1 = seg.getDouble(i + 2);
+		double y1 = seg.getDouble(i + 10);
+		double x2 = seg.getDouble(i + 18);
+		double y2 = seg.getDouble(i + 26);
+
+		double ulx = Math.min(x1, x2);
+		double uly = Math.min(y1, y2);
+		double w = Math.abs(x1 - x2);
+		double h = Math.abs(y1 - y2);
+
+		// like the shapes, which pass a null color on and so keep the previous one
+		Color color = (flags & BinaryShapeFormat.HAS_COLOR) != 0 ? color(seg, i + 34) : null;
+		boolean filled = (flags & BinaryShapeFormat.FILLED) != 0;
+
+		if(tag == BinaryShapeFormat.LINE) {
+			gc.setStroke(color);
+			gc.strokeLine(x1, y1, x2, y2);
+		}
+		else if(tag == BinaryShapeFormat.RECT) {
+
+			if(filled) {
+				gc.setFill(color);
+				gc.fillRect(ulx, uly, w, h);
+			}
+			else {
+				gc.setStroke(color);
+				gc.strokeRect(ulx, uly, w, h);
+			}
+		}
+		else {
+
+			if(filled) {
+				gc.setFill(color);
+				gc.fillOval(ulx, uly, w, h);
+			}
+			else {
+				gc.setStroke(color);
+				gc.strokeOval(ulx, uly, w, h);
+			}
+		}
+	}
+
+	/**
+	 * Returns a shared Color for the four floats at an index, from a small cache keyed by their bits.
+	 */
+	private Color color(ByteBuffer seg, int i) {
+
+		long rg = seg.getLong(i);
+		long ba = seg.getLong(i + 8);
+
+		int slot = (int) ((rg * 31 + ba) ^ ((rg * 31 + ba) >>> 29)) & (COLOR_CACHE_SIZE - 1);
+
+		if(colorValues[slot] == null || colorKeys[2 * slot] != rg || colorKeys[2 * slot + 1] != ba) {
+
+			float r = seg.getFloat(i);
+			float g = seg.getFloat(i + 4);
+			float b = seg.getFloat(i + 8);
+			float a = seg.getFloat(i + 12);
+
+			colorKeys[2 * slot] = rg;
+			colorKeys[2 * slot + 1] = ba;
+			colorValues[slot] = Color.color(clamp(r), clamp(g), clamp(b), clamp(a));
+		}
+		return colorValues[slot];
+	}
+
+	private static double clamp(float v) {
+		return v >= 0 ? Math.min(v, 1) : 0;
+	}
+
+	/**
+	 * Returns the object for a record, decoding and keeping it if needed.
+	 *
+	 * @return The shape, or null if its record could not be decoded.
+	 */
+	private MyShape view(int r) {
+
+		if(hasObject.get(r)) {
+			return objects.get(r);
+		}
+
+		MyShape s = groupCache.remove(r);
+
+		if(s == null) {
+			s = decode(r);
+		}
+
+		if(s != null) {
+			keep(r, s);
+		}
+		return s;
+	}
+
+	private void keep(int r, MyShape s) {
+
+		objects.put(r, s);
+		recordOf.put(s, r);
+		hasObject.set(r);
+	}
+
+	/**
+	 * Decodes a record into a new shape. A record that cannot be decoded is reported and dropped.
+	 *
+	 * @return The shape, or null if its record could not be decoded.
+	 */
+	private MyShape decode(int r) {
+
+		long p = offsets[r];
+
+		try {
+			return readRecord(segments, p);
+		}
+		catch(IOException e) {
+			System.err.println(file + ": the shape at offset " + p + " could not be read: " + e.getMessage());
+
+			deleted.set(r);
+			live--;
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes the record at a file offset from the mapped segments. A record that runs past the end of its
+	 * segment is put together from the segments it spans. Only reads the segments, with absolute gets and
+	 * duplicates, so it can be used on several threads and after the file is closed.
+	 */
+	private static MyShape readRecord(MappedByteBuffer[] segments, long p) throws IOException {
+
+		ByteBuffer seg = segments[(int) (p >>> SEGMENT_SHIFT)];
+		int i = at(p);
+
+		long length = seg.get(i) == BinaryShapeFormat.GROUP
+				? BinaryShapeFormat.GROUP_SIZE + seg.getLong(i + BinaryShapeFormat.GROUP_SIZE - 8)
+				: BinaryShapeFormat.SHAPE_SIZE;
+
+		if(i + length <= seg.limit()) {
+			return BinaryShapeFormat.readShape(seg.duplicate().position(i), p);
+		}
+
+		if(length > Integer.MAX_VALUE) {
+			throw new DrawingFormatException("the group at offset " + p + " is too large to read");
+		}
+
+		ByteBuffer record = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+
+		for(long q = p; record.hasRemaining(); q = p + record.position()) {
+
+			ByteBuffer part = segments[(int) (q >>> SEGMENT_SHIFT)].duplicate();
+			int from = at(q);
+
+			part.position(from).limit(from + (int) Math.min(record.remaining(), SEGMENT_SIZE - from));
+			record.put(part);
+		}
+		return BinaryShapeFormat.readShape(record.flip(), p);
+	}
+
+	private long memberLength(long p) {
+		return segment(p).getLong(at(p) + BinaryShapeFormat.GROUP_SIZE - 8);
+	}
+
+	private ByteBuffer segment(long p) {
+		return segments[(int) (p >>> SEGMENT_SHIFT)];
+	}
+
+	private static int at(long p) {
+		return (int) (p & (SEGMENT_SIZE - 1));
+	}
+
+	private int col(double x) {
+		return (int) Math.max(0, Math.min(cols - 1, Math.floor((x - gridX) / cellSize)));
+	}
+
+	private int row(double y) {
+		return (int) Math.max(0, Math.min(rows - 1, Math.floor((y - gridY) / cellSize)));
+	}
+
+	/**
+	 * The records as they were when snapshot was called.
+	 */
+	private static class Snapshot extends AbstractCollection<MyShape> {
+
+		private File file;
+		private MappedByteBuffer[] segments;
+
+		private int records, live;
+		private long[] offsets;
+		private BitSet deleted;
+		private HashMap<Integer, MyShape> changed;
+
+		@Override
+		public int size() {
+			return live;
+		}
+
+		@Override
+		public Iterator<MyShape> iterator() {
+
+			return new Iterator<MyShape>() {
+
+				private int r = -1;
+				private MyShape next = advance();
+
+				private MyShape advance() {
+
+					for(r++; r < records; r++) {
+
+						if(deleted.get(r)) {
+							continue;
+						}
+
+						MyShape s = changed.get(r);
+
+						if(s != null) {
+							return s;
+						}
+
+						try {
+							return readRecord(segments, offsets[r]);
+						}
+						catch(IOException e) {
+							System.err.println(file + ": the shape at offset " + offsets[r] + " could not be read: " + e.getMessage());
+						}
+					}
+					return null;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				@Override
+				public MyShape next() {
+
+					if(next == null) {
+						throw new NoSuchElementException();
+					}
+
+					MyShape s = next;
+					next = advance();
+					return s;
+				}
+			};
+		}
+	}
+}
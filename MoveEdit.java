@@ -22,13 +22,54 @@ public class MoveEdit extends Edit {
 		dy = y;
 	}
 	
+    /**
+     * 
+     * @return The horizontal displacement of the shape.
+     */
+	public double getDx() {
+		return dx;
+	}
+
+    /**
+     * 
+     * @return The vertical displacement of the shape.
+     */
+	public double getDy() {
+		return dy;
+	}
+
+    /**
+     * Adds a later move of the same shape to this edit, so that both are undone as one.
+     * 
+     * @param next The move made after this one.
+     * @return true if the move was merged, false if it moves another shape.
+     */
+	public boolean merge(MoveEdit next) {
+
+		if(next.shape != shape) {
+			return false;
+		}
+		dx += next.dx;
+		dy += next.dy;
+		return true;
+	}
+
+    /**
+     * Estimates the memory this edit holds on to, including its displacement.
+     * 
+     * @return The size in bytes.
+     */
+	@Override
+	public long retainedSize() {
+		return super.retainedSize() + 16;
+	}
+	
     /**
      * Redoes the movement of the shape by applying the specified horizontal and vertical displacements.
      */
 	@Override
 	public void redo() {
-		shape.move(dx, dy);
-		canvas.paint();
+		canvas.moveShape(shape, dx, dy);
 	}
 	
     /**
@@ -36,7 +77,6 @@ public class MoveEdit extends Edit {
      */
 	@Override
 	public void undo() {
-		shape.move(-dx, -dy);
-		canvas.paint();
+		canvas.moveShape(shape, -dx, -dy);
 	}
 }
@@ -27,10 +27,14 @@ public class MoveHandler implements EventHandler<MouseEvent> {
 
 		if(e.getEventType() == MouseEvent.MOUSE_PRESSED) {
 
-			closestShape = canvas.closestShape(e.getX(), e.getY()); 
+			closestShape = canvas.closestShape(canvas.toWorldX(e.getX()), canvas.toWorldY(e.getY())); 
 
-			x0 = e.getX();
-			y0 = e.getY();
+			if(closestShape != null) {
+				canvas.beginInteraction(closestShape);
+			}
+
+			x0 = canvas.toWorldX(e.getX());
+			y0 = canvas.toWorldY(e.getY());
 			
 			initX = x0;
 			initY = y0;
@@ -41,24 +45,28 @@ public class MoveHandler implements EventHandler<MouseEvent> {
 
 		if(e.getEventType() == MouseEvent.MOUSE_DRAGGED) {
 
-			x1 = e.getX();
-			y1 = e.getY();
+			x1 = canvas.toWorldX(e.getX());
+			y1 = canvas.toWorldY(e.getY());
 
 			if(closestShape != null) {
 
-				closestShape.move(x1 - x0, y1 - y0);
+				canvas.moveShape(closestShape, x1 - x0, y1 - y0);
 
 				x0 = x1;
 				y0 = y1;
-
-				canvas.paint();
 			}
 		}
 
 		if(e.getEventType() == MouseEvent.MOUSE_RELEASED) {
 
-			double cx = e.getX();
-			double cy = e.getY();
+			canvas.endInteraction();
+
+			if(closestShape == null) {
+				return;
+			}
+
+			double cx = canvas.toWorldX(e.getX());
+			double cy = canvas.toWorldY(e.getY());
 
 			double dx = cx - initX;
 			double dy = cy - initY;
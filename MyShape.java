@@ -2,6 +2,8 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Locale;
 
 import javafx.geometry.Point2D;
 import javafx.scene.canvas.GraphicsContext;
@@ -9,15 +11,37 @@ import javafx.scene.paint.Color;
 
 /**
  * Abstract class representing a shape.
+ *
+ * The geometry is kept in primitive fields so that moving or resizing a shape does not allocate.
+ * The Point2D objects returned by getP1, getP2 and getCetner are built when first asked for
+ * and dropped whenever the geometry changes.
  */
 public abstract class MyShape implements Serializable, Cloneable {
 
+	private static final long serialVersionUID = 2502315867773305678L;
 	private static final Color DEFAULT_COLOR = Color.BLACK;
 
+	private static final long[] POWERS_OF_TEN = {
+			1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+			10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+			1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L };
+
+	// below this a scaled number is off by far less than the margin around a rounding tie
+	private static final double MAX_FAST_SCALED = 1e12;
+	private static final double TIE_MARGIN = 1e-3;
+
+	// the header and fields of a shape on a 64-bit JVM with compressed references
+	protected static final long OBJECT_SIZE = 120;
+	protected static final long POINT_SIZE = 32;
+
+	protected transient double x1, y1;
+	protected transient double x2, y2;
+	protected transient double cx, cy;
 	protected transient Point2D p1;
 	protected transient Point2D p2; 
 	protected transient Point2D center; 
 	protected transient Color color;
+	protected transient ShapeGroup parent;
 	protected boolean filled;
 	protected double ulx;
 	protected double uly; 
@@ -48,8 +72,10 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 * @param y2 The y-coordinate of the end point.
 	 */
 	public MyShape (double x1, double y1, double x2, double y2) {
-		p1 = new Point2D(x1, y1);
-		p2 = new Point2D(x2, y2);
+		this.x1 = x1;
+		this.y1 = y1;
+		this.x2 = x2;
+		this.y2 = y2;
 
 		filled = false;
 
@@ -62,6 +88,10 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 * @return The start point of the shape.
 	 */
 	public Point2D getP1() {
+
+		if(p1 == null) {
+			p1 = new Point2D(x1, y1);
+		}
 		return p1;
 	}
 
@@ -70,9 +100,45 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 * @return The end point of the shape.
 	 */
 	public Point2D getP2() {
+
+		if(p2 == null) {
+			p2 = new Point2D(x2, y2);
+		}
 		return p2;
 	}
 
+	/**
+	 *
+	 * @return The x-coordinate of the start point.
+	 */
+	public double getX1() {
+		return x1;
+	}
+
+	/**
+	 *
+	 * @return The y-coordinate of the start point.
+	 */
+	public double getY1() {
+		return y1;
+	}
+
+	/**
+	 *
+	 * @return The x-coordinate of the end point.
+	 */
+	public double getX2() {
+		return x2;
+	}
+
+	/**
+	 *
+	 * @return The y-coordinate of the end point.
+	 */
+	public double getY2() {
+		return y2;
+	}
+
 	/**
 	 *
 	 * @return The color of the shape.
@@ -122,21 +188,78 @@ public abstract class MyShape implements Serializable, Cloneable {
 		return height;
 	}
 
+	/**
+	 * The extent methods describe the area the shape covers when drawn,
+	 * which for most shapes is the bounding box.
+	 *
+	 * @return The left edge of the drawn area.
+	 */
+	public double getMinX() {
+		return ulx;
+	}
+
+	/**
+	 *
+	 * @return The top edge of the drawn area.
+	 */
+	public double getMinY() {
+		return uly;
+	}
+
+	/**
+	 *
+	 * @return The right edge of the drawn area.
+	 */
+	public double getMaxX() {
+		return ulx + width;
+	}
+
+	/**
+	 *
+	 * @return The bottom edge of the drawn area.
+	 */
+	public double getMaxY() {
+		return uly + height;
+	}
+
 	/**
 	 *
 	 * @return The center point of the shape.
 	 */
 	public Point2D getCetner() {
+
+		if(center == null) {
+			center = new Point2D(cx, cy);
+		}
 		return center;
 	}
 
+	/**
+	 *
+	 * @return The x-coordinate of the center point.
+	 */
+	public double getCenterX() {
+		return cx;
+	}
+
+	/**
+	 *
+	 * @return The y-coordinate of the center point.
+	 */
+	public double getCenterY() {
+		return cy;
+	}
+
 	/**
 	 * Sets the start point of the shape.
 	 *
 	 * @param newP1 The new start point of the shape.
 	 */
 	public void setP1(Point2D newP1) {
+		x1 = newP1.getX();
+		y1 = newP1.getY();
 		p1 = newP1;
+		changed();
 	}
 
 	/**
@@ -146,7 +269,10 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 * @param y The y-coordinate of the new start point.
 	 */
 	public void setP1(double x, double y) {
-		p1 = new Point2D(x, y);
+		x1 = x;
+		y1 = y;
+		p1 = null;
+		changed();
 	}
 
 	/**
@@ -155,9 +281,12 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 * @param newP2 The new end point of the shape.
 	 */
 	public void setP2(Point2D newP2) {
+		x2 = newP2.getX();
+		y2 = newP2.getY();
 		p2 = newP2;
 		updateBounds();
 		updateCenter();
+		changed();
 	}
 
 	/**
@@ -167,9 +296,12 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 * @param y The y-coordinate of the new end point.
 	 */
 	public void setP2(double x, double y) {
-		p2 = new Point2D(x, y);
+		x2 = x;
+		y2 = y;
+		p2 = null;
 		updateBounds();
 		updateCenter();
+		changed();
 	}
 
 	/**
@@ -195,18 +327,21 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 */
 	public void updateBounds() {
 
-		ulx = Math.min(p1.getX(), p2.getX());
-		uly = Math.min(p1.getY(), p2.getY());
+		ulx = Math.min(x1, x2);
+		uly = Math.min(y1, y2);
 
-		width = Math.abs(p1.getX() - p2.getX());
-		height = Math.abs(p1.getY() - p2.getY());
+		width = Math.abs(x1 - x2);
+		height = Math.abs(y1 - y2);
 	}
 
 	/**
 	 * Updates the center point of the shape based on its start and end points.
 	 */
 	public void updateCenter() {
-		center = p1.midpoint(p2.getX(), p2.getY());
+		// same arithmetic as Point2D.midpoint
+		cx = x1 + (x2 - x1) / 2.0;
+		cy = y1 + (y2 - y1) / 2.0;
+		center = null;
 	}
 
 	/**
@@ -217,7 +352,10 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 * @return The distance between the shape and the point.
 	 */
 	public double distance(double x, double y) {
-		return center.distance(x, y);
+		// same arithmetic as Point2D.distance
+		double a = getCenterX() - x;
+		double b = getCenterY() - y;
+		return Math.sqrt(a * a + b * b);
 	}
 
 	/**
@@ -239,7 +377,7 @@ public abstract class MyShape implements Serializable, Cloneable {
 
 	/**
 	 * Custom serialization method for writing object state to a stream.
-	 * Writes the coordinates of points p1 and p2, and the color components (red, green, blue) to the ObjectOutputStream.
+	 * Writes the coordinates of points p1 and p2, and the color components (red, blue, green) to the ObjectOutputStream.
 	 *
 	 * @param oos The ObjectOutputStream to write to.
 	 * @throws IOException If an I/O error occurs during writing.
@@ -247,10 +385,10 @@ public abstract class MyShape implements Serializable, Cloneable {
 	private void writeObject(ObjectOutputStream oos) throws IOException {
 		oos.defaultWriteObject();
 
-		oos.writeDouble(p1.getX());
-		oos.writeDouble(p1.getY());
-		oos.writeDouble(p2.getX());
-		oos.writeDouble(p2.getY());
+		oos.writeDouble(x1);
+		oos.writeDouble(y1);
+		oos.writeDouble(x2);
+		oos.writeDouble(y2);
 
 		oos.writeDouble(color.getRed());
 		oos.writeDouble(color.getBlue());
@@ -259,8 +397,11 @@ public abstract class MyShape implements Serializable, Cloneable {
 
 	/**
 	 * Custom deserialization method for reading object state from a stream.
-	 * Reads the coordinates of points p1 and p2, and the color components (red, green, blue) from the ObjectInputStream.
-	 * Sets the points and color of the object based on the read values.
+	 * Reads the coordinates of points p1 and p2, and the color components in the order writeObject wrote them (red, blue, green).
+	 * Only used to import files saved by earlier versions; see BinaryShapeFormat.
+	 *
+	 * The bounds are part of the default fields, and the center is computed here without calling
+	 * overridable methods, because a ShapeGroup's members have not been read yet at this point.
 	 *
 	 * @param ois The ObjectInputStream to read from.
 	 * @throws IOException If an I/O error occurs during reading.
@@ -269,36 +410,119 @@ public abstract class MyShape implements Serializable, Cloneable {
 	private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
 		ois.defaultReadObject();
 
-		double x1 = ois.readDouble();
-		double y1 = ois.readDouble();
-		double x2 = ois.readDouble();
-		double y2 = ois.readDouble();
+		x1 = ois.readDouble();
+		y1 = ois.readDouble();
+		x2 = ois.readDouble();
+		y2 = ois.readDouble();
 
 		double r = ois.readDouble();
-		double g = ois.readDouble();
 		double b = ois.readDouble();
+		double g = ois.readDouble();
 
-		setP1(x1, y1);
-		setP2(x2, y2);
-
-		System.out.println(p1.getX() + " " + p1.getY());
-		System.out.println(p2.getX() + " " + p2.getY());
-
-		updateBounds();
-		updateCenter();
+		cx = x1 + (x2 - x1) / 2.0;
+		cy = y1 + (y2 - y1) / 2.0;
 
 		color = Color.color(r, g, b);
 	}
 
 	/**
-	 * Returns a string representation of this object.
-	 * The string includes the coordinates of points p1 and p2, the color components (red, green, blue), and the filled status.
+	 * Returns a string representation of this object, as written by writeText.
 	 * @return A string representation of this object.
 	 */
 	@Override
 	public String toString() {
-		return String.format("%.3f %.3f %.3f %.3f %.3f %.3f %.3f %b\n", p1.getX(), p1.getY(), p2.getX(), p2.getY(), 
-				color.getRed(), color.getGreen(), color.getBlue(), filled);
+
+		StringBuilder sb = new StringBuilder(64);
+
+		try {
+			writeText(sb);
+		}
+		catch(IOException e) {
+			// a StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the coordinates of points p1 and p2, the color components (red, green, blue), and the filled status,
+	 * with three decimal places and ending with a newline. Subclasses write their type name first.
+	 * Nothing is built in between, so a whole drawing can be written straight to a file.
+	 *
+	 * @param out Where to write.
+	 * @throws IOException If out cannot be written to.
+	 */
+	public void writeText(Appendable out) throws IOException {
+
+		appendFixed(out, x1, 3);
+		out.append(' ');
+		appendFixed(out, y1, 3);
+		out.append(' ');
+		appendFixed(out, x2, 3);
+		out.append(' ');
+		appendFixed(out, y2, 3);
+		out.append(' ');
+		appendFixed(out, color.getRed(), 3);
+		out.append(' ');
+		appendFixed(out, color.getGreen(), 3);
+		out.append(' ');
+		appendFixed(out, color.getBlue(), 3);
+		out.append(' ');
+		out.append(filled ? "true" : "false");
+		out.append('\n');
+	}
+
+	/**
+	 * Writes a number with a fixed number of decimal places, the same as String.format("%.nf") but always with '.' as the decimal point.
+	 *
+	 * The number is scaled and rounded with double arithmetic. Numbers too large for that to be exact,
+	 * those within rounding error of halfway between two results, NaN and infinities go through String.format.
+	 *
+	 * @param out Where to write.
+	 * @param v The number.
+	 * @param decimals The number of decimal places, at most 18.
+	 * @throws IOException If out cannot be written to.
+	 */
+	protected static void appendFixed(Appendable out, double v, int decimals) throws IOException {
+
+		double scaled = Math.abs(v) * POWERS_OF_TEN[decimals];
+		double whole = Math.floor(scaled);
+		double fraction = scaled - whole;
+
+		if(!(scaled < MAX_FAST_SCALED) || Math.abs(fraction - 0.5) < TIE_MARGIN) {
+			out.append(String.format(Locale.ROOT, "%." + decimals + "f", v));
+			return;
+		}
+
+		long units = (long) whole + (fraction > 0.5 ? 1 : 0);
+
+		// String.format keeps the sign of numbers that round to zero, and of -0.0
+		if(v < 0 || Double.doubleToRawLongBits(v) == Long.MIN_VALUE) {
+			out.append('-');
+		}
+
+		appendDigits(out, units / POWERS_OF_TEN[decimals], 1);
+
+		if(decimals > 0) {
+			out.append('.');
+			appendDigits(out, units % POWERS_OF_TEN[decimals], decimals);
+		}
+	}
+
+	/**
+	 * Writes a non-negative number, padded with zeros to at least the given number of digits.
+	 */
+	private static void appendDigits(Appendable out, long n, int minDigits) throws IOException {
+
+		int digits = minDigits;
+
+		while(digits < POWERS_OF_TEN.length && n >= POWERS_OF_TEN[digits]) {
+			digits++;
+		}
+
+		for(int i = digits - 1; i >= 0; i--) {
+			out.append((char) ('0' + n / POWERS_OF_TEN[i] % 10));
+		}
 	}
 
 	/**
@@ -307,12 +531,61 @@ public abstract class MyShape implements Serializable, Cloneable {
 	 * @param dy The amount to move the shape along the y-axis.
 	 */
 	public void move(double dx, double dy) {
-		setP1(dx + p1.getX(), dy + p1.getY());
-		setP2(dx + p2.getX(), dy + p2.getY());
+		x1 += dx;
+		y1 += dy;
+		x2 += dx;
+		y2 += dy;
+
+		p1 = null;
+		p2 = null;
+
+		updateBounds();
+		updateCenter();
+		changed();
+	}
+
+	/**
+	 * Builds everything that is otherwise built when first asked for, so that reading the shape
+	 * afterwards does not change it and it can be read from several threads at once.
+	 */
+	public void fillCaches() {
+		getP1();
+		getP2();
+		getCetner();
+	}
+
+	/**
+	 * Puts this shape where a copy of it is, such as one kept by a ShapeScene.
+	 *
+	 * @param copy The copy.
+	 */
+	public void restore(MyShape copy) {
+		setP1(copy.x1, copy.y1);
+		setP2(copy.x2, copy.y2);
+	}
+
+	/**
+	 * Estimates the memory this shape takes up, for keeping the undo history within its budget.
+	 *
+	 * @return The size in bytes of the shape and the Point2D views it has made.
+	 */
+	public long retainedSize() {
+		return OBJECT_SIZE + POINT_SIZE * ((p1 != null ? 1 : 0) + (p2 != null ? 1 : 0) + (center != null ? 1 : 0));
+	}
+
+	/**
+	 * Lets the group containing this shape, if any, know that the shape has changed.
+	 */
+	protected void changed() {
+
+		if(parent != null) {
+			parent.invalidate();
+		}
 	}
 
 	/**
 	 * Creates a deep copy of this shape.
+	 * The point views and the color are immutable, so the copy shares them.
 	 * @return A deep copy of this shape or null if cloning is not supported.
 	 * @throws CloneNotSupportedException if the object's class does not support the Cloneable interface.
 	 */
@@ -320,11 +593,7 @@ public abstract class MyShape implements Serializable, Cloneable {
 	public Object clone() {
 		try{
 			MyShape copyShape = (MyShape) super.clone();
-
-			copyShape.p1 = new Point2D(p1.getX(), p1.getY());
-			copyShape.p2 = new Point2D(p2.getX(), p2.getY());
-			copyShape.center = new Point2D(center.getX(), center.getY());
-			copyShape.color = Color.color(color.getRed(), color.getBlue(), color.getGreen());
+			copyShape.parent = null;
 
 			return copyShape;
 		}
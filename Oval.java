@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 import javafx.geometry.Point2D;
 import javafx.scene.canvas.GraphicsContext;
 
@@ -5,6 +7,8 @@ import javafx.scene.canvas.GraphicsContext;
  * Class representing an oval.
  */
 public class Oval extends MyShape{
+
+	private static final long serialVersionUID = 3312968501227179228L;
 	
     /**
      * Calls its default parent constructor
@@ -58,13 +62,14 @@ public class Oval extends MyShape{
 	}
 	
 	/**
-	 * Returns a string representation of this Oval object.
-	 * The string representation includes the type of shape ("Oval") followed by the superclass's string representation.
+	 * Writes the text form of this Oval object: the type of shape ("Oval") followed by the superclass's fields.
 	 *
-	 * @return A string representation of this Oval object.
+	 * @param out Where to write.
+	 * @throws IOException If out cannot be written to.
 	 */
 	@Override
-	public String toString() {
-		return "Oval " + super.toString();
+	public void writeText(Appendable out) throws IOException {
+		out.append("Oval ");
+		super.writeText(out);
 	}
 }
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the chunks of a file being read or written on the common fork/join pool.
+ *
+ * Top-level shapes do not depend on each other, so the file formats split them into chunks that are
+ * encoded or decoded at the same time and then put back together in drawing order.
+ */
+public class ParallelChunks {
+
+	// top-level shapes per chunk: enough to outweigh the cost of a task, few enough to keep every core busy
+	public static final int CHUNK_SHAPES = 4096;
+
+	private ParallelChunks() {
+	}
+
+	/**
+	 * Returns how many chunks to run at once when they are written out in order as they finish,
+	 * which keeps every core busy while holding only a few chunks in memory.
+	 *
+	 * @return The number of chunks.
+	 */
+	public static int window() {
+		return ForkJoinPool.getCommonPoolParallelism() * 2;
+	}
+
+	/**
+	 * Runs tasks on the common pool and waits for all of them.
+	 *
+	 * @param tasks The tasks.
+	 * @return Their results, in the order of the tasks.
+	 * @throws IOException The first exception thrown by a task, such as a malformed chunk or a cancelled load.
+	 */
+	public static <T> ArrayList<T> run(List<? extends Callable<T>> tasks) throws IOException {
+
+		if(tasks.size() == 1) {
+			ArrayList<T> results = new ArrayList<>(1);
+
+			try {
+				// tasks that only write return null, which List.of would not take
+				results.add(tasks.get(0).call());
+				return results;
+			}
+			catch(IOException | RuntimeException e) {
+				throw e;
+			}
+			catch(Exception e) {
+				throw new IOException(e);
+			}
+		}
+
+		List<? extends Future<T>> futures = ForkJoinPool.commonPool().invokeAll(tasks);
+		ArrayList<T> results = new ArrayList<>(futures.size());
+
+		for(Future<T> f : futures) {
+
+			try {
+				results.add(f.get());
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted");
+			}
+			catch(ExecutionException e) {
+
+				Throwable cause = e.getCause();
+
+				// the pool wraps checked exceptions and may copy what a task threw, so look for the original
+				for(Throwable t = cause; t != null; t = t.getCause()) {
+					if(t instanceof IOException) {
+						throw (IOException) t;
+					}
+				}
+				if(cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if(cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IOException(cause);
+			}
+		}
+		return results;
+	}
+}
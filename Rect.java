@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 import javafx.geometry.Point2D;
 import javafx.scene.canvas.GraphicsContext;
 
@@ -5,6 +7,8 @@ import javafx.scene.canvas.GraphicsContext;
  * Class representing a rectangle.
  */
 public class Rect extends MyShape{
+
+	private static final long serialVersionUID = -401528694349587984L;
 	
     /**
      * Calls the default parent constructor
@@ -58,13 +62,14 @@ public class Rect extends MyShape{
 	}
 	
 	/**
-	 * Returns a string representation of this Rect object.
-	 * The string representation includes the type of shape ("Rect") followed by the superclass's string representation.
+	 * Writes the text form of this Rect object: the type of shape ("Rect") followed by the superclass's fields.
 	 *
-	 * @return A string representation of this Rect object.
+	 * @param out Where to write.
+	 * @throws IOException If out cannot be written to.
 	 */
 	@Override
-	public String toString() {
-		return "Rect " + super.toString();
+	public void writeText(Appendable out) throws IOException {
+		out.append("Rect ");
+		super.writeText(out);
 	}
 }
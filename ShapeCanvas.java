@@ -1,37 +1,114 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Scanner;
-import java.util.Stack;
-
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.animation.AnimationTimer;
 import javafx.event.EventHandler;
-import javafx.geometry.Point2D;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
 
 /**
  * Class representing a canvas for drawing shapes.
+ *
+ * The canvas is a view onto an unbounded drawing. Scrolling pans the view and ctrl+scrolling zooms it.
  */
 public class ShapeCanvas extends Canvas {
 
+	// extra room around damaged areas for stroke width and anti-aliasing
+	private static final double DAMAGE_PADDING = 2;
+
+	private static final double ZOOM_STEP = 1.1;
+	private static final double MIN_SCALE = 1e-4;
+	private static final double MAX_SCALE = 1e4;
+
+	// how soon after one another, in milliseconds, moves of the same shape are merged into one edit
+	public static final long DEFAULT_MERGE_WINDOW = 1000;
+
 	private GraphicsContext gc;
 	private ArrayList<MyShape> shapes;
+	private SpatialIndex index;
+	private ShapeStorage store;
+	private boolean compact;
 	private MyShape currShape;
 	private Color currColor;
 	private boolean currFilled;
-	private Stack<Edit> stackUndo;
-	private Stack<Edit> stackRedo;
+	private EditHistory history;
+	private VersionTree versions;
+
+	// the limits set by setHistoryLimits, which a version tree started later takes on as well
+	private int historyDepth = EditHistory.DEFAULT_DEPTH;
+	private long historyMemory = EditHistory.DEFAULT_BUDGET;
+
+	// the last edit added, for merging moves of the same shape made soon after one another
+	private Edit lastEdit;
+	private long lastEditTime;
+	private long mergeWindow = DEFAULT_MERGE_WINDOW * 1000000;
+
+	// the edit being built between beginEdit and commitEdit, and how deeply they are nested
+	private CompositeEdit openEdit;
+	private int editDepth;
 
 	private double width, height;
 
+	// drawing coordinates shown at the top-left corner of the canvas, and canvas pixels per drawing unit
+	private double viewX, viewY, viewScale;
+
+	private boolean incrementalRepaint;
+	private double damageMinX, damageMinY, damageMaxX, damageMaxY;
+
+	private MyShape activeShape;
+	private WritableImage background;
+	private boolean backgroundValid;
+
+	private AnimationTimer painter;
+	private boolean paintPending, repaintPending;
+
+	private EditJournal journal;
+
+	// how far the active shape has been dragged since its move was last journaled
+	private MyShape journalMove;
+	private double journalDx, journalDy;
+
+	// positions of the shapes in the shapes ArrayList for journaling, correct for the first positionsValid of them;
+	// the rest are numbered when next asked for, so a delete does not renumber the shapes after it at once
+	private IdentityHashMap<MyShape, Integer> positions;
+	private int positionsValid;
+
+	// frozen copies of the shapes while the persistent scene is on and the shapes are held as objects,
+	// and the key each shape has in the scene; the scene is null otherwise
+	private volatile ShapeScene scene;
+	private IdentityHashMap<MyShape, Long> sceneKeys;
+	private long nextSceneKey;
+
+	// the active shape, if it has been moved since it was last copied into the scene
+	private MyShape sceneMove;
+
 	/**
 	 * Constructor for ShapeCanvas.
 	 *
@@ -43,353 +120,2058 @@ public class ShapeCanvas extends Canvas {
 
 		gc = getGraphicsContext2D();
 		shapes = new ArrayList<>();
+		index = new SpatialIndex();
+		positions = new IdentityHashMap<>();
 		currColor = Color.BLACK;
 		currFilled = false;
 		width = w;
 		height = h;
 
-		stackUndo = new Stack<>();
-		stackRedo = new Stack<>();
+		history = new EditHistory(this);
+
+		viewScale = 1;
+
+		incrementalRepaint = true;
+		resetDamage();
+
+		painter = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				stop();
+
+				if(paintPending) {
+					paint();
+				}
+				else if(repaintPending) {
+					repaint();
+				}
+			}
+		};
+
+		// nothing is shown until the canvas is in a scene, so the first frame there paints everything
+		sceneProperty().addListener((obs, oldScene, newScene)->{
+			if(newScene != null) {
+				requestPaint();
+			}
+		});
+
+		setOnScroll(e->{
+			if(e.isControlDown()) {
+				zoom(e.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP, e.getX(), e.getY());
+			}
+			else {
+				pan(e.getDeltaX(), e.getDeltaY());
+			}
+		});
 	}
 
 	/**
-	 * Paints the canvas by drawing all shapes in the shapes ArrayList.
+	 * Paints the canvas by drawing all shapes in the shapes ArrayList that are inside the view.
+	 *
+	 * During an interaction the shapes other than the active one come from the cached background.
 	 */
 	public void paint() {
+		resetDamage();
+		paintPending = false;
+		repaintPending = false;
+
+		if(activeShape != null && !backgroundValid) {
+			renderBackground();
+		}
+
+		gc.setTransform(1, 0, 0, 1, 0, 0);
 		gc.clearRect(0, 0, width, height);
 
-		for(MyShape ms : shapes) {
-			ms.draw(gc);
+		if(activeShape != null) {
+			gc.drawImage(background, 0, 0);
+			applyView();
+			drawInteractive();
+			return;
 		}
 
+		applyView();
+		drawShapes(viewX, viewY, toWorldX(width), toWorldY(height), null);
+
 		if(currShape != null) {
 			currShape.draw(gc);
 		}		
 	}
 
 	/**
-	 * Adds a shape to the shapes ArrayList
+	 * Asks for the whole canvas to be painted on the next frame.
+	 * However many times it is called, the canvas is painted at most once per frame.
+	 */
+	public void requestPaint() {
+		paintPending = true;
+		schedule();
+	}
+
+	/**
+	 * Asks for the damaged area of the canvas to be repainted on the next frame.
+	 * However many times it is called, the canvas is painted at most once per frame.
+	 */
+	public void requestRepaint() {
+		repaintPending = true;
+		schedule();
+	}
+
+	/**
+	 * Starts the frame timer if the canvas is shown. A canvas that is not in a scene,
+	 * such as one used off-screen or without the JavaFX toolkit, is only painted by calling paint.
+	 * While an edit is open the timer is left alone, and commitEdit starts it once.
+	 */
+	private void schedule() {
+
+		if(editDepth == 0 && getScene() != null) {
+			painter.start();
+		}
+	}
+
+	/**
+	 * Converts an x-coordinate on the canvas, such as a mouse position, to drawing coordinates.
 	 *
-	 * @param s The shape to be added.
+	 * @param x The x-coordinate on the canvas.
+	 * @return The x-coordinate in the drawing.
 	 */
-	public void addShape(MyShape s) {
-		shapes.add(s);
-		paint();
+	public double toWorldX(double x) {
+		return viewX + x / viewScale;
 	}
 
-	public void setCurrColor(Color col) {
-		currColor = col;
+	/**
+	 * Converts a y-coordinate on the canvas, such as a mouse position, to drawing coordinates.
+	 *
+	 * @param y The y-coordinate on the canvas.
+	 * @return The y-coordinate in the drawing.
+	 */
+	public double toWorldY(double y) {
+		return viewY + y / viewScale;
 	}
 
 	/**
-	 * Sets the current shape that is being drawn.
+	 * Zooms the view while keeping the drawing point under (x, y) in place.
 	 *
-	 * @param s The current shape.
+	 * @param factor The amount to scale the view by, greater than 1 to zoom in.
+	 * @param x The x-coordinate on the canvas to zoom around.
+	 * @param y The y-coordinate on the canvas to zoom around.
 	 */
-	public void setCurrentShape(MyShape s) {
+	public void zoom(double factor, double x, double y) {
 
-		currShape = s;
+		double worldX = toWorldX(x);
+		double worldY = toWorldY(y);
 
-		if(s != null) {
-			currShape.setColor(currColor);
-			currShape.setFilled(currFilled);
-		}
+		viewScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, viewScale * factor));
+		viewX = worldX - x / viewScale;
+		viewY = worldY - y / viewScale;
+
+		backgroundValid = false;
+		requestPaint();
 	}
 
 	/**
-	 * Sets whether the current shape is filled.
+	 * Moves the view so that the drawing follows a drag of dx, dy canvas pixels.
 	 *
-	 * @param isFilled True if the shape is filled, false otherwise.
+	 * @param dx The horizontal distance in canvas pixels.
+	 * @param dy The vertical distance in canvas pixels.
 	 */
-	public void setCurrentFilled(boolean isFilled) {
-		currFilled = isFilled;
+	public void pan(double dx, double dy) {
+
+		viewX -= dx / viewScale;
+		viewY -= dy / viewScale;
+
+		backgroundValid = false;
+		requestPaint();
 	}
 
 	/**
-	 * Clears all shapes from the canvas and repaints it.
+	 * Returns to the initial view, with the drawing origin at the top-left corner and no zoom.
 	 */
-	public void clear() {
-		shapes.clear();
-		paint();
+	public void resetView() {
+
+		viewX = 0;
+		viewY = 0;
+		viewScale = 1;
+
+		backgroundValid = false;
+		requestPaint();
+	}
+
+	/**
+	 * Sets the graphics context to draw in drawing coordinates.
+	 */
+	private void applyView() {
+		gc.setTransform(viewScale, 0, 0, viewScale, -viewX * viewScale, -viewY * viewScale);
 	}
 
 	/**
-	 * writes the shapes to a text file. Each shape is written in a format defined by its toString method.
+	 * Draws, in drawing order, the shapes whose drawn area intersects a rectangle of the drawing.
 	 *
-	 * @param fileObj The file to write to.
+	 * @param skip A shape not to draw, or null.
 	 */
-	public void toTextFile(File fileObj) {
-		try {
-			PrintWriter fileOut = new PrintWriter(fileObj);
+	private void drawShapes(double minX, double minY, double maxX, double maxY, MyShape skip) {
 
-			fileOut.println(shapes.size());
+		if(store != null) {
+			store.draw(gc, minX, minY, maxX, maxY, skip);
+			return;
+		}
 
-			for(MyShape ms : shapes) {
-				fileOut.println(ms.toString());
+		for(MyShape ms : index.query(minX, minY, maxX, maxY)) {
+			if(ms != skip) {
+				ms.draw(gc);
 			}
-
-			fileOut.close();
-		}
-		catch(FileNotFoundException e) {
-			System.err.println("could not be opened for writing");
-			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Reads shapes from a text file and adds them to the canvas. The file format must match that of toTextFile.
+	 * Starts an interaction, such as a drag, that only changes one shape.
 	 *
-	 * @param fileObj The file to read from.
+	 * Until endInteraction is called, every other shape is drawn once into a cached background
+	 * and each repaint only draws that background and the active shape.
+	 * The background is rebuilt only if the other shapes change.
+	 *
+	 * @param s The shape being changed by the interaction.
 	 */
-	public void fromTextFile(File fileObj) {
-		try {
-			Scanner fileIn = new Scanner(fileObj);
+	public void beginInteraction(MyShape s) {
+		scenePendingMove();
+		activeShape = s;
+		backgroundValid = false;
+	}
 
-			clear();
+	/**
+	 * Ends the current interaction and redraws the area of the active shape in its proper drawing order.
+	 */
+	public void endInteraction() {
 
-			int nShapes = fileIn.nextInt();
+		scenePendingMove();
+		journalPendingMove();
 
-			for(int i = 0; i < nShapes; i++) {
+		if(activeShape != null) {
+			damage(activeShape);
+			activeShape = null;
+			backgroundValid = false;
+			requestRepaint();
+		}
+	}
 
-				String type = fileIn.next();
+	/**
+	 * Draws every shape except the active and current ones, and keeps the result as the background.
+	 */
+	private void renderBackground() {
 
-				MyShape shape = null;
+		gc.setTransform(1, 0, 0, 1, 0, 0);
+		gc.clearRect(0, 0, width, height);
+		applyView();
+		drawShapes(viewX, viewY, toWorldX(width), toWorldY(height), activeShape);
 
-				if(type.equalsIgnoreCase("shapegroup")) {
-					shape = loadGroupText(fileIn);
-				}
-				else {
-					shape = loadSingletonText(fileIn, type);
-				}
-				shapes.add(shape);
-			}
+		SnapshotParameters params = new SnapshotParameters();
+		params.setFill(Color.TRANSPARENT);
 
-			fileIn.close();
-			paint();
+		background = snapshot(params, background);
+		backgroundValid = true;
+	}
+
+	/**
+	 * Draws the shapes that are not part of the background.
+	 */
+	private void drawInteractive() {
+
+		if(activeShape != currShape) {
+			activeShape.draw(gc);
 		}
-		catch(FileNotFoundException e) {
-			System.err.println("could not be opened for reading.");
+
+		if(currShape != null) {
+			currShape.draw(gc);
 		}
 	}
 
 	/**
-	 * loads and returns one shape of the shapes ArrayList
+	 * Turns damage-tracking repaints on or off. When off, repaint always redraws the whole canvas.
 	 *
-	 * @param fIn Scanner object for reading shape data.
-	 * @param shapeType Type of shape to create ("line", "rect", "oval").
-	 * @return Configured shape instance of {@code MyShape}.
+	 * @param on True to only redraw damaged areas, false otherwise.
 	 */
-	private MyShape loadSingletonText(Scanner fIn, String shapeType) {		
+	public void setIncrementalRepaint(boolean on) {
+		incrementalRepaint = on;
+	}
 
-		double x1 = fIn.nextDouble();
-		double y1 = fIn.nextDouble();
-		double x2 = fIn.nextDouble();
-		double y2 = fIn.nextDouble();
+	/**
+	 * Records the area currently covered by a shape as needing a repaint.
+	 * Call it before and after changing a shape so that both its old and new areas are redrawn.
+	 *
+	 * @param s The shape whose area is damaged.
+	 */
+	public void damage(MyShape s) {
 
-		double r = fIn.nextDouble();
-		double g = fIn.nextDouble();
-		double b = fIn.nextDouble();
+		if(s != null) {
+			damage(s.getMinX(), s.getMinY(), s.getMaxX(), s.getMaxY());
+		}
+	}
 
-		boolean filled = fIn.nextBoolean();
-		Color color = Color.color(r, g, b);
+	/**
+	 * Records a rectangle as needing a repaint.
+	 *
+	 * @param minX The left edge of the damaged area, in drawing coordinates.
+	 * @param minY The top edge of the damaged area, in drawing coordinates.
+	 * @param maxX The right edge of the damaged area, in drawing coordinates.
+	 * @param maxY The bottom edge of the damaged area, in drawing coordinates.
+	 */
+	public void damage(double minX, double minY, double maxX, double maxY) {
+
+		damageMinX = Math.min(damageMinX, minX - DAMAGE_PADDING);
+		damageMinY = Math.min(damageMinY, minY - DAMAGE_PADDING);
+		damageMaxX = Math.max(damageMaxX, maxX + DAMAGE_PADDING);
+		damageMaxY = Math.max(damageMaxY, maxY + DAMAGE_PADDING);
+	}
 
-		currShape = null;
+	/**
+	 * Repaints the damaged part of the canvas, or the whole canvas when damage tracking is off.
+	 *
+	 * Only the shapes intersecting the damaged area are redrawn, clipped to that area.
+	 * During an interaction the damaged area is copied from the cached background instead.
+	 */
+	public void repaint() {
+		repaintPending = false;
 
-		if(shapeType.equalsIgnoreCase("line")) {
-			currShape = new Line(x1, y1, x2, y2);
+		if(paintPending || !incrementalRepaint || (activeShape != null && !backgroundValid)) {
+			paint();
+			return;
 		}
-		else if(shapeType.equalsIgnoreCase("rect")) {
-			currShape = new Rect(x1, y1, x2, y2);
+
+		// the damaged area in canvas pixels, rounded out to whole pixels
+		double x0 = Math.max(0, Math.floor((damageMinX - viewX) * viewScale) - 1);
+		double y0 = Math.max(0, Math.floor((damageMinY - viewY) * viewScale) - 1);
+		double x1 = Math.min(width, Math.ceil((damageMaxX - viewX) * viewScale) + 1);
+		double y1 = Math.min(height, Math.ceil((damageMaxY - viewY) * viewScale) + 1);
+
+		resetDamage();
+
+		if(x0 >= x1 || y0 >= y1) {
+			return;
+		}
+
+		gc.save();
+		gc.setTransform(1, 0, 0, 1, 0, 0);
+		gc.beginPath();
+		gc.rect(x0, y0, x1 - x0, y1 - y0);
+		gc.clip();
+		gc.clearRect(x0, y0, x1 - x0, y1 - y0);
+
+		if(activeShape != null) {
+			gc.drawImage(background, x0, y0, x1 - x0, y1 - y0, x0, y0, x1 - x0, y1 - y0);
+			applyView();
+			drawInteractive();
 		}
 		else {
-			currShape = new Oval(x1, y1, x2, y2);
+			applyView();
+			drawShapes(toWorldX(x0), toWorldY(y0), toWorldX(x1), toWorldY(y1), null);
+
+			if(currShape != null) {
+				currShape.draw(gc);
+			}
 		}
 
-		currShape.setFilled(filled);
-		currShape.setColor(Color.color(r, g, b));
-		return currShape;
+		gc.restore();
+	}
+
+	private void resetDamage() {
+
+		damageMinX = Double.POSITIVE_INFINITY;
+		damageMinY = Double.POSITIVE_INFINITY;
+		damageMaxX = Double.NEGATIVE_INFINITY;
+		damageMaxY = Double.NEGATIVE_INFINITY;
 	}
 
 	/**
-	 *	loads and returns a group of shapes
-	 * @param fIn The scanner to read shape configuration data.
-	 * @return A fully configured ShapeGroup with all members set.
+	 * Adds a shape to the shapes ArrayList and schedules a repaint of its area.
+	 *
+	 * @param s The shape to be added.
 	 */
-	private ShapeGroup loadGroupText(Scanner fIn) {
+	public void addShape(MyShape s) {
+		journalPendingMove();
+		storeShape(s, true);
+		sceneAdded(Collections.singletonList(s));
+		backgroundValid = false;
+		damage(s);
+		requestRepaint();
+
+		if(journal != null) {
+			journal.added(Collections.singletonList(s));
+			journalSnapshotIfNeeded();
+		}
+	}
 
-		int nShapes = fIn.nextInt();
+	public void setCurrColor(Color col) {
+		currColor = col;
+	}
 
-		double x0 = fIn.nextDouble();
-		double y0 = fIn.nextDouble();
+	/**
+	 * Sets the current shape that is being drawn.
+	 *
+	 * @param s The current shape.
+	 */
+	public void setCurrentShape(MyShape s) {
 
-		double x1 = fIn.nextDouble();
-		double y1 = fIn.nextDouble();
+		damage(currShape);
+		damage(s);
+		requestRepaint();
 
-		ShapeGroup shapeGroup = new ShapeGroup();
-		shapeGroup.setP1(x0, y0);
-		shapeGroup.setP2(x1, y1);
+		currShape = s;
 
-		MyShape shape = null;
+		if(s != null) {
+			currShape.setColor(currColor);
+			currShape.setFilled(currFilled);
+		}
+	}
 
-		for(int i = 0; i < nShapes; i++) {
+	/**
+	 * Sets whether the current shape is filled.
+	 *
+	 * @param isFilled True if the shape is filled, false otherwise.
+	 */
+	public void setCurrentFilled(boolean isFilled) {
+		currFilled = isFilled;
+	}
+
+	/**
+	 * Clears all shapes from the canvas and schedules a repaint.
+	 */
+	public void clear() {
 
-			String shapeType = fIn.next();
+		journalPendingMove();
+		clearShapes();
+		restartVersions();
 
-			if(shapeType.equalsIgnoreCase("shapegroup")) {
-				shapeGroup = loadGroupText(fIn);
-			}
-			else {
-				shape = loadSingletonText(fIn, shapeType);
-			}
+		if(journal != null) {
+			journal.cleared();
+		}
+	}
 
-			shapeGroup.addMember(shape);
+	/**
+	 * Clears all shapes without journaling it, for when the drawing is replaced.
+	 */
+	private void clearShapes() {
+		shapes.clear();
+		index.clear();
+		forgetPositions();
+
+		if(store != null) {
+			store.clear();
 		}
-		return shapeGroup;
+
+		// a mapped or tiled file is only kept until the drawing is replaced
+		if(store instanceof MappedShapeStore || store instanceof TiledShapeStore) {
+			store = compact ? new ShapeStore() : null;
+		}
+		rebuildScene();
+		backgroundValid = false;
+		requestPaint();
 	}
 
 	/**
-	 * writes the shapes to a binary file using serialization.
+	 * writes the shapes to a text file. Each shape is written in a format defined by its writeText method.
 	 *
 	 * @param fileObj The file to write to.
 	 */
-	public void toBinaryFile(File fileObj) {
+	public void toTextFile(File fileObj) {
 
 		try {
-			FileOutputStream fOS = new FileOutputStream(fileObj);
-			ObjectOutputStream fOut = new ObjectOutputStream(fOS);
-
-			fOut.writeInt(shapes.size());
-
-			for(MyShape shape : shapes) {
-				fOut.writeObject(shape);
-			}
-
-			fOut.close();
-			fOS.close();
+			writeTextFile(fileObj, shapeCount(), allShapes(), FileProgress.NONE);
 		}
 		catch(IOException e) {
-			System.err.println("could not be opened for writing.");
+			System.err.println("could not be opened for writing");
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * reads shapes from a binary file using deserialization and adds them to the canvas.
+	 * writes shapes to a text file in the format read by readTextFile. The file is only replaced once
+	 * everything has been written, so a failed or cancelled save leaves it as it was.
+	 * It does not use the canvas, so it can run on another thread with shapes from copyShapes.
 	 *
-	 * @param fileObj The file to read from.
+	 * @param fileObj The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param progress Receives the number of shapes written and can cancel the save.
+	 * @throws IOException If the file cannot be written or the save is cancelled.
 	 */
-	public void fromBinaryFile(File fileObj) {
+	public static void writeTextFile(File fileObj, int count, Iterable<MyShape> shapes, FileProgress progress) throws IOException {
 
-		try {
-			FileInputStream fIS = new FileInputStream(fileObj);
-			ObjectInputStream fIn = new ObjectInputStream(fIS);
-			clear();
+		File temp = tempFileFor(fileObj);
 
-			int n = fIn.readInt();
+		try {
+			try(AsciiOutput fileOut = new AsciiOutput(new FileOutputStream(temp))) {
 
-			System.out.println(n);
+				fileOut.append(Integer.toString(count)).append('\n');
 
-			for(int i = 0; i < n; i++) {
-				MyShape shape = (MyShape) fIn.readObject();
-				shapes.add(shape);
-			}
+				if(shapes instanceof List && shapes instanceof RandomAccess) {
+					writeTextChunks(fileOut, count, (List<MyShape>) shapes, progress);
+				}
+				else {
+					int written = 0;
 
-			fIn.close();
-			fIS.close();
+					for(MyShape ms : shapes) {
+						ms.writeText(fileOut);
 
-			paint();
-		}
-		catch(IOException e) {
-			System.err.println("could not be opened for reading");
-			e.printStackTrace();
+						if(++written % FileProgress.STEP == 0) {
+							progress.checkpoint(written, count);
+						}
+					}
+				}
+			}
+			replaceFile(temp, fileObj);
+			progress.update(count, count);
 		}
-		catch(ClassNotFoundException e) {
-			System.err.println("Class not found");
-			e.printStackTrace();
+		finally {
+			// already gone if it replaced the file
+			temp.delete();
 		}
 	}
 
 	/**
-	 * Finds and returns the shape closest to a specified point.
-	 *
-	 * Compares the distance from each shape's center to (x, y). If no shapes exist, returns null.
-	 *
-	 * @param x X-coordinate of the point.
-	 * @param y Y-coordinate of the point.
-	 * @return Closest shape or null if no shapes are available.
+	 * Formats the shapes of a list a chunk at a time on several cores, a few more chunks at a time
+	 * than there are cores, and appends each batch in order once all of it is done.
 	 */
-	public MyShape closestShape(double x, double y) {
+	private static void writeTextChunks(AsciiOutput fileOut, int count, List<MyShape> shapes, FileProgress progress) throws IOException {
 
-		int minIndex = 0;
+		if(shapes.size() != count) {
+			throw new IllegalArgumentException("expected " + count + " shapes but got " + shapes.size());
+		}
 
-		if(shapes.size() > 0) {
+		int chunks = (count + ParallelChunks.CHUNK_SHAPES - 1) / ParallelChunks.CHUNK_SHAPES;
+		int window = ParallelChunks.window();
+		AtomicLong written = new AtomicLong();
 
-			MyShape curShape = shapes.get(0);
+		for(int first = 0; first < chunks; first += window) {
 
-			double minDistance = curShape.distance(x, y);
+			ArrayList<Callable<ByteArrayOutputStream>> tasks = new ArrayList<>(window);
 
-			for(int i = 1; i < shapes.size(); i++) {
+			for(int c = first; c < Math.min(chunks, first + window); c++) {
 
-				MyShape s = shapes.get(i);
-				Point2D curCenter = s.getCetner();
+				int from = c * ParallelChunks.CHUNK_SHAPES;
+				int to = Math.min(count, from + ParallelChunks.CHUNK_SHAPES);
 
-				double distance = curCenter.distance(x, y);
+				tasks.add(() -> {
+					ByteArrayOutputStream text = new ByteArrayOutputStream();
 
-				if(distance < minDistance) {
-					minDistance = distance;
-					minIndex = i;
-				}
+					try(AsciiOutput chunk = new AsciiOutput(text)) {
+						for(int i = from; i < to; i++) {
+							shapes.get(i).writeText(chunk);
+						}
+					}
+
+					progress.checkpoint(written.addAndGet(to - from), count);
+					return text;
+				});
 			}
-		}
 
-		else {
-			return null;
+			for(ByteArrayOutputStream text : ParallelChunks.run(tasks)) {
+				fileOut.write(text);
+			}
 		}
-
-		return shapes.get(minIndex);
 	}
 
 	/**
-	 * Removes a specified shape from the collection.
-	 * 
-	 * @param s The shape to be removed from the collection.
+	 * Buffers the text of a drawing, which is all ASCII, and writes it to a stream as bytes.
+	 * Unlike a Writer it neither locks nor encodes for every character that MyShape.writeText appends.
 	 */
-	public void deleteShape(MyShape s) {
-		shapes.remove(s);
-		//System.out.println(s.toString());
-	}
+	private static class AsciiOutput implements Appendable, Closeable {
 
-	/**
-	 * Retrieves the list of all shapes in the collection.
+		private OutputStream out;
+		private byte[] buffer;
+		private int length;
+
+		private AsciiOutput(OutputStream out) {
+			this.out = out;
+			buffer = new byte[1 << 16];
+		}
+
+		@Override
+		public AsciiOutput append(char c) throws IOException {
+
+			if(length == buffer.length) {
+				flush();
+			}
+			buffer[length++] = (byte) c;
+			return this;
+		}
+
+		@Override
+		public AsciiOutput append(CharSequence cs) throws IOException {
+			return append(cs, 0, cs.length());
+		}
+
+		@Override
+		public AsciiOutput append(CharSequence cs, int start, int end) throws IOException {
+
+			for(int i = start; i < end; i++) {
+				append(cs.charAt(i));
+			}
+			return this;
+		}
+
+		/**
+		 * Appends text that was formatted by another AsciiOutput.
+		 */
+		private void write(ByteArrayOutputStream text) throws IOException {
+			flush();
+			text.writeTo(out);
+		}
+
+		private void flush() throws IOException {
+			out.write(buffer, 0, length);
+			length = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			try {
+				flush();
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty file next to the one to be saved. Saves write there and then replace the file,
+	 * so that a failed save does not leave a half-written file and a file opened with mapBinaryFile
+	 * keeps its contents while it is being saved over.
+	 */
+	private static File tempFileFor(File target) throws IOException {
+		return File.createTempFile("." + target.getName() + "-", ".tmp", target.getAbsoluteFile().getParentFile());
+	}
+
+	private static void replaceFile(File temp, File target) throws IOException {
+
+		try {
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads shapes from a text file and replaces the shapes on the canvas with them. The file format must match that of toTextFile.
+	 * The whole file is read before the canvas is changed, so a malformed file leaves the canvas as it was.
+	 *
+	 * @param fileObj The file to read from.
+	 */
+	public void fromTextFile(File fileObj) {
+
+		try {
+			replaceShapes(readTextFile(fileObj, FileProgress.NONE));
+		}
+		catch(DrawingFormatException e) {
+			System.err.println(fileObj + " is not a valid drawing: " + e.getMessage());
+		}
+		catch(IOException e) {
+			System.err.println("could not be opened for reading.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * reads the shapes in a text file written by toTextFile.
+	 * It does not use the canvas, so it can run on another thread; pass the result to replaceShapes.
+	 *
+	 * @param fileObj The file to read from.
+	 * @param progress Receives the number of bytes read and can cancel the load.
+	 * @return The top-level shapes, in drawing order.
+	 * @throws IOException If the file cannot be read, is malformed or the load is cancelled.
+	 */
+	public static ArrayList<MyShape> readTextFile(File fileObj, FileProgress progress) throws IOException {
+
+		ArrayList<MyShape> loaded = new ArrayList<>();
+
+		try(ShapeTokenizer fileIn = new ShapeTokenizer(fileObj)) {
+
+			int nShapes = fileIn.nextInt();
+
+			if(nShapes < 0) {
+				throw fileIn.error("the number of shapes cannot be negative");
+			}
+
+			for(int i = 0; i < nShapes; i++) {
+				loaded.add(loadShapeText(fileIn));
+
+				if((i + 1) % FileProgress.STEP == 0) {
+					progress.checkpoint(fileIn.position(), fileIn.size());
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * loads and returns the next shape, reading its type first
+	 *
+	 * @param fIn Tokenizer for reading shape data.
+	 * @return The shape, which may be a group.
+	 * @throws IOException If the file cannot be read or the shape is malformed.
+	 */
+	private static MyShape loadShapeText(ShapeTokenizer fIn) throws IOException {
+
+		String type = fIn.next();
+
+		if(type.equalsIgnoreCase("shapegroup")) {
+			return loadGroupText(fIn);
+		}
+		return loadSingletonText(fIn, type);
+	}
+
+	/**
+	 * loads and returns one shape of the shapes ArrayList
+	 *
+	 * @param fIn Tokenizer for reading shape data.
+	 * @param shapeType Type of shape to create ("line", "rect", "oval").
+	 * @return Configured shape instance of {@code MyShape}.
+	 * @throws IOException If the file cannot be read or the shape is malformed.
+	 */
+	private static MyShape loadSingletonText(ShapeTokenizer fIn, String shapeType) throws IOException {
+
+		MyShape shape;
+
+		if(shapeType.equalsIgnoreCase("line")) {
+			shape = new Line();
+		}
+		else if(shapeType.equalsIgnoreCase("rect")) {
+			shape = new Rect();
+		}
+		else if(shapeType.equalsIgnoreCase("oval")) {
+			shape = new Oval();
+		}
+		else {
+			throw fIn.error("unknown shape type \"" + shapeType + "\"");
+		}
+
+		double x1 = fIn.nextDouble();
+		double y1 = fIn.nextDouble();
+		double x2 = fIn.nextDouble();
+		double y2 = fIn.nextDouble();
+
+		double r = fIn.nextDouble();
+		double g = fIn.nextDouble();
+		double b = fIn.nextDouble();
+
+		if(!(r >= 0 && r <= 1 && g >= 0 && g <= 1 && b >= 0 && b <= 1)) {
+			throw fIn.error("color components must be between 0 and 1");
+		}
+
+		boolean filled = fIn.nextBoolean();
+
+		shape.setP1(x1, y1);
+		shape.setP2(x2, y2);
+		shape.setFilled(filled);
+		shape.setColor(Color.color(r, g, b));
+		return shape;
+	}
+
+	/**
+	 *	loads and returns a group of shapes, including groups nested in it
+	 * @param fIn The tokenizer to read shape configuration data.
+	 * @return A fully configured ShapeGroup with all members set.
+	 * @throws IOException If the file cannot be read or the group is malformed.
+	 */
+	private static ShapeGroup loadGroupText(ShapeTokenizer fIn) throws IOException {
+
+		int nShapes = fIn.nextInt();
+
+		if(nShapes < 0) {
+			throw fIn.error("the number of members cannot be negative");
+		}
+
+		double x0 = fIn.nextDouble();
+		double y0 = fIn.nextDouble();
+
+		double x1 = fIn.nextDouble();
+		double y1 = fIn.nextDouble();
+
+		ArrayList<MyShape> members = new ArrayList<>();
+
+		for(int i = 0; i < nShapes; i++) {
+			members.add(loadShapeText(fIn));
+		}
+
+		ShapeGroup shapeGroup = new ShapeGroup();
+		shapeGroup.addMembers(members);
+		shapeGroup.setP1(x0, y0);
+		shapeGroup.setP2(x1, y1);
+		return shapeGroup;
+	}
+
+	/**
+	 * writes the shapes to a binary file in the format described by BinaryShapeFormat.
+	 *
+	 * @param fileObj The file to write to.
+	 */
+	public void toBinaryFile(File fileObj) {
+
+		try {
+			writeBinaryFile(fileObj, shapeCount(), allShapes(), FileProgress.NONE);
+		}
+		catch(IOException e) {
+			System.err.println("could not be opened for writing.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * writes shapes to a binary file in the format described by BinaryShapeFormat. The file is only
+	 * replaced once everything has been written, so a failed or cancelled save leaves it as it was.
+	 * It does not use the canvas, so it can run on another thread with shapes from copyShapes.
+	 *
+	 * @param fileObj The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param progress Receives the number of shapes written and can cancel the save.
+	 * @throws IOException If the file cannot be written or the save is cancelled.
+	 */
+	public static void writeBinaryFile(File fileObj, int count, Iterable<MyShape> shapes, FileProgress progress) throws IOException {
+
+		File temp = tempFileFor(fileObj);
+
+		try {
+			BinaryShapeFormat.write(temp, count, shapes, progress);
+			replaceFile(temp, fileObj);
+			progress.update(count, count);
+		}
+		finally {
+			// already gone if it replaced the file
+			temp.delete();
+		}
+	}
+
+	/**
+	 * writes the shapes to a compressed file in the format described by CompressedShapeFormat.
+	 * Coordinates are rounded to the given number of decimal places. The file is read with fromBinaryFile.
+	 *
+	 * @param fileObj The file to write to.
+	 * @param decimals The number of decimal places kept of each coordinate.
+	 */
+	public void toCompressedFile(File fileObj, int decimals) {
+
+		try {
+			writeCompressedFile(fileObj, shapeCount(), allShapes(), decimals, FileProgress.NONE);
+		}
+		catch(IOException e) {
+			System.err.println("could not be opened for writing.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * writes shapes to a compressed file in the format described by CompressedShapeFormat. The file is only
+	 * replaced once everything has been written, so a failed or cancelled save leaves it as it was.
+	 * It does not use the canvas, so it can run on another thread with shapes from copyShapes.
+	 *
+	 * @param fileObj The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param decimals The number of decimal places kept of each coordinate.
+	 * @param progress Receives the number of shapes written and can cancel the save.
+	 * @throws IOException If the file cannot be written or the save is cancelled.
+	 */
+	public static void writeCompressedFile(File fileObj, int count, Iterable<MyShape> shapes, int decimals, FileProgress progress) throws IOException {
+
+		File temp = tempFileFor(fileObj);
+
+		try {
+			CompressedShapeFormat.write(temp, count, shapes, decimals, progress);
+			replaceFile(temp, fileObj);
+			progress.update(count, count);
+		}
+		finally {
+			// already gone if it replaced the file
+			temp.delete();
+		}
+	}
+
+	/**
+	 * writes the shapes to a tiled file in the format described by TiledShapeFormat, which openTiledFile
+	 * can open a region at a time. The file is also read with fromBinaryFile.
+	 *
+	 * @param fileObj The file to write to.
+	 */
+	public void toTiledFile(File fileObj) {
+
+		try {
+			writeTiledFile(fileObj, shapeCount(), allShapes(), FileProgress.NONE);
+		}
+		catch(IOException e) {
+			System.err.println("could not be opened for writing.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * writes shapes to a tiled file in the format described by TiledShapeFormat. The file is only
+	 * replaced once everything has been written, so a failed or cancelled save leaves it as it was.
+	 * It does not use the canvas, so it can run on another thread with shapes from copyShapes.
+	 *
+	 * @param fileObj The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param progress Receives the number of shapes written and can cancel the save.
+	 * @throws IOException If the file cannot be written or the save is cancelled.
+	 */
+	public static void writeTiledFile(File fileObj, int count, Iterable<MyShape> shapes, FileProgress progress) throws IOException {
+
+		File temp = tempFileFor(fileObj);
+
+		try {
+			TiledShapeFormat.write(temp, count, shapes, progress);
+			replaceFile(temp, fileObj);
+			progress.update(count, count);
+		}
+		finally {
+			// already gone if it replaced the file
+			temp.delete();
+		}
+	}
+
+	/**
+	 * writes shapes to an SVG image as described by ShapeExport. The file is only replaced once
+	 * everything has been written, so a failed or cancelled export leaves it as it was.
+	 * It does not use the canvas, so it can run on another thread or without the JavaFX toolkit.
+	 *
+	 * @param fileObj The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param progress Receives the number of shapes written and can cancel the export.
+	 * @throws IOException If the file cannot be written or the export is cancelled.
+	 */
+	public static void writeSvgFile(File fileObj, int count, Iterable<MyShape> shapes, FileProgress progress) throws IOException {
+
+		File temp = tempFileFor(fileObj);
+
+		try {
+			ShapeExport.writeSvg(temp, count, shapes, progress);
+			replaceFile(temp, fileObj);
+			progress.update(count, count);
+		}
+		finally {
+			// already gone if it replaced the file
+			temp.delete();
+		}
+	}
+
+	/**
+	 * writes shapes to a PNG image as described by ShapeExport, scaled so that its longest side is the given size.
+	 * The file is only replaced once everything has been written, so a failed or cancelled export leaves it as it was.
+	 * It does not use the canvas, so it can run on another thread or without the JavaFX toolkit.
+	 *
+	 * @param fileObj The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param size The longest side of the image, in pixels.
+	 * @param progress Receives the number of shapes drawn and can cancel the export.
+	 * @throws IOException If the file cannot be written or the export is cancelled.
+	 */
+	public static void writePngFile(File fileObj, int count, Iterable<MyShape> shapes, int size, FileProgress progress) throws IOException {
+
+		File temp = tempFileFor(fileObj);
+
+		try {
+			ShapeExport.writePng(temp, count, shapes, size, progress);
+			replaceFile(temp, fileObj);
+			progress.update(count, count);
+		}
+		finally {
+			// already gone if it replaced the file
+			temp.delete();
+		}
+	}
+
+	/**
+	 * reads shapes from a binary file and replaces the shapes on the canvas with them.
+	 * Compressed and tiled files and files saved with Java serialization by earlier versions are imported as well.
+	 * The whole file is read before the canvas is changed, so a malformed file leaves the canvas as it was.
+	 *
+	 * @param fileObj The file to read from.
+	 */
+	public void fromBinaryFile(File fileObj) {
+
+		try {
+			replaceShapes(readBinaryFile(fileObj, FileProgress.NONE));
+		}
+		catch(DrawingFormatException e) {
+			System.err.println(fileObj + " is not a valid drawing: " + e.getMessage());
+		}
+		catch(IOException e) {
+			System.err.println("could not be opened for reading");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * reads the shapes in a binary file, including compressed and tiled files and files saved with Java serialization by earlier versions.
+	 * It does not use the canvas, so it can run on another thread; pass the result to replaceShapes.
+	 *
+	 * @param fileObj The file to read from.
+	 * @param progress Receives the amount of the file read and can cancel the load.
+	 * @return The top-level shapes, in drawing order.
+	 * @throws IOException If the file cannot be read, is malformed or the load is cancelled.
+	 */
+	public static ArrayList<MyShape> readBinaryFile(File fileObj, FileProgress progress) throws IOException {
+
+		if(BinaryShapeFormat.isSerialized(fileObj)) {
+			return loadSerialized(fileObj, progress);
+		}
+		if(CompressedShapeFormat.isCompressed(fileObj)) {
+			return CompressedShapeFormat.read(fileObj, progress);
+		}
+		if(TiledShapeFormat.isTiled(fileObj)) {
+			return TiledShapeFormat.read(fileObj, progress);
+		}
+		return BinaryShapeFormat.read(fileObj, progress);
+	}
+
+	/**
+	 * reads the shapes in a drawing file of any format, telling the binary formats apart from text by how the file starts.
+	 * It does not use the canvas, so it can run on another thread or without the JavaFX toolkit.
+	 *
+	 * @param fileObj The file to read from.
+	 * @param progress Receives the amount of the file read and can cancel the load.
+	 * @return The top-level shapes, in drawing order.
+	 * @throws IOException If the file cannot be read, is malformed or the load is cancelled.
+	 */
+	public static ArrayList<MyShape> readFile(File fileObj, FileProgress progress) throws IOException {
+
+		if(BinaryShapeFormat.isBinary(fileObj) || BinaryShapeFormat.isSerialized(fileObj)
+				|| CompressedShapeFormat.isCompressed(fileObj) || TiledShapeFormat.isTiled(fileObj)) {
+			return readBinaryFile(fileObj, progress);
+		}
+		return readTextFile(fileObj, progress);
+	}
+
+	/**
+	 * reads shapes from a file saved with Java serialization by an earlier version.
+	 *
+	 * @param fileObj The file to read from.
+	 * @param progress Receives the number of shapes read and can cancel the load.
+	 * @return The shapes in the file.
+	 */
+	private static ArrayList<MyShape> loadSerialized(File fileObj, FileProgress progress) throws IOException {
+
+		try(ObjectInputStream fIn = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileObj)))) {
+
+			int n = fIn.readInt();
+
+			ArrayList<MyShape> loaded = new ArrayList<>();
+
+			for(int i = 0; i < n; i++) {
+
+				Object o = fIn.readObject();
+
+				if(!(o instanceof MyShape)) {
+					throw new DrawingFormatException("object " + i + " of the file is not a shape");
+				}
+				loaded.add((MyShape) o);
+
+				if((i + 1) % FileProgress.STEP == 0) {
+					progress.checkpoint(i + 1, n);
+				}
+			}
+			return loaded;
+		}
+		catch(ClassNotFoundException e) {
+			throw new DrawingFormatException("the file refers to an unknown class " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces the shapes on the canvas with shapes read by readTextFile or readBinaryFile, all at once.
+	 *
+	 * @param loaded The new shapes, in drawing order. The canvas takes them over.
+	 */
+	public void replaceShapes(Collection<? extends MyShape> loaded) {
+
+		journalPendingMove();
+		clearShapes();
+
+		for(MyShape shape : loaded) {
+			storeShape(shape, false);
+		}
+		sceneAdded(loaded);
+		restartVersions();
+		requestPaint();
+
+		if(journal != null) {
+			journal.snapshot(snapshotShapes(), true);
+		}
+	}
+
+	/**
+	 * Replaces the shapes on the canvas with those a scene was built from by ShapeScene.of, all at once.
+	 * While the persistent scene is kept, the scene is taken as it is, so a drawing read and put in a scene
+	 * on another thread is not copied again on this one. Otherwise this is the same as replaceShapes.
+	 *
+	 * @param loaded The scene of the new shapes. The canvas takes the shapes it was built from over.
+	 */
+	public void replaceScene(ShapeScene loaded) {
+
+		journalPendingMove();
+		clearShapes();
+
+		// the keys of ShapeScene.of follow drawing order from 0
+		long key = 0;
+
+		for(MyShape shape : loaded.originals()) {
+			storeShape(shape, false);
+
+			if(scene != null) {
+				sceneKeys.put(shape, key++);
+			}
+		}
+
+		if(scene != null) {
+			scene = loaded;
+			nextSceneKey = Math.max(nextSceneKey, key);
+		}
+		restartVersions();
+		requestPaint();
+
+		if(journal != null) {
+			journal.snapshot(snapshotShapes(), true);
+		}
+	}
+
+	/**
+	 * Copies the shapes so that they can be saved on another thread while the drawing is edited.
+	 *
+	 * @return Deep copies of the shapes, in drawing order.
+	 */
+	public ArrayList<MyShape> copyShapes() {
+
+		ArrayList<MyShape> copy = new ArrayList<>(shapeCount());
+
+		for(MyShape s : allShapes()) {
+			copy.add((MyShape) s.clone());
+		}
+		return copy;
+	}
+
+	/**
+	 * Opens a binary file without reading its shapes into memory, replacing the shapes on the canvas.
+	 *
+	 * The file is memory-mapped and only the positions of its top-level shapes are indexed. Shapes are
+	 * decoded when the view, a hit test or an edit reaches them, so even very large files open quickly
+	 * and use memory in proportion to what is shown. The file must not be changed by other programs
+	 * while it is open; saving over it is safe. Tiled files are opened with openTiledFile. Compressed files
+	 * and files saved with Java serialization cannot be mapped and are read with fromBinaryFile instead.
+	 *
+	 * @param fileObj The file to open.
+	 */
+	public void mapBinaryFile(File fileObj) {
+
+		MappedShapeStore mapped;
+
+		try {
+			if(TiledShapeFormat.isTiled(fileObj)) {
+				openTiledFile(fileObj);
+				return;
+			}
+			if(BinaryShapeFormat.isSerialized(fileObj) || CompressedShapeFormat.isCompressed(fileObj)) {
+				fromBinaryFile(fileObj);
+				return;
+			}
+			mapped = MappedShapeStore.open(fileObj);
+		}
+		catch(DrawingFormatException e) {
+			System.err.println(fileObj + " is not a valid drawing: " + e.getMessage());
+			return;
+		}
+		catch(IOException e) {
+			System.err.println("could not be opened for reading");
+			e.printStackTrace();
+			return;
+		}
+
+		journalPendingMove();
+		clearShapes();
+		store = mapped;
+		rebuildScene();
+		restartVersions();
+		requestPaint();
+
+		// the file itself is the snapshot, so opening it copies nothing on the application thread
+		if(journal != null) {
+			journal.snapshot(fileObj, true);
+		}
+	}
+
+	/**
+	 * Opens a file written by toTiledFile without reading its shapes, replacing the shapes on the canvas.
+	 *
+	 * Only the tile directory is read. The tiles are read as the view, a hit test or an edit reaches them,
+	 * so the drawing opens at once and memory and load time follow the area being worked on. The file must
+	 * not be changed by other programs while it is open; saving over it is safe. Other files are read with
+	 * fromBinaryFile instead.
+	 *
+	 * @param fileObj The file to open.
+	 */
+	public void openTiledFile(File fileObj) {
+
+		try {
+			if(!TiledShapeFormat.isTiled(fileObj)) {
+				fromBinaryFile(fileObj);
+				return;
+			}
+			openTiled(fileObj);
+		}
+		catch(DrawingFormatException e) {
+			System.err.println(fileObj + " is not a valid drawing: " + e.getMessage());
+		}
+		catch(IOException e) {
+			System.err.println("could not be opened for reading");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Opens a file in the tiled format as openTiledFile does, but leaves errors to the caller.
+	 *
+	 * @param fileObj The file to open.
+	 * @throws IOException If the file cannot be read or is not in the tiled format. The canvas is then unchanged.
+	 */
+	public void openTiled(File fileObj) throws IOException {
+
+		TiledShapeStore tiled = TiledShapeStore.open(fileObj);
+
+		journalPendingMove();
+		clearShapes();
+		store = tiled;
+		rebuildScene();
+		restartVersions();
+		requestPaint();
+
+		// the file itself is the snapshot, so no tile is read for it
+		if(journal != null) {
+			journal.snapshot(fileObj, true);
+		}
+	}
+
+	/**
+	 * Checks if the shapes come from a tiled file opened with openTiledFile.
+	 *
+	 * @return true if a tiled file is open, false otherwise.
+	 */
+	public boolean isTiled() {
+		return store instanceof TiledShapeStore;
+	}
+
+	/**
+	 * Checks if the shapes come from a memory-mapped file opened with mapBinaryFile.
+	 *
+	 * @return true if a mapped file is open, false otherwise.
+	 */
+	public boolean isMapped() {
+		return store instanceof MappedShapeStore;
+	}
+
+	/**
+	 * Finds and returns the shape closest to a specified point.
+	 *
+	 * Compares the distance from each shape's center to (x, y). If no shapes exist, returns null.
+	 * When several shapes are equally close, the one earliest in the shapes ArrayList is returned.
+	 *
+	 * @param x X-coordinate of the point.
+	 * @param y Y-coordinate of the point.
+	 * @return Closest shape or null if no shapes are available.
+	 */
+	public MyShape closestShape(double x, double y) {
+
+		if(store != null) {
+			return store.nearest(x, y);
+		}
+		return index.nearest(x, y);
+	}
+
+	/**
+	 * Moves a shape by dx and dy, keeps the canvas' lookup structures in sync and schedules a repaint of its old and new areas.
+	 * Shapes on the canvas should be moved through this method rather than MyShape.move.
+	 *
+	 * @param s The shape to move.
+	 * @param dx The amount to move the shape along the x-axis.
+	 * @param dy The amount to move the shape along the y-axis.
+	 */
+	public void moveShape(MyShape s, double dx, double dy) {
+		damage(s);
+		s.move(dx, dy);
+		journalMove(s, dx, dy);
+		sceneChanged(s);
+
+		if(store != null) {
+			store.update(s);
+		}
+		else {
+			index.update(s);
+		}
+		damage(s);
+
+		if(s != activeShape) {
+			backgroundValid = false;
+		}
+		requestRepaint();
+	}
+
+	/**
+	 * Removes a specified shape from the collection and schedules a repaint of its area.
+	 * 
+	 * @param s The shape to be removed from the collection.
+	 */
+	public void deleteShape(MyShape s) {
+		journalPendingMove();
+
+		int[] positions = journal != null ? positionsOf(Collections.singletonList(s)) : null;
+
+		if(unstoreShape(s)) {
+			journalDeleted(positions);
+			backgroundValid = false;
+			damage(s);
+			requestRepaint();
+		}
+		//System.out.println(s.toString());
+	}
+
+	/**
+	 * Adds several shapes at once, in order, and schedules a single repaint.
+	 *
+	 * @param c The shapes to be added.
+	 */
+	public void addShapes(Collection<? extends MyShape> c) {
+
+		journalPendingMove();
+
+		for(MyShape s : c) {
+			storeShape(s, true);
+			damage(s);
+		}
+		sceneAdded(c);
+		backgroundValid = false;
+		requestRepaint();
+
+		if(journal != null) {
+			journal.added(c);
+			journalSnapshotIfNeeded();
+		}
+	}
+
+	/**
+	 * Removes several shapes at once and schedules a single repaint.
+	 * Takes time proportional to the number of shapes on the canvas, however many are removed.
+	 *
+	 * @param c The shapes to be removed.
+	 */
+	public void deleteShapes(Collection<? extends MyShape> c) {
+
+		journalPendingMove();
+
+		int[] positions = journal != null ? positionsOf(c) : null;
+		Set<MyShape> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		for(MyShape s : c) {
+			if(store != null ? store.remove(s) : index.remove(s)) {
+				removed.add(s);
+				sceneRemoved(s);
+				damage(s);
+			}
+		}
+
+		if(!removed.isEmpty()) {
+			shapes.removeIf(removed::contains);
+
+			for(MyShape s : removed) {
+				forgetPosition(s);
+			}
+			backgroundValid = false;
+			requestRepaint();
+			journalDeleted(positions);
+		}
+	}
+
+	/**
+	 * Finds the top-level shapes at positions in drawing order, as for replaying changes journaled by position.
+	 *
+	 * @param positions Positions counting from 0, in increasing order.
+	 * @return The shapes at the positions that hold one, in the same order.
+	 */
+	public ArrayList<MyShape> shapesAt(int[] positions) {
+
+		if(store != null) {
+			return store.shapesAt(positions);
+		}
+
+		ArrayList<MyShape> found = new ArrayList<>(positions.length);
+
+		for(int p : positions) {
+			if(p >= 0 && p < shapes.size()) {
+				found.add(shapes.get(p));
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the shapes whose center lies inside a rectangle, edges included,
+	 * using the same test as ShapeGroup.within.
+	 *
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @return The matching shapes in the order they appear in the shapes ArrayList.
+	 */
+	public ArrayList<MyShape> shapesWithin(double minX, double minY, double maxX, double maxY) {
+
+		if(store != null) {
+			return store.within(minX, minY, maxX, maxY);
+		}
+		return index.within(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Retrieves the list of all shapes in the collection.
+	 * The list should not be modified directly, use addShape and deleteShape instead.
+	 * With the compact store on, the list is a copy and creates a view for every shape.
 	 * 
 	 * @return An ArrayList of shapes currently in the collection.
 	 */
-	public ArrayList<MyShape> getShapes() { 
-		return shapes;
+	public ArrayList<MyShape> getShapes() { 
+
+		if(store != null) {
+			return store.toList();
+		}
+		return shapes;
+	}
+
+	/**
+	 * Returns the number of shapes on the canvas.
+	 *
+	 * @return the number of shapes.
+	 */
+	public int shapeCount() {
+		return store != null ? store.size() : shapes.size();
+	}
+
+	/**
+	 * Turns the compact store on or off.
+	 *
+	 * With the compact store on, lines, rectangles and ovals are kept in a ShapeStore as rows of primitive arrays
+	 * and are drawn and hit-tested from there. Shape objects are only created for the shapes that a hit test
+	 * or an edit touches. This uses several times less memory per shape, at the cost of hit tests that scan
+	 * every row instead of using the spatial index. Turn it on before opening a large drawing.
+	 * While a file opened with mapBinaryFile or openTiledFile is open, the setting takes effect when the drawing is next replaced.
+	 *
+	 * @param on True to use the compact store, false to keep every shape as an object.
+	 */
+	public void setCompactStore(boolean on) {
+
+		compact = on;
+
+		// a mapped or tiled file keeps its own storage until the drawing is replaced
+		if(store instanceof MappedShapeStore || store instanceof TiledShapeStore || on == (store != null)) {
+			return;
+		}
+
+		if(on) {
+			store = new ShapeStore();
+
+			for(MyShape s : shapes) {
+				store.add(s, true);
+			}
+			shapes.clear();
+			index.clear();
+			forgetPositions();
+		}
+		else {
+			for(MyShape s : store.toList()) {
+				shapes.add(s);
+				index.insert(s);
+			}
+			store = null;
+		}
+		rebuildScene();
+
+		backgroundValid = false;
+		requestPaint();
+	}
+
+	/**
+	 * Checks if the compact store is on.
+	 *
+	 * @return true if the compact store is used for new drawings, false otherwise.
+	 */
+	public boolean isCompactStore() {
+		return compact;
+	}
+
+	/**
+	 * Adds a shape after all the others, to the compact store if it is on or to the shapes ArrayList and index otherwise.
+	 *
+	 * @param s The shape to add.
+	 * @param keep False if the compact store does not need to hold on to the object, as for freshly loaded shapes.
+	 */
+	private void storeShape(MyShape s, boolean keep) {
+
+		if(store != null) {
+			store.add(s, keep);
+		}
+		else {
+			shapes.add(s);
+			index.insert(s);
+		}
+	}
+
+	/**
+	 * Removes a shape from the compact store or from the shapes ArrayList and index.
+	 *
+	 * @return true if the shape was on the canvas, false otherwise.
+	 */
+	private boolean unstoreShape(MyShape s) {
+
+		if(store != null) {
+			return store.remove(s);
+		}
+
+		if(shapes.remove(s)) {
+			index.remove(s);
+			forgetPosition(s);
+			sceneRemoved(s);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Turns the persistent scene on or off.
+	 *
+	 * With the persistent scene on, the canvas keeps a ShapeScene in step with its shapes: a frozen copy of
+	 * every shape, in a tree that each change copies only a path of. snapshotShapes then takes no time and can
+	 * be called from any thread, so saving and journaling do not copy the drawing on the application thread.
+	 * Each added or moved shape is copied once more, and the copies take about as much memory as the shapes.
+	 * A shape dragged in an interaction is copied once when the interaction ends, so until then a snapshot
+	 * has it where the drag began.
+	 * The scene is not kept while the compact store is on or a mapped or tiled file is open.
+	 *
+	 * @param on True to keep the persistent scene, false otherwise.
+	 */
+	public void setPersistentScene(boolean on) {
+
+		if(on == (sceneKeys != null)) {
+			return;
+		}
+
+		if(on) {
+			sceneKeys = new IdentityHashMap<>();
+			rebuildScene();
+		}
+		else {
+			sceneKeys = null;
+			scene = null;
+			sceneMove = null;
+		}
+	}
+
+	/**
+	 * Checks if the persistent scene is on.
+	 *
+	 * @return true if setPersistentScene was turned on, false otherwise.
+	 */
+	public boolean isPersistentScene() {
+		return sceneKeys != null;
+	}
+
+	/**
+	 * Returns the shapes as they are now, for saving on another thread while the drawing is edited.
+	 *
+	 * While the persistent scene is kept this returns it, in constant time, and may be called from any thread.
+	 * With the compact store on or a mapped or tiled file open, it is a snapshot of the storage, which copies
+	 * only what the storage holds on the heap and decodes the rest on the thread that reads it.
+	 * Otherwise the shapes are copied with copyShapes, on the application thread.
+	 *
+	 * @return Shapes in drawing order that do not change with the canvas and must not be changed.
+	 */
+	public Collection<MyShape> snapshotShapes() {
+
+		ShapeScene current = scene;
+
+		if(current != null) {
+			return current;
+		}
+		return store != null ? store.snapshot() : copyShapes();
+	}
+
+	/**
+	 * Returns the persistent scene as it is now.
+	 *
+	 * @return The scene, or null while it is not kept.
+	 */
+	public ShapeScene getShapeScene() {
+		return scene;
+	}
+
+	/**
+	 * Starts the persistent scene over from the shapes on the canvas, or drops it while they are not held as objects.
+	 */
+	private void rebuildScene() {
+
+		if(sceneKeys == null) {
+			return;
+		}
+
+		sceneKeys.clear();
+		scene = null;
+		sceneMove = null;
+
+		if(store == null) {
+			scene = ShapeScene.EMPTY;
+			sceneAdded(shapes);
+		}
+	}
+
+	/**
+	 * Adds frozen copies of shapes just added to the canvas to the persistent scene.
+	 */
+	private void sceneAdded(Collection<? extends MyShape> c) {
+
+		if(scene == null || c.isEmpty()) {
+			return;
+		}
+
+		ArrayList<MyShape> copies = new ArrayList<>(c.size());
+		long first = nextSceneKey;
+
+		for(MyShape s : c) {
+			sceneKeys.put(s, nextSceneKey++);
+			copies.add(ShapeScene.copy(s));
+		}
+		scene = scene.withAll(first, copies, c instanceof List ? (List<? extends MyShape>) c : new ArrayList<>(c));
+	}
+
+	/**
+	 * Replaces the copy of a changed shape in the persistent scene. The active shape is only copied
+	 * when the interaction ends or another shape changes, so a drag does not copy it on every mouse event.
+	 */
+	private void sceneChanged(MyShape s) {
+
+		if(scene == null) {
+			return;
+		}
+
+		if(s != sceneMove) {
+			scenePendingMove();
+		}
+		if(s == activeShape) {
+			sceneMove = s;
+			return;
+		}
+
+		Long key = sceneKeys.get(s);
+
+		if(key != null) {
+			scene = scene.with(key, ShapeScene.copy(s), s);
+		}
+	}
+
+	/**
+	 * Copies the active shape into the persistent scene if it has been moved since it was last copied.
+	 */
+	private void scenePendingMove() {
+
+		if(sceneMove == null) {
+			return;
+		}
+
+		MyShape s = sceneMove;
+		sceneMove = null;
+
+		Long key = sceneKeys.get(s);
+
+		if(key != null) {
+			scene = scene.with(key, ShapeScene.copy(s), s);
+		}
+	}
+
+	private void sceneRemoved(MyShape s) {
+
+		if(scene == null) {
+			return;
+		}
+
+		if(s == sceneMove) {
+			sceneMove = null;
+		}
+
+		Long key = sceneKeys.remove(s);
+
+		if(key != null) {
+			scene = scene.without(key);
+		}
+	}
+
+	/**
+	 * Journals every change to the shapes from now on, so that the drawing can be recovered after a crash.
+	 * Changes are journaled as they reach the canvas, so undo and redo are covered as well, and a shape
+	 * dragged during an interaction is journaled as one move when the interaction ends.
+	 *
+	 * @param j The journal, or null to stop journaling.
+	 */
+	public void setJournal(EditJournal j) {
+		journalPendingMove();
+		journal = j;
+	}
+
+	/**
+	 * Journals a move right away, or adds it to the pending one if the shape is being dragged.
+	 */
+	private void journalMove(MyShape s, double dx, double dy) {
+
+		if(journal == null) {
+			return;
+		}
+
+		if(s != journalMove) {
+			journalPendingMove();
+		}
+
+		journalDx += dx;
+		journalDy += dy;
+		journalMove = s;
+
+		if(s != activeShape) {
+			journalPendingMove();
+		}
+	}
+
+	/**
+	 * Journals the move of the dragged shape so far. Called before any other change, so that positions stay in step.
+	 */
+	private void journalPendingMove() {
+
+		if(journalMove == null) {
+			return;
+		}
+
+		MyShape s = journalMove;
+		journalMove = null;
+
+		if(journal != null) {
+
+			int[] positions = positionsOf(Collections.singletonList(s));
+
+			if(positions.length == 1) {
+				journal.moved(positions[0], journalDx, journalDy);
+				journalSnapshotIfNeeded();
+			}
+		}
+
+		journalDx = 0;
+		journalDy = 0;
+	}
+
+	private void journalDeleted(int[] positions) {
+
+		if(journal != null) {
+			journal.deleted(positions);
+			journalSnapshotIfNeeded();
+		}
+	}
+
+	private void journalSnapshotIfNeeded() {
+
+		// an open edit is snapshotted when it is committed, not halfway through
+		if(editDepth == 0 && journal.needsSnapshot()) {
+
+			// the snapshot has to hold the moves journaled so far, and a tiled drawing stays tiled
+			scenePendingMove();
+			journal.snapshot(snapshotShapes(), false, isTiled());
+		}
+	}
+
+	/**
+	 * Finds where shapes are in drawing order.
+	 *
+	 * @return The positions of those on the canvas, in increasing order.
+	 */
+	private int[] positionsOf(Collection<? extends MyShape> c) {
+
+		if(store != null) {
+			return store.positions(c);
+		}
+
+		int[] found = new int[c.size()];
+		int n = 0;
+
+		for(MyShape s : c) {
+
+			Integer p = positions.get(s);
+
+			if(p == null || p >= positionsValid) {
+
+				// number the shapes after the first one changed since they were last numbered
+				for(int i = positionsValid; i < shapes.size(); i++) {
+					positions.put(shapes.get(i), i);
+				}
+				positionsValid = shapes.size();
+				p = positions.get(s);
+			}
+
+			if(p != null) {
+				found[n++] = p;
+			}
+		}
+
+		return Arrays.stream(found, 0, n).sorted().distinct().toArray();
+	}
+
+	/**
+	 * Forgets the position of a shape removed from the shapes ArrayList. The shapes after it have moved up one.
+	 */
+	private void forgetPosition(MyShape s) {
+
+		Integer p = positions.remove(s);
+
+		if(p != null && p < positionsValid) {
+			positionsValid = p;
+		}
+	}
+
+	private void forgetPositions() {
+		positions.clear();
+		positionsValid = 0;
+	}
+
+	/**
+	 * Returns the shapes in drawing order without creating views in the compact store.
+	 */
+	private Iterable<MyShape> allShapes() {
+		return store != null ? store : shapes;
 	}
 
+	/**
+	 * Adds an edit that has just been made to the undo history. A move of the same shape as the
+	 * move added last is merged into it if it comes within the merge window, so nudging a shape
+	 * several times is undone in one step. Between beginEdit and commitEdit, moves of the same
+	 * shape are merged however far apart they are.
+	 *
+	 * @param edit The edit.
+	 */
 	public void addEdit(Edit edit) {
 		
-		stackUndo.push(edit);
+		if(versions != null) {
+			versions.made(edit);
+		}
+		if(openEdit != null) {
+			openEdit.add(edit);
+			return;
+		}
+
+		long now = System.nanoTime();
+
+		// the last edit may have been undone, or spilled to disk, since
+		if(edit instanceof MoveEdit && lastEdit instanceof MoveEdit && mergeWindow > 0 && now - lastEditTime <= mergeWindow
+				&& newestEdit() == lastEdit && ((MoveEdit) lastEdit).merge((MoveEdit) edit)) {
+			lastEditTime = now;
+			return;
+		}
+
+		record(edit);
+		lastEdit = edit;
+		lastEditTime = now;
+	}
+
+	/**
+	 * Changes how soon after one another moves of the same shape must be made to be merged into one edit.
+	 *
+	 * @param millis The most time between the moves, in milliseconds, or 0 to keep every move as an edit of its own.
+	 */
+	public void setMergeWindow(long millis) {
+		mergeWindow = millis * 1000000;
+	}
+
+	/**
+	 * Starts an edit made of several others. Until the matching commitEdit, edits passed to addEdit
+	 * become part of it, the canvas is not painted, and the journal does not take snapshots.
+	 * Calls can be nested; the edits then all belong to the outermost one.
+	 */
+	public void beginEdit() {
+
+		if(editDepth++ == 0) {
+			openEdit = new CompositeEdit(this);
+		}
+	}
+
+	/**
+	 * Ends the edit started by beginEdit. The outermost commit adds the edits made since as a
+	 * single undo step and schedules one repaint of everything they changed.
+	 */
+	public void commitEdit() {
+
+		if(editDepth == 0) {
+			throw new IllegalStateException("commitEdit without beginEdit");
+		}
+		if(--editDepth > 0) {
+			return;
+		}
+
+		CompositeEdit edit = openEdit;
+		openEdit = null;
+
+		if(edit.size() == 1) {
+			record(edit.getEdits().get(0));
+		}
+		else if(!edit.isEmpty()) {
+			record(edit);
+		}
+
+		if(journal != null) {
+			journalSnapshotIfNeeded();
+		}
+		if(paintPending || repaintPending) {
+			schedule();
+		}
 	}
 
 	public void undo() {
 		
-		if(!stackUndo.empty()) {
-			Edit curEdit = stackUndo.pop();
-			curEdit.undo();
-
-			stackRedo.push(curEdit);
+		if(versions != null) {
+			versions.undo();
+		}
+		else {
+			history.undo();
 		}
 	}
 
 	public void redo() {
 
-		if(!stackRedo.empty()) {
-			Edit curEdit = stackRedo.pop();
-			curEdit.redo();
+		if(versions != null) {
+			versions.redo();
+		}
+		else {
+			history.redo();
+		}
+	}
+
+	/**
+	 * Adds a finished edit to the undo history or the version tree.
+	 */
+	private void record(Edit edit) {
+
+		if(versions != null) {
+			versions.add(edit);
+		}
+		else {
+			history.add(edit);
+		}
+	}
+
+	/**
+	 * Forgets the edits that could be undone or redone, and starts the version tree over from the drawing as it is,
+	 * as when another drawing is opened. Used after changes that were not made as edits, such as those replayed from a journal.
+	 */
+	public void restartHistory() {
+		history.clear();
+		restartVersions();
+	}
+
+	/**
+	 * Starts the version tree over from the drawing as it is, after it was cleared or replaced other than by an edit,
+	 * since the versions kept would not lead to it.
+	 */
+	private void restartVersions() {
+
+		if(versions != null) {
+			versions = newVersionTree();
+		}
+	}
+
+	private VersionTree newVersionTree() {
+
+		VersionTree tree = new VersionTree(this);
+		tree.setLimits(historyDepth, historyMemory);
+		return tree;
+	}
+
+	private Edit newestEdit() {
+		return versions != null ? versions.newest() : history.newest();
+	}
+
+	/**
+	 * Turns the branching history on or off.
+	 *
+	 * With the branching history on, edits are kept in a VersionTree instead of the linear undo history:
+	 * a new edit made after undoing starts a branch instead of dropping the edits that could be redone,
+	 * and any version can be checked out with getVersionTree().checkout. The tree starts from the drawing
+	 * as it is, and starts over when the drawing is cleared or another is opened. The linear history is cleared
+	 * either way. Checkouts are fastest with the persistent scene on. The tree keeps within the limits set by
+	 * setHistoryLimits, dropping its oldest versions instead of spilling them to disk.
+	 *
+	 * @param on True to keep a version tree, false to keep the linear undo history.
+	 */
+	public void setBranchingHistory(boolean on) {
+
+		if(on == (versions != null)) {
+			return;
+		}
+
+		history.clear();
+		versions = on ? newVersionTree() : null;
+	}
+
+	/**
+	 *
+	 * @return The version tree while the branching history is on, or null.
+	 */
+	public VersionTree getVersionTree() {
+		return versions;
+	}
+
+	/**
+	 * Puts the shapes back as they were when a scene was taken by snapshotShapes, replacing the shapes
+	 * on the canvas. The shapes the scene was taken from are moved back to where they were and put back
+	 * in drawing order, so edits that refer to them carry on working.
+	 *
+	 * @param saved The scene.
+	 */
+	public void restoreShapes(ShapeScene saved) {
+
+		journalPendingMove();
+		clearShapes();
+
+		Iterator<MyShape> copies = saved.iterator();
+		ArrayList<MyShape> restored = new ArrayList<>(saved.size());
+
+		for(MyShape s : saved.originals()) {
+			s.restore(copies.next());
+			storeShape(s, true);
+			restored.add(s);
+		}
+		sceneAdded(restored);
+		requestPaint();
+
+		if(journal != null) {
+			journal.snapshot(snapshotShapes(), true);
+		}
+	}
+
+	/**
+	 * Changes how much undo history is kept, as described by EditHistory, or by VersionTree.setLimits
+	 * while the branching history is on.
+	 *
+	 * @param depth The most edits that can be undone, and the most that can be redone, or the most versions kept.
+	 * @param memory The most memory, in bytes, the edits held in memory may take up before the oldest are spilled to disk,
+	 * or the versions before the oldest are dropped.
+	 */
+	public void setHistoryLimits(int depth, long memory) {
+
+		history.setLimits(depth, memory);
+		historyDepth = depth;
+		historyMemory = memory;
 
-			stackUndo.push(curEdit);
+		if(versions != null) {
+			versions.setLimits(depth, memory);
 		}
 	}
 
@@ -0,0 +1,344 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts drawings between the file formats, or exports them as SVG or PNG images, from the command line.
+ * It does not start the JavaFX toolkit, so it runs without a screen, for example to convert an archive overnight.
+ *
+ * Directories are searched for drawings, including their subdirectories, and the files are converted
+ * several at a time on a fixed pool of threads. A file that cannot be converted is reported and skipped,
+ * and the exit status is 1 if any file failed.
+ */
+public class ShapeConvert {
+
+	private static final String USAGE = String.join("\n",
+			"usage: ShapeConvert --to FORMAT [options] FILE_OR_DIRECTORY...",
+			"",
+			"Reads drawings in any format and writes each one in FORMAT:",
+			"  text, binary, compressed, tiled  drawing files, with the extensions txt, bin, shz and sht",
+			"  svg, png                         images, with the extensions svg and png",
+			"",
+			"options:",
+			"  --out DIR       write the files to DIR, keeping the layout of the directories given,",
+			"                  instead of next to the drawings they come from",
+			"  --size N        the longest side of a PNG image in pixels (default " + ShapeExport.DEFAULT_SIZE + ")",
+			"  --decimals N    the decimal places kept by the compressed format (default " + CompressedShapeFormat.DEFAULT_DECIMALS + ")",
+			"  --threads N     how many files to convert at once (default: the number of processors)");
+
+	private String format;
+	private File outDir;
+	private int size = ShapeExport.DEFAULT_SIZE;
+	private int decimals = CompressedShapeFormat.DEFAULT_DECIMALS;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Converts the files given on the command line and exits with the status returned by run.
+	 *
+	 * @param args The options and files, as described by the usage message.
+	 */
+	public static void main(String[] args) {
+
+		// Java2D draws the PNG images, and must not look for a screen
+		System.setProperty("java.awt.headless", "true");
+
+		// the file code is in ShapeCanvas, and loading a JavaFX node sets up the renderer,
+		// which otherwise looks for OpenGL first; nothing is rendered by it here
+		if(System.getProperty("prism.order") == null) {
+			System.setProperty("prism.order", "sw");
+		}
+
+		System.exit(run(args));
+	}
+
+	/**
+	 * Converts the files given as on the command line.
+	 *
+	 * @param args The options and files, as described by the usage message.
+	 * @return The exit status: 0 if every file was converted, 1 if any failed and 2 if the arguments are wrong.
+	 */
+	public static int run(String... args) {
+
+		ShapeConvert convert = new ShapeConvert();
+		List<String> inputs = new ArrayList<>();
+
+		try {
+			for(int i = 0; i < args.length; i++) {
+
+				switch(args[i]) {
+				case "--to":
+					convert.format = value(args, ++i);
+					if(extension(convert.format) == null) {
+						throw new IllegalArgumentException("unknown format: " + convert.format);
+					}
+					break;
+				case "--out":
+					convert.outDir = new File(value(args, ++i));
+					break;
+				case "--size":
+					convert.size = number(args, ++i, 1, Integer.MAX_VALUE);
+					break;
+				case "--decimals":
+					convert.decimals = number(args, ++i, 0, CompressedShapeFormat.MAX_DECIMALS);
+					break;
+				case "--threads":
+					convert.threads = number(args, ++i, 1, Integer.MAX_VALUE);
+					break;
+				case "-h":
+				case "--help":
+					System.out.println(USAGE);
+					return 0;
+				default:
+					if(args[i].startsWith("--")) {
+						throw new IllegalArgumentException("unknown option: " + args[i]);
+					}
+					inputs.add(args[i]);
+				}
+			}
+			if(convert.format == null || inputs.isEmpty()) {
+				throw new IllegalArgumentException("a format and at least one file are needed");
+			}
+		}
+		catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return 2;
+		}
+
+		return convert.convertAll(inputs) ? 0 : 1;
+	}
+
+	private static String value(String[] args, int i) {
+
+		if(i >= args.length) {
+			throw new IllegalArgumentException(args[i - 1] + " needs a value");
+		}
+		return args[i];
+	}
+
+	private static int number(String[] args, int i, int min, int max) {
+
+		String v = value(args, i);
+
+		try {
+			int n = Integer.parseInt(v);
+
+			if(n >= min && n <= max) {
+				return n;
+			}
+		}
+		catch(NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException(args[i - 1] + " must be a whole number from " + min + " to " + max + ": " + v);
+	}
+
+	/**
+	 * Returns the extension of the files written in a format.
+	 *
+	 * @param format The name of the format.
+	 * @return The extension, or null if there is no such format.
+	 */
+	private static String extension(String format) {
+
+		switch(format) {
+		case "text":
+			return "txt";
+		case "binary":
+			return "bin";
+		case "compressed":
+			return "shz";
+		case "tiled":
+			return "sht";
+		case "svg":
+			return "svg";
+		case "png":
+			return "png";
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the drawings to convert and converts them.
+	 *
+	 * @param inputs The files and directories given on the command line.
+	 * @return true if every file was converted.
+	 */
+	private boolean convertAll(List<String> inputs) {
+
+		// the file each output is written from, in the order the files were found
+		Map<File, File> sources = new LinkedHashMap<>();
+		int found = 0;
+		boolean ok = true;
+
+		for(String name : inputs) {
+
+			File input = new File(name);
+
+			try {
+				if(input.isDirectory()) {
+
+					for(File f : drawingsIn(input)) {
+						ok &= addSource(sources, f, input.toPath().relativize(f.toPath()));
+						found++;
+					}
+				}
+				else if(input.isFile()) {
+					ok &= addSource(sources, input, input.toPath().getFileName());
+					found++;
+				}
+				else {
+					System.err.println(input + " does not exist");
+					ok = false;
+				}
+			}
+			catch(IOException e) {
+				System.err.println(input + " could not be searched");
+				e.printStackTrace();
+				ok = false;
+			}
+		}
+
+		List<Callable<Boolean>> tasks = new ArrayList<>(sources.size());
+
+		for(Map.Entry<File, File> e : sources.entrySet()) {
+			tasks.add(() -> convert(e.getValue(), e.getKey()));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		int converted = 0;
+
+		try {
+			for(Future<Boolean> f : pool.invokeAll(tasks)) {
+
+				if(f.get()) {
+					converted++;
+				}
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.err.println("interrupted");
+		}
+		catch(ExecutionException e) {
+			// convert reports its own exceptions, so this is an error such as running out of memory
+			System.err.println("the conversion stopped");
+			e.getCause().printStackTrace();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		System.out.println("converted " + converted + " of " + found + " files");
+		return ok && converted == tasks.size();
+	}
+
+	/**
+	 * Lists the files in a directory and its subdirectories, leaving out hidden files, such as the
+	 * temporary files of a save in progress, and images, which cannot be read back.
+	 */
+	private static List<File> drawingsIn(File dir) throws IOException {
+
+		try(Stream<Path> paths = Files.walk(dir.toPath())) {
+			return paths
+					.filter(Files::isRegularFile)
+					.filter(p -> {
+						String name = p.getFileName().toString();
+						return !name.startsWith(".") && !name.endsWith(".svg") && !name.endsWith(".png");
+					})
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Decides where a file is written: in the output directory under its path relative to the
+	 * directory it was found in, or next to it, with the extension of the format.
+	 *
+	 * @return false if another file is already written there.
+	 */
+	private boolean addSource(Map<File, File> sources, File input, Path relative) {
+
+		String name = relative.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		String renamed = (dot > 0 ? name.substring(0, dot) : name) + "." + extension(format);
+
+		Path parent = relative.getParent();
+		File dir = outDir != null ? (parent != null ? outDir.toPath().resolve(parent).toFile() : outDir) : input.getAbsoluteFile().getParentFile();
+		File target = new File(dir, renamed).getAbsoluteFile();
+		File other = sources.putIfAbsent(target, input);
+
+		if(other != null) {
+			System.err.println(input + " is not converted: " + other + " is also written to " + target);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads one drawing and writes it in the chosen format, reporting any failure.
+	 *
+	 * @param input The drawing.
+	 * @param target The file to write.
+	 * @return true if the file was converted.
+	 */
+	private boolean convert(File input, File target) {
+
+		try {
+			ArrayList<MyShape> shapes = ShapeCanvas.readFile(input, FileProgress.NONE);
+			File dir = target.getAbsoluteFile().getParentFile();
+
+			if(!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+				throw new IOException("could not create " + dir);
+			}
+
+			switch(format) {
+			case "text":
+				ShapeCanvas.writeTextFile(target, shapes.size(), shapes, FileProgress.NONE);
+				break;
+			case "binary":
+				ShapeCanvas.writeBinaryFile(target, shapes.size(), shapes, FileProgress.NONE);
+				break;
+			case "compressed":
+				ShapeCanvas.writeCompressedFile(target, shapes.size(), shapes, decimals, FileProgress.NONE);
+				break;
+			case "tiled":
+				ShapeCanvas.writeTiledFile(target, shapes.size(), shapes, FileProgress.NONE);
+				break;
+			case "svg":
+				ShapeCanvas.writeSvgFile(target, shapes.size(), shapes, FileProgress.NONE);
+				break;
+			case "png":
+				ShapeCanvas.writePngFile(target, shapes.size(), shapes, size, FileProgress.NONE);
+				break;
+			default:
+				throw new IllegalStateException(format);
+			}
+
+			System.out.println(input + " -> " + target);
+			return true;
+		}
+		catch(DrawingFormatException e) {
+			System.err.println(input + " is not a valid drawing: " + e.getMessage());
+		}
+		catch(IOException | RuntimeException e) {
+			System.err.println(input + " could not be converted");
+			e.printStackTrace();
+		}
+		return false;
+	}
+}
@@ -1,17 +1,25 @@
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Consumer;
 
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.RadioButton;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
@@ -28,11 +36,14 @@ public class ShapeEditor extends Application{
 	private static final int CANVAS_HEIGHT = 660;
 	private static final int CNTL_HEIGHT = 7;
 
+	// binary files from this size on are opened through a memory-mapped file instead of being read in full
+	private static final long MAPPED_OPEN_SIZE = 64L << 20;
+
 	// GUI-variables
 	private BorderPane mainPane;
 	private ShapeCanvas canvas;
-	private HBox controlPanel;
-	private Button bnClear, bnUndo, bnRedo;
+	private HBox controlPanel, statusPanel;
+	private Button bnClear, bnUndo, bnRedo, bnCancel;
 	private CheckBox cbFilled;
 	private RadioButton rbLine, rbRect, rbOval, rbDelete, rbMove, rbCopy, rbGroup;
 	private LineHandler lineHandler;
@@ -43,10 +54,13 @@ public class ShapeEditor extends Application{
 	private CopyHandler copyHandler;
 	private GroupHandler groupHandler;
 	private MenuBar menuBar;
-	private Menu menuFile, menuAbout;
-	private MenuItem miOpen, miSave, miOpenB, miSaveB;
+	private Menu menuFile, menuHistory, menuAbout;
+	private MenuItem miOpen, miSave, miOpenB, miSaveB, miSaveC, miOpenT, miSaveT, miVersion;
+	private CheckMenuItem miBranching;
 	private FileChooser fcOpen, fcSave;
+	private ProgressBar pbFile;
 	private ColorPicker colorPicker;
+	private EditJournal journal;
 	
     /**
      * Starts the application and sets up the stage.
@@ -61,6 +75,7 @@ public class ShapeEditor extends Application{
 		setupCanvas();
 		setupControls();
 		setupMenu();
+		setupJournal();
 		
 		mainPane.setCenter(canvas);
 		mainPane.setTop(controlPanel);
@@ -79,6 +94,10 @@ public class ShapeEditor extends Application{
 	public void setupCanvas() {
 
 		canvas = new ShapeCanvas(CANVAS_WIDTH, CANVAS_HEIGHT);
+
+		// saves and journal snapshots then take the shapes without copying them,
+		// and the version tree, once turned on in the History menu, keeps checkpoints cheaply
+		canvas.setPersistentScene(true);
 	}
 	
     /**
@@ -125,7 +144,6 @@ public class ShapeEditor extends Application{
 
 		bnClear.setOnAction(e->{
 			canvas.clear();
-			canvas.paint();
 		});
 		
 		bnUndo.setOnAction(e->{
@@ -180,19 +198,27 @@ public class ShapeEditor extends Application{
 	/**
 	 * Sets up the menu bar with its menus and menu items.
 	 * The menu bar includes a "File" menu and an "About" menu.
-	 * The "File" menu contains options for opening and saving files in both text and binary formats.
+	 * The "File" menu contains options for opening and saving files in both text and binary formats,
+	 * and for saving in the compressed format, which "Open Binary" reads as well.
 	 */
 	public void setupMenu() {
 		
 		menuBar = new MenuBar();
 		
 		menuFile = new Menu("File");
+		menuHistory = new Menu("History");
 		menuAbout = new Menu("About");
 		
 		miOpen = new MenuItem("Open");
 		miSave = new MenuItem("Save");
 		miOpenB = new MenuItem("Open Binary");
 		miSaveB = new MenuItem("Save Binary");
+		miSaveC = new MenuItem("Save Compressed");
+		miOpenT = new MenuItem("Open Tiled");
+		miSaveT = new MenuItem("Save Tiled");
+		miBranching = new CheckMenuItem("Branching History");
+		miVersion = new MenuItem("Go to Version...");
+		miVersion.setDisable(true);
 		
 		fcSave = new FileChooser();
 		fcOpen = new FileChooser();
@@ -201,7 +227,12 @@ public class ShapeEditor extends Application{
 			File newFile = fcSave.showSaveDialog(null);
 			
 			if(newFile != null) {
-				canvas.toTextFile(newFile);
+				Collection<MyShape> shapes = canvas.snapshotShapes();
+
+				runInBackground(new FileTask<Void>(p -> {
+					ShapeCanvas.writeTextFile(newFile, shapes.size(), shapes, p);
+					return null;
+				}), newFile, true, null);
 			}
 		});
 		
@@ -209,7 +240,7 @@ public class ShapeEditor extends Application{
 			File openFile = fcOpen.showOpenDialog(null);
 			
 			if(openFile != null) {
-				canvas.fromTextFile(openFile);
+				openInBackground(openFile, p -> ShapeCanvas.readTextFile(openFile, p));
 			}
 		});
 		
@@ -219,24 +250,262 @@ public class ShapeEditor extends Application{
 			File newFile = fcSave.showSaveDialog(null);
 			
 			if(newFile != null) {
-				canvas.toBinaryFile(newFile);
+				Collection<MyShape> shapes = canvas.snapshotShapes();
+
+				runInBackground(new FileTask<Void>(p -> {
+					ShapeCanvas.writeBinaryFile(newFile, shapes.size(), shapes, p);
+					return null;
+				}), newFile, true, null);
 			}
 		});
 		
+		miSaveC.setOnAction(e->{
+			fcSave.setTitle("Save drawing as: ");
+			
+			File newFile = fcSave.showSaveDialog(null);
+			
+			if(newFile != null) {
+				Collection<MyShape> shapes = canvas.snapshotShapes();
+
+				runInBackground(new FileTask<Void>(p -> {
+					ShapeCanvas.writeCompressedFile(newFile, shapes.size(), shapes, CompressedShapeFormat.DEFAULT_DECIMALS, p);
+					return null;
+				}), newFile, true, null);
+			}
+		});
+		
+		// a large drawing is mapped, so it opens at once and only the shapes the view reaches are read
 		miOpenB.setOnAction(e->{
 			File newFile = fcOpen.showOpenDialog(null);
 			
 			if(newFile != null) {
-				
-				canvas.fromBinaryFile(newFile);
+				if(isMappable(newFile)) {
+					canvas.mapBinaryFile(newFile);
+				}
+				else {
+					openInBackground(newFile, p -> ShapeCanvas.readBinaryFile(newFile, p));
+				}
+			}
+		});
+		
+		miSaveT.setOnAction(e->{
+			fcSave.setTitle("Save drawing as: ");
+			
+			File newFile = fcSave.showSaveDialog(null);
+			
+			if(newFile != null) {
+				Collection<MyShape> shapes = canvas.snapshotShapes();
+
+				runInBackground(new FileTask<Void>(p -> {
+					ShapeCanvas.writeTiledFile(newFile, shapes.size(), shapes, p);
+					return null;
+				}), newFile, true, null);
+			}
+		});
+		
+		// only the tile directory is read here, the tiles follow as the view reaches them
+		miOpenT.setOnAction(e->{
+			File newFile = fcOpen.showOpenDialog(null);
+			
+			if(newFile != null) {
+				canvas.openTiledFile(newFile);
 			}
 		});
 		
-		menuBar.getMenus().addAll(menuFile, menuAbout);
+		// the linear history spills old edits to disk, while the version tree drops its oldest versions,
+		// so the tree is only kept when asked for; switching starts the history over
+		miBranching.setOnAction(e->{
+			canvas.setBranchingHistory(miBranching.isSelected());
+			miVersion.setDisable(!miBranching.isSelected());
+		});
+
+		// every edit is a numbered version, and any of them can be gone back to, even after undoing and drawing something else
+		miVersion.setOnAction(e->{
+			VersionTree versions = canvas.getVersionTree();
+
+			TextInputDialog dialog = new TextInputDialog(Integer.toString(versions.current().getNumber()));
+			dialog.setTitle("Go to Version");
+			dialog.setHeaderText("This is version " + versions.current().getNumber() + " of the " + versions.size()
+					+ " kept. Versions are numbered in the order they were made, in every branch.");
+			dialog.setContentText("Version:");
+
+			dialog.showAndWait().ifPresent(text -> {
+				try {
+					VersionTree.Version v = versions.find(Integer.parseInt(text.trim()));
+
+					if(v != null) {
+						versions.checkout(v);
+					}
+					else {
+						System.err.println("version " + text + " is not kept");
+					}
+				}
+				catch(NumberFormatException ex) {
+					System.err.println(text + " is not a version number");
+				}
+			});
+		});
+		
+		menuBar.getMenus().addAll(menuFile, menuHistory, menuAbout);
 		
-		menuFile.getItems().addAll(miOpen, miSave, miOpenB, miSaveB);
+		menuFile.getItems().addAll(miOpen, miSave, miOpenB, miSaveB, miSaveC, miOpenT, miSaveT);
+		menuHistory.getItems().addAll(miBranching, miVersion);
 		
-		mainPane.setBottom(menuBar);
+		pbFile = new ProgressBar();
+		bnCancel = new Button("Cancel");
+
+		pbFile.setVisible(false);
+		bnCancel.setVisible(false);
+
+		statusPanel = new HBox(CNTL_HEIGHT, menuBar, pbFile, bnCancel);
+		HBox.setHgrow(menuBar, Priority.ALWAYS);
+
+		mainPane.setBottom(statusPanel);
+	}
+
+	/**
+	 * Reads or writes a file on a background thread so that the editor stays usable meanwhile.
+	 * The progress bar and the cancel button are shown and the file menu is disabled until the task ends.
+	 * Saves work on copies of the shapes, so the drawing can be edited while it is written.
+	 *
+	 * @param task The task reading or writing the file.
+	 * @param file The file, for error messages.
+	 * @param saving True if the task writes the file. The application then waits for it to finish before exiting.
+	 * @param done Receives the result on the JavaFX thread if the task succeeds, or null if nothing is to be done with it.
+	 */
+	private <V> void runInBackground(FileTask<V> task, File file, boolean saving, Consumer<V> done) {
+
+		menuFile.setDisable(true);
+		pbFile.progressProperty().bind(task.progressProperty());
+		pbFile.setVisible(true);
+		bnCancel.setVisible(true);
+
+		bnCancel.setOnAction(e->{
+			task.cancel();
+		});
+
+		task.setOnSucceeded(e->{
+			endBackground();
+
+			if(done != null) {
+				done.accept(task.getValue());
+			}
+		});
+
+		task.setOnCancelled(e->{
+			endBackground();
+		});
+
+		task.setOnFailed(e->{
+			endBackground();
+
+			Throwable error = task.getException();
+
+			if(error instanceof DrawingFormatException) {
+				System.err.println(file + " is not a valid drawing: " + error.getMessage());
+			}
+			else {
+				System.err.println(file + " could not be " + (saving ? "written" : "read"));
+				error.printStackTrace();
+			}
+		});
+
+		Thread thread = new Thread(task, "ShapeApp " + (saving ? "save" : "load"));
+		thread.setDaemon(!saving);
+		thread.start();
+	}
+
+	/**
+	 * Reads a drawing on a background thread and puts it on the canvas. While the canvas keeps the persistent scene,
+	 * the scene is built on that thread too, so the application thread does not copy the drawing.
+	 *
+	 * @param file The file, for error messages.
+	 * @param read Reads the shapes.
+	 */
+	private void openInBackground(File file, FileTask.Work<ArrayList<MyShape>> read) {
+
+		if(canvas.isPersistentScene() && !canvas.isCompactStore()) {
+			runInBackground(new FileTask<>(p -> ShapeScene.of(read.run(p))), file, false, canvas::replaceScene);
+		}
+		else {
+			runInBackground(new FileTask<>(read), file, false, canvas::replaceShapes);
+		}
+	}
+
+	/**
+	 * Checks whether a file is large enough to be worth mapping and in the binary format, the only one that can be mapped.
+	 *
+	 * @param file The file chosen to open.
+	 * @return true if the file should be opened with ShapeCanvas.mapBinaryFile.
+	 */
+	private static boolean isMappable(File file) {
+
+		try {
+			return file.length() >= MAPPED_OPEN_SIZE && BinaryShapeFormat.isBinary(file);
+		}
+		catch(IOException e) {
+			// reading the file in full reports the error
+			return false;
+		}
+	}
+
+	/**
+	 * Hides the progress of a finished background task and enables the file menu again.
+	 */
+	private void endBackground() {
+
+		pbFile.progressProperty().unbind();
+		pbFile.setVisible(false);
+		bnCancel.setVisible(false);
+		menuFile.setDisable(false);
+	}
+	
+	/**
+	 * Opens the edit journal in the user's home directory and recovers the drawing from it,
+	 * so that the drawing survives a crash or closing the editor without saving.
+	 * If the journal cannot be used, for example because another editor has it open, the editor starts without one.
+	 */
+	public void setupJournal() {
+
+		File dir = new File(new File(System.getProperty("user.home"), ".shapeapp"), "journal");
+
+		try {
+			journal = new EditJournal(dir);
+
+			// the journal carries on from the drawing recovered without snapshotting it again
+			journal.recover(canvas);
+		}
+		catch(IOException e) {
+			System.err.println("the edit journal could not be opened, changes are only kept by saving");
+			e.printStackTrace();
+
+			canvas.setJournal(null);
+			closeJournal();
+		}
+	}
+
+	/**
+	 * Journals the last change and closes the journal when the application exits.
+	 */
+	@Override
+	public void stop() {
+
+		canvas.setJournal(null);
+		closeJournal();
+	}
+
+	private void closeJournal() {
+
+		if(journal != null) {
+			try {
+				journal.close();
+			}
+			catch(IOException e) {
+				System.err.println("the edit journal could not be closed");
+				e.printStackTrace();
+			}
+			journal = null;
+		}
 	}
 	
     /**
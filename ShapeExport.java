@@ -0,0 +1,374 @@
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Exports a drawing as an SVG or PNG image, for viewing and printing outside the editor.
+ *
+ * Painting on a JavaFX canvas needs the JavaFX toolkit and a screen, so the images are drawn here instead,
+ * following the draw method of each shape: lines, rectangles and ovals stroked one unit wide or filled with
+ * their color, and groups as their dashed light gray bounds followed by their members.
+ * PNG images are drawn with Java2D, which works without a screen when java.awt.headless is set.
+ *
+ * The image covers the drawn area of every shape. Shapes with coordinates that are not finite are left out.
+ * Images cannot be read back; save in one of the drawing formats to keep a drawing.
+ */
+public class ShapeExport {
+
+	// the longest side of a PNG image when no size is given
+	public static final int DEFAULT_SIZE = 2048;
+
+	private static final int DECIMALS = 3;
+
+	// room around the drawing for the half of each stroke outside the shapes
+	private static final double MARGIN = 1;
+
+	// the dashes of a group's bounds, as in ShapeGroup.draw
+	private static final float DASH = 10;
+	private static final String GROUP_COLOR = "#d3d3d3";
+	private static final java.awt.Color GROUP_AWT_COLOR = toAwt(Color.LIGHTGRAY);
+
+	// the defaults of a JavaFX GraphicsContext, which draws shapes without a color in black
+	private static final Color DEFAULT_COLOR = Color.BLACK;
+	private static final float MITER_LIMIT = 10;
+
+	private ShapeExport() {
+	}
+
+	/**
+	 * Writes shapes to an SVG file, in drawing units.
+	 *
+	 * @param file The file to write to.
+	 * @param count The number of top-level shapes.
+	 * @param shapes The top-level shapes, in drawing order.
+	 * @param progress Receives the number of shapes written and can cancel the export.
+	 * @throws IOException If the file cannot be written or the export is cancelled.
+	 */
+	public static void writeSvg(File file, int count, Iterable<MyShape> shapes, FileProgress progress) throws IOException {
+
+		double[] box = extent(shapes);
+
+		try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+
+			out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.append("<svg xmlns=\"http://www.w3.org/2000/svg\"");
+			attribute(out, "width", box[2] - box[0]);
+			attribute(out, "height", box[3] - box[1]);
+			out.append(" viewBox=\"");
+			MyShape.appendFixed(out, box[0], DECIMALS);
+			out.append(' ');
+			MyShape.appendFixed(out, box[1], DECIMALS);
+			out.append(' ');
+			MyShape.appendFixed(out, box[2] - box[0], DECIMALS);
+			out.append(' ');
+			MyShape.appendFixed(out, box[3] - box[1], DECIMALS);
+			out.append("\">\n");
+
+			// SVG fills shapes in black unless told otherwise; the canvas only fills what is filled
+			out.append("<g fill=\"none\" stroke-width=\"1\" stroke-linecap=\"square\" stroke-miterlimit=\"10\">\n");
+
+			int i = 0;
+
+			for(MyShape s : shapes) {
+				writeSvg(out, s);
+
+				if(++i % FileProgress.STEP == 0) {
+					progress.checkpoint(i, count);
+				}
+			}
+			out.append("</g>\n</svg>\n");
+		}
+	}
+
+	/**
+	 * Writes the element of one shape, and those of its members if it is a group.
+	 */
+	private static void writeSvg(Writer out, MyShape s) throws IOException {
+
+		if(s instanceof ShapeGroup) {
+
+			out.append("<g>\n");
+
+			if(isFinite(s)) {
+				out.append("<rect");
+				box(out, s);
+				out.append(" stroke=\"").append(GROUP_COLOR).append("\" stroke-dasharray=\"10\"/>\n");
+			}
+			for(MyShape member : ((ShapeGroup) s).getMembers()) {
+				writeSvg(out, member);
+			}
+			out.append("</g>\n");
+			return;
+		}
+
+		if(!isFinite(s)) {
+			return;
+		}
+
+		if(s instanceof Line) {
+			out.append("<line");
+			attribute(out, "x1", s.getX1());
+			attribute(out, "y1", s.getY1());
+			attribute(out, "x2", s.getX2());
+			attribute(out, "y2", s.getY2());
+			paint(out, s, false);
+		}
+		else if(s instanceof Rect) {
+			out.append("<rect");
+			box(out, s);
+			paint(out, s, s.isFilled());
+		}
+		else if(s instanceof Oval) {
+			out.append("<ellipse");
+			attribute(out, "cx", s.getULX() + s.getWidth() / 2);
+			attribute(out, "cy", s.getULY() + s.getHeight() / 2);
+			attribute(out, "rx", s.getWidth() / 2);
+			attribute(out, "ry", s.getHeight() / 2);
+			paint(out, s, s.isFilled());
+		}
+	}
+
+	private static void box(Writer out, MyShape s) throws IOException {
+		attribute(out, "x", s.getULX());
+		attribute(out, "y", s.getULY());
+		attribute(out, "width", s.getWidth());
+		attribute(out, "height", s.getHeight());
+	}
+
+	private static void attribute(Writer out, String name, double value) throws IOException {
+		out.append(' ').append(name).append("=\"");
+		MyShape.appendFixed(out, value, DECIMALS);
+		out.append('"');
+	}
+
+	/**
+	 * Writes the fill or stroke of a shape and closes its element.
+	 */
+	private static void paint(Writer out, MyShape s, boolean fill) throws IOException {
+
+		Color color = s.getColor() != null ? s.getColor() : DEFAULT_COLOR;
+
+		out.append(fill ? " fill=\"" : " stroke=\"");
+		out.append(String.format("#%02x%02x%02x", channel(color.getRed()), channel(color.getGreen()), channel(color.getBlue())));
+		out.append('"');
+
+		if(color.getOpacity() < 1) {
+			out.append(fill ? " fill-opacity=\"" : " stroke-opacity=\"");
+			MyShape.appendFixed(out, color.getOpacity(), DECIMALS);
+			out.append('"');
+		}
+		out.append("/>\n");
+	}
+
+	private static int channel(double c) {
+		return (int) Math.round(c * 255);
+	}
+
+	/**
+	 * Writes shapes to a PNG file, scaled to fit the drawing in a square of the given size.
+	 *
+	 * @param file The file to write to.
+	 * @param count The number of top-level shapes.
+	 * @param shapes The top-level shapes, in drawing order.
+	 * @param size The longest side of the image, in pixels.
+	 * @param progress Receives the number of shapes drawn and can cancel the export.
+	 * @throws IOException If the file cannot be written or the export is cancelled.
+	 */
+	public static void writePng(File file, int count, Iterable<MyShape> shapes, int size, FileProgress progress) throws IOException {
+
+		BufferedImage image = render(count, shapes, size, progress);
+
+		if(!ImageIO.write(image, "png", file)) {
+			throw new IOException("PNG images cannot be written");
+		}
+	}
+
+	/**
+	 * Draws shapes on a white image, scaled to fit the drawing in a square of the given size.
+	 * Lines and dashes are scaled along with the drawing, as they are when the canvas is zoomed.
+	 *
+	 * @param count The number of top-level shapes.
+	 * @param shapes The top-level shapes, in drawing order.
+	 * @param size The longest side of the image, in pixels.
+	 * @param progress Receives the number of shapes drawn and can cancel the export.
+	 * @return The image.
+	 * @throws IOException If the export is cancelled.
+	 */
+	public static BufferedImage render(int count, Iterable<MyShape> shapes, int size, FileProgress progress) throws IOException {
+
+		if(size < 1) {
+			throw new IllegalArgumentException("size must be positive: " + size);
+		}
+
+		double[] box = extent(shapes);
+		double w = box[2] - box[0];
+		double h = box[3] - box[1];
+		double scale = size / Math.max(w, h);
+
+		BufferedImage image = new BufferedImage(
+				Math.max(1, (int) Math.ceil(w * scale)), Math.max(1, (int) Math.ceil(h * scale)), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+
+		try {
+			g.setColor(java.awt.Color.WHITE);
+			g.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+			// the canvas draws smooth, unsnapped shapes
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+
+			g.scale(scale, scale);
+			g.translate(-box[0], -box[1]);
+
+			Painter painter = new Painter(g);
+			int i = 0;
+
+			for(MyShape s : shapes) {
+				painter.draw(s);
+
+				if(++i % FileProgress.STEP == 0) {
+					progress.checkpoint(i, count);
+				}
+			}
+		}
+		finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * Draws shapes with Java2D the way their draw methods do on a canvas,
+	 * reusing one object of each kind of geometry.
+	 */
+	private static class Painter {
+
+		private final Graphics2D g;
+		private final BasicStroke solid = new BasicStroke(1, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, MITER_LIMIT);
+		private final BasicStroke dashed = new BasicStroke(1, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, MITER_LIMIT, new float[] { DASH }, 0);
+		private final Line2D.Double line = new Line2D.Double();
+		private final Rectangle2D.Double rect = new Rectangle2D.Double();
+		private final Ellipse2D.Double oval = new Ellipse2D.Double();
+
+		Painter(Graphics2D g) {
+			this.g = g;
+		}
+
+		void draw(MyShape s) {
+
+			if(s instanceof ShapeGroup) {
+
+				if(isFinite(s)) {
+					g.setStroke(dashed);
+					g.setColor(GROUP_AWT_COLOR);
+					rect.setRect(s.getULX(), s.getULY(), s.getWidth(), s.getHeight());
+					g.draw(rect);
+				}
+				for(MyShape member : ((ShapeGroup) s).getMembers()) {
+					draw(member);
+				}
+				return;
+			}
+
+			if(!isFinite(s)) {
+				return;
+			}
+
+			g.setStroke(solid);
+			g.setColor(toAwt(s.getColor() != null ? s.getColor() : DEFAULT_COLOR));
+
+			if(s instanceof Line) {
+				line.setLine(s.getX1(), s.getY1(), s.getX2(), s.getY2());
+				g.draw(line);
+			}
+			else if(s instanceof Rect) {
+				rect.setRect(s.getULX(), s.getULY(), s.getWidth(), s.getHeight());
+				fillOrDraw(rect, s.isFilled());
+			}
+			else if(s instanceof Oval) {
+				oval.setFrame(s.getULX(), s.getULY(), s.getWidth(), s.getHeight());
+				fillOrDraw(oval, s.isFilled());
+			}
+		}
+
+		private void fillOrDraw(java.awt.Shape shape, boolean fill) {
+
+			if(fill) {
+				g.fill(shape);
+			}
+			else {
+				g.draw(shape);
+			}
+		}
+	}
+
+	private static java.awt.Color toAwt(Color c) {
+		return new java.awt.Color((float) c.getRed(), (float) c.getGreen(), (float) c.getBlue(), (float) c.getOpacity());
+	}
+
+	/**
+	 * Checks that a shape can be drawn. Group bounds cover their members,
+	 * so a group is finite only if all of its members are.
+	 */
+	private static boolean isFinite(MyShape s) {
+		return Double.isFinite(s.getMinX()) && Double.isFinite(s.getMinY()) && Double.isFinite(s.getMaxX()) && Double.isFinite(s.getMaxY());
+	}
+
+	/**
+	 * Finds the area covered by the finite shapes, with a margin for strokes.
+	 * An empty drawing covers a unit square at the origin.
+	 *
+	 * @return The left, top, right and bottom edges.
+	 */
+	private static double[] extent(Iterable<MyShape> shapes) {
+
+		double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+		for(MyShape s : shapes) {
+			extend(box, s);
+		}
+
+		if(!(box[0] <= box[2])) {
+			return new double[] { 0, 0, 1, 1 };
+		}
+		box[0] -= MARGIN;
+		box[1] -= MARGIN;
+		box[2] += MARGIN;
+		box[3] += MARGIN;
+		return box;
+	}
+
+	/**
+	 * Grows a box to cover a shape, or the finite members of a group that has some that are not.
+	 */
+	private static void extend(double[] box, MyShape s) {
+
+		if(isFinite(s)) {
+			box[0] = Math.min(box[0], s.getMinX());
+			box[1] = Math.min(box[1], s.getMinY());
+			box[2] = Math.max(box[2], s.getMaxX());
+			box[3] = Math.max(box[3], s.getMaxY());
+		}
+		else if(s instanceof ShapeGroup) {
+
+			for(MyShape member : ((ShapeGroup) s).getMembers()) {
+				extend(box, member);
+			}
+		}
+	}
+}
@@ -1,4 +1,9 @@
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import javafx.geometry.Point2D;
 import javafx.scene.canvas.GraphicsContext;
@@ -6,10 +11,22 @@ import javafx.scene.paint.Color;
 
 /**
  * Represents a group of shapes as a single shape
+ *
+ * The group caches the sums used for its center and the area covered by it and its members.
+ * Adding, removing and moving members update the cache in constant time. When a member changes
+ * on its own, it marks the cache of every group above it as out of date and the cache is
+ * recomputed the next time it is read.
  */
 public class ShapeGroup extends MyShape{
 
+	private static final long serialVersionUID = -9191796741905631808L;
+
 	protected ArrayList<MyShape> group;
+
+	// sums of the members' x1 and y2, and the area covered by the group and its members
+	private transient double sumX, sumY;
+	private transient double minX, minY, maxX, maxY;
+	private transient boolean cacheValid;
 	
     /**
      * Constructs an empty ShapeGroup.
@@ -51,7 +68,9 @@ public class ShapeGroup extends MyShape{
 
 		for(int i = 0; i < group.size(); i++) {
 
-			copy.group.add((MyShape) group.get(i).clone());	
+			MyShape member = (MyShape) group.get(i).clone();
+			member.parent = copy;
+			copy.group.add(member);	
 		}
 		return copy;
 	}
@@ -65,9 +84,49 @@ public class ShapeGroup extends MyShape{
 	public void addMember(MyShape shape) {
 
 		if(!group.contains(shape)) {
-			group.add(shape);
+			include(shape);
+			changed();
+		}
+	}
+	
+    /**
+     * Adds several shapes to the group, skipping those already included,
+     * and updates the center once at the end.
+     * 
+     * @param shapes The shapes to be added to the group.
+     */
+	public void addMembers(Collection<? extends MyShape> shapes) {
+
+		Set<MyShape> members = Collections.newSetFromMap(new IdentityHashMap<>());
+		members.addAll(group);
+
+		for(MyShape s : shapes) {
+			if(members.add(s)) {
+				include(s);
+			}
+		}
+		changed();
+	}
+
+	/**
+	 * Appends a member and adds it to the cached sums and area.
+	 */
+	private void include(MyShape shape) {
+
+		group.add(shape);
+		shape.parent = this;
+
+		if(cacheValid) {
+			sumX += shape.x1;
+			sumY += shape.y2;
+
+			minX = Math.min(minX, shape.getMinX());
+			minY = Math.min(minY, shape.getMinY());
+			maxX = Math.max(maxX, shape.getMaxX());
+			maxY = Math.max(maxY, shape.getMaxY());
+
+			centerOnMembers();
 		}
-		updateCenter();
 	}
 	
     /**
@@ -76,9 +135,27 @@ public class ShapeGroup extends MyShape{
      * @param shape The shape to be removed from the group.
      */
 	public void removeMember(MyShape shape) {
-		group.remove(shape);
 
-		updateCenter();
+		if(!group.remove(shape)) {
+			return;
+		}
+
+		if(shape.parent == this) {
+			shape.parent = null;
+		}
+
+		if(cacheValid) {
+			sumX -= shape.x1;
+			sumY -= shape.y2;
+
+			centerOnMembers();
+
+			// the area only needs recomputing if the member was on its edge
+			if(shape.getMinX() <= minX || shape.getMinY() <= minY || shape.getMaxX() >= maxX || shape.getMaxY() >= maxY) {
+				cacheValid = false;
+			}
+		}
+		changed();
 	}
 	
     /**
@@ -89,8 +166,8 @@ public class ShapeGroup extends MyShape{
      */
 	public boolean within(MyShape shape) {
 
-		double curX = shape.getCetner().getX();
-		double curY = shape.getCetner().getY();
+		double curX = shape.getCenterX();
+		double curY = shape.getCenterY();
 
 		if(curX <= ulx + width && curX >= ulx && curY <= uly + height && curY >= uly) {
 			return true;
@@ -101,23 +178,117 @@ public class ShapeGroup extends MyShape{
 	}
 	
     /**
-     * Updates the center of the group based on the average coordinates of its members' positions.
+     * Marks the center of the group as out of date. It is recomputed from the members' positions when next read.
      */
 	@Override
 	public void updateCenter() {
+		invalidate();
+	}
+
+    /**
+     * Updates the bounds of the group rectangle and marks the cached area as out of date.
+     */
+	@Override
+	public void updateBounds() {
+		super.updateBounds();
+		invalidate();
+	}
+
+    /**
+     * Marks the cached center and area as out of date, for this group and every group containing it.
+     * Call it after changing the list returned by getMembers directly.
+     */
+	public void invalidate() {
+
+		if(cacheValid) {
+			cacheValid = false;
+			changed();
+		}
+	}
+
+    /**
+     * Recomputes the cached sums and area from the members if they are out of date.
+     */
+	private void validate() {
+
+		if(cacheValid) {
+			return;
+		}
+
+		sumX = 0;
+		sumY = 0;
+
+		minX = ulx;
+		minY = uly;
+		maxX = ulx + width;
+		maxY = uly + height;
+
+		for(int i = 0; i < group.size(); i++) {
+
+			MyShape s = group.get(i);
+
+			// also repairs the links of members read from a file or cloned
+			s.parent = this;
+
+			sumX += s.x1;
+			sumY += s.y2;
+
+			minX = Math.min(minX, s.getMinX());
+			minY = Math.min(minY, s.getMinY());
+			maxX = Math.max(maxX, s.getMaxX());
+			maxY = Math.max(maxY, s.getMaxY());
+		}
+
+		centerOnMembers();
+		cacheValid = true;
+	}
 
-		double totalX = 0;
-		double totalY = 0;
+    /**
+     * Sets the center to the average of the members' positions from the cached sums,
+     * or to the middle of the group's rectangle when it has no members.
+     */
+	private void centerOnMembers() {
 
-		for(MyShape s : group) {
-			totalX += s.getP1().getX();
-			totalY += s.getP2().getY();
+		if(group.isEmpty()) {
+			sumX = 0;
+			sumY = 0;
+			super.updateCenter();
+			return;
 		}
 
-		double averageX = totalX / group.size();
-		double averageY = totalY / group.size();
+		cx = sumX / group.size();
+		cy = sumY / group.size();
+		center = null;
+	}
+
+    /**
+     * 
+     * @return The x-coordinate of the average of the members' positions.
+     */
+	@Override
+	public double getCenterX() {
+		validate();
+		return cx;
+	}
+
+    /**
+     * 
+     * @return The y-coordinate of the average of the members' positions.
+     */
+	@Override
+	public double getCenterY() {
+		validate();
+		return cy;
+	}
 
-		center = new Point2D(averageX, averageY);
+    /**
+     * 
+     * @return The average of the members' positions.
+     */
+	@Override
+	public Point2D getCetner() {
+		validate();
+		return super.getCetner();
 	}
 	
     /**
@@ -128,13 +299,70 @@ public class ShapeGroup extends MyShape{
      */
 	@Override
 	public void move(double dx, double dy) {
-		super.move(dx, dy);
 
-		for(MyShape s : group) {
-			s.move(dx, dy);
+		boolean wasValid = cacheValid;
+
+		x1 += dx;
+		y1 += dy;
+		x2 += dx;
+		y2 += dy;
+
+		p1 = null;
+		p2 = null;
+		super.updateBounds();
+
+		for(int i = 0; i < group.size(); i++) {
+			group.get(i).move(dx, dy);
 		}
+
+		// everything moved together, so the cache can be shifted instead of recomputed
+		if(wasValid) {
+			sumX += dx * group.size();
+			sumY += dy * group.size();
+
+			minX += dx;
+			minY += dy;
+			maxX += dx;
+			maxY += dy;
+
+			centerOnMembers();
+			cacheValid = true;
+		}
+
+		center = null;
+		changed();
 	}
 	
+    /**
+     * Builds the cached sums and area and the point views of the group and of every member.
+     */
+	@Override
+	public void fillCaches() {
+
+		for(int i = 0; i < group.size(); i++) {
+			group.get(i).fillCaches();
+		}
+		validate();
+		super.fillCaches();
+	}
+
+    /**
+     * Puts the group where a copy of it is, along with the members the copy has.
+     * A copy without members only puts back the group's own rectangle.
+     * 
+     * @param copy The copy, a ShapeGroup.
+     */
+	@Override
+	public void restore(MyShape copy) {
+
+		ArrayList<MyShape> copied = ((ShapeGroup) copy).group;
+
+		for(int i = 0; i < group.size() && i < copied.size(); i++) {
+			group.get(i).restore(copied.get(i));
+		}
+		super.restore(copy);
+	}
+
     /**
      * Draws the group's bounding box and all its members on the given GraphicsContext.
      * 
@@ -153,8 +381,67 @@ public class ShapeGroup extends MyShape{
 		}
 	}
 	
+	/**
+	 * The drawn area of a group covers its own bounds and every member.
+	 *
+	 * @return The left edge of the drawn area.
+	 */
+	@Override
+	public double getMinX() {
+		validate();
+		return minX;
+	}
+
+	/**
+	 *
+	 * @return The top edge of the drawn area.
+	 */
+	@Override
+	public double getMinY() {
+		validate();
+		return minY;
+	}
+
+	/**
+	 *
+	 * @return The right edge of the drawn area.
+	 */
+	@Override
+	public double getMaxX() {
+		validate();
+		return maxX;
+	}
+
+	/**
+	 *
+	 * @return The bottom edge of the drawn area.
+	 */
+	@Override
+	public double getMaxY() {
+		validate();
+		return maxY;
+	}
+
+	/**
+	 * Estimates the memory the group takes up, including its member list and every member.
+	 *
+	 * @return The size in bytes.
+	 */
+	@Override
+	public long retainedSize() {
+
+		// the cached sums and area, the list and its array
+		long size = super.retainedSize() + 56 + 40 + 4L * group.size();
+
+		for(int i = 0; i < group.size(); i++) {
+			size += group.get(i).retainedSize();
+		}
+		return size;
+	}
+
 	/**
 	 * Returns the list of shapes that are members of the group.
+	 * Call invalidate after changing the list directly.
 	 *
 	 * @return an ArrayList of MyShape objects representing the members of the group.
 	 */
@@ -163,17 +450,29 @@ public class ShapeGroup extends MyShape{
 	}
 	
     /**
-     * Returns a string representation of the ShapeGroup, including all its members.
-     * @return A formatted string detailing the group and its members.
+     * Writes the text form of the ShapeGroup: its size and bounds with six decimal places, then each member's text form.
+     * Members are written straight to out one after the other, so the time taken grows linearly with the number of shapes.
+     *
+     * @param out Where to write.
+     * @throws IOException If out cannot be written to.
      */
-	public String toString() {
+	@Override
+	public void writeText(Appendable out) throws IOException {
 
-		String toString = String.format("ShapeGroup %d %f %f %f %f \n", group.size(), p1.getX(), p1.getY(), p2.getX(), p2.getY());
+		out.append("ShapeGroup ");
+		out.append(Integer.toString(group.size()));
+		out.append(' ');
+		appendFixed(out, x1, 6);
+		out.append(' ');
+		appendFixed(out, y1, 6);
+		out.append(' ');
+		appendFixed(out, x2, 6);
+		out.append(' ');
+		appendFixed(out, y2, 6);
+		out.append(" \n");
 
-		for(MyShape s : group) {
-			toString += s.toString();
+		for(int i = 0; i < group.size(); i++) {
+			group.get(i).writeText(out);
 		}
-
-		return toString;
 	}
 }
@@ -0,0 +1,398 @@
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable list of shapes in drawing order, as kept by ShapeCanvas.setPersistentScene.
+ *
+ * The shapes are held in a balanced tree, ordered by a key that the canvas gives each shape when it is
+ * added. Adding, replacing or removing a shape returns a new scene that shares all but a path of the tree
+ * with the old one, so each change copies O(log n) nodes and the old scene stays as it was. Taking a
+ * snapshot is then just keeping a reference, and a scene can be read on any thread while the canvas moves on.
+ *
+ * The shapes in a scene are copies that belong to it and must not be changed. The canvas fills their caches
+ * with MyShape.fillCaches before adding them, so reading them changes nothing either. Each copy remembers the
+ * shape on the canvas it was taken from, so that the canvas can be put back as it was with ShapeCanvas.restoreShapes.
+ */
+public final class ShapeScene extends AbstractList<MyShape> {
+
+	public static final ShapeScene EMPTY = new ShapeScene(null);
+
+	// the header, fields and stamp of a node, besides its copy of a shape
+	private static final long NODE_SIZE = 56;
+
+	// stamps the nodes in the order they are made, so a node is always newer than those below it
+	private static final AtomicLong made = new AtomicLong();
+
+	private final Node root;
+
+	private static final class Node {
+
+		private final long key, stamp;
+		private final MyShape shape, original;
+		private final Node left, right;
+		private final int height, size;
+
+		Node(long key, MyShape shape, MyShape original, Node left, Node right) {
+			this.key = key;
+			stamp = made.incrementAndGet();
+			this.shape = shape;
+			this.original = original;
+			this.left = left;
+			this.right = right;
+			height = Math.max(height(left), height(right)) + 1;
+			size = size(left) + size(right) + 1;
+		}
+	}
+
+	private ShapeScene(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Builds a scene of copies of shapes, under the keys 0 to n - 1, as ShapeCanvas.replaceScene takes it.
+	 * Copying takes time in proportion to the shapes, so a drawing read on another thread is best put in a scene there.
+	 *
+	 * @param shapes The shapes, in drawing order, which stay the originals of the copies.
+	 * @return The scene.
+	 */
+	public static ShapeScene of(List<? extends MyShape> shapes) {
+
+		ArrayList<MyShape> copies = new ArrayList<>(shapes.size());
+
+		for(MyShape s : shapes) {
+			copies.add(copy(s));
+		}
+		return EMPTY.withAll(0, copies, shapes);
+	}
+
+	/**
+	 * Copies a shape to be put in a scene. Its caches are filled before the scene is published, since
+	 * the scene is read on other threads and a shape filling a cache as it is read could be seen half done.
+	 *
+	 * @param s The shape.
+	 * @return The copy.
+	 */
+	public static MyShape copy(MyShape s) {
+
+		MyShape copy = (MyShape) s.clone();
+		copy.fillCaches();
+		return copy;
+	}
+
+	/**
+	 * Returns a scene with a shape added under a key, or put in place of the shape under that key.
+	 *
+	 * @param key The key of the shape, which decides its place in drawing order.
+	 * @param shape The copy of the shape, which the scene takes over.
+	 * @param original The shape on the canvas it was copied from.
+	 * @return The new scene.
+	 */
+	public ShapeScene with(long key, MyShape shape, MyShape original) {
+		return new ShapeScene(insert(root, key, shape, original));
+	}
+
+	/**
+	 * Returns a scene with shapes added after all the others, under consecutive keys. This takes time
+	 * in proportion to the shapes added, however many the scene already holds.
+	 *
+	 * @param firstKey The key of the first shape, which must be greater than any key in the scene.
+	 * @param shapes The copies of the shapes, which the scene takes over.
+	 * @param originals The shapes on the canvas they were copied from, in the same order.
+	 * @return The new scene.
+	 */
+	public ShapeScene withAll(long firstKey, List<? extends MyShape> shapes, List<? extends MyShape> originals) {
+
+		if(shapes.size() != originals.size()) {
+			throw new IllegalArgumentException(shapes.size() + " copies of " + originals.size() + " shapes");
+		}
+		if(shapes.isEmpty()) {
+			return this;
+		}
+		if(root != null && max(root).key >= firstKey) {
+			throw new IllegalArgumentException("key " + firstKey + " does not follow the keys in the scene");
+		}
+
+		Node added = build(shapes, originals, 1, shapes.size(), firstKey + 1);
+		return new ShapeScene(join(root, firstKey, shapes.get(0), originals.get(0), added));
+	}
+
+	/**
+	 * Returns a scene without the shape under a key.
+	 *
+	 * @param key The key of the shape.
+	 * @return The new scene, or this one if it has no shape under the key.
+	 */
+	public ShapeScene without(long key) {
+
+		Node removed = remove(root, key);
+		return removed == root ? this : new ShapeScene(removed);
+	}
+
+	/**
+	 * Estimates the memory this scene takes up besides what it shares with a scene taken before it: the nodes
+	 * made since that scene was, and the copies among them that are not in it. Only those nodes are visited.
+	 *
+	 * @param earlier The scene taken before, such as the previous checkpoint of a VersionTree.
+	 * @return The size in bytes.
+	 */
+	public long sizeSince(ShapeScene earlier) {
+
+		long since = earlier.root != null ? earlier.root.stamp : 0;
+		long size = 0;
+
+		ArrayDeque<Node> newer = new ArrayDeque<>();
+
+		if(root != null && root.stamp > since) {
+			newer.push(root);
+		}
+
+		while(!newer.isEmpty()) {
+
+			Node n = newer.pop();
+			size += NODE_SIZE;
+
+			// a node remade by rebalancing keeps the copy it had
+			if(earlier.find(n.key) != n.shape) {
+				size += n.shape.retainedSize();
+			}
+			if(n.left != null && n.left.stamp > since) {
+				newer.push(n.left);
+			}
+			if(n.right != null && n.right.stamp > since) {
+				newer.push(n.right);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return The copy under a key, or null.
+	 */
+	private MyShape find(long key) {
+
+		Node n = root;
+
+		while(n != null && n.key != key) {
+			n = key < n.key ? n.left : n.right;
+		}
+		return n != null ? n.shape : null;
+	}
+
+	/**
+	 * Returns a shape by its position in drawing order.
+	 * This takes O(log n) time, so iterate over the scene to read every shape.
+	 *
+	 * @param index The position.
+	 * @return The shape.
+	 */
+	@Override
+	public MyShape get(int index) {
+
+		if(index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("index " + index + " of a scene of " + size() + " shapes");
+		}
+
+		Node n = root;
+
+		while(true) {
+
+			int left = size(n.left);
+
+			if(index < left) {
+				n = n.left;
+			}
+			else if(index == left) {
+				return n.shape;
+			}
+			else {
+				index -= left + 1;
+				n = n.right;
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size(root);
+	}
+
+	/**
+	 * Returns the shapes in drawing order, each in constant time on average.
+	 */
+	@Override
+	public Iterator<MyShape> iterator() {
+		return iterator(false);
+	}
+
+	/**
+	 * Returns the shapes on the canvas that the copies in this scene were taken from, in the same order.
+	 */
+	public Iterable<MyShape> originals() {
+		return () -> iterator(true);
+	}
+
+	private Iterator<MyShape> iterator(boolean originals) {
+
+		return new Iterator<MyShape>() {
+
+			// the nodes whose shapes and right subtrees are still to come, the next one on top
+			private ArrayDeque<Node> path = new ArrayDeque<>();
+
+			{
+				descend(root);
+			}
+
+			private void descend(Node n) {
+
+				for(; n != null; n = n.left) {
+					path.push(n);
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !path.isEmpty();
+			}
+
+			@Override
+			public MyShape next() {
+
+				if(path.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+
+				Node n = path.pop();
+				descend(n.right);
+				return originals ? n.original : n.shape;
+			}
+		};
+	}
+
+	private static int height(Node n) {
+		return n == null ? 0 : n.height;
+	}
+
+	private static int size(Node n) {
+		return n == null ? 0 : n.size;
+	}
+
+	private static Node max(Node n) {
+
+		while(n.right != null) {
+			n = n.right;
+		}
+		return n;
+	}
+
+	/**
+	 * Makes a node from subtrees whose heights differ by at most two, rotating it back into balance.
+	 */
+	private static Node balance(long key, MyShape shape, MyShape original, Node left, Node right) {
+
+		if(height(left) > height(right) + 1) {
+
+			if(height(left.left) >= height(left.right)) {
+				return new Node(left.key, left.shape, left.original, left.left, new Node(key, shape, original, left.right, right));
+			}
+			Node m = left.right;
+			return new Node(m.key, m.shape, m.original, new Node(left.key, left.shape, left.original, left.left, m.left), new Node(key, shape, original, m.right, right));
+		}
+
+		if(height(right) > height(left) + 1) {
+
+			if(height(right.right) >= height(right.left)) {
+				return new Node(right.key, right.shape, right.original, new Node(key, shape, original, left, right.left), right.right);
+			}
+			Node m = right.left;
+			return new Node(m.key, m.shape, m.original, new Node(key, shape, original, left, m.left), new Node(right.key, right.shape, right.original, m.right, right.right));
+		}
+
+		return new Node(key, shape, original, left, right);
+	}
+
+	private static Node insert(Node n, long key, MyShape shape, MyShape original) {
+
+		if(n == null) {
+			return new Node(key, shape, original, null, null);
+		}
+		if(key < n.key) {
+			return balance(n.key, n.shape, n.original, insert(n.left, key, shape, original), n.right);
+		}
+		if(key > n.key) {
+			return balance(n.key, n.shape, n.original, n.left, insert(n.right, key, shape, original));
+		}
+		return new Node(key, shape, original, n.left, n.right);
+	}
+
+	/**
+	 * @return The tree without the key, or the same tree if the key is not in it.
+	 */
+	private static Node remove(Node n, long key) {
+
+		if(n == null) {
+			return null;
+		}
+
+		if(key < n.key) {
+			Node left = remove(n.left, key);
+			return left == n.left ? n : balance(n.key, n.shape, n.original, left, n.right);
+		}
+		if(key > n.key) {
+			Node right = remove(n.right, key);
+			return right == n.right ? n : balance(n.key, n.shape, n.original, n.left, right);
+		}
+
+		if(n.left == null) {
+			return n.right;
+		}
+		if(n.right == null) {
+			return n.left;
+		}
+
+		Node next = n.right;
+
+		while(next.left != null) {
+			next = next.left;
+		}
+		return balance(next.key, next.shape, next.original, n.left, remove(n.right, next.key));
+	}
+
+	/**
+	 * Builds a perfectly balanced tree of shapes from a list.
+	 *
+	 * @param shapes The list.
+	 * @param originals The shapes they were copied from.
+	 * @param from The position of the first shape in the list.
+	 * @param to The position after the last shape.
+	 * @param key The key of the first shape, each following shape having the next key.
+	 */
+	private static Node build(List<? extends MyShape> shapes, List<? extends MyShape> originals, int from, int to, long key) {
+
+		if(from >= to) {
+			return null;
+		}
+
+		int mid = (from + to) >>> 1;
+		return new Node(key + mid - from, shapes.get(mid), originals.get(mid),
+				build(shapes, originals, from, mid, key), build(shapes, originals, mid + 1, to, key + mid + 1 - from));
+	}
+
+	/**
+	 * Joins two trees and a shape whose key lies between theirs, in time proportional to the difference in their heights.
+	 */
+	private static Node join(Node left, long key, MyShape shape, MyShape original, Node right) {
+
+		if(height(left) > height(right) + 1) {
+			return balance(left.key, left.shape, left.original, left.left, join(left.right, key, shape, original, right));
+		}
+		if(height(right) > height(left) + 1) {
+			return balance(right.key, right.shape, right.original, join(left, key, shape, original, right.left), right.right);
+		}
+		return new Node(key, shape, original, left, right);
+	}
+}
@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * Storage for the shapes of a ShapeCanvas that does not keep every shape as an object.
+ * ShapeStore keeps them as rows of primitive arrays, MappedShapeStore reads them from a memory-mapped file
+ * and TiledShapeStore reads the tiles of a tiled file as they are reached.
+ *
+ * Shapes are kept in drawing order. Shape objects are only created for the shapes that something
+ * asks for, such as a hit test or an edit, and the same object is then returned every time.
+ * Iterating creates short-lived copies instead, which is enough for saving the drawing.
+ * A snapshot goes further and can be iterated on another thread while the drawing is edited.
+ */
+public interface ShapeStorage extends Iterable<MyShape> {
+
+	/**
+	 * Removes every shape.
+	 */
+	void clear();
+
+	/**
+	 * @return the number of shapes.
+	 */
+	int size();
+
+	/**
+	 * Adds a shape after every shape already stored.
+	 *
+	 * @param s The shape to add.
+	 * @param keep False if only the shape's data is needed, so that the object does not have to be kept.
+	 */
+	void add(MyShape s, boolean keep);
+
+	/**
+	 * Removes a shape previously added or returned by the storage.
+	 *
+	 * @param s The shape to remove.
+	 * @return true if the shape was stored, false otherwise.
+	 */
+	boolean remove(MyShape s);
+
+	/**
+	 * Takes in the changes to a shape after it has been moved or otherwise changed.
+	 *
+	 * @param s The shape that changed.
+	 */
+	void update(MyShape s);
+
+	/**
+	 * Finds the shape whose center is closest to a point.
+	 * When several shapes are equally close, the one earliest in drawing order is returned.
+	 *
+	 * @param x X-coordinate of the point.
+	 * @param y Y-coordinate of the point.
+	 * @return Closest shape or null if there are none.
+	 */
+	MyShape nearest(double x, double y);
+
+	/**
+	 * Finds the shapes whose center lies inside a rectangle, edges included.
+	 *
+	 * @return The matching shapes in drawing order.
+	 */
+	ArrayList<MyShape> within(double minX, double minY, double maxX, double maxY);
+
+	/**
+	 * Draws, in drawing order, the shapes whose drawn area intersects a rectangle.
+	 *
+	 * @param gc The graphics context to use for drawing.
+	 * @param skip A shape not to draw, or null.
+	 */
+	void draw(GraphicsContext gc, double minX, double minY, double maxX, double maxY, MyShape skip);
+
+	/**
+	 * Returns every shape in drawing order, creating the objects that do not exist yet.
+	 *
+	 * @return An ArrayList of the shapes.
+	 */
+	ArrayList<MyShape> toList();
+
+	/**
+	 * Freezes the shapes as they are now, so that they can be saved on another thread while the drawing
+	 * is edited. Only what the storage holds on the heap is copied; the rest is decoded by the thread that
+	 * iterates the snapshot.
+	 *
+	 * @return The shapes in drawing order, which do not change with the storage and must not be changed.
+	 */
+	Collection<MyShape> snapshot();
+
+	/**
+	 * Finds the shapes at positions in drawing order, creating and keeping their objects,
+	 * as for replaying changes journaled by position.
+	 *
+	 * @param positions Positions counting from 0, in increasing order.
+	 * @return The shapes at the positions that hold one, in the same order.
+	 */
+	ArrayList<MyShape> shapesAt(int[] positions);
+
+	/**
+	 * Finds where shapes are in drawing order.
+	 *
+	 * @param shapes Shapes previously added or returned by the storage. Others are ignored.
+	 * @return The positions of the stored ones, counting from 0, in increasing order.
+	 */
+	int[] positions(Collection<? extends MyShape> shapes);
+}
@@ -0,0 +1,721 @@
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Compact store for the shapes of a ShapeCanvas.
+ *
+ * Lines, rectangles and ovals are kept as rows of parallel primitive arrays: a type tag,
+ * the two end points, a packed ARGB color and flags. A MyShape object for a row, its view,
+ * is only created when something asks for the shape itself, for example a hit test or an edit,
+ * and is then kept so that the same object is returned every time.
+ * Other shapes, such as groups, are always kept as objects.
+ *
+ * Rows are kept in drawing order. Removing a shape only marks its row as deleted,
+ * the rows are compacted once most of them are deleted.
+ */
+public class ShapeStore implements ShapeStorage {
+
+	public static final byte LINE = 0;
+	public static final byte RECT = 1;
+	public static final byte OVAL = 2;
+	public static final byte OBJECT = 3;
+
+	private static final byte FILLED = 1;
+	private static final byte DELETED = 2;
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int MIN_COMPACT_SIZE = 1024;
+
+	private int rows, live;
+	private byte[] types, flags;
+	private double[] x1, y1, x2, y2;
+	private int[] colors;
+	private MyShape[] objects;
+
+	private IdentityHashMap<MyShape, Integer> rowOf;
+	private HashMap<Integer, Color> palette;
+
+	/**
+	 * Constructs an empty store.
+	 */
+	public ShapeStore() {
+
+		rowOf = new IdentityHashMap<>();
+		palette = new HashMap<>();
+
+		clear();
+	}
+
+	/**
+	 * Removes every shape from the store.
+	 */
+	@Override
+	public void clear() {
+
+		rows = 0;
+		live = 0;
+
+		types = new byte[INITIAL_CAPACITY];
+		flags = new byte[INITIAL_CAPACITY];
+		x1 = new double[INITIAL_CAPACITY];
+		y1 = new double[INITIAL_CAPACITY];
+		x2 = new double[INITIAL_CAPACITY];
+		y2 = new double[INITIAL_CAPACITY];
+		colors = new int[INITIAL_CAPACITY];
+		objects = new MyShape[INITIAL_CAPACITY];
+
+		rowOf.clear();
+	}
+
+	/**
+	 * Returns the number of shapes in the store.
+	 *
+	 * @return the number of shapes.
+	 */
+	@Override
+	public int size() {
+		return live;
+	}
+
+	/**
+	 * Adds a shape after every shape already in the store and keeps it as its own view,
+	 * so that later calls refer to the same object.
+	 *
+	 * @param s The shape to add.
+	 */
+	public void add(MyShape s) {
+		add(s, true);
+	}
+
+	/**
+	 * Adds a shape after every shape already in the store.
+	 *
+	 * @param s The shape to add.
+	 * @param keep False if only the shape's data is needed, so that a line, rectangle or oval
+	 *             is stored without holding on to the object.
+	 */
+	@Override
+	public void add(MyShape s, boolean keep) {
+
+		if(s == null || rowOf.containsKey(s)) {
+			return;
+		}
+
+		ensureCapacity(rows + 1);
+
+		int row = rows++;
+		live++;
+
+		types[row] = typeOf(s);
+		write(row, s);
+
+		if(keep || types[row] == OBJECT) {
+			objects[row] = s;
+			rowOf.put(s, row);
+		}
+	}
+
+	/**
+	 * Removes a shape previously added or returned by the store.
+	 *
+	 * @param s The shape to remove.
+	 * @return true if the shape was in the store, false otherwise.
+	 */
+	@Override
+	public boolean remove(MyShape s) {
+
+		Integer row = rowOf.remove(s);
+
+		if(row == null) {
+			return false;
+		}
+
+		flags[row] |= DELETED;
+		objects[row] = null;
+		live--;
+
+		if(rows >= MIN_COMPACT_SIZE && live < rows / 2) {
+			compact();
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the points, color and fill of a shape back into its row after the shape has changed.
+	 *
+	 * @param s The shape that changed.
+	 */
+	@Override
+	public void update(MyShape s) {
+
+		Integer row = rowOf.get(s);
+
+		if(row != null) {
+			write(row, s);
+		}
+	}
+
+	/**
+	 * Finds the shape whose center is closest to a point.
+	 * When several shapes are equally close, the one earliest in drawing order is returned.
+	 *
+	 * @param x X-coordinate of the point.
+	 * @param y Y-coordinate of the point.
+	 * @return Closest shape or null if the store is empty.
+	 */
+	@Override
+	public MyShape nearest(double x, double y) {
+
+		int best = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+
+		for(int row = 0; row < rows; row++) {
+
+			if((flags[row] & DELETED) != 0) {
+				continue;
+			}
+
+			double a = centerX(row) - x;
+			double b = centerY(row) - y;
+			double distance = Math.sqrt(a * a + b * b);
+
+			if(best < 0 || distance < bestDistance) {
+				best = row;
+				bestDistance = distance;
+			}
+		}
+
+		return best < 0 ? null : view(best);
+	}
+
+	/**
+	 * Finds the shapes whose center lies inside a rectangle, edges included.
+	 *
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @return The matching shapes in drawing order.
+	 */
+	@Override
+	public ArrayList<MyShape> within(double minX, double minY, double maxX, double maxY) {
+
+		ArrayList<MyShape> result = new ArrayList<>();
+
+		for(int row = 0; row < rows; row++) {
+
+			if((flags[row] & DELETED) != 0) {
+				continue;
+			}
+
+			double x = centerX(row);
+			double y = centerY(row);
+
+			if(x >= minX && x <= maxX && y >= minY && y <= maxY) {
+				result.add(view(row));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Draws, in drawing order, the shapes whose drawn area intersects a rectangle.
+	 * Lines, rectangles and ovals are drawn straight from their rows.
+	 *
+	 * @param gc The graphics context to use for drawing.
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @param skip A shape not to draw, or null.
+	 */
+	@Override
+	public void draw(GraphicsContext gc, double minX, double minY, double maxX, double maxY, MyShape skip) {
+
+		for(int row = 0; row < rows; row++) {
+
+			if((flags[row] & DELETED) != 0) {
+				continue;
+			}
+
+			if(types[row] == OBJECT) {
+
+				MyShape s = objects[row];
+
+				if(s != skip && s.getMaxX() >= minX && s.getMinX() <= maxX && s.getMaxY() >= minY && s.getMinY() <= maxY) {
+					s.draw(gc);
+				}
+				continue;
+			}
+
+			double ulx = Math.min(x1[row], x2[row]);
+			double uly = Math.min(y1[row], y2[row]);
+			double w = Math.abs(x1[row] - x2[row]);
+			double h = Math.abs(y1[row] - y2[row]);
+
+			if(ulx + w < minX || ulx > maxX || uly + h < minY || uly > maxY) {
+				continue;
+			}
+
+			if(skip != null && objects[row] == skip) {
+				continue;
+			}
+
+			Color color = color(colors[row]);
+			boolean filled = (flags[row] & FILLED) != 0;
+
+			switch(types[row]) {
+
+			case LINE:
+				gc.setStroke(color);
+				gc.strokeLine(x1[row], y1[row], x2[row], y2[row]);
+				break;
+
+			case RECT:
+				if(filled) {
+					gc.setFill(color);
+					gc.fillRect(ulx, uly, w, h);
+				}
+				else {
+					gc.setStroke(color);
+					gc.strokeRect(ulx, uly, w, h);
+				}
+				break;
+
+			default:
+				if(filled) {
+					gc.setFill(color);
+					gc.fillOval(ulx, uly, w, h);
+				}
+				else {
+					gc.setStroke(color);
+					gc.strokeOval(ulx, uly, w, h);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns every shape in drawing order as a view, creating the views that do not exist yet.
+	 *
+	 * @return An ArrayList of the shapes in the store.
+	 */
+	@Override
+	public ArrayList<MyShape> toList() {
+
+		ArrayList<MyShape> result = new ArrayList<>(live);
+
+		for(int row = 0; row < rows; row++) {
+			if((flags[row] & DELETED) == 0) {
+				result.add(view(row));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the rows, which is a few array copies, and clones the shapes kept only as objects, such as groups.
+	 * Views are not cloned, since their rows are kept in step with them.
+	 *
+	 * @return The shapes in drawing order, created from the copied rows as they are iterated.
+	 */
+	@Override
+	public Collection<MyShape> snapshot() {
+
+		Snapshot copy = new Snapshot();
+
+		copy.rows = rows;
+		copy.live = live;
+		copy.types = Arrays.copyOf(types, rows);
+		copy.flags = Arrays.copyOf(flags, rows);
+		copy.x1 = Arrays.copyOf(x1, rows);
+		copy.y1 = Arrays.copyOf(y1, rows);
+		copy.x2 = Arrays.copyOf(x2, rows);
+		copy.y2 = Arrays.copyOf(y2, rows);
+		copy.colors = Arrays.copyOf(colors, rows);
+		copy.objects = new MyShape[rows];
+
+		for(Map.Entry<MyShape, Integer> e : rowOf.entrySet()) {
+			if(types[e.getValue()] == OBJECT) {
+				copy.objects[e.getValue()] = (MyShape) e.getKey().clone();
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Finds the views at positions in drawing order, counting the live rows unless none are deleted.
+	 *
+	 * @param positions Positions counting from 0, in increasing order.
+	 * @return The views at the positions that hold a shape, in the same order.
+	 */
+	@Override
+	public ArrayList<MyShape> shapesAt(int[] positions) {
+
+		ArrayList<MyShape> found = new ArrayList<>(positions.length);
+		int i = 0;
+
+		if(live == rows) {
+			for(; i < positions.length && positions[i] < rows; i++) {
+				found.add(view(positions[i]));
+			}
+			return found;
+		}
+
+		int position = 0;
+
+		for(int row = nextLive(0); row < rows && i < positions.length; row = nextLive(row + 1), position++) {
+			if(position == positions[i]) {
+				found.add(view(row));
+				i++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds where shapes are in drawing order by counting the live rows before theirs.
+	 *
+	 * @param shapes Shapes previously added or returned by the store. Others are ignored.
+	 * @return The positions of the stored ones, counting from 0, in increasing order.
+	 */
+	@Override
+	public int[] positions(Collection<? extends MyShape> shapes) {
+
+		int[] found = new int[shapes.size()];
+		int n = 0;
+
+		for(MyShape s : shapes) {
+
+			Integer row = rowOf.get(s);
+
+			if(row != null) {
+				found[n++] = row;
+			}
+		}
+
+		found = Arrays.stream(found, 0, n).sorted().distinct().toArray();
+
+		int position = 0;
+		int next = 0;
+
+		for(int row = 0; next < found.length; row++) {
+
+			if(row == found[next]) {
+				found[next++] = position;
+			}
+
+			if((flags[row] & DELETED) == 0) {
+				position++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Iterates over the shapes in drawing order without keeping new views.
+	 * Rows without a view are returned as short-lived copies, which is enough for saving the drawing.
+	 *
+	 * @return An iterator over the shapes in the store.
+	 */
+	@Override
+	public Iterator<MyShape> iterator() {
+
+		return new Iterator<MyShape>() {
+
+			private int row = nextLive(0);
+
+			@Override
+			public boolean hasNext() {
+				return row < rows;
+			}
+
+			@Override
+			public MyShape next() {
+
+				if(row >= rows) {
+					throw new NoSuchElementException();
+				}
+
+				MyShape s = objects[row] != null ? objects[row] : create(row);
+				row = nextLive(row + 1);
+				return s;
+			}
+		};
+	}
+
+	/**
+	 * Estimates the heap used by the rows, not counting the views.
+	 *
+	 * @return The approximate number of bytes used.
+	 */
+	public long estimateBytes() {
+		// 4 doubles, a packed color, two bytes and an object reference per row
+		return (long) types.length * (4 * Double.BYTES + Integer.BYTES + 2 + Integer.BYTES);
+	}
+
+	/**
+	 * Returns the view of a row, creating and keeping it if needed.
+	 */
+	private MyShape view(int row) {
+
+		MyShape s = objects[row];
+
+		if(s == null) {
+			s = create(row);
+			objects[row] = s;
+			rowOf.put(s, row);
+		}
+		return s;
+	}
+
+	/**
+	 * Creates a new shape object from a row.
+	 */
+	private MyShape create(int row) {
+		return create(types[row], x1[row], y1[row], x2[row], y2[row], color(colors[row]), (flags[row] & FILLED) != 0);
+	}
+
+	private static MyShape create(byte type, double x1, double y1, double x2, double y2, Color color, boolean filled) {
+
+		MyShape s;
+
+		switch(type) {
+
+		case LINE:
+			s = new Line(x1, y1, x2, y2);
+			break;
+
+		case RECT:
+			s = new Rect(x1, y1, x2, y2);
+			break;
+
+		default:
+			s = new Oval(x1, y1, x2, y2);
+		}
+
+		s.setColor(color);
+		s.setFilled(filled);
+		return s;
+	}
+
+	/**
+	 * Copies the data of a shape into a row.
+	 */
+	private void write(int row, MyShape s) {
+
+		if(types[row] == OBJECT) {
+			flags[row] = 0;
+			return;
+		}
+
+		x1[row] = s.getX1();
+		y1[row] = s.getY1();
+		x2[row] = s.getX2();
+		y2[row] = s.getY2();
+
+		colors[row] = pack(s.getColor());
+		flags[row] = s.isFilled() ? FILLED : 0;
+	}
+
+	/**
+	 * Returns the x-coordinate of a row's center, computed the same way as Point2D.midpoint.
+	 */
+	private double centerX(int row) {
+
+		if(types[row] == OBJECT) {
+			return objects[row].getCenterX();
+		}
+		return x1[row] + (x2[row] - x1[row]) / 2.0;
+	}
+
+	/**
+	 * Returns the y-coordinate of a row's center, computed the same way as Point2D.midpoint.
+	 */
+	private double centerY(int row) {
+
+		if(types[row] == OBJECT) {
+			return objects[row].getCenterY();
+		}
+		return y1[row] + (y2[row] - y1[row]) / 2.0;
+	}
+
+	private int nextLive(int row) {
+
+		while(row < rows && (flags[row] & DELETED) != 0) {
+			row++;
+		}
+		return row;
+	}
+
+	/**
+	 * Moves the remaining rows over the deleted ones, keeping their order.
+	 */
+	private void compact() {
+
+		int to = 0;
+
+		for(int from = 0; from < rows; from++) {
+
+			if((flags[from] & DELETED) != 0) {
+				continue;
+			}
+
+			if(to != from) {
+				types[to] = types[from];
+				flags[to] = flags[from];
+				x1[to] = x1[from];
+				y1[to] = y1[from];
+				x2[to] = x2[from];
+				y2[to] = y2[from];
+				colors[to] = colors[from];
+				objects[to] = objects[from];
+
+				if(objects[to] != null) {
+					rowOf.put(objects[to], to);
+				}
+			}
+			to++;
+		}
+
+		for(int row = to; row < rows; row++) {
+			objects[row] = null;
+		}
+		rows = to;
+	}
+
+	private void ensureCapacity(int capacity) {
+
+		if(capacity <= types.length) {
+			return;
+		}
+
+		int n = Math.max(capacity, types.length * 2);
+
+		types = Arrays.copyOf(types, n);
+		flags = Arrays.copyOf(flags, n);
+		x1 = Arrays.copyOf(x1, n);
+		y1 = Arrays.copyOf(y1, n);
+		x2 = Arrays.copyOf(x2, n);
+		y2 = Arrays.copyOf(y2, n);
+		colors = Arrays.copyOf(colors, n);
+		objects = Arrays.copyOf(objects, n);
+	}
+
+	/**
+	 * Returns the shared Color for a packed ARGB value.
+	 */
+	private Color color(int argb) {
+		return palette.computeIfAbsent(argb, ShapeStore::unpack);
+	}
+
+	private static byte typeOf(MyShape s) {
+
+		if(s.getClass() == Line.class) {
+			return LINE;
+		}
+		if(s.getClass() == Rect.class) {
+			return RECT;
+		}
+		if(s.getClass() == Oval.class) {
+			return OVAL;
+		}
+		return OBJECT;
+	}
+
+	/**
+	 * Packs a color into an int with 8 bits each for opacity, red, green and blue.
+	 *
+	 * @param c The color to pack.
+	 * @return The packed ARGB value.
+	 */
+	public static int pack(Color c) {
+
+		if(c == null) {
+			c = Color.BLACK;
+		}
+
+		int a = (int) Math.round(c.getOpacity() * 255);
+		int r = (int) Math.round(c.getRed() * 255);
+		int g = (int) Math.round(c.getGreen() * 255);
+		int b = (int) Math.round(c.getBlue() * 255);
+
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Unpacks a color packed by pack.
+	 *
+	 * @param argb The packed ARGB value.
+	 * @return The color.
+	 */
+	public static Color unpack(int argb) {
+		return Color.rgb((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, ((argb >>> 24) & 0xff) / 255.0);
+	}
+
+	/**
+	 * Rows copied by snapshot. Shapes are created from them as they are iterated, with colors unpacked
+	 * without the palette, so that the snapshot can be read on another thread.
+	 */
+	private static class Snapshot extends AbstractCollection<MyShape> {
+
+		private int rows, live;
+		private byte[] types, flags;
+		private double[] x1, y1, x2, y2;
+		private int[] colors;
+		private MyShape[] objects;
+
+		@Override
+		public int size() {
+			return live;
+		}
+
+		@Override
+		public Iterator<MyShape> iterator() {
+
+			return new Iterator<MyShape>() {
+
+				private int row = nextLive(0);
+
+				private int nextLive(int from) {
+
+					while(from < rows && (flags[from] & DELETED) != 0) {
+						from++;
+					}
+					return from;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return row < rows;
+				}
+
+				@Override
+				public MyShape next() {
+
+					if(row >= rows) {
+						throw new NoSuchElementException();
+					}
+
+					int r = row;
+					row = nextLive(row + 1);
+
+					if(objects[r] != null) {
+						return objects[r];
+					}
+					return create(types[r], x1[r], y1[r], x2[r], y2[r], unpack(colors[r]), (flags[r] & FILLED) != 0);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,386 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Splits a drawing text file into whitespace-separated tokens and parses them.
+ *
+ * The file is read through a FileChannel in large blocks and scanned byte by byte, without
+ * regular expressions or per-line strings. Numbers are parsed directly from the token's
+ * characters; only those that cannot be converted exactly with a single multiplication or
+ * division fall back to Double.parseDouble. Either '.' or ',' is accepted as the decimal point,
+ * since the writer formats numbers in the default locale.
+ *
+ * Every token remembers the line and column it started at, so that malformed input can be reported there.
+ */
+public class ShapeTokenizer implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// 10^22 is the largest power of ten a double holds exactly
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private byte[] bytes;
+	private int pos, limit;
+	private boolean eof;
+
+	// position of the next byte to read
+	private int line, column;
+
+	private char[] token;
+	private int tokenLength;
+	private int tokenLine, tokenColumn;
+
+	/**
+	 * Opens a file for reading.
+	 *
+	 * @param file The file to read.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public ShapeTokenizer(File file) throws IOException {
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		bytes = buffer.array();
+
+		token = new char[64];
+		line = 1;
+		column = 1;
+	}
+
+	/**
+	 * Reads the next token as a word.
+	 *
+	 * @return The next token.
+	 * @throws IOException If the file cannot be read or has no more tokens.
+	 */
+	public String next() throws IOException {
+		read("a word");
+		return new String(token, 0, tokenLength);
+	}
+
+	/**
+	 * Reads the next token as an integer.
+	 *
+	 * @return The value of the next token.
+	 * @throws IOException If the file cannot be read or the token is not an integer.
+	 */
+	public int nextInt() throws IOException {
+		read("an integer");
+
+		int i = 0;
+		boolean negative = false;
+
+		if(token[0] == '-' || token[0] == '+') {
+			negative = token[0] == '-';
+			i++;
+		}
+
+		if(i == tokenLength) {
+			throw unexpected("an integer");
+		}
+
+		long value = 0;
+
+		for(; i < tokenLength; i++) {
+
+			int d = token[i] - '0';
+
+			if(d < 0 || d > 9) {
+				throw unexpected("an integer");
+			}
+
+			value = value * 10 + d;
+
+			if(value > (long) Integer.MAX_VALUE + 1) {
+				throw unexpected("an integer");
+			}
+		}
+
+		if(negative) {
+			value = -value;
+		}
+		if(value > Integer.MAX_VALUE) {
+			throw unexpected("an integer");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Reads the next token as a boolean, ignoring case.
+	 *
+	 * @return The value of the next token.
+	 * @throws IOException If the file cannot be read or the token is neither true nor false.
+	 */
+	public boolean nextBoolean() throws IOException {
+		read("true or false");
+
+		if(is("true")) {
+			return true;
+		}
+		if(is("false")) {
+			return false;
+		}
+		throw unexpected("true or false");
+	}
+
+	/**
+	 * Reads the next token as a number.
+	 *
+	 * @return The value of the next token.
+	 * @throws IOException If the file cannot be read or the token is not a number.
+	 */
+	public double nextDouble() throws IOException {
+		read("a number");
+
+		int i = 0;
+		boolean negative = false;
+
+		if(token[0] == '-' || token[0] == '+') {
+			negative = token[0] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int significant = 0;
+		int exponent = 0;
+		boolean digits = false;
+		boolean exact = true;
+
+		for(; i < tokenLength && isDigit(token[i]); i++) {
+
+			digits = true;
+
+			if(significant < 18) {
+				mantissa = mantissa * 10 + (token[i] - '0');
+
+				if(mantissa != 0) {
+					significant++;
+				}
+			}
+			else {
+				exponent++;
+				exact &= token[i] == '0';
+			}
+		}
+
+		if(i < tokenLength && (token[i] == '.' || token[i] == ',')) {
+
+			for(i++; i < tokenLength && isDigit(token[i]); i++) {
+
+				digits = true;
+
+				if(significant < 18) {
+					mantissa = mantissa * 10 + (token[i] - '0');
+					exponent--;
+
+					if(mantissa != 0) {
+						significant++;
+					}
+				}
+				else {
+					exact &= token[i] == '0';
+				}
+			}
+		}
+
+		if(!digits) {
+			// NaN and Infinity, as written by String.format
+			return parseSlowly();
+		}
+
+		if(i < tokenLength && (token[i] == 'e' || token[i] == 'E')) {
+
+			i++;
+			boolean negativeExponent = false;
+
+			if(i < tokenLength && (token[i] == '-' || token[i] == '+')) {
+				negativeExponent = token[i] == '-';
+				i++;
+			}
+
+			if(i == tokenLength) {
+				throw unexpected("a number");
+			}
+
+			int e = 0;
+
+			for(; i < tokenLength && isDigit(token[i]); i++) {
+				e = Math.min(100000, e * 10 + (token[i] - '0'));
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		if(i != tokenLength) {
+			throw unexpected("a number");
+		}
+
+		// both the mantissa and the power of ten are exact, so one rounding gives the correct result
+		if(exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+
+			double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+		return parseSlowly();
+	}
+
+	/**
+	 * Creates an exception for a problem with the last token read.
+	 *
+	 * @param message What was wrong.
+	 * @return The exception, for the caller to throw.
+	 */
+	public DrawingFormatException error(String message) {
+		return new DrawingFormatException(message, tokenLine, tokenColumn);
+	}
+
+	/**
+	 * Returns how far the tokenizer has got through the file.
+	 *
+	 * @return The number of bytes consumed so far.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public long position() throws IOException {
+		return channel.position() - limit + pos;
+	}
+
+	/**
+	 *
+	 * @return The size of the file in bytes.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	/**
+	 * Closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private double parseSlowly() throws DrawingFormatException {
+
+		String s = new String(token, 0, tokenLength).replace(',', '.');
+
+		try {
+			return Double.parseDouble(s);
+		}
+		catch(NumberFormatException e) {
+			throw unexpected("a number");
+		}
+	}
+
+	private DrawingFormatException unexpected(String expected) {
+		return error("expected " + expected + " but found \"" + new String(token, 0, Math.min(tokenLength, 40)) + "\"");
+	}
+
+	private boolean is(String word) {
+
+		if(tokenLength != word.length()) {
+			return false;
+		}
+
+		for(int i = 0; i < tokenLength; i++) {
+			if(Character.toLowerCase(token[i]) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips whitespace and copies the next token into the token buffer.
+	 *
+	 * @param expected What the caller wants, for the message if the file ends first.
+	 */
+	private void read(String expected) throws IOException {
+
+		int b;
+
+		while((b = peek()) >= 0 && isSpace(b)) {
+			pos++;
+
+			if(b == '\n') {
+				line++;
+				column = 1;
+			}
+			else {
+				column++;
+			}
+		}
+
+		tokenLine = line;
+		tokenColumn = column;
+		tokenLength = 0;
+
+		if(b < 0) {
+			throw error("expected " + expected + " but the file ended");
+		}
+
+		while((b = peek()) >= 0 && !isSpace(b)) {
+
+			if(tokenLength == token.length) {
+				char[] larger = new char[token.length * 2];
+				System.arraycopy(token, 0, larger, 0, tokenLength);
+				token = larger;
+			}
+
+			token[tokenLength++] = (char) b;
+			pos++;
+			column++;
+		}
+	}
+
+	/**
+	 * Returns the next byte without consuming it, reading another block from the file when needed.
+	 *
+	 * @return The byte, or -1 at the end of the file.
+	 */
+	private int peek() throws IOException {
+
+		if(pos < limit) {
+			return bytes[pos] & 0xff;
+		}
+
+		if(eof) {
+			return -1;
+		}
+
+		buffer.clear();
+		int n;
+
+		do {
+			n = channel.read(buffer);
+		}
+		while(n == 0);
+
+		pos = 0;
+
+		if(n < 0) {
+			eof = true;
+			limit = 0;
+			return -1;
+		}
+
+		limit = n;
+		return bytes[0] & 0xff;
+	}
+
+	private static boolean isSpace(int b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0b;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
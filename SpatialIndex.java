@@ -0,0 +1,529 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.TreeMap;
+
+/**
+ * Uniform grid over the centers of the shapes on a ShapeCanvas.
+ * Used to answer nearest-shape queries without scanning every shape.
+ *
+ * Each entry remembers the order in which its shape was inserted so that ties
+ * are broken the same way as a front-to-back scan of the canvas' shape list,
+ * and so that region queries can return shapes in drawing order.
+ *
+ * Shapes reaching further than a few cells from their center are also kept in
+ * coarser grids, one for each doubling of their size, so that one large shape
+ * does not widen the region queries for all the others.
+ */
+public class SpatialIndex {
+
+	private static final double DEFAULT_CELL_SIZE = 64;
+	private static final int LARGE_CELLS = 4;
+	private static final int LEVELS = 32;
+
+	private double cellSize;
+	private HashMap<Long, ArrayList<Entry>> cells;
+	private IdentityHashMap<MyShape, Entry> entries;
+	// coarse grids of the large entries by center, the cells of each twice the size of the one before
+	private ArrayList<HashMap<Long, ArrayList<Entry>>> levels;
+	private long nextOrder;
+
+	// number of entries in each occupied column and row of cells, which bound the occupied area
+	private TreeMap<Integer, Integer> columns, rows;
+
+	/**
+	 * A shape together with the center and extent it was indexed at.
+	 */
+	private static class Entry {
+
+		private MyShape shape;
+		private long order;
+		private double x, y;
+		private double minX, minY, maxX, maxY;
+		private long cell;
+		// place in the list of its cell
+		private int slot;
+		// the coarse grid of a large entry, or -1
+		private int level;
+		private long coarseCell;
+		private int coarseSlot;
+	}
+
+	private static final Comparator<Entry> DRAWING_ORDER = Comparator.comparingLong(e -> e.order);
+
+	/**
+	 * Constructs an empty index with the default cell size.
+	 */
+	public SpatialIndex() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * Constructs an empty index.
+	 *
+	 * @param size The width and height of one grid cell.
+	 */
+	public SpatialIndex(double size) {
+
+		cellSize = size;
+		cells = new HashMap<>();
+		entries = new IdentityHashMap<>();
+		levels = new ArrayList<>(LEVELS);
+		columns = new TreeMap<>();
+		rows = new TreeMap<>();
+
+		clear();
+	}
+
+	/**
+	 * Removes every shape from the index.
+	 */
+	public void clear() {
+
+		cells.clear();
+		entries.clear();
+		levels.clear();
+		columns.clear();
+		rows.clear();
+		nextOrder = 0;
+	}
+
+	/**
+	 * Returns the number of indexed shapes.
+	 *
+	 * @return the number of shapes in the index.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Adds a shape to the index. The shape is ordered after every shape already in the index.
+	 *
+	 * @param s The shape to add.
+	 */
+	public void insert(MyShape s) {
+		insert(s, nextOrder);
+	}
+
+	/**
+	 * Adds a shape to the index at a given place in the ordering, for shapes that are not inserted in drawing order.
+	 * Shapes inserted without an order afterwards are ordered after it.
+	 *
+	 * @param s The shape to add.
+	 * @param order Its place in the ordering. Shapes with a lower order come first.
+	 */
+	public void insert(MyShape s, long order) {
+
+		if(s == null || entries.containsKey(s)) {
+			return;
+		}
+
+		Entry entry = new Entry();
+		entry.shape = s;
+		entry.order = order;
+		nextOrder = Math.max(nextOrder, order + 1);
+
+		entries.put(s, entry);
+		place(entry);
+	}
+
+	/**
+	 * Removes a shape from the index.
+	 *
+	 * @param s The shape to remove.
+	 * @return true if the shape was in the index, false otherwise.
+	 */
+	public boolean remove(MyShape s) {
+
+		Entry entry = entries.remove(s);
+
+		if(entry == null) {
+			return false;
+		}
+
+		unplace(entry);
+		return true;
+	}
+
+	/**
+	 * Re-reads the center and extent of a shape after it has changed. The shape keeps its position in the ordering.
+	 *
+	 * @param s The shape that moved.
+	 */
+	public void update(MyShape s) {
+
+		Entry entry = entries.get(s);
+
+		if(entry == null) {
+			return;
+		}
+
+		unplace(entry);
+		place(entry);
+	}
+
+	/**
+	 * Finds the shape whose center is closest to a point.
+	 * When several shapes are equally close, the one inserted first is returned.
+	 *
+	 * @param x X-coordinate of the point.
+	 * @param y Y-coordinate of the point.
+	 * @return Closest shape or null if the index is empty.
+	 */
+	public MyShape nearest(double x, double y) {
+
+		if(entries.isEmpty()) {
+			return null;
+		}
+
+		int qCol = toCell(x);
+		int qRow = toCell(y);
+		int minCol = columns.firstKey(), maxCol = columns.lastKey();
+		int minRow = rows.firstKey(), maxRow = rows.lastKey();
+
+		// rings closer than the occupied area contain no cells worth visiting
+		int ring = Math.max(0, Math.max(gap(qCol, minCol, maxCol), gap(qRow, minRow, maxRow)));
+		long farthest = Math.max(
+				Math.max(Math.abs((long) qCol - minCol), Math.abs((long) qCol - maxCol)),
+				Math.max(Math.abs((long) qRow - minRow), Math.abs((long) qRow - maxRow)));
+		int lastRing = (int) Math.min(Integer.MAX_VALUE - 1, farthest);
+
+		Entry best = null;
+		double bestDistance = Double.POSITIVE_INFINITY;
+
+		for(; ring <= lastRing; ring++) {
+
+			for(int col = qCol - ring; col <= qCol + ring; col++) {
+
+				if(col < minCol || col > maxCol) {
+					continue;
+				}
+
+				// the first and last columns of the ring are full, the others only have their two ends
+				int step = (col == qCol - ring || col == qCol + ring) ? 1 : Math.max(1, 2 * ring);
+
+				for(int row = qRow - ring; row <= qRow + ring; row += step) {
+
+					if(row < minRow || row > maxRow) {
+						continue;
+					}
+
+					ArrayList<Entry> cell = cells.get(key(col, row));
+
+					if(cell == null) {
+						continue;
+					}
+
+					for(Entry e : cell) {
+
+						// same arithmetic as Point2D.distance so ties compare equal
+						double a = e.x - x;
+						double b = e.y - y;
+						double distance = Math.sqrt(a * a + b * b);
+
+						if(best == null || distance < bestDistance || (distance == bestDistance && e.order < best.order)) {
+							best = e;
+							bestDistance = distance;
+						}
+					}
+				}
+			}
+
+			// anything outside the rings visited so far is at least this far away
+			double reach = Math.min(
+					Math.min(x - (double) (qCol - ring) * cellSize, (double) (qCol + ring + 1) * cellSize - x),
+					Math.min(y - (double) (qRow - ring) * cellSize, (double) (qRow + ring + 1) * cellSize - y));
+
+			if(best != null && bestDistance < reach) {
+				break;
+			}
+		}
+
+		return best.shape;
+	}
+
+	/**
+	 * Finds the shapes whose extent intersects a rectangle.
+	 *
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @return The intersecting shapes in the order they were inserted.
+	 */
+	public ArrayList<MyShape> query(double minX, double minY, double maxX, double maxY) {
+
+		// the center of a regular entry is at most LARGE_CELLS cells away from any part of it
+		return collect(minX, minY, maxX, maxY, LARGE_CELLS * cellSize, false);
+	}
+
+	/**
+	 * Finds the shapes whose center lies inside a rectangle, edges included.
+	 *
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @return The shapes with their center inside the rectangle, in the order they were inserted.
+	 */
+	public ArrayList<MyShape> within(double minX, double minY, double maxX, double maxY) {
+		return collect(minX, minY, maxX, maxY, 0, true);
+	}
+
+	/**
+	 * Collects the entries matching a rectangle from the cells whose centers can match, and from the coarse
+	 * grids of the large entries when matching extents, and returns their shapes in drawing order.
+	 *
+	 * @param reach How far outside the rectangle a matching regular center can be.
+	 * @param byCenter True to match centers inside the rectangle, false to match intersecting extents.
+	 */
+	private ArrayList<MyShape> collect(double minX, double minY, double maxX, double maxY, double reach, boolean byCenter) {
+
+		ArrayList<Entry> found = new ArrayList<>();
+
+		if(cells.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		gather(cells,
+				Math.max(columns.firstKey(), toCell(minX - reach)), Math.min(columns.lastKey(), toCell(maxX + reach)),
+				Math.max(rows.firstKey(), toCell(minY - reach)), Math.min(rows.lastKey(), toCell(maxY + reach)),
+				minX, minY, maxX, maxY, byCenter, found);
+
+		if(!byCenter) {
+
+			// a large entry reaches at most the cell size of its grid from its center
+			for(int level = 0; level < levels.size(); level++) {
+
+				double size = levelSize(level);
+
+				gather(levels.get(level),
+						toCell(minX - size, size), toCell(maxX + size, size),
+						toCell(minY - size, size), toCell(maxY + size, size),
+						minX, minY, maxX, maxY, false, found);
+			}
+		}
+
+		return shapesOf(found);
+	}
+
+	/**
+	 * Adds the entries of one grid in a range of cells that match a rectangle to found.
+	 * When matching extents in the regular grid, large entries are left to their coarse grids.
+	 */
+	private void gather(HashMap<Long, ArrayList<Entry>> grid, int col0, int col1, int row0, int row1,
+			double minX, double minY, double maxX, double maxY, boolean byCenter, ArrayList<Entry> found) {
+
+		boolean regularOnly = grid == cells && !byCenter;
+
+		if(((long) col1 - col0 + 1) * ((long) row1 - row0 + 1) > grid.size()) {
+
+			// cheaper to look at every occupied cell than at every cell of the range
+			for(ArrayList<Entry> cell : grid.values()) {
+				for(Entry e : cell) {
+					if((!regularOnly || e.level < 0) && matches(e, minX, minY, maxX, maxY, byCenter)) {
+						found.add(e);
+					}
+				}
+			}
+			return;
+		}
+
+		for(int col = col0; col <= col1; col++) {
+			for(int row = row0; row <= row1; row++) {
+
+				ArrayList<Entry> cell = grid.get(key(col, row));
+
+				if(cell == null) {
+					continue;
+				}
+
+				for(Entry e : cell) {
+					if((!regularOnly || e.level < 0) && matches(e, minX, minY, maxX, maxY, byCenter)) {
+						found.add(e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the shapes of entries in drawing order.
+	 */
+	private static ArrayList<MyShape> shapesOf(ArrayList<Entry> found) {
+
+		found.sort(DRAWING_ORDER);
+
+		ArrayList<MyShape> result = new ArrayList<>(found.size());
+
+		for(Entry e : found) {
+			result.add(e.shape);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds an entry to the cell containing its shape's current center,
+	 * and to a coarse grid as well if the shape reaches too far from it.
+	 */
+	private void place(Entry entry) {
+
+		MyShape s = entry.shape;
+
+		entry.x = s.getCenterX();
+		entry.y = s.getCenterY();
+
+		entry.minX = s.getMinX();
+		entry.minY = s.getMinY();
+		entry.maxX = s.getMaxX();
+		entry.maxY = s.getMaxY();
+
+		int col = toCell(entry.x);
+		int row = toCell(entry.y);
+
+		entry.cell = key(col, row);
+		entry.slot = add(cells, entry.cell, entry);
+
+		count(columns, col, 1);
+		count(rows, row, 1);
+
+		double halfExtent = Math.max(
+				Math.max(entry.x - entry.minX, entry.maxX - entry.x),
+				Math.max(entry.y - entry.minY, entry.maxY - entry.y));
+
+		entry.level = -1;
+
+		if(halfExtent > LARGE_CELLS * cellSize) {
+
+			// the first grid whose cells are at least as large as the shape reaches
+			int level = 0;
+
+			while(level < LEVELS - 1 && halfExtent > levelSize(level)) {
+				level++;
+			}
+			while(levels.size() <= level) {
+				levels.add(new HashMap<>());
+			}
+
+			double size = levelSize(level);
+
+			entry.level = level;
+			entry.coarseCell = key(toCell(entry.x, size), toCell(entry.y, size));
+			entry.coarseSlot = add(levels.get(level), entry.coarseCell, entry);
+		}
+	}
+
+	/**
+	 * Removes an entry from the cells it was placed in.
+	 */
+	private void unplace(Entry entry) {
+
+		take(cells, entry.cell, entry.slot, false);
+
+		// the occupied area shrinks when the last entry of an edge column or row leaves it
+		count(columns, (int) (entry.cell >> 32), -1);
+		count(rows, (int) entry.cell, -1);
+
+		if(entry.level >= 0) {
+			take(levels.get(entry.level), entry.coarseCell, entry.coarseSlot, true);
+		}
+	}
+
+	/**
+	 * Adds an entry to a cell.
+	 *
+	 * @return The slot of the entry in the cell.
+	 */
+	private static int add(HashMap<Long, ArrayList<Entry>> grid, long key, Entry e) {
+
+		ArrayList<Entry> cell = grid.computeIfAbsent(key, k -> new ArrayList<>());
+		cell.add(e);
+		return cell.size() - 1;
+	}
+
+	/**
+	 * Removes the entry in a slot of a cell by moving the last entry of the cell into the slot.
+	 *
+	 * @param coarse True for a cell of a coarse grid, whose slots the entries keep in coarseSlot.
+	 */
+	private static void take(HashMap<Long, ArrayList<Entry>> grid, long key, int slot, boolean coarse) {
+
+		ArrayList<Entry> cell = grid.get(key);
+		Entry last = cell.remove(cell.size() - 1);
+
+		if(slot < cell.size()) {
+
+			cell.set(slot, last);
+
+			if(coarse) {
+				last.coarseSlot = slot;
+			}
+			else {
+				last.slot = slot;
+			}
+		}
+
+		if(cell.isEmpty()) {
+			grid.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the cell size of a coarse grid, twice the size of the grid before it.
+	 * The last grid takes every shape too large for the others, all in its one cell.
+	 */
+	private double levelSize(int level) {
+
+		if(level == LEVELS - 1) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Math.scalb(LARGE_CELLS * cellSize, level + 1);
+	}
+
+	/**
+	 * Adds to the number of entries in a column or row, forgetting it when none are left.
+	 */
+	private static void count(TreeMap<Integer, Integer> counts, int i, int change) {
+		counts.merge(i, change, (a, b) -> a + b == 0 ? null : a + b);
+	}
+
+	private static boolean matches(Entry e, double minX, double minY, double maxX, double maxY, boolean byCenter) {
+
+		if(byCenter) {
+			return e.x >= minX && e.x <= maxX && e.y >= minY && e.y <= maxY;
+		}
+		return e.maxX >= minX && e.minX <= maxX && e.maxY >= minY && e.minY <= maxY;
+	}
+
+	/**
+	 * Returns the distance, in cells, from c to the range [lo, hi].
+	 */
+	private static int gap(int c, int lo, int hi) {
+
+		if(c < lo) {
+			return (int) Math.min(Integer.MAX_VALUE, (long) lo - c);
+		}
+		if(c > hi) {
+			return (int) Math.min(Integer.MAX_VALUE, (long) c - hi);
+		}
+		return 0;
+	}
+
+	private int toCell(double v) {
+		return toCell(v, cellSize);
+	}
+
+	private static int toCell(double v, double size) {
+
+		if(Double.isNaN(v)) {
+			return 0;
+		}
+		return (int) Math.floor(v / size);
+	}
+
+	private static long key(int col, int row) {
+		return ((long) col << 32) | (row & 0xffffffffL);
+	}
+}
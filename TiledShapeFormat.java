@@ -0,0 +1,593 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads and writes drawings in the tiled file format, for drawings too large to work on all at once.
+ *
+ * The shapes are bucketed into square tiles by the upper-left corner of their bounds, so that the
+ * shapes of one area of the drawing are stored together, and the header lists every tile with the
+ * area its shapes cover when drawn and the area their centers lie in. Shapes wider or taller than
+ * a tile are kept in tiles of their own, in drawing order, so that they do not widen the areas of
+ * the others. TiledShapeStore opens a file by reading only the header and then
+ * reads the tiles that the view reaches, so memory and load time follow the area being worked on.
+ *
+ * A file starts with a 40-byte header: the magic number "SHPT", the format version as a short, a
+ * reserved short, the number of top-level shapes and the number of tiles as ints, and the origin of
+ * the tile grid and the width of a tile as doubles. The tile directory follows, 92 bytes per tile:
+ * its column and row, with a row of -1 for tiles of large shapes, its number of shapes as an int,
+ * the offset and length of its shapes as longs, and the left, top, right and bottom edges of the
+ * area they cover and then of the area their centers lie in as doubles. Then come the tiles.
+ * A tile holds its shapes in drawing order, each as its position in the whole drawing as an int
+ * followed by its record in the binary format. Little-endian throughout.
+ */
+public class TiledShapeFormat {
+
+	public static final int MAGIC = 0x54504853; // "SHPT" read as a little-endian int
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 40;
+	public static final int ENTRY_SIZE = 92;
+
+	// aim for tiles of about this many shapes, and never more tiles than MAX_TILES
+	public static final int TILE_SHAPES = 4096;
+	public static final int MAX_TILES = 1 << 16;
+
+	// the row of the tiles holding shapes larger than a tile
+	public static final int LARGE_ROW = -1;
+
+	/**
+	 * A tile as listed in the directory.
+	 */
+	public static class Tile {
+
+		private int col, row;
+		private int shapes;
+		private long offset, length;
+		private double minX, minY, maxX, maxY;
+		private double centerMinX, centerMinY, centerMaxX, centerMaxY;
+
+		/**
+		 * @return the number of top-level shapes in the tile.
+		 */
+		public int getShapes() {
+			return shapes;
+		}
+
+		/**
+		 * Checks whether the area covered by the tile's shapes, or the area their centers lie in, intersects a rectangle, edges included.
+		 *
+		 * @param byCenter True to check the area of the centers, false to check the area covered.
+		 * @return true if the tile can hold shapes drawn in, or centered in, the rectangle.
+		 */
+		public boolean intersects(double minX, double minY, double maxX, double maxY, boolean byCenter) {
+
+			if(byCenter) {
+				return centerMaxX >= minX && centerMinX <= maxX && centerMaxY >= minY && centerMinY <= maxY;
+			}
+			return this.maxX >= minX && this.minX <= maxX && this.maxY >= minY && this.minY <= maxY;
+		}
+
+		/**
+		 * Returns the distance from a point to the area the centers of the tile's shapes lie in, which no center in the tile is closer than.
+		 *
+		 * @param x X-coordinate of the point.
+		 * @param y Y-coordinate of the point.
+		 * @return The distance, or 0 if the point is inside the area.
+		 */
+		public double distance(double x, double y) {
+
+			double a = Math.max(0, Math.max(centerMinX - x, x - centerMaxX));
+			double b = Math.max(0, Math.max(centerMinY - y, y - centerMaxY));
+			return Math.sqrt(a * a + b * b);
+		}
+	}
+
+	/**
+	 * The shapes of one tile with their positions in the drawing.
+	 */
+	public static class TileShapes {
+
+		private int[] orders;
+		private ArrayList<MyShape> shapes;
+
+		/**
+		 * @return the position in the drawing of each shape, in the order of getShapes.
+		 */
+		public int[] getOrders() {
+			return orders;
+		}
+
+		/**
+		 * @return the shapes, in drawing order.
+		 */
+		public ArrayList<MyShape> getShapes() {
+			return shapes;
+		}
+	}
+
+	private TiledShapeFormat() {
+	}
+
+	/**
+	 * Writes shapes to a file, replacing its contents. The size of the tiles is chosen from the
+	 * number of shapes and the area they are spread over.
+	 *
+	 * @param file The file to write to.
+	 * @param count The number of shapes.
+	 * @param shapes The shapes, in drawing order.
+	 * @param progress Receives the number of shapes written and can cancel the write.
+	 * @throws IOException If the file cannot be written or the write is cancelled.
+	 */
+	public static void write(File file, int count, Iterable<MyShape> shapes, FileProgress progress) throws IOException {
+
+		List<MyShape> list;
+
+		if(shapes instanceof List && shapes instanceof RandomAccess) {
+			list = (List<MyShape>) shapes;
+		}
+		else {
+			list = new ArrayList<>(count);
+
+			for(MyShape s : shapes) {
+				list.add(s);
+			}
+		}
+
+		if(list.size() != count) {
+			throw new IllegalArgumentException("expected " + count + " shapes but got " + list.size());
+		}
+
+		// the grid starts at the top-left corner of the drawing and has about TILE_SHAPES shapes per tile
+		double originX = Double.POSITIVE_INFINITY, originY = Double.POSITIVE_INFINITY;
+		double endX = Double.NEGATIVE_INFINITY, endY = Double.NEGATIVE_INFINITY;
+
+		for(MyShape s : list) {
+
+			// comparisons are false for NaN, so such corners are left out
+			if(s.getULX() < originX) {
+				originX = s.getULX();
+			}
+			if(s.getULX() > endX) {
+				endX = s.getULX();
+			}
+			if(s.getULY() < originY) {
+				originY = s.getULY();
+			}
+			if(s.getULY() > endY) {
+				endY = s.getULY();
+			}
+		}
+
+		if(!(originX <= endX && originY <= endY)) {
+			originX = originY = endX = endY = 0;
+		}
+
+		double tileSize = tileSize(endX - originX, endY - originY, count);
+
+		// number the tiles in row-major order, then list the shapes of each tile in drawing order
+		long[] keys = new long[count];
+		HashMap<Long, Integer> tileOf = new HashMap<>();
+
+		int large = 0;
+
+		for(int i = 0; i < count; i++) {
+
+			MyShape s = list.get(i);
+
+			if(s.getMaxX() - s.getMinX() > tileSize || s.getMaxY() - s.getMinY() > tileSize) {
+				keys[i] = key(large++ / TILE_SHAPES, LARGE_ROW);
+			}
+			else {
+				keys[i] = key(cell(s.getULX(), originX, tileSize), cell(s.getULY(), originY, tileSize));
+			}
+			tileOf.putIfAbsent(keys[i], 0);
+		}
+
+		long[] sorted = tileOf.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+
+		for(int t = 0; t < sorted.length; t++) {
+			tileOf.put(sorted[t], t);
+		}
+
+		Tile[] tiles = new Tile[sorted.length];
+		int[] start = new int[tiles.length + 1];
+
+		for(int t = 0; t < tiles.length; t++) {
+
+			tiles[t] = new Tile();
+			tiles[t].row = (int) (sorted[t] >> 32);
+			tiles[t].col = (int) sorted[t];
+			tiles[t].minX = tiles[t].minY = tiles[t].centerMinX = tiles[t].centerMinY = Double.POSITIVE_INFINITY;
+			tiles[t].maxX = tiles[t].maxY = tiles[t].centerMaxX = tiles[t].centerMaxY = Double.NEGATIVE_INFINITY;
+		}
+
+		int[] tileIndex = new int[count];
+
+		for(int i = 0; i < count; i++) {
+			tileIndex[i] = tileOf.get(keys[i]);
+			start[tileIndex[i] + 1]++;
+		}
+		keys = null;
+
+		for(int t = 0; t < tiles.length; t++) {
+			start[t + 1] += start[t];
+		}
+
+		int[] members = new int[count];
+		int[] next = Arrays.copyOf(start, tiles.length);
+
+		for(int i = 0; i < count; i++) {
+
+			int t = tileIndex[i];
+			members[next[t]++] = i;
+
+			Tile tile = tiles[t];
+			MyShape s = list.get(i);
+
+			double minX = s.getMinX(), minY = s.getMinY(), maxX = s.getMaxX(), maxY = s.getMaxY();
+			double cx = s.getCenterX(), cy = s.getCenterY();
+
+			if(Double.isNaN(minX) || Double.isNaN(minY) || Double.isNaN(maxX) || Double.isNaN(maxY) || Double.isNaN(cx) || Double.isNaN(cy)) {
+				// the shape cannot be placed, so the tile is read whatever the area asked for
+				minX = minY = Double.NEGATIVE_INFINITY;
+				maxX = maxY = Double.POSITIVE_INFINITY;
+
+				tile.centerMinX = tile.centerMinY = Double.NEGATIVE_INFINITY;
+				tile.centerMaxX = tile.centerMaxY = Double.POSITIVE_INFINITY;
+			}
+			else {
+				tile.centerMinX = Math.min(tile.centerMinX, cx);
+				tile.centerMinY = Math.min(tile.centerMinY, cy);
+				tile.centerMaxX = Math.max(tile.centerMaxX, cx);
+				tile.centerMaxY = Math.max(tile.centerMaxY, cy);
+			}
+
+			tile.minX = Math.min(tile.minX, minX);
+			tile.minY = Math.min(tile.minY, minY);
+			tile.maxX = Math.max(tile.maxX, maxX);
+			tile.maxY = Math.max(tile.maxY, maxY);
+		}
+
+		long offset = HEADER_SIZE + (long) tiles.length * ENTRY_SIZE;
+
+		for(int t = 0; t < tiles.length; t++) {
+
+			Tile tile = tiles[t];
+			tile.shapes = start[t + 1] - start[t];
+			tile.offset = offset;
+
+			for(int k = start[t]; k < start[t + 1]; k++) {
+				tile.length += 4 + BinaryShapeFormat.recordSize(list.get(members[k]));
+			}
+
+			if(tile.length > Integer.MAX_VALUE) {
+				throw new IOException("the shapes of one tile are too large for the tiled format");
+			}
+			offset += tile.length;
+		}
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + tiles.length * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putShort(VERSION);
+			header.putShort((short) 0);
+			header.putInt(count);
+			header.putInt(tiles.length);
+			header.putDouble(originX);
+			header.putDouble(originY);
+			header.putDouble(tileSize);
+
+			for(Tile tile : tiles) {
+				header.putInt(tile.col);
+				header.putInt(tile.row);
+				header.putInt(tile.shapes);
+				header.putLong(tile.offset);
+				header.putLong(tile.length);
+				header.putDouble(tile.minX);
+				header.putDouble(tile.minY);
+				header.putDouble(tile.maxX);
+				header.putDouble(tile.maxY);
+				header.putDouble(tile.centerMinX);
+				header.putDouble(tile.centerMinY);
+				header.putDouble(tile.centerMaxX);
+				header.putDouble(tile.centerMaxY);
+			}
+			writeFully(channel, header.flip(), 0);
+
+			// every tile knows where it goes, so they are encoded and written at the same time
+			AtomicLong written = new AtomicLong();
+			ArrayList<Callable<Void>> tasks = new ArrayList<>(tiles.length);
+
+			for(int t = 0; t < tiles.length; t++) {
+
+				Tile tile = tiles[t];
+				int from = start[t];
+
+				tasks.add(() -> {
+					ByteBuffer body = ByteBuffer.allocate((int) tile.length).order(ByteOrder.LITTLE_ENDIAN);
+
+					for(int k = from; k < from + tile.shapes; k++) {
+						body.putInt(members[k]);
+						BinaryShapeFormat.writeShape(body, list.get(members[k]));
+					}
+					writeFully(channel, body.flip(), tile.offset);
+
+					progress.checkpoint(written.addAndGet(tile.shapes), count);
+					return null;
+				});
+			}
+
+			ParallelChunks.run(tasks);
+		}
+	}
+
+	/**
+	 * Reads all the shapes in a file.
+	 *
+	 * @param file The file to read.
+	 * @param progress Receives the number of shapes read and can cancel the read.
+	 * @return The top-level shapes, in drawing order.
+	 * @throws IOException If the file cannot be read, is not in this format or the read is cancelled.
+	 */
+	public static ArrayList<MyShape> read(File file, FileProgress progress) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return read(channel, progress);
+		}
+	}
+
+	/**
+	 * Reads all the shapes in an open file.
+	 *
+	 * @param channel The file. Its position is not changed.
+	 * @param progress Receives the number of shapes read and can cancel the read.
+	 * @return The top-level shapes, in drawing order.
+	 * @throws IOException If the file cannot be read, is not in this format or the read is cancelled.
+	 */
+	public static ArrayList<MyShape> read(FileChannel channel, FileProgress progress) throws IOException {
+
+		Tile[] tiles = readDirectory(channel);
+
+		long total = 0;
+
+		for(Tile tile : tiles) {
+			total += tile.shapes;
+		}
+
+		// readDirectory checked that this is the number of shapes in the header
+		int count = (int) total;
+
+		MyShape[] byOrder = new MyShape[count];
+		AtomicLong read = new AtomicLong();
+		ArrayList<Callable<TileShapes>> tasks = new ArrayList<>(tiles.length);
+
+		for(Tile tile : tiles) {
+
+			tasks.add(() -> {
+				TileShapes decoded = readTile(channel, tile, count);
+
+				progress.checkpoint(read.addAndGet(tile.shapes), count);
+				return decoded;
+			});
+		}
+
+		for(TileShapes decoded : ParallelChunks.run(tasks)) {
+
+			for(int k = 0; k < decoded.orders.length; k++) {
+
+				if(byOrder[decoded.orders[k]] != null) {
+					throw new DrawingFormatException("two shapes are at position " + decoded.orders[k] + " of the drawing");
+				}
+				byOrder[decoded.orders[k]] = decoded.shapes.get(k);
+			}
+		}
+
+		// the positions are in range and no two are the same, so every position is filled
+		return new ArrayList<>(Arrays.asList(byOrder));
+	}
+
+	/**
+	 * Checks the header of a file and reads its tile directory.
+	 *
+	 * @param channel The file. Its position is not changed.
+	 * @return The tiles, whose shapes add up to the number of shapes in the header.
+	 * @throws IOException If the file cannot be read or is not in this format.
+	 */
+	public static Tile[] readDirectory(FileChannel channel) throws IOException {
+
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		if(size < HEADER_SIZE || !readFully(channel, header, 0) || header.getInt(0) != MAGIC) {
+			throw new DrawingFormatException("not a tiled drawing file");
+		}
+
+		short version = header.getShort(4);
+		int count = header.getInt(8);
+		int tileCount = header.getInt(12);
+
+		if(version > VERSION) {
+			throw new DrawingFormatException("the file is version " + version + " but only versions up to " + VERSION + " can be read");
+		}
+		if(count < 0 || tileCount < 0 || tileCount > (size - HEADER_SIZE) / ENTRY_SIZE) {
+			throw new DrawingFormatException("bad tile directory");
+		}
+
+		ByteBuffer directory = ByteBuffer.allocate(tileCount * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		if(!readFully(channel, directory, HEADER_SIZE)) {
+			throw new DrawingFormatException("the file ended in the middle of the tile directory");
+		}
+		directory.flip();
+
+		Tile[] tiles = new Tile[tileCount];
+		long total = 0;
+
+		for(int t = 0; t < tileCount; t++) {
+
+			Tile tile = new Tile();
+			tile.col = directory.getInt();
+			tile.row = directory.getInt();
+			tile.shapes = directory.getInt();
+			tile.offset = directory.getLong();
+			tile.length = directory.getLong();
+			tile.minX = directory.getDouble();
+			tile.minY = directory.getDouble();
+			tile.maxX = directory.getDouble();
+			tile.maxY = directory.getDouble();
+			tile.centerMinX = directory.getDouble();
+			tile.centerMinY = directory.getDouble();
+			tile.centerMaxX = directory.getDouble();
+			tile.centerMaxY = directory.getDouble();
+
+			if(tile.shapes < 0 || tile.offset < HEADER_SIZE || tile.length < 0 || tile.length > Integer.MAX_VALUE
+					|| tile.offset > size - tile.length || tile.shapes > tile.length / (4 + BinaryShapeFormat.SHAPE_SIZE)) {
+				throw new DrawingFormatException("bad entry for tile " + t + " in the tile directory");
+			}
+
+			total += tile.shapes;
+			tiles[t] = tile;
+		}
+
+		if(total != count) {
+			throw new DrawingFormatException("the tiles hold " + total + " shapes but the drawing has " + count);
+		}
+		return tiles;
+	}
+
+	/**
+	 * Reads and decodes the shapes of one tile.
+	 *
+	 * @param channel The file. Its position is not changed, so several tiles can be read at once.
+	 * @param tile The tile, from readDirectory.
+	 * @param count The number of shapes in the drawing, which every position must be below.
+	 * @return The shapes and their positions in the drawing.
+	 * @throws IOException If the file cannot be read or the tile is malformed.
+	 */
+	public static TileShapes readTile(FileChannel channel, Tile tile, int count) throws IOException {
+
+		ByteBuffer body = ByteBuffer.allocate((int) tile.length).order(ByteOrder.LITTLE_ENDIAN);
+
+		if(!readFully(channel, body, tile.offset)) {
+			throw new DrawingFormatException("the file ended in the middle of the tile at offset " + tile.offset);
+		}
+		body.flip();
+
+		TileShapes decoded = new TileShapes();
+		decoded.orders = new int[tile.shapes];
+		decoded.shapes = new ArrayList<>(tile.shapes);
+
+		for(int k = 0; k < tile.shapes; k++) {
+
+			if(body.remaining() < 4) {
+				throw new DrawingFormatException("the tile at offset " + tile.offset + " ended in the middle of a record");
+			}
+
+			int order = body.getInt();
+
+			if(order < 0 || order >= count) {
+				throw new DrawingFormatException("bad position " + order + " in the tile at offset " + tile.offset);
+			}
+
+			MyShape s = BinaryShapeFormat.readShape(body, tile.offset + body.position());
+			body.position(body.position() + BinaryShapeFormat.recordSize(s));
+
+			decoded.orders[k] = order;
+			decoded.shapes.add(s);
+		}
+
+		if(body.hasRemaining()) {
+			throw new DrawingFormatException("the tile at offset " + tile.offset + " does not match its length");
+		}
+		return decoded;
+	}
+
+	/**
+	 * Checks whether a file is in this format.
+	 *
+	 * @param file The file to check.
+	 * @return true if the file starts with the magic number of this format.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static boolean isTiled(File file) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			ByteBuffer start = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			return readFully(channel, start, 0) && start.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Picks the width of a tile so that shapes spread evenly over an area come about TILE_SHAPES to a tile.
+	 */
+	private static double tileSize(double w, double h, int count) {
+
+		long wanted = Math.max(1, Math.min(MAX_TILES, count / TILE_SHAPES));
+		double size = Math.sqrt(w * h / wanted);
+
+		// shapes along a line, or all at one point
+		if(!(size > 0) || Double.isInfinite(size)) {
+			size = Math.max(w, h) / wanted;
+		}
+		if(!(size > 0) || Double.isInfinite(size)) {
+			size = Math.max(1, Math.max(w, h));
+		}
+		if(Double.isInfinite(size)) {
+			size = Double.MAX_VALUE;
+		}
+
+		while((Math.floor(w / size) + 1) * (Math.floor(h / size) + 1) > MAX_TILES) {
+			size *= 2;
+		}
+		return size;
+	}
+
+	private static int cell(double v, double origin, double tileSize) {
+
+		double c = Math.floor((v - origin) / tileSize);
+
+		// NaN becomes 0
+		return (int) Math.max(0, Math.min(MAX_TILES, c));
+	}
+
+	private static long key(int col, int row) {
+		return ((long) row << 32) | (col & 0xffffffffL);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+
+		while(buffer.hasRemaining()) {
+			channel.write(buffer, offset + buffer.position());
+		}
+	}
+
+	/**
+	 * Fills a buffer from the channel, starting at a file offset, without moving the channel's position.
+	 *
+	 * @return false if the file ended first.
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+
+		int start = buffer.position();
+
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, offset + buffer.position() - start) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,799 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * Storage reading the shapes of a drawing from a file in the tiled format a tile at a time.
+ *
+ * Opening a file only reads its tile directory. A tile is read the first time a viewport, hit test
+ * or region query reaches the area its shapes cover, so the tiles stream in as the view moves and
+ * memory and load time follow the area being worked on rather than the size of the file. Once more
+ * than MAX_LOADED_SHAPES shapes have been read, the tiles used least recently are dropped again,
+ * unless one of their shapes has been handed out or changed, and are read again when next reached.
+ *
+ * Shapes read from the file are indexed by their position in the drawing, so that they are drawn
+ * in the right order whichever tiles have been read. Shapes added after opening come after all of them.
+ * Removing a shape only marks its position; the file itself is never written.
+ * The file stays open until the store is cleared and no snapshot is still reading it.
+ */
+public class TiledShapeStore implements ShapeStorage {
+
+	// enough to cover a view of the densest drawings several times over
+	private static final int MAX_LOADED_SHAPES = 1 << 20;
+
+	private File file;
+	private FileChannel channel;
+	private OpenFile open;
+
+	private TiledShapeFormat.Tile[] tiles;
+	private int fileShapes;
+
+	// the shapes read from each tile, or null for tiles not read
+	private ArrayList<ArrayList<MyShape>> tileShapes;
+	private long[] lastUsed;
+	private long tick;
+	private int loadedShapes;
+
+	// positions in the drawing of the shapes not removed, those of the file first
+	private BitSet live;
+	private int size;
+	private int nextOrder;
+
+	private SpatialIndex index;
+	private IdentityHashMap<MyShape, Integer> orderOf;
+	private HashMap<Integer, MyShape> shapeOf;
+
+	// shapes that were handed out, changed or added, whose objects must stay the same
+	private Set<MyShape> kept;
+
+	private TiledShapeStore(File file, FileChannel channel, TiledShapeFormat.Tile[] tiles) {
+
+		this.file = file;
+		this.channel = channel;
+		this.tiles = tiles;
+		open = new OpenFile(channel);
+
+		for(TiledShapeFormat.Tile tile : tiles) {
+			fileShapes += tile.getShapes();
+		}
+
+		tileShapes = new ArrayList<>(Collections.nCopies(tiles.length, (ArrayList<MyShape>) null));
+		lastUsed = new long[tiles.length];
+
+		live = new BitSet(fileShapes);
+		live.set(0, fileShapes);
+		size = fileShapes;
+		nextOrder = fileShapes;
+
+		index = new SpatialIndex();
+		orderOf = new IdentityHashMap<>();
+		shapeOf = new HashMap<>();
+		kept = Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
+	/**
+	 * Opens a file in the tiled format and reads its tile directory.
+	 *
+	 * @param file The file to open.
+	 * @return The storage, which keeps the file open until it is cleared.
+	 * @throws IOException If the file cannot be read or is not in the tiled format.
+	 */
+	public static TiledShapeStore open(File file) throws IOException {
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			return new TiledShapeStore(file, channel, TiledShapeFormat.readDirectory(channel));
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Removes every shape and closes the file, or leaves that to the last snapshot still reading it.
+	 */
+	@Override
+	public void clear() {
+
+		if(open != null) {
+			open.release(file);
+		}
+
+		channel = null;
+		open = null;
+		tiles = new TiledShapeFormat.Tile[0];
+		fileShapes = 0;
+
+		tileShapes.clear();
+		lastUsed = new long[0];
+		loadedShapes = 0;
+
+		live.clear();
+		size = 0;
+		nextOrder = 0;
+
+		index.clear();
+		orderOf.clear();
+		shapeOf.clear();
+		kept.clear();
+	}
+
+	/**
+	 * Returns the number of shapes in the store, including those in tiles not read yet.
+	 *
+	 * @return the number of shapes.
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a shape after every shape already in the store. The shape is always kept as an object.
+	 *
+	 * @param s The shape to add.
+	 * @param keep Ignored, as the shape has no tile to fall back on.
+	 */
+	@Override
+	public void add(MyShape s, boolean keep) {
+
+		if(s == null || orderOf.containsKey(s)) {
+			return;
+		}
+
+		int order = nextOrder++;
+
+		live.set(order);
+		size++;
+
+		orderOf.put(s, order);
+		shapeOf.put(order, s);
+		index.insert(s, order);
+		kept.add(s);
+	}
+
+	/**
+	 * Removes a shape previously added or returned by the store.
+	 *
+	 * @param s The shape to remove.
+	 * @return true if the shape was in the store, false otherwise.
+	 */
+	@Override
+	public boolean remove(MyShape s) {
+
+		Integer order = orderOf.remove(s);
+
+		if(order == null) {
+			return false;
+		}
+		shapeOf.remove(order);
+
+		// a tile read again later leaves out the shapes whose positions are cleared
+		live.clear(order);
+		size--;
+
+		index.remove(s);
+		kept.remove(s);
+		return true;
+	}
+
+	/**
+	 * Takes in the changes to a shape. Its tile is kept from then on, so that the change is not lost.
+	 *
+	 * @param s The shape that changed.
+	 */
+	@Override
+	public void update(MyShape s) {
+
+		if(orderOf.containsKey(s)) {
+			index.update(s);
+			kept.add(s);
+		}
+	}
+
+	/**
+	 * Finds the shape whose center is closest to a point, reading the tiles that can hold a closer shape
+	 * than the closest one read so far. When several shapes are equally close, the one earliest in drawing order is returned.
+	 *
+	 * @param x X-coordinate of the point.
+	 * @param y Y-coordinate of the point.
+	 * @return Closest shape or null if the store is empty.
+	 */
+	@Override
+	public MyShape nearest(double x, double y) {
+
+		tick++;
+
+		while(true) {
+
+			MyShape best = index.nearest(x, y);
+			double bestDistance = best == null ? Double.POSITIVE_INFINITY : best.distance(x, y);
+
+			// the closest tile not read yet that could hold a shape as close, or equally close but earlier
+			int closest = -1;
+			double closestDistance = 0;
+
+			for(int t = 0; t < tiles.length; t++) {
+
+				if(tileShapes.get(t) != null) {
+					continue;
+				}
+
+				double d = tiles[t].distance(x, y);
+
+				if(!(d > bestDistance) && (closest < 0 || d < closestDistance)) {
+					closest = t;
+					closestDistance = d;
+				}
+			}
+
+			if(closest < 0) {
+
+				if(best != null) {
+					kept.add(best);
+				}
+				return best;
+			}
+			load(new int[] { closest });
+		}
+	}
+
+	/**
+	 * Finds the shapes whose center lies inside a rectangle, edges included, reading the tiles that reach it.
+	 *
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @return The matching shapes in drawing order.
+	 */
+	@Override
+	public ArrayList<MyShape> within(double minX, double minY, double maxX, double maxY) {
+
+		reach(minX, minY, maxX, maxY, true);
+
+		ArrayList<MyShape> found = index.within(minX, minY, maxX, maxY);
+		kept.addAll(found);
+		return found;
+	}
+
+	/**
+	 * Draws, in drawing order, the shapes whose drawn area intersects a rectangle, reading the tiles that reach it.
+	 *
+	 * @param gc The graphics context to use for drawing.
+	 * @param minX The left edge of the rectangle.
+	 * @param minY The top edge of the rectangle.
+	 * @param maxX The right edge of the rectangle.
+	 * @param maxY The bottom edge of the rectangle.
+	 * @param skip A shape not to draw, or null.
+	 */
+	@Override
+	public void draw(GraphicsContext gc, double minX, double minY, double maxX, double maxY, MyShape skip) {
+
+		reach(minX, minY, maxX, maxY, false);
+
+		for(MyShape s : index.query(minX, minY, maxX, maxY)) {
+
+			if(s != skip) {
+				s.draw(gc);
+			}
+		}
+	}
+
+	/**
+	 * Returns every shape in drawing order, reading every tile and keeping all of them.
+	 *
+	 * @return An ArrayList of the shapes in the store.
+	 */
+	@Override
+	public ArrayList<MyShape> toList() {
+
+		reach(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, false);
+
+		ArrayList<MyShape> result = new ArrayList<>(size);
+
+		for(MyShape s : byOrder(false)) {
+			if(s != null) {
+				result.add(s);
+			}
+		}
+
+		kept.addAll(result);
+		return result;
+	}
+
+	/**
+	 * Clones the shapes handed out, changed or added, and shares the file with the snapshot, which reads
+	 * every tile when it is first iterated and closes the file if the store has been cleared by then.
+	 *
+	 * @return The shapes in drawing order.
+	 */
+	@Override
+	public Collection<MyShape> snapshot() {
+
+		Snapshot copy = new Snapshot();
+
+		copy.file = file;
+		copy.tiles = tiles;
+		copy.fileShapes = fileShapes;
+		copy.size = size;
+		copy.nextOrder = nextOrder;
+		copy.live = (BitSet) live.clone();
+		copy.changed = new HashMap<>();
+
+		for(MyShape s : kept) {
+			copy.changed.put(orderOf.get(s), (MyShape) s.clone());
+		}
+
+		if(open != null) {
+			open.share();
+			copy.open = open;
+		}
+		return copy;
+	}
+
+	/**
+	 * Finds the shapes at positions in drawing order. The tiles not read yet are read a few at a time
+	 * until the shapes are found, since the directory does not say which tile holds which position.
+	 *
+	 * @param positions Positions counting from 0, in increasing order.
+	 * @return The shapes at the positions that hold one, in the same order.
+	 */
+	@Override
+	public ArrayList<MyShape> shapesAt(int[] positions) {
+
+		ArrayList<MyShape> found = new ArrayList<>(positions.length);
+		int order = -1;
+		int position = -1;
+		int tile = 0;
+
+		for(int p : positions) {
+
+			if(size == nextOrder) {
+				// nothing is removed, so the position is the order
+				order = p;
+				position = p;
+			}
+
+			while(position < p && order < nextOrder) {
+				order = live.nextSetBit(order + 1);
+				position++;
+
+				if(order < 0) {
+					order = nextOrder;
+				}
+			}
+
+			if(order >= nextOrder) {
+				break;
+			}
+
+			MyShape s = shapeOf.get(order);
+
+			// goes round the tiles from where the last search stopped, looking at each at most once
+			for(int looked = 0; s == null && looked < tiles.length; ) {
+
+				int[] batch = new int[ParallelChunks.window()];
+				int n = 0;
+
+				for(; looked < tiles.length && n < batch.length; looked++, tile = (tile + 1) % tiles.length) {
+					if(tileShapes.get(tile) == null) {
+						batch[n++] = tile;
+					}
+				}
+
+				if(n > 0) {
+					// a new tick lets the batches read before this one be dropped again
+					tick++;
+					load(Arrays.copyOf(batch, n));
+					s = shapeOf.get(order);
+				}
+			}
+
+			if(s != null) {
+				kept.add(s);
+				found.add(s);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds where shapes are in drawing order by counting the positions left before theirs.
+	 *
+	 * @param shapes Shapes previously added or returned by the store. Others are ignored.
+	 * @return The positions of the stored ones, counting from 0, in increasing order.
+	 */
+	@Override
+	public int[] positions(Collection<? extends MyShape> shapes) {
+
+		int[] found = new int[shapes.size()];
+		int n = 0;
+
+		for(MyShape s : shapes) {
+
+			Integer order = orderOf.get(s);
+
+			if(order != null) {
+				found[n++] = order;
+			}
+		}
+
+		found = Arrays.stream(found, 0, n).sorted().distinct().toArray();
+
+		int before = 0;
+		int from = 0;
+
+		for(int i = 0; i < found.length; i++) {
+
+			before += live.get(from, found[i]).cardinality();
+			from = found[i];
+			found[i] = before;
+		}
+		return found;
+	}
+
+	/**
+	 * Iterates over the shapes in drawing order. The tiles not read yet are decoded for the iteration only.
+	 *
+	 * @return An iterator over the shapes in the store.
+	 */
+	@Override
+	public Iterator<MyShape> iterator() {
+
+		MyShape[] all = byOrder(true);
+
+		return new Iterator<MyShape>() {
+
+			private int i = advance(0);
+
+			private int advance(int from) {
+
+				while(from < all.length && all[from] == null) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return i < all.length;
+			}
+
+			@Override
+			public MyShape next() {
+
+				if(i >= all.length) {
+					throw new NoSuchElementException();
+				}
+
+				MyShape s = all[i];
+				i = advance(i + 1);
+				return s;
+			}
+		};
+	}
+
+	/**
+	 * Lays out the shapes by their position in the drawing, with null for the positions of removed shapes.
+	 *
+	 * @param unread True to also decode the tiles not read yet, without keeping them.
+	 */
+	private MyShape[] byOrder(boolean unread) {
+
+		MyShape[] all = new MyShape[nextOrder];
+
+		for(Map.Entry<Integer, MyShape> e : shapeOf.entrySet()) {
+			all[e.getKey()] = e.getValue();
+		}
+
+		if(!unread) {
+			return all;
+		}
+
+		int[] missing = unreadTiles(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, false);
+
+		for(TiledShapeFormat.TileShapes decoded : readTiles(missing)) {
+
+			if(decoded == null) {
+				continue;
+			}
+
+			int[] orders = decoded.getOrders();
+
+			for(int k = 0; k < orders.length; k++) {
+				if(live.get(orders[k])) {
+					all[orders[k]] = decoded.getShapes().get(k);
+				}
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * Reads the tiles that can hold shapes drawn in, or centered in, a rectangle, and marks every such tile as just used.
+	 */
+	private void reach(double minX, double minY, double maxX, double maxY, boolean byCenter) {
+
+		tick++;
+
+		for(int t = 0; t < tiles.length; t++) {
+			if(tileShapes.get(t) != null && tiles[t].intersects(minX, minY, maxX, maxY, byCenter)) {
+				lastUsed[t] = tick;
+			}
+		}
+
+		int[] missing = unreadTiles(minX, minY, maxX, maxY, byCenter);
+
+		if(missing.length > 0) {
+			load(missing);
+		}
+	}
+
+	private int[] unreadTiles(double minX, double minY, double maxX, double maxY, boolean byCenter) {
+
+		int[] found = new int[tiles.length];
+		int n = 0;
+
+		for(int t = 0; t < tiles.length; t++) {
+			if(tileShapes.get(t) == null && tiles[t].intersects(minX, minY, maxX, maxY, byCenter)) {
+				found[n++] = t;
+			}
+		}
+		return Arrays.copyOf(found, n);
+	}
+
+	/**
+	 * Reads tiles, several at a time, and indexes the shapes in them that have not been removed.
+	 * Then drops the tiles used least recently if too many shapes are read.
+	 */
+	private void load(int[] wanted) {
+
+		ArrayList<TiledShapeFormat.TileShapes> decoded = readTiles(wanted);
+
+		for(int i = 0; i < wanted.length; i++) {
+
+			int t = wanted[i];
+			ArrayList<MyShape> shapes = new ArrayList<>();
+
+			// a tile that could not be read is taken as empty, so that it is not tried again
+			if(decoded.get(i) == null) {
+				size -= tiles[t].getShapes();
+			}
+			else {
+
+				int[] orders = decoded.get(i).getOrders();
+
+				for(int k = 0; k < orders.length; k++) {
+
+					MyShape s = decoded.get(i).getShapes().get(k);
+
+					if(live.get(orders[k])) {
+						orderOf.put(s, orders[k]);
+						shapeOf.put(orders[k], s);
+						index.insert(s, orders[k]);
+						shapes.add(s);
+					}
+				}
+			}
+
+			tileShapes.set(t, shapes);
+			lastUsed[t] = tick;
+			loadedShapes += shapes.size();
+		}
+
+		evict();
+	}
+
+	/**
+	 * Decodes tiles on several cores. A tile that cannot be read is reported and comes back as null.
+	 */
+	private ArrayList<TiledShapeFormat.TileShapes> readTiles(int[] wanted) {
+		return readTiles(file, channel, tiles, fileShapes, wanted);
+	}
+
+	private static ArrayList<TiledShapeFormat.TileShapes> readTiles(File file, FileChannel channel, TiledShapeFormat.Tile[] tiles,
+			int fileShapes, int[] wanted) {
+
+		ArrayList<Callable<TiledShapeFormat.TileShapes>> tasks = new ArrayList<>(wanted.length);
+
+		for(int t : wanted) {
+
+			TiledShapeFormat.Tile tile = tiles[t];
+
+			tasks.add(() -> {
+				try {
+					return TiledShapeFormat.readTile(channel, tile, fileShapes);
+				}
+				catch(IOException e) {
+					System.err.println(file + ": a tile could not be read: " + e.getMessage());
+					return null;
+				}
+			});
+		}
+
+		try {
+			return ParallelChunks.run(tasks);
+		}
+		catch(IOException e) {
+			// the tasks report their own errors
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Drops the tiles used least recently, apart from those just used and those holding kept shapes,
+	 * until no more than MAX_LOADED_SHAPES shapes are read.
+	 */
+	private void evict() {
+
+		while(loadedShapes > MAX_LOADED_SHAPES) {
+
+			int oldest = -1;
+
+			for(int t = 0; t < tiles.length; t++) {
+
+				if(tileShapes.get(t) == null || lastUsed[t] == tick || (oldest >= 0 && lastUsed[t] >= lastUsed[oldest])) {
+					continue;
+				}
+				if(!holdsKept(t)) {
+					oldest = t;
+				}
+			}
+
+			if(oldest < 0) {
+				return;
+			}
+
+			for(MyShape s : tileShapes.get(oldest)) {
+				Integer order = orderOf.remove(s);
+
+				if(order != null) {
+					shapeOf.remove(order);
+					index.remove(s);
+				}
+			}
+
+			loadedShapes -= tileShapes.get(oldest).size();
+			tileShapes.set(oldest, null);
+		}
+	}
+
+	private boolean holdsKept(int t) {
+
+		for(MyShape s : tileShapes.get(t)) {
+			if(kept.contains(s)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The open file, shared by the store and its snapshots and closed once none of them needs it.
+	 */
+	private static class OpenFile {
+
+		private final FileChannel channel;
+		private int users = 1;
+
+		private OpenFile(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private synchronized void share() {
+			users++;
+		}
+
+		private synchronized void release(File file) {
+
+			if(--users > 0) {
+				return;
+			}
+
+			try {
+				channel.close();
+			}
+			catch(IOException e) {
+				System.err.println("could not close " + file);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * The shapes as they were when snapshot was called. The tiles are read, and the file released,
+	 * the first time the snapshot is iterated.
+	 */
+	private static class Snapshot extends AbstractCollection<MyShape> {
+
+		private File file;
+		private OpenFile open;
+		private TiledShapeFormat.Tile[] tiles;
+		private int fileShapes;
+
+		private int size, nextOrder;
+		private BitSet live;
+		private HashMap<Integer, MyShape> changed;
+
+		private ArrayList<MyShape> shapes;
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<MyShape> iterator() {
+			return shapes().iterator();
+		}
+
+		private synchronized ArrayList<MyShape> shapes() {
+
+			if(shapes != null) {
+				return shapes;
+			}
+
+			MyShape[] all = new MyShape[nextOrder];
+
+			if(open != null) {
+
+				int[] every = new int[tiles.length];
+
+				for(int t = 0; t < tiles.length; t++) {
+					every[t] = t;
+				}
+
+				try {
+					for(TiledShapeFormat.TileShapes decoded : readTiles(file, open.channel, tiles, fileShapes, every)) {
+
+						if(decoded == null) {
+							continue;
+						}
+
+						int[] orders = decoded.getOrders();
+
+						for(int k = 0; k < orders.length; k++) {
+							if(live.get(orders[k])) {
+								all[orders[k]] = decoded.getShapes().get(k);
+							}
+						}
+					}
+				}
+				finally {
+					open.release(file);
+					open = null;
+				}
+			}
+
+			changed.forEach((order, s) -> all[order] = s);
+
+			shapes = new ArrayList<>(size);
+
+			for(MyShape s : all) {
+				if(s != null) {
+					shapes.add(s);
+				}
+			}
+			return shapes;
+		}
+	}
+}
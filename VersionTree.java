@@ -0,0 +1,480 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The edits made on a ShapeCanvas as a tree of versions, kept by ShapeCanvas.setBranchingHistory.
+ *
+ * Every edit makes a new version, a child of the version it was made in. Undo goes back to the parent and
+ * redo goes forward to the child last made or visited, so making an edit after undoing starts a branch
+ * and the edits that could have been redone stay in the tree. Any version can be checked out.
+ *
+ * Every CHECKPOINT_INTERVAL versions along a branch, the drawing is kept as a checkpoint, which costs
+ * nothing with the persistent scene on and is skipped without it. Checking out a version far from the
+ * current one restores the nearest checkpoint before it and redoes only the edits after that, instead of
+ * undoing and redoing every edit in between.
+ *
+ * Shapes that are not on the canvas keep the position they had in the last version they were in, which
+ * after a checkout may be a version on another branch. So each version also remembers where the shapes
+ * its edit added were when they were added, and where those it removed were once it was made, and puts
+ * them back there before they return to the canvas: the added ones before the edit is redone, and the
+ * removed ones before it is undone.
+ *
+ * At most a set number of versions are kept, within a memory budget shared by their edits and the copies
+ * of the shapes they remember, estimated as EditHistory does, and by their checkpoints. A checkpoint is
+ * counted for what it does not share with the checkpoint taken before it, as ShapeScene.sizeSince estimates;
+ * the checkpoint the tree starts from is the drawing itself and is not counted. Beyond either limit, the oldest
+ * branch tips that are not checked out are dropped, and once the tree is a single branch, its oldest versions.
+ */
+public class VersionTree {
+
+	public static final int DEFAULT_LIMIT = EditHistory.DEFAULT_DEPTH;
+	public static final long DEFAULT_BUDGET = EditHistory.DEFAULT_BUDGET;
+	public static final int CHECKPOINT_INTERVAL = 256;
+
+	// the header and fields of a version and its list of children
+	private static final long VERSION_SIZE = 120;
+
+	private ShapeCanvas canvas;
+	private Version root, current;
+	private int limit = DEFAULT_LIMIT;
+	private long budget = DEFAULT_BUDGET;
+	private int nextNumber;
+
+	// the estimated size of the versions kept
+	private long bytes;
+
+	// every version by number, and the versions without children by number, oldest first
+	private HashMap<Integer, Version> versions = new HashMap<>();
+	private TreeMap<Integer, Version> tips = new TreeMap<>();
+
+	// the checkpoint taken last, which the next one is counted against
+	private ShapeScene lastCheckpoint;
+
+	// where the shapes added by the edits made since the last version were when they were added,
+	// in pairs of the shape and a copy of it, and the shapes removed by them
+	private ArrayList<MyShape> born = new ArrayList<>();
+	private ArrayList<MyShape> died = new ArrayList<>();
+
+	/**
+	 * One state of the drawing, reached from its parent by an edit.
+	 */
+	public static class Version {
+
+		private final int number, depth;
+		private Version parent;
+		private Edit edit;
+		private ArrayList<Version> children = new ArrayList<>(1);
+		private Version next;
+		private ShapeScene checkpoint;
+		private MyShape[] born, died;
+		private long size, checkpointSize;
+
+		private Version(int number, Version parent, Edit edit) {
+			this.number = number;
+			this.parent = parent;
+			this.edit = edit;
+			depth = parent != null ? parent.depth + 1 : 0;
+		}
+
+		/**
+		 *
+		 * @return The number of the version, counting the versions made before it in any branch.
+		 */
+		public int getNumber() {
+			return number;
+		}
+
+		/**
+		 *
+		 * @return The number of edits from the first version to this one.
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 *
+		 * @return The version this one was made in, or null for the oldest version kept.
+		 */
+		public Version getParent() {
+			return parent;
+		}
+
+		/**
+		 *
+		 * @return The versions made in this one, oldest first.
+		 */
+		public List<Version> getChildren() {
+			return Collections.unmodifiableList(children);
+		}
+
+		/**
+		 *
+		 * @return true if the drawing is kept for this version.
+		 */
+		public boolean hasCheckpoint() {
+			return checkpoint != null;
+		}
+	}
+
+	/**
+	 * Starts a tree whose only version is the drawing on a canvas as it is now.
+	 *
+	 * @param c The canvas.
+	 */
+	public VersionTree(ShapeCanvas c) {
+
+		canvas = c;
+		root = new Version(nextNumber++, null, null);
+		root.checkpoint = checkpoint();
+		root.size = VERSION_SIZE;
+		lastCheckpoint = root.checkpoint;
+		bytes = root.size;
+		current = root;
+		versions.put(root.number, root);
+		tips.put(root.number, root);
+	}
+
+	/**
+	 * Changes how many versions are kept. Versions already beyond the new limits are dropped.
+	 *
+	 * @param versions The most versions to keep.
+	 * @param memory The most memory, in bytes, the versions may take up. The checked out version is kept even if it takes up more.
+	 */
+	public void setLimits(int versions, long memory) {
+
+		if(versions < 1 || memory < 1) {
+			throw new IllegalArgumentException("the number of versions and the budget must be positive: " + versions + ", " + memory);
+		}
+		limit = versions;
+		budget = memory;
+		prune();
+	}
+
+	/**
+	 *
+	 * @return The estimated memory taken up by the versions kept, in bytes.
+	 */
+	public long memoryUsed() {
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return The version the drawing is in.
+	 */
+	public Version current() {
+		return current;
+	}
+
+	/**
+	 *
+	 * @return The oldest version kept.
+	 */
+	public Version root() {
+		return root;
+	}
+
+	/**
+	 * Finds a version by its number.
+	 *
+	 * @param number The number.
+	 * @return The version, or null if there is no such version or it has been dropped.
+	 */
+	public Version find(int number) {
+		return versions.get(number);
+	}
+
+	/**
+	 *
+	 * @return The number of versions kept.
+	 */
+	public int size() {
+		return versions.size();
+	}
+
+	/**
+	 * Notes an edit as it is made, before it is added, to remember where the shapes it adds and removes are.
+	 * ShapeCanvas.addEdit calls it for every edit, including those made between beginEdit and commitEdit.
+	 *
+	 * @param edit The edit.
+	 * @throws IllegalArgumentException If the edit has no shape, which only an edit made of others may lack.
+	 */
+	public void made(Edit edit) {
+
+		MyShape s = edit.getShape();
+
+		if(s == null && !(edit instanceof CompositeEdit)) {
+			throw new IllegalArgumentException(edit.getClass().getSimpleName() + " has no shape");
+		}
+
+		if(edit instanceof DrawEdit || edit instanceof CopyEdit) {
+			born.add(s);
+			born.add((MyShape) s.clone());
+		}
+		else if(edit instanceof DeleteEdit) {
+			died.add(s);
+		}
+		else if(edit instanceof GroupEdit) {
+
+			// the members were already on the canvas, so only the group's own rectangle is put back
+			ShapeGroup position = new ShapeGroup();
+			position.setP1(s.getX1(), s.getY1());
+			position.setP2(s.getX2(), s.getY2());
+
+			born.add(s);
+			born.add(position);
+
+			died.addAll(((ShapeGroup) s).getMembers());
+		}
+	}
+
+	/**
+	 * Adds a version made by an edit to the current version, and checks it out.
+	 *
+	 * @param edit The edit, which has already been done.
+	 */
+	public void add(Edit edit) {
+
+		Version v = new Version(nextNumber++, current, edit);
+
+		if(!born.isEmpty()) {
+			v.born = born.toArray(new MyShape[0]);
+			born.clear();
+		}
+		if(!died.isEmpty()) {
+
+			// copied only now, since a later edit in the same step can still move them, as moving a group moves its members
+			v.died = new MyShape[2 * died.size()];
+
+			for(int i = 0; i < died.size(); i++) {
+				v.died[2 * i] = died.get(i);
+				v.died[2 * i + 1] = (MyShape) died.get(i).clone();
+			}
+			died.clear();
+		}
+		if(v.depth % CHECKPOINT_INTERVAL == 0) {
+			v.checkpoint = checkpoint();
+
+			if(v.checkpoint != null) {
+				v.checkpointSize = v.checkpoint.sizeSince(lastCheckpoint != null ? lastCheckpoint : ShapeScene.EMPTY);
+				lastCheckpoint = v.checkpoint;
+			}
+		}
+		v.size = VERSION_SIZE + v.checkpointSize + edit.retainedSize() + sizeOf(v.born) + sizeOf(v.died);
+		bytes += v.size;
+
+		current.children.add(v);
+		current.next = v;
+		tips.remove(current.number);
+
+		versions.put(v.number, v);
+		tips.put(v.number, v);
+		current = v;
+
+		prune();
+	}
+
+	/**
+	 * Returns the edit that made the current version, so that a following edit can be merged into it.
+	 * None is returned if other versions have been made from it or the drawing is kept for it, since
+	 * they would no longer follow on from it.
+	 *
+	 * @return The edit, or null.
+	 */
+	public Edit newest() {
+		return current.children.isEmpty() && current.checkpoint == null ? current.edit : null;
+	}
+
+	/**
+	 * Goes back to the parent of the current version, if it has been kept.
+	 */
+	public void undo() {
+
+		if(current.parent == null) {
+			return;
+		}
+
+		restore(current.died);
+		current.edit.undo();
+		current.parent.next = current;
+		current = current.parent;
+	}
+
+	/**
+	 * Goes forward to the child of the current version made or visited last, if any.
+	 */
+	public void redo() {
+
+		if(current.next == null) {
+			return;
+		}
+
+		current = current.next;
+		restore(current.born);
+		current.edit.redo();
+	}
+
+	/**
+	 * Puts the drawing in any version. It is reached either by undoing to the version both have in common
+	 * and redoing from there, or by restoring the nearest checkpoint before it and redoing from that,
+	 * whichever redoes fewer edits. Redo then follows the branch of the version.
+	 *
+	 * @param target The version.
+	 */
+	public void checkout(Version target) {
+
+		if(versions.get(target.number) != target) {
+			throw new IllegalArgumentException("version " + target.number + " is not in the tree");
+		}
+
+		// the version both branches come from
+		Version a = current, b = target;
+
+		while(a.depth > b.depth) {
+			a = a.parent;
+		}
+		while(b.depth > a.depth) {
+			b = b.parent;
+		}
+		while(a != b) {
+			a = a.parent;
+			b = b.parent;
+		}
+
+		int walk = current.depth - a.depth + target.depth - a.depth;
+
+		// the nearest checkpoint before the target that would save a whole interval of edits
+		Version saved = target;
+
+		while(saved != null && saved.checkpoint == null && target.depth - saved.depth + CHECKPOINT_INTERVAL < walk) {
+			saved = saved.parent;
+		}
+		if(saved != null && (saved.checkpoint == null || target.depth - saved.depth + CHECKPOINT_INTERVAL >= walk)) {
+			saved = null;
+		}
+
+		canvas.beginEdit();
+
+		try {
+			Version from;
+
+			if(saved != null) {
+				canvas.restoreShapes(saved.checkpoint);
+				from = saved;
+			}
+			else {
+				while(current != a) {
+					undo();
+				}
+				from = a;
+			}
+
+			ArrayList<Version> path = new ArrayList<>();
+
+			for(Version v = target; v != from; v = v.parent) {
+				path.add(v);
+			}
+
+			current = from;
+
+			for(int i = path.size() - 1; i >= 0; i--) {
+				current.next = path.get(i);
+				redo();
+			}
+		}
+		finally {
+			canvas.commitEdit();
+		}
+	}
+
+	/**
+	 * Puts shapes back where copies of them are.
+	 *
+	 * @param pairs Shapes each followed by its copy, or null.
+	 */
+	private static void restore(MyShape[] pairs) {
+
+		if(pairs != null) {
+			for(int i = 0; i < pairs.length; i += 2) {
+				pairs[i].restore(pairs[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Estimates the memory taken up by the copies in pairs of shapes and copies.
+	 */
+	private static long sizeOf(MyShape[] pairs) {
+
+		long size = 0;
+
+		if(pairs != null) {
+			// the array, and the copies, not the shapes, which are counted with the edits
+			size += 16 + 4L * pairs.length;
+
+			for(int i = 1; i < pairs.length; i += 2) {
+				size += pairs[i].retainedSize();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Keeps the drawing as it is now, if that costs nothing.
+	 */
+	private ShapeScene checkpoint() {
+
+		return canvas.getShapeScene();
+	}
+
+	/**
+	 * Drops versions until they are within the limits, keeping at least the checked out version.
+	 */
+	private void prune() {
+
+		while(versions.size() > 1 && (versions.size() > limit || bytes > budget)) {
+
+			Version tip = tips.firstEntry().getValue();
+
+			if(tip == current) {
+				Integer after = tips.higherKey(tip.number);
+				tip = after != null ? tips.get(after) : null;
+			}
+
+			if(tip != null) {
+
+				Version parent = tip.parent;
+				parent.children.remove(tip);
+
+				if(parent.next == tip) {
+					parent.next = parent.children.isEmpty() ? null : parent.children.get(parent.children.size() - 1);
+				}
+				if(parent.children.isEmpty()) {
+					tips.put(parent.number, parent);
+				}
+				tips.remove(tip.number);
+				versions.remove(tip.number);
+				bytes -= tip.size;
+			}
+			else {
+				// a single branch, so the oldest version has one child, which takes its place,
+				// and which can no longer be undone or redone into
+				Version next = root.children.get(0);
+				next.parent = null;
+				next.edit = null;
+				next.born = null;
+				next.died = null;
+
+				bytes -= root.size + next.size - VERSION_SIZE - next.checkpointSize;
+				next.size = VERSION_SIZE + next.checkpointSize;
+
+				versions.remove(root.number);
+				root = next;
+			}
+		}
+	}
+}
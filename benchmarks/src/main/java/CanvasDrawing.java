@@ -0,0 +1,189 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import javafx.scene.paint.Color;
+
+import shapeapp.bench.Drawing;
+
+/**
+ * Drawing used by the benchmarks, backed by an off-screen ShapeCanvas.
+ */
+public class CanvasDrawing implements Drawing {
+
+	private static final double WIDTH = 1920;
+	private static final double HEIGHT = 1080;
+
+	// average room around each shape, so that larger drawings cover a larger area
+	private static final double SPACING = 20;
+
+	private static final Color[] COLORS = {
+			Color.BLACK, Color.RED, Color.GREEN, Color.BLUE, Color.ORANGE, Color.PURPLE };
+
+	private ShapeCanvas canvas;
+	private ShapeGroup nested;
+	private double extent;
+
+	/**
+	 * Constructs an empty drawing.
+	 */
+	public CanvasDrawing() {
+		canvas = new ShapeCanvas(WIDTH, HEIGHT);
+	}
+
+	@Override
+	public void build(int size, long seed) {
+
+		Random random = new Random(seed);
+		ArrayList<MyShape> shapes = new ArrayList<>(size);
+
+		extent = Math.sqrt(size) * SPACING;
+
+		for(int i = 0; i < size; i++) {
+			shapes.add(randomShape(random));
+		}
+
+		canvas.clear();
+		canvas.resetView();
+		canvas.addShapes(shapes);
+		canvas.zoom(Math.min(WIDTH, HEIGHT) / extent, 0, 0);
+		nested = null;
+	}
+
+	@Override
+	public void buildNested(int size, int fanout, long seed) {
+
+		Random random = new Random(seed);
+		ArrayList<MyShape> level = new ArrayList<>(size);
+
+		extent = Math.sqrt(size) * SPACING;
+
+		for(int i = 0; i < size; i++) {
+			level.add(randomShape(random));
+		}
+
+		// group the shapes fanout at a time, then the groups, until one is left
+		do {
+			ArrayList<MyShape> next = new ArrayList<>(level.size() / fanout + 1);
+
+			for(int i = 0; i < level.size(); i += fanout) {
+
+				ShapeGroup group = new ShapeGroup();
+				group.addMembers(level.subList(i, Math.min(level.size(), i + fanout)));
+				group.setP1(0, 0);
+				group.setP2(extent, extent);
+				group.setColor(Color.LIGHTGRAY);
+				next.add(group);
+			}
+			level = next;
+		}
+		while(level.size() > 1);
+
+		nested = (ShapeGroup) level.get(0);
+
+		canvas.clear();
+		canvas.resetView();
+		canvas.addShape(nested);
+	}
+
+	private MyShape randomShape(Random random) {
+
+		double x = random.nextDouble() * extent;
+		double y = random.nextDouble() * extent;
+		double w = 2 + random.nextDouble() * SPACING;
+		double h = 2 + random.nextDouble() * SPACING;
+
+		MyShape s;
+
+		switch(random.nextInt(3)) {
+		case 0:
+			s = new Line(x, y, x + w, y + h);
+			break;
+		case 1:
+			s = new Rect(x, y, x + w, y + h);
+			break;
+		default:
+			s = new Oval(x, y, x + w, y + h);
+			break;
+		}
+
+		s.setColor(COLORS[random.nextInt(COLORS.length)]);
+		s.setFilled(random.nextBoolean());
+		return s;
+	}
+
+	@Override
+	public void setCompactStore(boolean on) {
+		canvas.setCompactStore(on);
+	}
+
+	@Override
+	public double extent() {
+		return extent;
+	}
+
+	@Override
+	public Object closestShape(double x, double y) {
+		return canvas.closestShape(x, y);
+	}
+
+	@Override
+	public void paint() {
+		canvas.paint();
+	}
+
+	@Override
+	public void toTextFile(String path) {
+		canvas.toTextFile(new File(path));
+	}
+
+	@Override
+	public void fromTextFile(String path) {
+		canvas.fromTextFile(new File(path));
+	}
+
+	@Override
+	public void toBinaryFile(String path) {
+		canvas.toBinaryFile(new File(path));
+	}
+
+	@Override
+	public void fromBinaryFile(String path) {
+		canvas.fromBinaryFile(new File(path));
+	}
+
+	@Override
+	public void toCompressedFile(String path) {
+		canvas.toCompressedFile(new File(path), CompressedShapeFormat.DEFAULT_DECIMALS);
+	}
+
+	@Override
+	public void mapBinaryFile(String path) {
+		canvas.mapBinaryFile(new File(path));
+	}
+
+	@Override
+	public void toTiledFile(String path) {
+		canvas.toTiledFile(new File(path));
+	}
+
+	@Override
+	public void openTiledFile(String path) {
+		canvas.openTiledFile(new File(path));
+	}
+
+	@Override
+	public Object cloneNested() {
+		return nested.clone();
+	}
+
+	@Override
+	public void moveNested(double dx, double dy) {
+		nested.move(dx, dy);
+	}
+
+	@Override
+	public int shapeCount() {
+		return canvas.shapeCount();
+	}
+}
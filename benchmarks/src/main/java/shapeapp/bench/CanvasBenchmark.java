@@ -0,0 +1,73 @@
+package shapeapp.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hit testing and painting on a drawing of randomly placed shapes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class CanvasBenchmark {
+
+	private static final int QUERIES = 1024;
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	@Param({ "false", "true" })
+	public boolean compact;
+
+	private Drawing drawing;
+	private double[] xs, ys;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		drawing = Drawing.create();
+		drawing.build(size, 42);
+		drawing.setCompactStore(compact);
+
+		// the same query points on every run
+		Random random = new Random(7);
+
+		xs = new double[QUERIES];
+		ys = new double[QUERIES];
+
+		for(int i = 0; i < QUERIES; i++) {
+			xs[i] = random.nextDouble() * drawing.extent();
+			ys[i] = random.nextDouble() * drawing.extent();
+		}
+	}
+
+	@Benchmark
+	public Object closestShape() {
+
+		int i = next++ & (QUERIES - 1);
+		return drawing.closestShape(xs[i], ys[i]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void paint() {
+		drawing.paint();
+	}
+}
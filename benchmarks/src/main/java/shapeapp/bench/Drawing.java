@@ -0,0 +1,114 @@
+package shapeapp.bench;
+
+/**
+ * The operations the benchmarks measure on a drawing.
+ *
+ * The application classes live in the default package, which code in a named package
+ * cannot refer to, so the benchmarks reach them through this interface. The implementation
+ * is the default-package class CanvasDrawing, loaded by name.
+ */
+public interface Drawing {
+
+	/**
+	 * Loads the default-package implementation.
+	 *
+	 * @return a new, empty drawing.
+	 */
+	static Drawing create() {
+		try {
+			return (Drawing) Class.forName("CanvasDrawing").getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("CanvasDrawing is not on the class path", e);
+		}
+	}
+
+	/**
+	 * Replaces the drawing with randomly placed lines, rectangles and ovals.
+	 * The shapes are spread so that their density is the same whatever their number,
+	 * and the view is zoomed out to show all of them.
+	 *
+	 * @param size The number of shapes.
+	 * @param seed The seed for the random placement, so that runs are repeatable.
+	 */
+	void build(int size, long seed);
+
+	/**
+	 * Replaces the drawing with a single group holding the given number of shapes.
+	 * The shapes are grouped fanout at a time, then those groups, and so on until one group is left.
+	 *
+	 * @param size The number of shapes at the bottom of the nesting.
+	 * @param fanout The number of members of each group.
+	 * @param seed The seed for the random placement.
+	 */
+	void buildNested(int size, int fanout, long seed);
+
+	/**
+	 * Selects between the object list and the compact store for the shapes.
+	 *
+	 * @param on true to keep the shapes in the compact store.
+	 */
+	void setCompactStore(boolean on);
+
+	/**
+	 * @return the width and height of the area the shapes are spread over.
+	 */
+	double extent();
+
+	/**
+	 * Calls ShapeCanvas.closestShape.
+	 *
+	 * @return the closest shape.
+	 */
+	Object closestShape(double x, double y);
+
+	/**
+	 * Calls ShapeCanvas.paint on the off-screen canvas.
+	 */
+	void paint();
+
+	void toTextFile(String path);
+
+	void fromTextFile(String path);
+
+	void toBinaryFile(String path);
+
+	void fromBinaryFile(String path);
+
+	/**
+	 * Calls ShapeCanvas.toCompressedFile with the default precision. Read the file back with fromBinaryFile.
+	 */
+	void toCompressedFile(String path);
+
+	/**
+	 * Calls ShapeCanvas.mapBinaryFile.
+	 */
+	void mapBinaryFile(String path);
+
+	/**
+	 * Calls ShapeCanvas.toTiledFile.
+	 */
+	void toTiledFile(String path);
+
+	/**
+	 * Calls ShapeCanvas.openTiledFile.
+	 */
+	void openTiledFile(String path);
+
+	/**
+	 * Clones the group built by buildNested.
+	 *
+	 * @return the copy.
+	 */
+	Object cloneNested();
+
+	/**
+	 * Moves the group built by buildNested.
+	 */
+	void moveNested(double dx, double dy);
+
+	/**
+	 * @return the number of top-level shapes in the drawing.
+	 */
+	int shapeCount();
+}
@@ -0,0 +1,118 @@
+package shapeapp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving and loading a drawing of randomly placed shapes in the text, binary, compressed and tiled formats.
+ * Each invocation handles the whole file, so the runs are timed one at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class FileBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	private Drawing drawing;
+	private Drawing loaded;
+	private File text, binary, compressed, tiled;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		drawing = Drawing.create();
+		drawing.build(size, 42);
+
+		text = File.createTempFile("shapes", ".txt");
+		binary = File.createTempFile("shapes", ".bin");
+		compressed = File.createTempFile("shapes", ".shz");
+		tiled = File.createTempFile("shapes", ".sht");
+
+		// the files read by the load benchmarks
+		drawing.toTextFile(text.getPath());
+		drawing.toBinaryFile(binary.getPath());
+		drawing.toCompressedFile(compressed.getPath());
+		drawing.toTiledFile(tiled.getPath());
+
+		loaded = Drawing.create();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		text.delete();
+		binary.delete();
+		compressed.delete();
+		tiled.delete();
+	}
+
+	@Benchmark
+	public void toTextFile() {
+		drawing.toTextFile(text.getPath());
+	}
+
+	@Benchmark
+	public int fromTextFile() {
+		loaded.fromTextFile(text.getPath());
+		return loaded.shapeCount();
+	}
+
+	@Benchmark
+	public void toBinaryFile() {
+		drawing.toBinaryFile(binary.getPath());
+	}
+
+	@Benchmark
+	public int fromBinaryFile() {
+		loaded.fromBinaryFile(binary.getPath());
+		return loaded.shapeCount();
+	}
+
+	@Benchmark
+	public void toCompressedFile() {
+		drawing.toCompressedFile(compressed.getPath());
+	}
+
+	@Benchmark
+	public int fromCompressedFile() {
+		loaded.fromBinaryFile(compressed.getPath());
+		return loaded.shapeCount();
+	}
+
+	@Benchmark
+	public int mapBinaryFile() {
+		loaded.mapBinaryFile(binary.getPath());
+		return loaded.shapeCount();
+	}
+
+	@Benchmark
+	public void toTiledFile() {
+		drawing.toTiledFile(tiled.getPath());
+	}
+
+	@Benchmark
+	public int openTiledFile() {
+		loaded.openTiledFile(tiled.getPath());
+		loaded.paint();
+		return loaded.shapeCount();
+	}
+}
@@ -0,0 +1,58 @@
+package shapeapp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cloning and moving a group of shapes nested several levels deep.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class GroupBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	// members per group; 1M shapes in groups of 8 nest 7 levels deep
+	@Param({ "8" })
+	public int fanout;
+
+	private Drawing drawing;
+	private double step = 1;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		drawing = Drawing.create();
+		drawing.buildNested(size, fanout, 42);
+	}
+
+	@Benchmark
+	public Object cloneNested() {
+		return drawing.cloneNested();
+	}
+
+	@Benchmark
+	public void moveNested() {
+
+		// back and forth, so the coordinates do not drift
+		drawing.moveNested(step, step);
+		step = -step;
+	}
+}
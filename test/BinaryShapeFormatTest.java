@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes drawings in the binary format and reads them back, and checks that damaged files are refused.
+ */
+public class BinaryShapeFormatTest {
+
+	@TempDir
+	File dir;
+
+	@Test
+	public void binaryRoundTrip() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(1), 5000);
+		File f = new File(dir, "drawing.bin");
+
+		ShapeCanvas.writeBinaryFile(f, shapes.size(), shapes, FileProgress.NONE);
+
+		assertTrue(BinaryShapeFormat.isBinary(f));
+		assertEquals(TestDrawings.describe(shapes), TestDrawings.describe(ShapeCanvas.readFile(f, FileProgress.NONE)));
+	}
+
+	@Test
+	public void emptyDrawing() throws IOException {
+
+		File f = new File(dir, "empty.bin");
+
+		BinaryShapeFormat.write(f, 0, List.of());
+
+		assertEquals(List.of(), BinaryShapeFormat.read(f));
+	}
+
+	@Test
+	public void wrongCount() {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(60), 10);
+
+		assertThrows(IllegalArgumentException.class, () -> BinaryShapeFormat.write(new File(dir, "more.bin"), 9, shapes));
+		assertThrows(IllegalArgumentException.class, () -> BinaryShapeFormat.write(new File(dir, "fewer.bin"), 11, shapes));
+	}
+
+	@Test
+	public void notBinary() throws IOException {
+
+		File f = new File(dir, "drawing.txt");
+		Files.write(f.toPath(), "1\nRect 1 2 3 4 0 0 0 true\n".getBytes(StandardCharsets.US_ASCII));
+
+		assertThrows(DrawingFormatException.class, () -> BinaryShapeFormat.read(f));
+	}
+
+	@Test
+	public void truncated() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(61), 1000);
+		File f = new File(dir, "short.bin");
+
+		BinaryShapeFormat.write(f, shapes.size(), shapes);
+
+		try(RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.setLength(file.length() / 2);
+		}
+
+		assertThrows(DrawingFormatException.class, () -> BinaryShapeFormat.read(f));
+	}
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Makes edits between beginEdit and commitEdit and checks that they are undone and redone as one step,
+ * with the linear undo history and with the branching history.
+ */
+public class CompositeEditTest {
+
+	private static ShapeCanvas canvas(boolean branching, long seed) {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.setBranchingHistory(branching);
+		canvas.replaceShapes(TestDrawings.randomShapes(new Random(seed), 200));
+		return canvas;
+	}
+
+	@Test
+	public void undoneInOneStep() {
+
+		for(boolean branching : new boolean[] { false, true }) {
+
+			ShapeCanvas canvas = canvas(branching, 140);
+			Random r = new Random(141);
+
+			TestDrawings.randomEdit(canvas, r);
+			List<String> before = TestDrawings.state(canvas);
+
+			canvas.beginEdit();
+
+			for(int i = 0; i < 50; i++) {
+				TestDrawings.randomEdit(canvas, r);
+			}
+			canvas.commitEdit();
+
+			List<String> after = TestDrawings.state(canvas);
+
+			canvas.undo();
+			assertEquals(before, TestDrawings.state(canvas), branching ? "branching" : "linear");
+			canvas.redo();
+			assertEquals(after, TestDrawings.state(canvas), branching ? "branching" : "linear");
+			canvas.undo();
+			assertEquals(before, TestDrawings.state(canvas), branching ? "branching" : "linear");
+		}
+	}
+
+	@Test
+	public void nestedEditsAreOne() {
+
+		ShapeCanvas canvas = canvas(false, 142);
+		Random r = new Random(143);
+
+		TestDrawings.randomEdit(canvas, r);
+		List<String> before = TestDrawings.state(canvas);
+
+		canvas.beginEdit();
+		TestDrawings.randomEdit(canvas, r);
+		canvas.beginEdit();
+		TestDrawings.randomEdit(canvas, r);
+		TestDrawings.randomEdit(canvas, r);
+		canvas.commitEdit();
+		TestDrawings.randomEdit(canvas, r);
+		canvas.commitEdit();
+
+		canvas.undo();
+		assertEquals(before, TestDrawings.state(canvas));
+	}
+
+	@Test
+	public void emptyEditAddsNoStep() {
+
+		ShapeCanvas canvas = canvas(false, 144);
+		List<String> before = TestDrawings.state(canvas);
+
+		TestDrawings.randomEdit(canvas, new Random(145));
+
+		canvas.beginEdit();
+		canvas.commitEdit();
+
+		// the undo reaches the edit made before
+		canvas.undo();
+		assertEquals(before, TestDrawings.state(canvas));
+	}
+
+	@Test
+	public void commitWithoutBegin() {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+
+		assertThrows(IllegalStateException.class, canvas::commitEdit);
+	}
+
+	@Test
+	public void largeGroup() {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		ArrayList<MyShape> members = TestDrawings.randomShapes(new Random(146), 100000);
+		canvas.replaceShapes(members);
+		List<String> before = TestDrawings.state(canvas);
+
+		ShapeGroup g = new ShapeGroup();
+		g.setP1(0, 0);
+		g.setP2(800, 600);
+		g.addMembers(members);
+		canvas.deleteShapes(members);
+		canvas.addShape(g);
+		canvas.addEdit(new GroupEdit(canvas, g));
+		List<String> grouped = TestDrawings.state(canvas);
+
+		// the members come back in one pass over the drawing, and the group goes again in another
+		canvas.undo();
+		assertEquals(before, TestDrawings.state(canvas));
+		canvas.redo();
+		assertEquals(grouped, TestDrawings.state(canvas));
+		assertEquals(1, canvas.shapeCount());
+	}
+}
@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Writes drawings in the compressed format and reads them back, and checks that coordinates are rounded
+ * to the precision asked for and that damaged files are refused.
+ */
+public class CompressedShapeFormatTest {
+
+	@TempDir
+	File dir;
+
+	@Test
+	public void compressedRoundTrip() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(1), 5000);
+		File f = new File(dir, "drawing.shz");
+
+		ShapeCanvas.writeCompressedFile(f, shapes.size(), shapes, CompressedShapeFormat.DEFAULT_DECIMALS, FileProgress.NONE);
+
+		assertTrue(CompressedShapeFormat.isCompressed(f));
+		assertEquals(TestDrawings.describe(shapes), TestDrawings.describe(ShapeCanvas.readFile(f, FileProgress.NONE)));
+	}
+
+	@Test
+	public void severalBlocks() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(90), 2 * CompressedShapeFormat.BLOCK_SHAPES + 100);
+		File parallel = new File(dir, "parallel.shz");
+		File sequential = new File(dir, "sequential.shz");
+
+		// a list is compressed a block per core, other collections one block after another
+		CompressedShapeFormat.write(parallel, shapes.size(), shapes, CompressedShapeFormat.DEFAULT_DECIMALS, FileProgress.NONE);
+		CompressedShapeFormat.write(sequential, shapes.size(), Collections.unmodifiableCollection(shapes),
+				CompressedShapeFormat.DEFAULT_DECIMALS, FileProgress.NONE);
+
+		assertArrayEquals(Files.readAllBytes(parallel.toPath()), Files.readAllBytes(sequential.toPath()));
+		assertEquals(TestDrawings.describe(shapes), TestDrawings.describe(CompressedShapeFormat.read(parallel, FileProgress.NONE)));
+	}
+
+	@Test
+	public void roundsToDecimals() throws IOException {
+
+		Rect r = new Rect(1.23456, -7.891011, 1000.0051, 0.004);
+		r.setColor(Color.rgb(10, 20, 30));
+		File f = new File(dir, "rounded.shz");
+
+		CompressedShapeFormat.write(f, 1, List.of(r), 2, FileProgress.NONE);
+		MyShape read = CompressedShapeFormat.read(f, FileProgress.NONE).get(0);
+
+		assertEquals(1.23, read.getX1(), 1e-12);
+		assertEquals(-7.89, read.getY1(), 1e-12);
+		assertEquals(1000.01, read.getX2(), 1e-9);
+		assertEquals(0.0, read.getY2(), 1e-12);
+		assertEquals(r.getColor(), read.getColor());
+	}
+
+	@Test
+	public void emptyDrawing() throws IOException {
+
+		File f = new File(dir, "empty.shz");
+
+		CompressedShapeFormat.write(f, 0, List.of(), CompressedShapeFormat.DEFAULT_DECIMALS, FileProgress.NONE);
+
+		assertEquals(List.of(), CompressedShapeFormat.read(f, FileProgress.NONE));
+	}
+
+	@Test
+	public void badPrecision() {
+
+		File f = new File(dir, "bad.shz");
+
+		assertThrows(IllegalArgumentException.class, () -> CompressedShapeFormat.write(f, 0, List.of(), -1, FileProgress.NONE));
+		assertThrows(IllegalArgumentException.class,
+				() -> CompressedShapeFormat.write(f, 0, List.of(), CompressedShapeFormat.MAX_DECIMALS + 1, FileProgress.NONE));
+	}
+
+	@Test
+	public void notCompressed() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(91), 10);
+		File f = new File(dir, "drawing.bin");
+
+		ShapeCanvas.writeBinaryFile(f, shapes.size(), shapes, FileProgress.NONE);
+
+		assertThrows(DrawingFormatException.class, () -> CompressedShapeFormat.read(f, FileProgress.NONE));
+	}
+
+	@Test
+	public void truncated() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(92), 1000);
+		File f = new File(dir, "short.shz");
+
+		CompressedShapeFormat.write(f, shapes.size(), shapes, CompressedShapeFormat.DEFAULT_DECIMALS, FileProgress.NONE);
+
+		try(RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.setLength(file.length() / 2);
+		}
+
+		assertThrows(DrawingFormatException.class, () -> CompressedShapeFormat.read(f, FileProgress.NONE));
+	}
+}
@@ -0,0 +1,188 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Makes random edits with the linear undo history and checks that undoing and redoing them
+ * goes back through the same drawings, whether the edits stayed in memory or were spilled to disk.
+ * Also checks that the history keeps within its depth and memory budget.
+ */
+public class EditHistoryTest {
+
+	private static ShapeCanvas canvas(int depth, long memory) {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.setHistoryLimits(depth, memory);
+		// merged moves would make fewer steps than edits
+		canvas.setMergeWindow(0);
+		return canvas;
+	}
+
+	/**
+	 * Makes edits, then undoes all of them and redoes all of them, checking the drawing at every step.
+	 */
+	private static void undoAndRedoAll(ShapeCanvas canvas, int edits, long seed) {
+
+		Random r = new Random(seed);
+		ArrayList<List<String>> states = new ArrayList<>();
+		states.add(TestDrawings.state(canvas));
+
+		for(int i = 0; i < edits; i++) {
+
+			// an open edit makes several edits one step
+			if(r.nextInt(20) == 0) {
+				canvas.beginEdit();
+				TestDrawings.randomEdit(canvas, r);
+				TestDrawings.randomEdit(canvas, r);
+				canvas.commitEdit();
+			}
+			else {
+				TestDrawings.randomEdit(canvas, r);
+			}
+			states.add(TestDrawings.state(canvas));
+		}
+
+		for(int i = edits - 1; i >= 0; i--) {
+			canvas.undo();
+			assertEquals(states.get(i), TestDrawings.state(canvas), "after undoing to edit " + i);
+		}
+		for(int i = 1; i <= edits; i++) {
+			canvas.redo();
+			assertEquals(states.get(i), TestDrawings.state(canvas), "after redoing edit " + i);
+		}
+	}
+
+	@Test
+	public void undoInMemory() {
+		undoAndRedoAll(canvas(EditHistory.DEFAULT_DEPTH, EditHistory.DEFAULT_BUDGET), 1000, 5);
+	}
+
+	@Test
+	public void undoSpilled() {
+		// a budget of a few edits spills nearly all of them
+		undoAndRedoAll(canvas(EditHistory.DEFAULT_DEPTH, 4096), 1000, 6);
+	}
+
+	@Test
+	public void depthLimit() {
+
+		ShapeCanvas canvas = canvas(10, EditHistory.DEFAULT_BUDGET);
+		Random r = new Random(7);
+
+		for(int i = 0; i < 20; i++) {
+			TestDrawings.randomEdit(canvas, r);
+		}
+
+		// only the last 10 edits can be undone
+		for(int i = 0; i < 10; i++) {
+			canvas.undo();
+		}
+		List<String> oldest = TestDrawings.state(canvas);
+		canvas.undo();
+
+		assertEquals(oldest, TestDrawings.state(canvas));
+	}
+
+	@Test
+	public void budgetKeepsMemoryFlat() {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		EditHistory history = new EditHistory(canvas);
+		history.setLimits(EditHistory.DEFAULT_DEPTH, 16384);
+		Random r = new Random(130);
+
+		for(int i = 0; i < 5000; i++) {
+
+			MyShape s = TestDrawings.randomShape(r);
+			canvas.addShape(s);
+			history.add(new DrawEdit(canvas, s));
+
+			assertTrue(history.memoryUsed() <= 16384, "after edit " + i);
+		}
+		assertEquals(5000, history.undoDepth());
+
+		for(int i = 0; i < 3000; i++) {
+			history.undo();
+			assertTrue(history.memoryUsed() <= 16384, "after undo " + i);
+		}
+		assertEquals(2000, history.undoDepth());
+		assertEquals(3000, history.redoDepth());
+		assertEquals(2000, canvas.shapeCount());
+
+		// a new edit drops the redo stack, spilled edits included
+		MyShape s = TestDrawings.randomShape(r);
+		canvas.addShape(s);
+		history.add(new DrawEdit(canvas, s));
+
+		assertEquals(2001, history.undoDepth());
+		assertEquals(0, history.redoDepth());
+	}
+
+	@Test
+	public void spilledEditsKeepShapes() {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		EditHistory history = new EditHistory(canvas);
+		history.setLimits(EditHistory.DEFAULT_DEPTH, 4096);
+
+		MyShape s = TestDrawings.randomShape(new Random(131));
+		canvas.addShape(s);
+		history.add(new DrawEdit(canvas, s));
+		List<String> drawn = TestDrawings.describe(canvas.getShapes());
+
+		for(int i = 0; i < 2000; i++) {
+			canvas.moveShape(s, 1, 2);
+			history.add(new MoveEdit(canvas, s, 1, 2));
+		}
+		List<String> moved = TestDrawings.describe(canvas.getShapes());
+
+		// the moves read back from the spill file act on the shape on the canvas, not on copies of it
+		for(int i = 0; i < 2000; i++) {
+			history.undo();
+		}
+		assertSame(s, canvas.getShapes().get(0));
+		assertEquals(drawn, TestDrawings.describe(canvas.getShapes()));
+
+		for(int i = 0; i < 2000; i++) {
+			history.redo();
+		}
+		assertSame(s, canvas.getShapes().get(0));
+		assertEquals(moved, TestDrawings.describe(canvas.getShapes()));
+	}
+
+	@Test
+	public void lowerLimits() {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		EditHistory history = new EditHistory(canvas);
+		Random r = new Random(132);
+
+		for(int i = 0; i < 20; i++) {
+			MyShape s = TestDrawings.randomShape(r);
+			canvas.addShape(s);
+			history.add(new DrawEdit(canvas, s));
+		}
+
+		// edits beyond a lower depth are forgotten at once
+		history.setLimits(5, EditHistory.DEFAULT_BUDGET);
+		assertEquals(5, history.undoDepth());
+
+		assertThrows(IllegalArgumentException.class, () -> history.setLimits(0, EditHistory.DEFAULT_BUDGET));
+		assertThrows(IllegalArgumentException.class, () -> history.setLimits(5, 0));
+	}
+
+	@Test
+	public void editWithoutShape() {
+
+		ShapeCanvas canvas = canvas(EditHistory.DEFAULT_DEPTH, EditHistory.DEFAULT_BUDGET);
+
+		assertThrows(IllegalStateException.class, () -> canvas.addEdit(new DeleteEdit(canvas, null)));
+	}
+}
@@ -0,0 +1,363 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Journals edits made on a canvas, then recovers the drawing from the journal as the editor does on startup.
+ */
+public class EditJournalTest {
+
+	@TempDir
+	File dir;
+
+	/**
+	 * Opens the journal and puts the drawing it holds on a new canvas, as ShapeEditor.setupJournal does.
+	 */
+	private static ShapeCanvas open(EditJournal journal) throws IOException {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.setPersistentScene(true);
+		canvas.setBranchingHistory(true);
+		journal.recover(canvas);
+		return canvas;
+	}
+
+	/**
+	 * Recovers the drawing on a new canvas, as the editor does when it starts again, and closes the journal.
+	 */
+	private ShapeCanvas recoverCanvas() throws IOException {
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = new ShapeCanvas(800, 600);
+			journal.recover(canvas);
+			canvas.setJournal(null);
+			return canvas;
+		}
+	}
+
+	private List<String> recover() throws IOException {
+		return TestDrawings.describe(recoverCanvas().getShapes());
+	}
+
+	@Test
+	public void recoversEdits() throws IOException {
+
+		Random r = new Random(2);
+		List<String> expected;
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = open(journal);
+
+			// enough edits for the log to outgrow its snapshot several times
+			for(int i = 0; i < 2000; i++) {
+
+				int op = r.nextInt(10);
+
+				if(op == 0) {
+					canvas.undo();
+				}
+				else if(op == 1) {
+					canvas.redo();
+				}
+				else {
+					TestDrawings.randomEdit(canvas, r);
+				}
+			}
+
+			expected = TestDrawings.describe(canvas.getShapes());
+			canvas.setJournal(null);
+		}
+
+		assertEquals(expected, recover());
+	}
+
+	@Test
+	public void recoversDrag() throws IOException {
+
+		List<String> expected;
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = open(journal);
+			canvas.replaceShapes(TestDrawings.randomShapes(new Random(3), 100));
+
+			MyShape dragged = canvas.getShapes().get(50);
+			canvas.beginInteraction(dragged);
+
+			for(int i = 0; i < 100; i++) {
+				canvas.moveShape(dragged, 1.5, -0.5);
+			}
+			canvas.endInteraction();
+
+			expected = TestDrawings.describe(canvas.getShapes());
+			canvas.setJournal(null);
+		}
+
+		assertEquals(expected, recover());
+	}
+
+	@Test
+	public void recoversDeletesAndMoves() throws IOException {
+
+		Random r = new Random(80);
+		List<String> expected;
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = open(journal);
+			canvas.replaceShapes(TestDrawings.randomShapes(r, 3000));
+
+			// deletes all over the drawing between moves, so positions are looked up after every kind of change
+			for(int i = 0; i < 1000; i++) {
+
+				ArrayList<MyShape> shapes = canvas.getShapes();
+				int op = r.nextInt(4);
+
+				if(op == 0) {
+					canvas.deleteShape(shapes.get(r.nextInt(shapes.size())));
+				}
+				else if(op == 1) {
+					int from = r.nextInt(shapes.size() - 10);
+					canvas.deleteShapes(new ArrayList<>(shapes.subList(from, from + r.nextInt(10))));
+				}
+				else if(op == 2) {
+					canvas.addShape(TestDrawings.randomShape(r));
+				}
+				else {
+					canvas.moveShape(shapes.get(r.nextInt(shapes.size())), r.nextInt(9) - 4, r.nextInt(9) - 4);
+				}
+			}
+
+			expected = TestDrawings.describe(canvas.getShapes());
+			canvas.setJournal(null);
+		}
+
+		assertEquals(expected, recover());
+	}
+
+	@Test
+	public void recoversUpToCutShortRecord() throws IOException {
+
+		List<String> expected;
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = open(journal);
+			canvas.replaceShapes(TestDrawings.randomShapes(new Random(4), 500));
+
+			canvas.moveShape(canvas.getShapes().get(10), 20, 30);
+			expected = TestDrawings.describe(canvas.getShapes());
+
+			// the record of this move is cut short below, as by a crash while it was written
+			canvas.moveShape(canvas.getShapes().get(20), 40, 50);
+			canvas.setJournal(null);
+		}
+
+		File log = newestLog();
+
+		try(RandomAccessFile f = new RandomAccessFile(log, "rw")) {
+			f.setLength(f.length() - 1);
+		}
+
+		assertEquals(expected, recover());
+	}
+
+	@Test
+	public void recoversMappedDrawing() throws IOException {
+
+		File f = new File(dir, "drawing.bin");
+		ArrayList<MyShape> opened = TestDrawings.randomShapes(new Random(81), 2000);
+		ShapeCanvas.writeBinaryFile(f, opened.size(), opened, FileProgress.NONE);
+
+		List<String> expected;
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = new ShapeCanvas(800, 600);
+			canvas.setJournal(journal);
+			canvas.mapBinaryFile(f);
+
+			Random r = new Random(82);
+
+			for(int i = 0; i < 200; i++) {
+				canvas.moveShape(canvas.closestShape(r.nextInt(800), r.nextInt(600)), 3, -2);
+				canvas.deleteShape(canvas.closestShape(r.nextInt(800), r.nextInt(600)));
+				canvas.addShape(TestDrawings.randomShape(r));
+			}
+
+			expected = TestDrawings.describe(canvas.getShapes());
+			canvas.setJournal(null);
+		}
+
+		// saving over the file afterwards does not change the snapshot taken from it
+		ShapeCanvas.writeBinaryFile(f, 0, new ArrayList<>(), FileProgress.NONE);
+
+		assertEquals(expected, recover());
+	}
+
+	@Test
+	public void recoversCompactStore() throws IOException {
+
+		Random r = new Random(83);
+		List<String> expected;
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = new ShapeCanvas(800, 600);
+			canvas.setCompactStore(true);
+			canvas.setJournal(journal);
+			canvas.replaceShapes(TestDrawings.randomShapes(r, 2000));
+
+			for(int i = 0; i < 500; i++) {
+				TestDrawings.randomEdit(canvas, r);
+			}
+
+			expected = TestDrawings.describe(canvas.getShapes());
+			canvas.setJournal(null);
+		}
+
+		assertEquals(expected, recover());
+	}
+
+	@Test
+	public void recoversTiledDrawing() throws IOException {
+
+		File f = new File(dir, "drawing.sht");
+		ArrayList<MyShape> opened = TestDrawings.randomShapes(new Random(84), 3000);
+		ShapeCanvas.writeTiledFile(f, opened.size(), opened, FileProgress.NONE);
+
+		Random r = new Random(85);
+		List<String> expected;
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = new ShapeCanvas(800, 600);
+			canvas.setJournal(journal);
+			canvas.openTiledFile(f);
+
+			for(int i = 0; i < 200; i++) {
+				canvas.moveShape(canvas.closestShape(r.nextInt(800), r.nextInt(600)), 3, -2);
+				canvas.deleteShape(canvas.closestShape(r.nextInt(800), r.nextInt(600)));
+				canvas.addShape(TestDrawings.randomShape(r));
+			}
+
+			// enough for the log to need a snapshot of its own, which is written tiled as well
+			canvas.addShapes(TestDrawings.randomShapes(r, 30000));
+
+			for(int i = 0; i < 100; i++) {
+				canvas.moveShape(canvas.closestShape(r.nextInt(800), r.nextInt(600)), -1, 4);
+				canvas.deleteShape(canvas.closestShape(r.nextInt(800), r.nextInt(600)));
+			}
+
+			expected = TestDrawings.describe(canvas.getShapes());
+			canvas.setJournal(null);
+		}
+
+		ShapeCanvas.writeTiledFile(f, 0, new ArrayList<>(), FileProgress.NONE);
+
+		assertEquals(List.of("snapshot-2.sht"), snapshots());
+
+		ShapeCanvas recovered = recoverCanvas();
+
+		assertTrue(recovered.isTiled());
+		assertEquals(expected, TestDrawings.describe(recovered.getShapes()));
+	}
+
+	@Test
+	public void recoversAfterRecovering() throws IOException {
+
+		Random r = new Random(86);
+		List<String> expected;
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = open(journal);
+			canvas.replaceShapes(TestDrawings.randomShapes(r, 500));
+
+			for(int i = 0; i < 200; i++) {
+				TestDrawings.randomEdit(canvas, r);
+			}
+
+			expected = TestDrawings.describe(canvas.getShapes());
+			canvas.setJournal(null);
+		}
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = open(journal);
+			assertEquals(expected, TestDrawings.describe(canvas.getShapes()));
+
+			for(int i = 0; i < 200; i++) {
+				TestDrawings.randomEdit(canvas, r);
+			}
+			canvas.moveShape(canvas.getShapes().get(10), 20, 30);
+			expected = TestDrawings.describe(canvas.getShapes());
+
+			// cut short below
+			canvas.moveShape(canvas.getShapes().get(20), 40, 50);
+			canvas.setJournal(null);
+		}
+
+		try(RandomAccessFile f = new RandomAccessFile(newestLog(), "rw")) {
+			f.setLength(f.length() - 1);
+		}
+
+		try(EditJournal journal = new EditJournal(dir)) {
+
+			ShapeCanvas canvas = open(journal);
+			assertEquals(expected, TestDrawings.describe(canvas.getShapes()));
+
+			for(int i = 0; i < 200; i++) {
+				TestDrawings.randomEdit(canvas, r);
+			}
+
+			expected = TestDrawings.describe(canvas.getShapes());
+			canvas.setJournal(null);
+		}
+
+		// each session carried on from the log before it instead of snapshotting the drawing again
+		assertEquals(List.of("snapshot-2.bin"), snapshots());
+		assertEquals(expected, recover());
+	}
+
+	private List<String> snapshots() {
+
+		String[] names = dir.list((d, name) -> name.startsWith("snapshot-"));
+		Arrays.sort(names);
+		return Arrays.asList(names);
+	}
+
+	private File newestLog() {
+
+		File newest = null;
+		int generation = -1;
+
+		for(File f : dir.listFiles()) {
+
+			String name = f.getName();
+
+			if(name.startsWith("journal-") && name.endsWith(".log")) {
+
+				int g = Integer.parseInt(name.substring("journal-".length(), name.length() - ".log".length()));
+
+				if(g > generation) {
+					generation = g;
+					newest = f;
+				}
+			}
+		}
+		return newest;
+	}
+}
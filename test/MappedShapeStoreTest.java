@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Opens binary drawings through a memory-mapped file and checks that the shapes, hit tests and edits
+ * match those of the same drawing read into memory.
+ */
+public class MappedShapeStoreTest {
+
+	@TempDir
+	File dir;
+
+	private File write(ArrayList<MyShape> shapes) throws IOException {
+
+		File f = new File(dir, "drawing.bin");
+		ShapeCanvas.writeBinaryFile(f, shapes.size(), shapes, FileProgress.NONE);
+		return f;
+	}
+
+	@Test
+	public void mappedBinaryFile() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(1), 5000);
+		File f = write(shapes);
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.mapBinaryFile(f);
+
+		assertTrue(canvas.isMapped());
+		assertEquals(TestDrawings.describe(shapes), TestDrawings.describe(canvas.getShapes()));
+	}
+
+	@Test
+	public void editsAsInMemory() throws IOException {
+
+		File f = write(TestDrawings.randomShapes(new Random(70), 2000));
+
+		ShapeCanvas mapped = new ShapeCanvas(800, 600);
+		mapped.mapBinaryFile(f);
+		ShapeCanvas loaded = new ShapeCanvas(800, 600);
+		loaded.replaceShapes(ShapeCanvas.readFile(f, FileProgress.NONE));
+
+		Random r = new Random(71);
+
+		for(int i = 0; i < 300; i++) {
+
+			// the same shape on both canvases, picked by a hit test
+			double x = r.nextInt(800), y = r.nextInt(600);
+			MyShape a = mapped.closestShape(x, y), b = loaded.closestShape(x, y);
+			assertEquals(b.toString(), a.toString(), "closest to " + x + ", " + y);
+
+			int op = r.nextInt(3);
+
+			if(op == 0) {
+				mapped.deleteShape(a);
+				loaded.deleteShape(b);
+			}
+			else if(op == 1) {
+				mapped.moveShape(a, 7, -3);
+				loaded.moveShape(b, 7, -3);
+			}
+			else {
+				MyShape s = TestDrawings.randomShape(r);
+				mapped.addShape(s);
+				loaded.addShape((MyShape) s.clone());
+			}
+
+			assertEquals(TestDrawings.describe(loaded.shapesWithin(x - 50, y - 50, x + 50, y + 50)),
+					TestDrawings.describe(mapped.shapesWithin(x - 50, y - 50, x + 50, y + 50)));
+		}
+
+		assertEquals(TestDrawings.describe(loaded.getShapes()), TestDrawings.describe(mapped.getShapes()));
+	}
+
+	@Test
+	public void saveOverMappedFile() throws IOException {
+
+		File f = write(TestDrawings.randomShapes(new Random(72), 2000));
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.mapBinaryFile(f);
+		canvas.moveShape(canvas.getShapes().get(100), 10, 10);
+		canvas.deleteShape(canvas.getShapes().get(200));
+
+		ArrayList<MyShape> expected = canvas.getShapes();
+		ShapeCanvas.writeBinaryFile(f, expected.size(), expected, FileProgress.NONE);
+
+		// the mapping still shows the file as it was opened
+		assertEquals(TestDrawings.describe(expected), TestDrawings.describe(canvas.getShapes()));
+		assertEquals(TestDrawings.describe(expected), TestDrawings.describe(ShapeCanvas.readFile(f, FileProgress.NONE)));
+	}
+
+	@Test
+	public void snapshotWhileEditing() throws IOException {
+
+		File f = write(TestDrawings.randomShapes(new Random(73), 2000));
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.mapBinaryFile(f);
+		canvas.moveShape(canvas.closestShape(400, 300), 10, 10);
+		canvas.addShape(TestDrawings.randomShape(new Random(74)));
+
+		List<String> expected = TestDrawings.describe(canvas.getShapes());
+		Collection<MyShape> snapshot = canvas.snapshotShapes();
+
+		// the shapes in the snapshot are changed, removed and then the file is closed
+		Random r = new Random(75);
+
+		for(int i = 0; i < 100; i++) {
+			canvas.moveShape(canvas.closestShape(r.nextInt(800), r.nextInt(600)), 5, 5);
+			canvas.deleteShape(canvas.closestShape(r.nextInt(800), r.nextInt(600)));
+		}
+		canvas.replaceShapes(new ArrayList<>());
+
+		assertEquals(expected.size(), snapshot.size());
+		assertEquals(expected, TestDrawings.describe(snapshot));
+	}
+}
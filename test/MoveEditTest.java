@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Moves shapes several times and checks which moves are merged into one undo step.
+ */
+public class MoveEditTest {
+
+	private ShapeCanvas canvas;
+	private MyShape a, b;
+
+	private void setUp(long mergeWindow) {
+
+		canvas = new ShapeCanvas(800, 600);
+		canvas.setMergeWindow(mergeWindow);
+
+		Random r = new Random(150);
+		a = TestDrawings.randomShape(r);
+		b = TestDrawings.randomShape(r);
+		canvas.addShapes(List.of(a, b));
+	}
+
+	private void move(MyShape s, double dx, double dy) {
+		canvas.moveShape(s, dx, dy);
+		canvas.addEdit(new MoveEdit(canvas, s, dx, dy));
+	}
+
+	private List<String> state() {
+		return TestDrawings.describe(canvas.getShapes());
+	}
+
+	@Test
+	public void nudgesMerged() {
+
+		setUp(60000);
+		List<String> before = state();
+
+		for(int i = 0; i < 10; i++) {
+			move(a, 1, -2);
+		}
+		List<String> after = state();
+
+		canvas.undo();
+		assertEquals(before, state());
+		canvas.redo();
+		assertEquals(after, state());
+	}
+
+	@Test
+	public void noWindowKeepsEveryMove() {
+
+		setUp(0);
+		List<String> before = state();
+
+		move(a, 1, 1);
+		List<String> once = state();
+		move(a, 1, 1);
+
+		canvas.undo();
+		assertEquals(once, state());
+		canvas.undo();
+		assertEquals(before, state());
+	}
+
+	@Test
+	public void windowRunsOut() throws InterruptedException {
+
+		setUp(1);
+
+		move(a, 1, 1);
+		List<String> once = state();
+
+		Thread.sleep(20);
+		move(a, 1, 1);
+
+		canvas.undo();
+		assertEquals(once, state());
+	}
+
+	@Test
+	public void otherShapeInBetween() {
+
+		setUp(60000);
+
+		move(a, 1, 1);
+		move(b, 1, 1);
+		List<String> twice = state();
+		move(a, 1, 1);
+
+		canvas.undo();
+		assertEquals(twice, state());
+	}
+
+	@Test
+	public void notMergedIntoUndoneMove() {
+
+		setUp(60000);
+		List<String> before = state();
+
+		move(a, 5, 5);
+		canvas.undo();
+		move(a, 1, 1);
+		List<String> after = state();
+
+		// the undone move was dropped, so only the new one is undone
+		canvas.undo();
+		assertEquals(before, state());
+		canvas.redo();
+		assertEquals(after, state());
+	}
+
+	@Test
+	public void mergedInsideTransaction() {
+
+		setUp(0);
+		List<String> before = state();
+
+		// however far apart, moves of the same shape in one transaction are one edit
+		canvas.beginEdit();
+		move(a, 1, 1);
+		move(a, 2, 2);
+		move(a, 3, 3);
+		canvas.commitEdit();
+
+		canvas.undo();
+		assertEquals(before, state());
+	}
+
+	@Test
+	public void mergeSumsOffsets() {
+
+		setUp(0);
+
+		MoveEdit first = new MoveEdit(canvas, a, 1.5, -2);
+
+		assertTrue(first.merge(new MoveEdit(canvas, a, 2, 4.25)));
+		assertFalse(first.merge(new MoveEdit(canvas, b, 7, 7)));
+		assertEquals(3.5, first.getDx());
+		assertEquals(2.25, first.getDy());
+	}
+}
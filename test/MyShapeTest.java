@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Checks that the fast number formatting of the text format writes exactly what String.format would.
+ */
+public class MyShapeTest {
+
+	private static String fixed(double v, int decimals) throws IOException {
+
+		StringBuilder sb = new StringBuilder();
+		MyShape.appendFixed(sb, v, decimals);
+		return sb.toString();
+	}
+
+	private static void assertFormatted(double v, int decimals) throws IOException {
+		assertEquals(String.format(Locale.ROOT, "%." + decimals + "f", v), fixed(v, decimals), v + " with " + decimals + " decimals");
+	}
+
+	@Test
+	public void randomNumbers() throws IOException {
+
+		Random r = new Random(100);
+
+		for(int i = 0; i < 100000; i++) {
+
+			// every magnitude from well below the last decimal place up to where the fallback starts
+			double v = (r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(24) - 8);
+			assertFormatted(v, r.nextInt(7));
+		}
+	}
+
+	@Test
+	public void coordinates() throws IOException {
+
+		Random r = new Random(101);
+
+		// thousandths, as drawn, and those values moved by fractions, as after a few moves
+		for(int i = 0; i < 100000; i++) {
+
+			double v = (r.nextInt(2000000) - 1000000) / 1000.0;
+			assertFormatted(v, 3);
+			assertFormatted(v + r.nextInt(100) / 10.0, 3);
+		}
+	}
+
+	@Test
+	public void roundingCarries() throws IOException {
+
+		double[] values = { 0.9995, 0.99951, 9.9996, 99.9999, 999999.9999, -0.9996, -9.99951, 0.0005, 0.00051, 0.5, 1.5, 2.5, 0.125,
+				0.0625, 1e-4, -1e-4, -0.0004, -0.0, 0.0 };
+
+		for(double v : values) {
+			for(int decimals = 0; decimals <= 6; decimals++) {
+				assertFormatted(v, decimals);
+			}
+		}
+	}
+
+	@Test
+	public void negativeZero() throws IOException {
+
+		// String.format keeps the sign of numbers that round to zero
+		assertEquals("-0.000", fixed(-0.0, 3));
+		assertEquals("-0.000", fixed(-0.0001, 3));
+		assertEquals("-0", fixed(-0.4, 0));
+	}
+
+	@Test
+	public void fallback() throws IOException {
+
+		double[] values = { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MAX_VALUE, -Double.MAX_VALUE,
+				Double.MIN_VALUE, 1e15, 1e16 + 1, -1e17, 9.223372036854776e18, 1e300, 123456789012.3456 };
+
+		for(double v : values) {
+			for(int decimals = 0; decimals <= 6; decimals++) {
+				assertFormatted(v, decimals);
+			}
+		}
+	}
+
+	@Test
+	public void shapeText() throws IOException {
+
+		Rect r = new Rect(-1.0005, 2.5, 1e20, Double.NaN);
+		r.setColor(Color.rgb(255, 0, 128));
+		r.setFilled(true);
+
+		StringBuilder expected = new StringBuilder();
+
+		for(double v : new double[] { -1.0005, 2.5, 1e20, Double.NaN, 1.0, 0.0, 128 / 255.0 }) {
+			expected.append(String.format(Locale.ROOT, "%.3f ", v));
+		}
+		expected.append("true\n");
+
+		StringBuilder written = new StringBuilder();
+		r.writeText(written);
+
+		assertEquals(expected.toString(), written.toString().substring(written.indexOf(" ") + 1));
+	}
+}
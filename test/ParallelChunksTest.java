@@ -0,0 +1,113 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs chunks on the pool, and saves and opens drawings of one chunk and of many in every format
+ * that is read or written a chunk at a time, checking that the shapes keep their drawing order.
+ */
+public class ParallelChunksTest {
+
+	@TempDir
+	File dir;
+
+	@Test
+	public void oneTaskReturningNull() throws IOException {
+
+		// a task that only writes returns null
+		List<Callable<Void>> tasks = List.of(() -> null);
+
+		assertEquals(Arrays.asList((Void) null), ParallelChunks.run(tasks));
+	}
+
+	@Test
+	public void resultsInTaskOrder() throws IOException {
+
+		ArrayList<Callable<Integer>> tasks = new ArrayList<>();
+
+		for(int i = 0; i < 200; i++) {
+
+			int n = i;
+
+			// the later tasks finish first
+			tasks.add(() -> {
+				Thread.sleep((200 - n) % 7);
+				return n;
+			});
+		}
+
+		ArrayList<Integer> results = ParallelChunks.run(tasks);
+
+		for(int i = 0; i < 200; i++) {
+			assertEquals(i, results.get(i));
+		}
+	}
+
+	@Test
+	public void taskFailing() {
+
+		IOException failure = new DrawingFormatException("bad chunk");
+		ArrayList<Callable<Integer>> tasks = new ArrayList<>();
+
+		for(int i = 0; i < 10; i++) {
+
+			int n = i;
+
+			tasks.add(() -> {
+				if(n == 6) {
+					throw failure;
+				}
+				return n;
+			});
+		}
+
+		assertSame(failure, assertThrows(IOException.class, () -> ParallelChunks.run(tasks)));
+		assertSame(failure, assertThrows(IOException.class, () -> ParallelChunks.run(tasks.subList(6, 7))));
+	}
+
+	@Test
+	public void oneChunk() throws IOException {
+		roundTrip(TestDrawings.randomShapes(new Random(110), 100));
+	}
+
+	@Test
+	public void emptyDrawing() throws IOException {
+		roundTrip(new ArrayList<>());
+	}
+
+	@Test
+	public void manyChunks() throws IOException {
+		roundTrip(TestDrawings.randomShapes(new Random(111), 5 * ParallelChunks.CHUNK_SHAPES + 17));
+	}
+
+	/**
+	 * Saves the shapes in every format kept in drawing order and checks that opening each gives them back in order.
+	 */
+	private void roundTrip(ArrayList<MyShape> shapes) throws IOException {
+
+		List<String> expected = TestDrawings.describe(shapes);
+
+		File text = new File(dir, "drawing.txt");
+		ShapeCanvas.writeTextFile(text, shapes.size(), shapes, FileProgress.NONE);
+		assertEquals(expected, TestDrawings.describe(ShapeCanvas.readTextFile(text, FileProgress.NONE)));
+
+		File binary = new File(dir, "drawing.bin");
+		ShapeCanvas.writeBinaryFile(binary, shapes.size(), shapes, FileProgress.NONE);
+		assertEquals(expected, TestDrawings.describe(ShapeCanvas.readBinaryFile(binary, FileProgress.NONE)));
+
+		File compressed = new File(dir, "drawing.shz");
+		ShapeCanvas.writeCompressedFile(compressed, shapes.size(), shapes, CompressedShapeFormat.DEFAULT_DECIMALS, FileProgress.NONE);
+		assertEquals(expected, TestDrawings.describe(ShapeCanvas.readFile(compressed, FileProgress.NONE)));
+	}
+}
@@ -0,0 +1,131 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the converter on a directory of drawings and checks where the files are written and the exit status.
+ */
+public class ShapeConvertTest {
+
+	@TempDir
+	File dir;
+
+	private File in;
+	private File out;
+	private ArrayList<MyShape> first;
+	private ArrayList<MyShape> second;
+
+	/**
+	 * Writes in/first.txt and in/sub/second.bin, and a hidden file and an image that are not drawings to convert.
+	 */
+	@BeforeEach
+	public void drawings() throws IOException {
+
+		in = new File(dir, "in");
+		out = new File(dir, "out");
+		new File(in, "sub").mkdirs();
+
+		first = TestDrawings.randomShapes(new Random(120), 300);
+		second = TestDrawings.randomShapes(new Random(121), 200);
+
+		ShapeCanvas.writeTextFile(new File(in, "first.txt"), first.size(), first, FileProgress.NONE);
+		ShapeCanvas.writeBinaryFile(new File(in, "sub/second.bin"), second.size(), second, FileProgress.NONE);
+		Files.writeString(new File(in, ".first.txt.tmp").toPath(), "half a save");
+		ShapeCanvas.writeSvgFile(new File(in, "image.svg"), first.size(), first, FileProgress.NONE);
+	}
+
+	@Test
+	public void keepsLayoutUnderOut() throws IOException {
+
+		assertEquals(0, ShapeConvert.run("--to", "compressed", "--decimals", "6", "--out", out.getPath(), in.getPath()));
+
+		assertEquals(TestDrawings.describe(first), TestDrawings.describe(ShapeCanvas.readFile(new File(out, "first.shz"), FileProgress.NONE)));
+		assertEquals(TestDrawings.describe(second), TestDrawings.describe(ShapeCanvas.readFile(new File(out, "sub/second.shz"), FileProgress.NONE)));
+
+		// nothing else is converted, and nothing is written next to the drawings
+		assertEquals(2, countFiles(out));
+		assertEquals(4, countFiles(in));
+	}
+
+	@Test
+	public void writesNextToDrawings() throws IOException {
+
+		assertEquals(0, ShapeConvert.run("--to", "binary", new File(in, "first.txt").getPath(), new File(in, "sub").getPath()));
+
+		assertEquals(TestDrawings.describe(first), TestDrawings.describe(ShapeCanvas.readBinaryFile(new File(in, "first.bin"), FileProgress.NONE)));
+		assertEquals(TestDrawings.describe(second), TestDrawings.describe(ShapeCanvas.readBinaryFile(new File(in, "sub/second.bin"), FileProgress.NONE)));
+	}
+
+	@Test
+	public void fileGivenGoesStraightIntoOut() {
+
+		assertEquals(0, ShapeConvert.run("--to", "svg", "--out", out.getPath(), new File(in, "sub/second.bin").getPath()));
+
+		assertTrue(new File(out, "second.svg").isFile());
+		assertFalse(new File(out, "sub").exists());
+	}
+
+	@Test
+	public void failedFileGivesStatus1() throws IOException {
+
+		Files.writeString(new File(in, "broken.bin").toPath(), "not a drawing");
+
+		assertEquals(1, ShapeConvert.run("--to", "tiled", "--threads", "2", "--out", out.getPath(), in.getPath()));
+
+		// the other files are converted anyway
+		assertTrue(new File(out, "first.sht").isFile());
+		assertTrue(new File(out, "sub/second.sht").isFile());
+		assertFalse(new File(out, "broken.sht").exists());
+	}
+
+	@Test
+	public void missingFileGivesStatus1() {
+		assertEquals(1, ShapeConvert.run("--to", "text", "--out", out.getPath(), new File(dir, "missing.bin").getPath()));
+	}
+
+	@Test
+	public void sameTargetGivesStatus1() throws IOException {
+
+		ShapeCanvas.writeBinaryFile(new File(in, "first.bin"), first.size(), first, FileProgress.NONE);
+
+		// first.txt and first.bin would both be written to first.shz
+		assertEquals(1, ShapeConvert.run("--to", "compressed", "--out", out.getPath(), in.getPath()));
+		assertTrue(new File(out, "first.shz").isFile());
+	}
+
+	@Test
+	public void wrongArgumentsGiveStatus2() {
+
+		String path = in.getPath();
+
+		assertEquals(2, ShapeConvert.run(path));
+		assertEquals(2, ShapeConvert.run("--to", "binary"));
+		assertEquals(2, ShapeConvert.run("--to", "jpeg", path));
+		assertEquals(2, ShapeConvert.run("--to", "png", "--size", "0", path));
+		assertEquals(2, ShapeConvert.run("--to", "compressed", "--decimals", "x", path));
+		assertEquals(2, ShapeConvert.run("--to", "binary", "--fast", path));
+		assertEquals(2, ShapeConvert.run("--to", "binary", path, "--out"));
+		assertEquals(0, ShapeConvert.run("--help"));
+
+		assertFalse(new File(in, "first.bin").exists());
+	}
+
+	private static int countFiles(File d) throws IOException {
+
+		try(Stream<Path> paths = Files.walk(d.toPath())) {
+			return (int) paths.filter(Files::isRegularFile).count();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Changes members of nested groups on their own and through the groups, and checks the cached center
+ * and extent of every group against the same values computed from scratch.
+ */
+public class ShapeGroupTest {
+
+	/**
+	 * The drawn area of a shape, from its own rectangle and those of every member below it.
+	 */
+	private static double[] extent(MyShape s) {
+
+		double[] e = { s.getULX(), s.getULY(), s.getULX() + s.getWidth(), s.getULY() + s.getHeight() };
+
+		if(s instanceof ShapeGroup) {
+			for(MyShape m : ((ShapeGroup) s).getMembers()) {
+
+				double[] me = extent(m);
+
+				e[0] = Math.min(e[0], me[0]);
+				e[1] = Math.min(e[1], me[1]);
+				e[2] = Math.max(e[2], me[2]);
+				e[3] = Math.max(e[3], me[3]);
+			}
+		}
+		return e;
+	}
+
+	private static void assertCache(ShapeGroup g) {
+
+		ArrayList<MyShape> members = g.getMembers();
+		double sumX = 0, sumY = 0;
+
+		for(MyShape m : members) {
+
+			sumX += m.getX1();
+			sumY += m.getY2();
+
+			if(m instanceof ShapeGroup) {
+				assertCache((ShapeGroup) m);
+			}
+		}
+
+		double[] e = extent(g);
+
+		// a moved group shifts its cached area, which may round differently from computing it again
+		assertEquals(e[0], g.getMinX(), 1e-9);
+		assertEquals(e[1], g.getMinY(), 1e-9);
+		assertEquals(e[2], g.getMaxX(), 1e-9);
+		assertEquals(e[3], g.getMaxY(), 1e-9);
+		assertEquals(sumX / members.size(), g.getCenterX(), 1e-9);
+		assertEquals(sumY / members.size(), g.getCenterY(), 1e-9);
+	}
+
+	/**
+	 * Collects a group and every shape below it.
+	 */
+	private static void collect(MyShape s, ArrayList<MyShape> all) {
+
+		all.add(s);
+
+		if(s instanceof ShapeGroup) {
+			for(MyShape m : ((ShapeGroup) s).getMembers()) {
+				collect(m, all);
+			}
+		}
+	}
+
+	@Test
+	public void membersChangingOnTheirOwn() {
+
+		Random r = new Random(40);
+
+		for(int i = 0; i < 50; i++) {
+
+			// nested three deep, so a change must reach every group above the member
+			ShapeGroup top = new ShapeGroup();
+			ShapeGroup middle = new ShapeGroup();
+			ShapeGroup inner = new ShapeGroup();
+
+			inner.addMembers(TestDrawings.randomShapes(r, 4));
+			middle.addMembers(TestDrawings.randomShapes(r, 3));
+			middle.addMember(inner);
+			top.addMembers(TestDrawings.randomShapes(r, 3));
+			top.addMember(middle);
+			assertCache(top);
+
+			ArrayList<MyShape> all = new ArrayList<>();
+			collect(top, all);
+
+			for(int j = 0; j < 100; j++) {
+
+				MyShape s = all.get(r.nextInt(all.size()));
+				double x = r.nextDouble() * 2000 - 1000, y = r.nextDouble() * 2000 - 1000;
+
+				// setP1 is always followed by setP2, as the handlers and readers do
+				switch(r.nextInt(3)) {
+				case 0:
+					s.setP1(x, y);
+					s.setP2(x + r.nextInt(100), y + r.nextInt(100));
+					break;
+				case 1:
+					s.setP2(x, y);
+					break;
+				default:
+					s.move(x / 10, y / 10);
+				}
+				assertCache(top);
+			}
+		}
+	}
+
+	@Test
+	public void removingEveryMember() {
+
+		ShapeGroup g = new ShapeGroup();
+		g.setP1(10, 20);
+		g.setP2(110, 220);
+
+		ArrayList<MyShape> members = TestDrawings.randomShapes(new Random(41), 5);
+		g.addMembers(members);
+		assertCache(g);
+
+		for(MyShape m : members) {
+			g.removeMember(m);
+		}
+
+		// with no members left the group is centered on its own rectangle
+		assertFalse(Double.isNaN(g.getCenterX()) || Double.isNaN(g.getCenterY()));
+		assertEquals(60, g.getCenterX());
+		assertEquals(120, g.getCenterY());
+		assertEquals(10, g.getMinX());
+		assertEquals(220, g.getMaxY());
+
+		g.addMember(members.get(0));
+		assertCache(g);
+	}
+}
@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Groups shapes the way GroupHandler does, with a region query and one batch delete, and compares the result
+ * with the scan of every shape through ShapeGroup.within that it replaced.
+ */
+public class ShapeGroupingTest {
+
+	private static void groupAtRandom(boolean compact, long seed) {
+
+		Random r = new Random(seed);
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.setCompactStore(compact);
+
+		// centers on a lattice land on the edges of the groups as well as inside them
+		for(int i = 0; i < 3000; i++) {
+
+			double x = r.nextInt(80) * 10, y = r.nextInt(60) * 10, size = r.nextInt(4) * 5;
+			MyShape s = r.nextBoolean() ? new Rect(x - size, y - size, x + size, y + size) : new Line(x - size, y, x + size, y);
+
+			s.setColor(Color.gray(r.nextInt(5) / 4.0));
+			canvas.addShape(s);
+		}
+
+		for(int i = 0; i < 50; i++) {
+
+			ShapeGroup g = new ShapeGroup();
+			double x = r.nextInt(80) * 10, y = r.nextInt(60) * 10;
+			g.setP1(x, y);
+			g.setP2(x + r.nextInt(30) * 10, y + r.nextInt(30) * 10);
+
+			ArrayList<MyShape> expectedMembers = new ArrayList<>();
+			ArrayList<MyShape> expectedRest = new ArrayList<>();
+
+			for(MyShape s : canvas.getShapes()) {
+				(g.within(s) ? expectedMembers : expectedRest).add(s);
+			}
+
+			ArrayList<MyShape> members = canvas.shapesWithin(g.getULX(), g.getULY(), g.getULX() + g.getWidth(), g.getULY() + g.getHeight());
+			g.addMembers(members);
+			canvas.deleteShapes(members);
+
+			assertEquals(TestDrawings.describe(expectedMembers), TestDrawings.describe(members), "members of group " + i);
+			assertEquals(TestDrawings.describe(expectedRest), TestDrawings.describe(canvas.getShapes()), "shapes left after group " + i);
+
+			if(g.size() > 0) {
+				canvas.addShape(g);
+			}
+		}
+	}
+
+	@Test
+	public void groupWithIndex() {
+		groupAtRandom(false, 30);
+	}
+
+	@Test
+	public void groupWithCompactStore() {
+		groupAtRandom(true, 31);
+	}
+}
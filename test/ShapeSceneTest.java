@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Keeps the persistent scene while editing and checks that a scene taken earlier does not change
+ * and that the scene kept follows the shapes on the canvas.
+ */
+public class ShapeSceneTest {
+
+	private static ShapeCanvas canvas() {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.setPersistentScene(true);
+		return canvas;
+	}
+
+	private static void edit(ShapeCanvas canvas, Random r, int edits) {
+
+		for(int i = 0; i < edits; i++) {
+
+			int op = r.nextInt(10);
+
+			if(op == 0) {
+				canvas.undo();
+			}
+			else if(op == 1) {
+				canvas.redo();
+			}
+			else {
+				TestDrawings.randomEdit(canvas, r);
+			}
+		}
+	}
+
+	@Test
+	public void snapshotUnaffectedByLaterEdits() {
+
+		ShapeCanvas canvas = canvas();
+		canvas.replaceShapes(TestDrawings.randomShapes(new Random(160), 1000));
+		Random r = new Random(161);
+
+		ArrayList<ShapeScene> scenes = new ArrayList<>();
+		ArrayList<List<String>> taken = new ArrayList<>();
+
+		for(int i = 0; i < 20; i++) {
+
+			edit(canvas, r, 50);
+
+			scenes.add((ShapeScene) canvas.snapshotShapes());
+			taken.add(TestDrawings.describe(canvas.getShapes()));
+			assertEquals(taken.get(i), TestDrawings.describe(scenes.get(i)));
+		}
+
+		for(int i = 0; i < scenes.size(); i++) {
+			assertEquals(taken.get(i), TestDrawings.describe(scenes.get(i)), "scene " + i);
+		}
+	}
+
+	@Test
+	public void sceneBuiltElsewhere() {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(162), 1000);
+		List<String> read = TestDrawings.describe(shapes);
+		ShapeScene built = ShapeScene.of(shapes);
+
+		ShapeCanvas canvas = canvas();
+		canvas.replaceScene(built);
+
+		// taken as it is, and holding the shapes on the canvas as its originals
+		assertSame(built, canvas.getShapeScene());
+		assertSame(shapes.get(500), canvas.getShapes().get(500));
+		assertEquals(read, TestDrawings.describe(canvas.getShapes()));
+
+		edit(canvas, new Random(163), 500);
+
+		assertEquals(read, TestDrawings.describe(built));
+		assertEquals(TestDrawings.describe(canvas.getShapes()), TestDrawings.describe(canvas.getShapeScene()));
+	}
+
+	@Test
+	public void sceneWithoutPersistentScene() {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(164), 300);
+		ShapeScene built = ShapeScene.of(shapes);
+
+		for(boolean compact : new boolean[] { false, true }) {
+
+			ShapeCanvas canvas = new ShapeCanvas(800, 600);
+			canvas.setCompactStore(compact);
+			canvas.replaceScene(built);
+
+			assertEquals(TestDrawings.describe(built), TestDrawings.describe(canvas.getShapes()));
+			assertNull(canvas.getShapeScene());
+		}
+	}
+
+	@Test
+	public void copiesOnly() {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(165), 100);
+		List<String> read = TestDrawings.describe(shapes);
+		ShapeScene built = ShapeScene.of(shapes);
+
+		for(MyShape s : shapes) {
+			s.move(10, 10);
+		}
+
+		assertEquals(read, TestDrawings.describe(built));
+	}
+}
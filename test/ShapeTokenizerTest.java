@@ -0,0 +1,186 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reads numbers, words and whole drawings with the streaming tokenizer and compares them with what
+ * Double.parseDouble and the writer make of the same text.
+ */
+public class ShapeTokenizerTest {
+
+	@TempDir
+	File dir;
+
+	private ShapeTokenizer tokenize(String text) throws IOException {
+
+		File f = File.createTempFile("tokens", ".txt", dir);
+		Files.write(f.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+		return new ShapeTokenizer(f);
+	}
+
+	@Test
+	public void numbersAsParseDouble() throws IOException {
+
+		List<String> numbers = new ArrayList<>(List.of(
+				"0", "-0", "+3", "1.5", "-0.25", "5.", ".5", "1e3", "1.5E-2", "-2e+2", "0,5", "-12,125",
+				"123456789012345678", "12345678901234567890123", "0.1000000000000000055511151231257827",
+				"9007199254740993", "4.9e-324", "2.2250738585072014E-308", "1.7976931348623157e308", "1e400",
+				"NaN", "Infinity", "-Infinity", "0.000000", "1234567.125000"));
+		Random r = new Random(50);
+
+		// what the writers produce: Double.toString and six decimals
+		for(int i = 0; i < 2000; i++) {
+
+			double d = (r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(30) - 10);
+			numbers.add(Double.toString(d));
+			numbers.add(String.format(Locale.ROOT, "%.6f", d));
+		}
+
+		try(ShapeTokenizer in = tokenize(String.join(" ", numbers))) {
+			for(String n : numbers) {
+
+				double expected = Double.parseDouble(n.replace(',', '.'));
+				assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(in.nextDouble()), n);
+			}
+		}
+	}
+
+	@Test
+	public void notNumbers() throws IOException {
+
+		for(String s : List.of("-", "+", ".", "1.2.3", "1e", "1e+", "12a", "0x10", "--1", "true")) {
+			try(ShapeTokenizer in = tokenize(s)) {
+				assertThrows(DrawingFormatException.class, in::nextDouble, s);
+			}
+		}
+	}
+
+	@Test
+	public void integers() throws IOException {
+
+		try(ShapeTokenizer in = tokenize("0 -7 +12 2147483647 -2147483648")) {
+			assertEquals(0, in.nextInt());
+			assertEquals(-7, in.nextInt());
+			assertEquals(12, in.nextInt());
+			assertEquals(Integer.MAX_VALUE, in.nextInt());
+			assertEquals(Integer.MIN_VALUE, in.nextInt());
+		}
+
+		for(String s : List.of("2147483648", "-2147483649", "99999999999999999999", "1.0", "-", "1e3")) {
+			try(ShapeTokenizer in = tokenize(s)) {
+				assertThrows(DrawingFormatException.class, in::nextInt, s);
+			}
+		}
+	}
+
+	@Test
+	public void wordsAndBooleans() throws IOException {
+
+		try(ShapeTokenizer in = tokenize("\tRect\r\n  TRUE false\n\nFalse yes")) {
+			assertEquals("Rect", in.next());
+			assertTrue(in.nextBoolean());
+			assertFalse(in.nextBoolean());
+			assertFalse(in.nextBoolean());
+			assertThrows(DrawingFormatException.class, in::nextBoolean);
+			assertThrows(DrawingFormatException.class, in::next);
+		}
+	}
+
+	@Test
+	public void errorsGiveLineAndColumn() throws IOException {
+
+		try(ShapeTokenizer in = tokenize("1 2\n  3 x\n")) {
+
+			in.nextInt();
+			in.nextInt();
+			in.nextInt();
+
+			DrawingFormatException e = assertThrows(DrawingFormatException.class, in::nextInt);
+			assertEquals(2, e.getLine());
+			assertEquals(5, e.getColumn());
+		}
+	}
+
+	@Test
+	public void tokensAcrossBlocks() throws IOException {
+
+		// long tokens and enough of them to cross the boundaries of many blocks read from the file
+		StringBuilder text = new StringBuilder();
+		ArrayList<String> words = new ArrayList<>();
+		Random r = new Random(51);
+
+		for(int i = 0; i < 20000; i++) {
+
+			StringBuilder w = new StringBuilder();
+			int length = 1 + r.nextInt(i % 1000 == 0 ? 5000 : 20);
+
+			for(int j = 0; j < length; j++) {
+				w.append((char) ('a' + r.nextInt(26)));
+			}
+			words.add(w.toString());
+			text.append(w).append(r.nextBoolean() ? " " : "\n");
+		}
+
+		try(ShapeTokenizer in = tokenize(text.toString())) {
+			for(String w : words) {
+				assertEquals(w, in.next());
+			}
+			assertThrows(DrawingFormatException.class, in::next);
+		}
+	}
+
+	@Test
+	public void textRoundTrip() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(1), 5000);
+		File f = new File(dir, "drawing.txt");
+
+		ShapeCanvas.writeTextFile(f, shapes.size(), shapes, FileProgress.NONE);
+
+		assertEquals(TestDrawings.describe(shapes), TestDrawings.describe(ShapeCanvas.readFile(f, FileProgress.NONE)));
+	}
+
+	@Test
+	public void textWithExtraWhitespace() throws IOException {
+
+		File f = new File(dir, "spaced.txt");
+		Files.write(f.toPath(), "  2\n\nRect   1.5 2 3.25 4\t0.5 0.25 1 true\r\nLine 0 0 10 10 0 0 0 false\n".getBytes(StandardCharsets.US_ASCII));
+
+		List<String> read = TestDrawings.describe(ShapeCanvas.readFile(f, FileProgress.NONE));
+
+		assertEquals(List.of(
+				"Rect 1.500 2.000 3.250 4.000 0.500 0.250 1.000 true\n",
+				"Line 0.000 0.000 10.000 10.000 0.000 0.000 0.000 false\n"), read);
+	}
+
+	@Test
+	public void malformedText() throws IOException {
+
+		File f = new File(dir, "broken.txt");
+		Files.write(f.toPath(), "1\nRect 1 2 three 4 0 0 0 true\n".getBytes(StandardCharsets.US_ASCII));
+
+		assertThrows(DrawingFormatException.class, () -> ShapeCanvas.readFile(f, FileProgress.NONE));
+	}
+
+	@Test
+	public void truncatedText() throws IOException {
+
+		File f = new File(dir, "short.txt");
+		Files.write(f.toPath(), "2\nRect 1 2 3 4 0 0 0 true\n".getBytes(StandardCharsets.US_ASCII));
+
+		assertThrows(DrawingFormatException.class, () -> ShapeCanvas.readFile(f, FileProgress.NONE));
+	}
+}
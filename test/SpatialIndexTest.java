@@ -0,0 +1,199 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the answers of the spatial index with a scan of every shape, as ShapeCanvas.closestShape made before the index.
+ */
+public class SpatialIndexTest {
+
+	/**
+	 * The closest shape by a scan in drawing order, keeping the first of equally close shapes.
+	 */
+	private static MyShape scan(ArrayList<MyShape> shapes, double x, double y) {
+
+		MyShape best = null;
+		double bestDistance = 0;
+
+		for(MyShape s : shapes) {
+
+			double distance = s.getCetner().distance(x, y);
+
+			if(best == null || distance < bestDistance) {
+				best = s;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Makes shapes on a coarse lattice so that many centers coincide, a few of them large.
+	 */
+	private static MyShape randomShape(Random r) {
+
+		double x = r.nextInt(40) * 16, y = r.nextInt(30) * 16;
+		double size = r.nextInt(20) == 0 ? 2000 : r.nextInt(3) * 8;
+
+		return new Rect(x - size, y - size, x + size, y + size);
+	}
+
+	private static void assertNearest(SpatialIndex index, ArrayList<MyShape> shapes, Random r) {
+
+		for(int i = 0; i < 200; i++) {
+
+			// points on the lattice tie often, points far outside start the search away from every shape
+			double x = r.nextBoolean() ? r.nextInt(40) * 16 : r.nextDouble() * 4000 - 2000;
+			double y = r.nextBoolean() ? r.nextInt(30) * 16 : r.nextDouble() * 4000 - 2000;
+
+			assertSame(scan(shapes, x, y), index.nearest(x, y), "nearest to " + x + ", " + y);
+		}
+	}
+
+	@Test
+	public void nearestMatchesScan() {
+
+		Random r = new Random(20);
+		SpatialIndex index = new SpatialIndex();
+		ArrayList<MyShape> shapes = new ArrayList<>();
+
+		for(int i = 0; i < 2000; i++) {
+
+			MyShape s = randomShape(r);
+			shapes.add(s);
+			index.insert(s);
+		}
+		assertNearest(index, shapes, r);
+	}
+
+	@Test
+	public void nearestAfterMovesAndDeletes() {
+
+		Random r = new Random(21);
+		SpatialIndex index = new SpatialIndex();
+		ArrayList<MyShape> shapes = new ArrayList<>();
+
+		for(int i = 0; i < 2000; i++) {
+
+			MyShape s = randomShape(r);
+			shapes.add(s);
+			index.insert(s);
+		}
+
+		for(int round = 0; round < 5; round++) {
+
+			// deletes from the edges shrink the occupied area, moves carry shapes far out and back
+			for(int i = 0; i < 200; i++) {
+
+				MyShape s = shapes.get(r.nextInt(shapes.size()));
+
+				if(r.nextBoolean()) {
+					shapes.remove(s);
+					index.remove(s);
+				}
+				else {
+					double d = r.nextBoolean() ? 5000 : -5000;
+					s.move(d, -d);
+					index.update(s);
+					s.move(-d, d);
+					index.update(s);
+				}
+			}
+			assertNearest(index, shapes, r);
+		}
+
+		for(MyShape s : new ArrayList<>(shapes)) {
+			if(s.getCenterX() > 100) {
+				shapes.remove(s);
+				index.remove(s);
+			}
+		}
+		assertNearest(index, shapes, r);
+	}
+
+	@Test
+	public void closestShapeOnCanvas() {
+
+		Random r = new Random(22);
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+
+		for(int i = 0; i < 1000; i++) {
+			canvas.addShape(randomShape(r));
+		}
+		for(int i = 0; i < 200; i++) {
+			canvas.moveShape(canvas.getShapes().get(r.nextInt(1000)), 3, 3);
+		}
+
+		for(int i = 0; i < 200; i++) {
+
+			double x = r.nextInt(40) * 16 + 3, y = r.nextInt(30) * 16 + 3;
+
+			assertSame(scan(canvas.getShapes(), x, y), canvas.closestShape(x, y));
+		}
+	}
+
+	/**
+	 * The shapes intersecting a rectangle by a scan in drawing order.
+	 */
+	private static ArrayList<MyShape> scanRegion(ArrayList<MyShape> shapes, double minX, double minY, double maxX, double maxY) {
+
+		ArrayList<MyShape> found = new ArrayList<>();
+
+		for(MyShape s : shapes) {
+			if(s.getMaxX() >= minX && s.getMinX() <= maxX && s.getMaxY() >= minY && s.getMinY() <= maxY) {
+				found.add(s);
+			}
+		}
+		return found;
+	}
+
+	@Test
+	public void queryWithShapesOfEverySize() {
+
+		Random r = new Random(23);
+		SpatialIndex index = new SpatialIndex();
+		ArrayList<MyShape> shapes = new ArrayList<>();
+
+		for(int i = 0; i < 3000; i++) {
+
+			// sizes from a few units to far beyond the coarsest grid
+			double x = r.nextDouble() * 4000 - 2000, y = r.nextDouble() * 4000 - 2000;
+			double size = Math.pow(10, r.nextInt(r.nextInt(10) == 0 ? 16 : 4));
+			MyShape s = new Oval(x - size, y - size / 2, x + size / 3, y + size);
+
+			shapes.add(s);
+			index.insert(s);
+		}
+
+		for(int round = 0; round < 4; round++) {
+
+			for(int i = 0; i < 300; i++) {
+
+				double x = r.nextDouble() * 6000 - 3000, y = r.nextDouble() * 6000 - 3000;
+				double w = r.nextDouble() * (r.nextBoolean() ? 50 : 3000), h = r.nextDouble() * 500;
+
+				assertEquals(scanRegion(shapes, x, y, x + w, y + h), index.query(x, y, x + w, y + h));
+			}
+
+			// moving and deleting large shapes takes them out of their coarse cells
+			for(int i = 0; i < 500; i++) {
+
+				MyShape s = shapes.get(r.nextInt(shapes.size()));
+
+				if(r.nextInt(3) == 0) {
+					shapes.remove(s);
+					index.remove(s);
+				}
+				else {
+					s.move(r.nextDouble() * 200 - 100, r.nextDouble() * 200 - 100);
+					index.update(s);
+				}
+			}
+		}
+		assertEquals(shapes.size(), index.size());
+	}
+}
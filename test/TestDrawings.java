@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Random drawings and edits for the tests, generated from a seed so that a failure can be repeated.
+ */
+public class TestDrawings {
+
+	private static final double WIDTH = 800, HEIGHT = 600;
+
+	/**
+	 * Makes lines, rectangles, ovals and groups, some of them nested, with coordinates in thousandths,
+	 * which every file format keeps exactly.
+	 *
+	 * @param r The source of randomness.
+	 * @param n The number of top-level shapes.
+	 * @return The shapes.
+	 */
+	public static ArrayList<MyShape> randomShapes(Random r, int n) {
+
+		ArrayList<MyShape> shapes = new ArrayList<>(n);
+
+		for(int i = 0; i < n; i++) {
+			shapes.add(r.nextInt(10) == 0 ? randomGroup(r, 2) : randomShape(r));
+		}
+		return shapes;
+	}
+
+	/**
+	 * Makes a line, rectangle or oval.
+	 *
+	 * @param r The source of randomness.
+	 * @return The shape.
+	 */
+	public static MyShape randomShape(Random r) {
+
+		double x = thousandths(r, WIDTH), y = thousandths(r, HEIGHT);
+		double w = thousandths(r, 40), h = thousandths(r, 40);
+		MyShape s;
+
+		switch(r.nextInt(3)) {
+		case 0:
+			s = new Line(x, y, x + w, y + h);
+			break;
+		case 1:
+			s = new Rect(x, y, x + w, y + h);
+			break;
+		default:
+			s = new Oval(x, y, x + w, y + h);
+		}
+
+		s.setColor(Color.rgb(r.nextInt(256), r.nextInt(256), r.nextInt(256)));
+		s.setFilled(r.nextBoolean());
+		return s;
+	}
+
+	private static ShapeGroup randomGroup(Random r, int depth) {
+
+		ShapeGroup g = new ShapeGroup();
+		double x = thousandths(r, WIDTH), y = thousandths(r, HEIGHT);
+
+		g.setP1(x, y);
+		g.setP2(x + 100, y + 100);
+
+		ArrayList<MyShape> members = new ArrayList<>();
+		int n = 1 + r.nextInt(5);
+
+		for(int i = 0; i < n; i++) {
+			members.add(depth > 1 && r.nextInt(4) == 0 ? randomGroup(r, depth - 1) : randomShape(r));
+		}
+		g.addMembers(members);
+		return g;
+	}
+
+	private static double thousandths(Random r, double max) {
+		return r.nextInt((int) (max * 1000)) / 1000.0;
+	}
+
+	/**
+	 * Makes one edit the way the mouse handlers do: draws, deletes, moves, groups or copies a shape,
+	 * and adds the edit to the canvas. A group around no shapes is drawn as a shape instead, so there is
+	 * always exactly one edit.
+	 *
+	 * @param c The canvas.
+	 * @param r The source of randomness.
+	 */
+	public static void randomEdit(ShapeCanvas c, Random r) {
+
+		ArrayList<MyShape> shapes = c.getShapes();
+		int op = shapes.isEmpty() ? 0 : r.nextInt(10);
+
+		if(op == 8) {
+
+			double x = r.nextInt(600), y = r.nextInt(400);
+			ArrayList<MyShape> members = c.shapesWithin(x, y, x + 250, y + 250);
+
+			if(!members.isEmpty()) {
+				ShapeGroup g = new ShapeGroup();
+				g.setP1(x, y);
+				g.setP2(x + 250, y + 250);
+				g.addMembers(members);
+				c.deleteShapes(members);
+				c.addShape(g);
+				c.addEdit(new GroupEdit(c, g));
+				return;
+			}
+			op = 0;
+		}
+
+		if(op < 4) {
+			MyShape s = randomShape(r);
+			c.addShape(s);
+			c.addEdit(new DrawEdit(c, s));
+		}
+		else if(op < 5) {
+			MyShape s = shapes.get(r.nextInt(shapes.size()));
+			c.deleteShape(s);
+			c.addEdit(new DeleteEdit(c, s));
+		}
+		else if(op < 8) {
+			MyShape s = shapes.get(r.nextInt(shapes.size()));
+			double dx = r.nextInt(41) - 20, dy = r.nextInt(41) - 20;
+			c.moveShape(s, dx, dy);
+			c.addEdit(new MoveEdit(c, s, dx, dy));
+		}
+		else {
+			MyShape s = (MyShape) shapes.get(r.nextInt(shapes.size())).clone();
+			c.addShape(s);
+			c.moveShape(s, 5, 5);
+			c.addEdit(new CopyEdit(c, s));
+		}
+	}
+
+	/**
+	 * Describes shapes in drawing order, one string per top-level shape as written in the text format.
+	 *
+	 * @param shapes The shapes.
+	 * @return The descriptions.
+	 */
+	public static List<String> describe(Iterable<MyShape> shapes) {
+
+		ArrayList<String> lines = new ArrayList<>();
+
+		for(MyShape s : shapes) {
+			lines.add(s.toString());
+		}
+		return lines;
+	}
+
+	/**
+	 * Describes the shapes on a canvas regardless of their drawing order,
+	 * which undoing a delete does not keep.
+	 *
+	 * @param c The canvas.
+	 * @return The sorted descriptions.
+	 */
+	public static List<String> state(ShapeCanvas c) {
+
+		List<String> lines = describe(c.getShapes());
+		Collections.sort(lines);
+		return lines;
+	}
+}
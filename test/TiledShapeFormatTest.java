@@ -0,0 +1,43 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes drawings in the tiled format and checks that reading them back gives the same shapes in drawing order.
+ */
+public class TiledShapeFormatTest {
+
+	@TempDir
+	File dir;
+
+	@Test
+	public void tiledRoundTrip() throws IOException {
+
+		ArrayList<MyShape> shapes = TestDrawings.randomShapes(new Random(1), 5000);
+		File f = new File(dir, "drawing.sht");
+
+		ShapeCanvas.writeTiledFile(f, shapes.size(), shapes, FileProgress.NONE);
+
+		// the shapes are kept by tile, but each with its position in the drawing
+		assertTrue(TiledShapeFormat.isTiled(f));
+		assertEquals(TestDrawings.describe(shapes), TestDrawings.describe(ShapeCanvas.readFile(f, FileProgress.NONE)));
+	}
+
+	@Test
+	public void emptyDrawing() throws IOException {
+
+		File f = new File(dir, "empty.sht");
+
+		ShapeCanvas.writeTiledFile(f, 0, new ArrayList<>(), FileProgress.NONE);
+
+		assertEquals(List.of(), ShapeCanvas.readFile(f, FileProgress.NONE));
+	}
+}
@@ -0,0 +1,258 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Makes random edits, undoes, redoes and checkouts with the branching history, recording the drawing
+ * in every version, then checks out every version kept and compares the drawing with the one recorded.
+ * Also checks what the checkpoints are counted for against the memory budget.
+ */
+public class VersionTreeTest {
+
+	private static ShapeCanvas canvas(boolean scene) {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		canvas.setPersistentScene(scene);
+		canvas.setBranchingHistory(true);
+		// merged moves would change a version after it was recorded
+		canvas.setMergeWindow(0);
+		return canvas;
+	}
+
+	/**
+	 * Works on the drawing at random and records it in each version reached.
+	 *
+	 * @return The drawing in each version, by number.
+	 */
+	private static HashMap<Integer, List<String>> randomHistory(ShapeCanvas canvas, int steps, long seed) {
+
+		Random r = new Random(seed);
+		VersionTree tree = canvas.getVersionTree();
+		HashMap<Integer, List<String>> states = new HashMap<>();
+		ArrayList<Integer> numbers = new ArrayList<>();
+
+		states.put(tree.current().getNumber(), TestDrawings.state(canvas));
+		numbers.add(tree.current().getNumber());
+
+		for(int i = 0; i < steps; i++) {
+
+			int op = r.nextInt(100);
+
+			if(op < 80) {
+				TestDrawings.randomEdit(canvas, r);
+			}
+			else if(op < 90) {
+				canvas.undo();
+			}
+			else if(op < 97) {
+				canvas.redo();
+			}
+			else {
+				// one of the latest versions, so the history keeps growing deeper; checkoutAll jumps further
+				VersionTree.Version v = tree.find(numbers.get(numbers.size() - 1 - r.nextInt(Math.min(numbers.size(), 100))));
+
+				if(v != null) {
+					tree.checkout(v);
+				}
+			}
+
+			int number = tree.current().getNumber();
+			List<String> state = TestDrawings.state(canvas);
+			List<String> recorded = states.putIfAbsent(number, state);
+
+			if(recorded == null) {
+				numbers.add(number);
+			}
+			else {
+				assertEquals(recorded, state, "version " + number + " reached again in step " + i);
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * Checks out every version still kept, in random order, and compares it with the drawing recorded for it.
+	 */
+	private static void checkoutAll(ShapeCanvas canvas, HashMap<Integer, List<String>> states, long seed) {
+
+		VersionTree tree = canvas.getVersionTree();
+		ArrayList<Integer> numbers = new ArrayList<>(states.keySet());
+		Collections.shuffle(numbers, new Random(seed));
+
+		for(int number : numbers) {
+
+			VersionTree.Version v = tree.find(number);
+
+			if(v != null) {
+				tree.checkout(v);
+				assertSame(v, tree.current());
+				assertEquals(states.get(number), TestDrawings.state(canvas), "checking out version " + number);
+			}
+		}
+	}
+
+	@Test
+	public void checkoutWithCheckpoints() {
+
+		ShapeCanvas canvas = canvas(true);
+		HashMap<Integer, List<String>> states = randomHistory(canvas, 3000, 8);
+
+		// deep enough for checkouts to start from checkpoints
+		assertTrue(canvas.getVersionTree().current().getDepth() > 2 * VersionTree.CHECKPOINT_INTERVAL);
+		checkoutAll(canvas, states, 9);
+	}
+
+	@Test
+	public void checkoutWithoutCheckpoints() {
+
+		ShapeCanvas canvas = canvas(false);
+		HashMap<Integer, List<String>> states = randomHistory(canvas, 1500, 10);
+
+		checkoutAll(canvas, states, 11);
+	}
+
+	@Test
+	public void editAfterUndoKeepsBranch() {
+
+		ShapeCanvas canvas = canvas(true);
+		VersionTree tree = canvas.getVersionTree();
+		Random r = new Random(12);
+
+		TestDrawings.randomEdit(canvas, r);
+		VersionTree.Version first = tree.current();
+		List<String> drawn = TestDrawings.state(canvas);
+
+		canvas.undo();
+		TestDrawings.randomEdit(canvas, r);
+
+		assertEquals(2, tree.root().getChildren().size());
+
+		tree.checkout(first);
+		assertEquals(drawn, TestDrawings.state(canvas));
+	}
+
+	@Test
+	public void withinMemoryBudget() {
+
+		ShapeCanvas canvas = canvas(true);
+		long budget = 64 << 10;
+		canvas.setHistoryLimits(EditHistory.DEFAULT_DEPTH, budget);
+
+		HashMap<Integer, List<String>> states = randomHistory(canvas, 2000, 13);
+		VersionTree tree = canvas.getVersionTree();
+
+		assertTrue(tree.memoryUsed() <= budget, tree.memoryUsed() + " bytes kept");
+		assertTrue(tree.size() < states.size(), "no versions were dropped");
+		checkoutAll(canvas, states, 14);
+	}
+
+	@Test
+	public void versionLimit() {
+
+		ShapeCanvas canvas = canvas(true);
+		canvas.setHistoryLimits(100, EditHistory.DEFAULT_BUDGET);
+
+		HashMap<Integer, List<String>> states = randomHistory(canvas, 1000, 15);
+
+		assertEquals(100, canvas.getVersionTree().size());
+		checkoutAll(canvas, states, 16);
+	}
+
+	@Test
+	public void checkpointsCounted() {
+
+		long[] used = new long[2];
+		long moved = 0;
+		long whole = 0;
+
+		for(int k = 0; k < 2; k++) {
+
+			// the same edits with and without the scene the checkpoints are kept in
+			ShapeCanvas canvas = canvas(k == 1);
+			canvas.replaceShapes(TestDrawings.randomShapes(new Random(17), 5000));
+			ArrayList<MyShape> drawn = canvas.getShapes();
+			moved = 0;
+			whole = 0;
+
+			for(MyShape s : drawn) {
+				whole += s.retainedSize();
+			}
+
+			for(int i = 0; i < VersionTree.CHECKPOINT_INTERVAL; i++) {
+
+				MyShape s = drawn.get(i * 7);
+				canvas.moveShape(s, 1, 1);
+				canvas.addEdit(new MoveEdit(canvas, s, 1, 1));
+				moved += s.retainedSize();
+			}
+			assertEquals(k == 1, canvas.getVersionTree().current().hasCheckpoint());
+			used[k] = canvas.getVersionTree().memoryUsed();
+		}
+
+		// the checkpoint is counted for the shapes moved since the tree started, not for the whole drawing
+		long checkpoint = used[1] - used[0];
+		assertTrue(checkpoint >= moved, checkpoint + " bytes counted for " + moved + " bytes of moved shapes");
+		assertTrue(checkpoint < whole / 2, checkpoint + " bytes counted for a drawing of " + whole + " bytes");
+	}
+
+	@Test
+	public void checkpointsWithinBudget() {
+
+		ShapeCanvas canvas = canvas(true);
+		canvas.replaceShapes(TestDrawings.randomShapes(new Random(18), 2000));
+		long budget = 256 << 10;
+		canvas.setHistoryLimits(EditHistory.DEFAULT_DEPTH, budget);
+
+		// edits all over a large drawing, so each checkpoint shares little with the one before
+		HashMap<Integer, List<String>> states = randomHistory(canvas, 3000, 19);
+		VersionTree tree = canvas.getVersionTree();
+
+		assertTrue(tree.memoryUsed() <= budget, tree.memoryUsed() + " bytes kept");
+		checkoutAll(canvas, states, 20);
+	}
+
+	@Test
+	public void switchingStartsOver() {
+
+		ShapeCanvas canvas = new ShapeCanvas(800, 600);
+		Random r = new Random(21);
+
+		// the linear history is the default
+		assertNull(canvas.getVersionTree());
+
+		TestDrawings.randomEdit(canvas, r);
+		List<String> drawn = TestDrawings.state(canvas);
+
+		canvas.setBranchingHistory(true);
+		canvas.undo();
+
+		assertEquals(1, canvas.getVersionTree().size());
+		assertEquals(drawn, TestDrawings.state(canvas));
+
+		TestDrawings.randomEdit(canvas, r);
+		drawn = TestDrawings.state(canvas);
+
+		canvas.setBranchingHistory(false);
+		canvas.undo();
+
+		assertEquals(drawn, TestDrawings.state(canvas));
+	}
+
+	@Test
+	public void editWithoutShape() {
+
+		ShapeCanvas canvas = canvas(true);
+
+		assertThrows(IllegalArgumentException.class, () -> canvas.addEdit(new CopyEdit(canvas, null)));
+	}
+}